@@ -19,21 +19,67 @@ import android.database.sqlite.SQLiteDatabase;
 import com.cloudant.sync.sqlite.ContentValues;
 import com.cloudant.sync.sqlite.Cursor;
 import com.cloudant.sync.sqlite.SQLDatabase;
+import com.cloudant.sync.sqlite.SQLStatement;
+import com.cloudant.sync.sqlite.StatementCache;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 
 import java.sql.SQLException;
+import java.util.Stack;
 
 public class AndroidSQLite extends SQLDatabase {
 
     android.database.sqlite.SQLiteDatabase database = null;
 
+    /**
+     * Compiled statements for database, guarded by the cache itself.
+     */
+    private final StatementCache<AndroidSQLiteStatement> statements =
+            new StatementCache<AndroidSQLiteStatement>(StatementCache.DEFAULT_SIZE) {
+        @Override
+        protected AndroidSQLiteStatement compile(String sql) throws SQLException {
+            try {
+                return new AndroidSQLiteStatement(database.compileStatement(sql));
+            } catch (android.database.SQLException e) {
+                throw new SQLException(e);
+            }
+        }
+
+        @Override
+        protected void dispose(AndroidSQLiteStatement statement) {
+            statement.close();
+        }
+    };
+
+    /**
+     * Whether each active transaction has been marked successful, innermost last.
+     * The framework doesn't expose whether a transaction was committed, so the
+     * nested transactions are tracked here to tell.
+     */
+    private final Stack<Boolean> transactionStack = new Stack<Boolean>();
+
+    /**
+     * Whether no nested transaction of the current outermost transaction has
+     * been ended without being marked successful.
+     */
+    private boolean transactionNestedSetSuccess = false;
+
+    private boolean lastTransactionCommitted = false;
 
     public static AndroidSQLite createAndroidSQLite(String path) {
         SQLiteDatabase db = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.CREATE_IF_NECESSARY);
         return new AndroidSQLite(db);
     }
 
+    /**
+     * Opens a read-only handle on an existing database, for concurrent reads
+     * while another handle writes in WAL mode.
+     */
+    public static AndroidSQLite openAndroidSQLiteReadOnly(String path) {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY);
+        return new AndroidSQLite(db);
+    }
+
     public AndroidSQLite(final android.database.sqlite.SQLiteDatabase database) {
         this.database = database;
 
@@ -51,6 +97,9 @@ public class AndroidSQLite extends SQLDatabase {
 
     @Override
     public void close() {
+        synchronized (statements) {
+            statements.clear();
+        }
         this.database.close();
     }
 
@@ -62,19 +111,53 @@ public class AndroidSQLite extends SQLDatabase {
         return this.database.isOpen();
     }
 
+    @Override
+    public boolean enableWriteAheadLogging() {
+        // execSQL rejects PRAGMAs which return rows, so use the framework method
+        return this.database.enableWriteAheadLogging();
+    }
+
     @Override
     public void beginTransaction() {
         this.database.beginTransaction();
+        if (transactionStack.isEmpty()) {
+            transactionNestedSetSuccess = true;
+        }
+        transactionStack.push(false);
     }
 
     @Override
     public void endTransaction() {
+        boolean outermost = transactionStack.size() == 1;
+        if (!transactionStack.isEmpty() && !transactionStack.pop()) {
+            transactionNestedSetSuccess = false;
+        }
+        if (outermost) {
+            lastTransactionCommitted = false;
+        }
+        // the framework commits iff every nested transaction was marked
+        // successful, and throws if the commit fails
         this.database.endTransaction();
+        if (outermost) {
+            lastTransactionCommitted = transactionNestedSetSuccess;
+        }
     }
 
     @Override
     public void setTransactionSuccessful() {
         this.database.setTransactionSuccessful();
+        transactionStack.pop();
+        transactionStack.push(true);
+    }
+
+    @Override
+    public boolean isTransactionSetSuccessful() {
+        return !transactionStack.isEmpty() && transactionNestedSetSuccess;
+    }
+
+    @Override
+    public boolean isLastTransactionCommitted() {
+        return lastTransactionCommitted;
     }
 
     @Override
@@ -91,6 +174,15 @@ public class AndroidSQLite extends SQLDatabase {
         this.database.execSQL(sql, bindArgs);
     }
 
+    @Override
+    public SQLStatement compileStatement(String sql) throws SQLException {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(sql.trim()),
+                "Input SQL can not be empty String.");
+        synchronized (statements) {
+            return statements.get(sql);
+        }
+    }
+
     @Override
     public int getVersion() {
         return this.database.getVersion();
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.sqlite.android;
+
+import android.database.sqlite.SQLiteStatement;
+
+import com.cloudant.sync.sqlite.SQLStatement;
+
+import java.sql.SQLException;
+
+/**
+ * Compiled statement for {@link AndroidSQLite}, kept in its statement cache.
+ *
+ * An Android database can be used from more than one thread, so binding the
+ * arguments and executing the statement are synchronized.
+ */
+class AndroidSQLiteStatement implements SQLStatement {
+
+    private final SQLiteStatement statement;
+
+    AndroidSQLiteStatement(SQLiteStatement statement) {
+        this.statement = statement;
+    }
+
+    @Override
+    public synchronized long executeInsert(Object[] bindArgs) throws SQLException {
+        try {
+            bindArguments(bindArgs);
+            return statement.executeInsert();
+        } catch (android.database.SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            statement.clearBindings();
+        }
+    }
+
+    @Override
+    public synchronized int executeUpdateDelete(Object[] bindArgs) throws SQLException {
+        try {
+            bindArguments(bindArgs);
+            return statement.executeUpdateDelete();
+        } catch (android.database.SQLException e) {
+            throw new SQLException(e);
+        } finally {
+            statement.clearBindings();
+        }
+    }
+
+    private void bindArguments(Object[] bindArgs) {
+        if (bindArgs == null) {
+            return;
+        }
+        for (int i = 0; i < bindArgs.length; i++) {
+            Object arg = bindArgs[i];
+            if (arg == null) {
+                statement.bindNull(i + 1);
+            } else if (arg instanceof byte[]) {
+                statement.bindBlob(i + 1, (byte[]) arg);
+            } else if (arg instanceof Boolean) {
+                statement.bindLong(i + 1, (Boolean) arg ? 1 : 0);
+            } else if (arg instanceof Double || arg instanceof Float) {
+                statement.bindDouble(i + 1, ((Number) arg).doubleValue());
+            } else if (arg instanceof Number) {
+                statement.bindLong(i + 1, ((Number) arg).longValue());
+            } else {
+                statement.bindString(i + 1, arg.toString());
+            }
+        }
+    }
+
+    void close() {
+        statement.close();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.datastore;
+
+import com.cloudant.sync.datastore.encryption.KeyProvider;
+import com.cloudant.sync.datastore.encryption.NullKeyProvider;
+import com.cloudant.sync.datastore.encryption.SimpleKeyProvider;
+import com.cloudant.sync.util.BenchmarkUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preparing attachments with {@link AttachmentManager}, with and without encryption, and
+ * adding them to the datastore with a new document revision.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AttachmentBenchmark {
+
+    @Param({"1024", "1048576"})
+    public int attachmentSize;
+
+    @Param({"false", "true"})
+    public boolean encrypted;
+
+    private File datastoreDir;
+    private File attachmentsDir;
+    private BasicDatastore datastore;
+    private AttachmentStreamFactory attachmentStreamFactory;
+    private byte[] data;
+    private int created;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        datastoreDir = BenchmarkUtils.createTempDir("AttachmentBenchmark");
+        attachmentsDir = new File(datastoreDir, "prepared");
+        attachmentsDir.mkdir();
+        // SQLCipher isn't available on Java SE, so only the attachment files can be encrypted
+        datastore = (BasicDatastore) new DatastoreManager(datastoreDir)
+                .openDatastore("benchmark");
+        KeyProvider keyProvider = encrypted
+                ? new SimpleKeyProvider(BenchmarkUtils.randomBytes(32))
+                : new NullKeyProvider();
+        attachmentStreamFactory = new AttachmentStreamFactory(keyProvider);
+        data = BenchmarkUtils.randomBytes(attachmentSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        datastore.close();
+        BenchmarkUtils.deleteTempDir(datastoreDir);
+    }
+
+    @Benchmark
+    public PreparedAttachment prepareAttachment() throws Exception {
+        PreparedAttachment prepared = AttachmentManager.prepareAttachment(
+                attachmentsDir.getAbsolutePath(), attachmentStreamFactory, newAttachment());
+        prepared.tempFile.delete();
+        return prepared;
+    }
+
+    @Benchmark
+    public BasicDocumentRevision createWithAttachment() throws Exception {
+        MutableDocumentRevision rev = new MutableDocumentRevision();
+        rev.docId = "attachment-" + created++;
+        rev.body = DocumentBodyFactory.EMPTY;
+        rev.attachments = new HashMap<String, Attachment>();
+        rev.attachments.put("data", newAttachment());
+        return datastore.createDocumentFromRevision(rev);
+    }
+
+    private Attachment newAttachment() {
+        return new UnsavedStreamAttachment(new ByteArrayInputStream(data), "data",
+                "application/octet-stream");
+    }
+}
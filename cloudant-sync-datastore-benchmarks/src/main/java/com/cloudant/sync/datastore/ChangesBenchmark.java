@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.datastore;
+
+import com.cloudant.sync.util.BenchmarkUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the whole changes feed of a datastore, either as one {@link Changes} list or
+ * through a {@link ChangesIterator}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ChangesBenchmark {
+
+    @Param({"10000"})
+    public int documentCount;
+
+    private File datastoreDir;
+    private BasicDatastore datastore;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        datastoreDir = BenchmarkUtils.createTempDir("ChangesBenchmark");
+        datastore = (BasicDatastore) new DatastoreManager(datastoreDir)
+                .openDatastore("benchmark");
+        BenchmarkUtils.createDocuments(datastore, documentCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        datastore.close();
+        BenchmarkUtils.deleteTempDir(datastoreDir);
+    }
+
+    @Benchmark
+    public Changes changes() {
+        return datastore.changes(0, documentCount);
+    }
+
+    @Benchmark
+    public void changesIterator(Blackhole blackhole) {
+        ChangesIterator changes = datastore.changesIterator(0);
+        while (changes.hasNext()) {
+            blackhole.consume(changes.next());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.datastore;
+
+import com.cloudant.sync.util.BenchmarkUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single document create, read, update and delete through {@link BasicDatastore}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DatastoreCrudBenchmark {
+
+    @Param({"1000"})
+    public int documentCount;
+
+    private File datastoreDir;
+    private BasicDatastore datastore;
+    private List<BasicDocumentRevision> revisions;
+    private Random random;
+    private int created;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        datastoreDir = BenchmarkUtils.createTempDir("DatastoreCrudBenchmark");
+        datastore = (BasicDatastore) new DatastoreManager(datastoreDir)
+                .openDatastore("benchmark");
+        revisions = BenchmarkUtils.createDocuments(datastore, documentCount);
+        random = new Random(BenchmarkUtils.SEED);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        datastore.close();
+        BenchmarkUtils.deleteTempDir(datastoreDir);
+    }
+
+    @Benchmark
+    public BasicDocumentRevision create() throws Exception {
+        MutableDocumentRevision rev = new MutableDocumentRevision();
+        rev.docId = "created-" + created;
+        rev.body = DocumentBodyFactory.create(BenchmarkUtils.documentBody(random, created++));
+        return datastore.createDocumentFromRevision(rev);
+    }
+
+    @Benchmark
+    public BasicDocumentRevision get() throws Exception {
+        return datastore.getDocument("doc-" + random.nextInt(documentCount));
+    }
+
+    @Benchmark
+    public BasicDocumentRevision update() throws Exception {
+        int i = random.nextInt(documentCount);
+        MutableDocumentRevision rev = revisions.get(i).mutableCopy();
+        rev.body = DocumentBodyFactory.create(BenchmarkUtils.documentBody(random, i));
+        BasicDocumentRevision updated = datastore.updateDocumentFromRevision(rev);
+        revisions.set(i, updated);
+        return updated;
+    }
+
+    @Benchmark
+    public BasicDocumentRevision createThenDelete() throws Exception {
+        return datastore.deleteDocumentFromRevision(create());
+    }
+}
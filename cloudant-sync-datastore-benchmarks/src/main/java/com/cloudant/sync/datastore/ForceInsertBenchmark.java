@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.datastore;
+
+import com.cloudant.sync.util.BenchmarkUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inserting batches of replicated revisions with {@link BasicDatastore#forceInsert(List)},
+ * as pull replication does. Each batch inserts new documents with a three revision history.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ForceInsertBenchmark {
+
+    @Param({"10", "100"})
+    public int batchSize;
+
+    private File datastoreDir;
+    private BasicDatastore datastore;
+    private Random random;
+    private int inserted;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        datastoreDir = BenchmarkUtils.createTempDir("ForceInsertBenchmark");
+        datastore = (BasicDatastore) new DatastoreManager(datastoreDir)
+                .openDatastore("benchmark");
+        random = new Random(BenchmarkUtils.SEED);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        datastore.close();
+        BenchmarkUtils.deleteTempDir(datastoreDir);
+    }
+
+    @Benchmark
+    public void forceInsert() throws Exception {
+        List<ForceInsertItem> items = new ArrayList<ForceInsertItem>(batchSize);
+        for (int i = 0; i < batchSize; i++, inserted++) {
+            List<String> history = new ArrayList<String>();
+            for (int generation = 1; generation <= 3; generation++) {
+                history.add(String.format("%d-%032x", generation, inserted));
+            }
+            BasicDocumentRevision rev = new DocumentRevisionBuilder()
+                    .setDocId("inserted-" + inserted)
+                    .setRevId(history.get(history.size() - 1))
+                    .setDeleted(false)
+                    .setBody(DocumentBodyFactory.create(
+                            BenchmarkUtils.documentBody(random, inserted)))
+                    .build();
+            items.add(new ForceInsertItem(rev, history, null, null, false));
+        }
+        datastore.forceInsert(items);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.datastore;
+
+import com.cloudant.sync.util.BenchmarkUtils;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BasicDatastore#revsDiff(Multimap)} for a batch of documents where half of the
+ * revisions exist locally, as seen when pulling a changes feed batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RevsDiffBenchmark {
+
+    @Param({"5000"})
+    public int documentCount;
+
+    @Param({"100", "1000"})
+    public int batchSize;
+
+    private File datastoreDir;
+    private BasicDatastore datastore;
+    private Multimap<String, String> revisions;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        datastoreDir = BenchmarkUtils.createTempDir("RevsDiffBenchmark");
+        datastore = (BasicDatastore) new DatastoreManager(datastoreDir)
+                .openDatastore("benchmark");
+        List<BasicDocumentRevision> created = BenchmarkUtils.createDocuments(datastore,
+                documentCount);
+
+        revisions = HashMultimap.create();
+        for (int i = 0; i < batchSize; i++) {
+            BasicDocumentRevision rev = created.get(i * (documentCount / batchSize));
+            if (i % 2 == 0) {
+                revisions.put(rev.getId(), rev.getRevision());
+            } else {
+                revisions.put(rev.getId(), String.format("2-%032x", i));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        datastore.close();
+        BenchmarkUtils.deleteTempDir(datastoreDir);
+    }
+
+    @Benchmark
+    public Map<String, Collection<String>> revsDiff() {
+        return datastore.revsDiff(revisions);
+    }
+}
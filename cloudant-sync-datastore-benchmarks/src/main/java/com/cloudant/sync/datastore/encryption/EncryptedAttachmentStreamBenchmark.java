@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.datastore.encryption;
+
+import com.cloudant.sync.util.BenchmarkUtils;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link EncryptedAttachmentOutputStream} and
+ * {@link EncryptedAttachmentInputStream} in memory, without any disk IO.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class EncryptedAttachmentStreamBenchmark {
+
+    @Param({"1024", "1048576"})
+    public int attachmentSize;
+
+    private byte[] key;
+    private byte[] iv;
+    private byte[] plainText;
+    private byte[] cipherText;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        key = BenchmarkUtils.randomBytes(32);
+        iv = BenchmarkUtils.randomBytes(16);
+        plainText = BenchmarkUtils.randomBytes(attachmentSize);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        OutputStream out = new EncryptedAttachmentOutputStream(encrypted, key, iv);
+        out.write(plainText);
+        out.close();
+        cipherText = encrypted.toByteArray();
+    }
+
+    @Benchmark
+    public void encrypt() throws Exception {
+        OutputStream out = new EncryptedAttachmentOutputStream(new NullOutputStream(), key, iv);
+        out.write(plainText);
+        out.close();
+    }
+
+    @Benchmark
+    public long decrypt() throws Exception {
+        return IOUtils.copyLarge(
+                new EncryptedAttachmentInputStream(new ByteArrayInputStream(cipherText), key),
+                new NullOutputStream());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.query;
+
+import com.cloudant.sync.datastore.Datastore;
+import com.cloudant.sync.datastore.DatastoreManager;
+import com.cloudant.sync.sqlite.ContentValues;
+import com.cloudant.sync.util.BenchmarkUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building an index over all the documents in a datastore with
+ * {@link IndexUpdater#updateIndex(String, List, com.cloudant.sync.sqlite.SQLDatabase,
+ * Datastore, java.util.concurrent.ExecutorService)}. The index is emptied before each
+ * invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class IndexUpdaterBenchmark {
+
+    private static final String INDEX_NAME = "benchmark";
+
+    @Param({"10000"})
+    public int documentCount;
+
+    private File datastoreDir;
+    private Datastore datastore;
+    private IndexManager indexManager;
+    private List<String> fieldNames;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        datastoreDir = BenchmarkUtils.createTempDir("IndexUpdaterBenchmark");
+        datastore = new DatastoreManager(datastoreDir).openDatastore("benchmark");
+        BenchmarkUtils.createDocuments(datastore, documentCount);
+        indexManager = new IndexManager(datastore);
+        indexManager.ensureIndexed(Arrays.<Object>asList("name", "age", "pets"), INDEX_NAME);
+        Map<String, Object> index = (Map<String, Object>) indexManager.listIndexes()
+                .get(INDEX_NAME);
+        fieldNames = (List<String>) index.get("fields");
+    }
+
+    @Setup(Level.Invocation)
+    public void emptyIndex() throws Exception {
+        indexManager.getQueue().submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                indexManager.getDatabase().delete(IndexManager.tableNameForIndex(INDEX_NAME),
+                        null, null);
+                ContentValues values = new ContentValues();
+                values.put("last_sequence", 0);
+                indexManager.getDatabase().update(IndexManager.INDEX_METADATA_TABLE_NAME, values,
+                        "index_name = ?", new String[]{INDEX_NAME});
+                return null;
+            }
+        }).get();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        indexManager.close();
+        datastore.close();
+        BenchmarkUtils.deleteTempDir(datastoreDir);
+    }
+
+    @Benchmark
+    public boolean updateIndex() {
+        return IndexUpdater.updateIndex(INDEX_NAME, fieldNames, indexManager.getDatabase(),
+                datastore, indexManager.getQueue());
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.query;
+
+import com.cloudant.sync.datastore.Datastore;
+import com.cloudant.sync.datastore.DatastoreManager;
+import com.cloudant.sync.datastore.DocumentRevision;
+import com.cloudant.sync.util.BenchmarkUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link QueryExecutor#find} against up-to-date indexes. The covered benchmarks only ask
+ * for fields which are in the index, the others also need every matching document body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class QueryExecutorBenchmark {
+
+    @Param({"10000"})
+    public int documentCount;
+
+    private File datastoreDir;
+    private Datastore datastore;
+    private IndexManager indexManager;
+    private QueryExecutor executor;
+
+    private Map<String, Object> query;
+    private Map<String, Object> unindexedQuery;
+    private List<String> coveredFields;
+    private List<String> uncoveredFields;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        datastoreDir = BenchmarkUtils.createTempDir("QueryExecutorBenchmark");
+        datastore = new DatastoreManager(datastoreDir).openDatastore("benchmark");
+        BenchmarkUtils.createDocuments(datastore, documentCount);
+        indexManager = new IndexManager(datastore);
+        indexManager.ensureIndexed(Arrays.<Object>asList("name", "age"), "basic");
+        executor = new QueryExecutor(indexManager.getDatabase(), datastore,
+                indexManager.getQueue());
+
+        // { "name": "mike", "age": { "$gt": 50 } }
+        Map<String, Object> gt50 = new HashMap<String, Object>();
+        gt50.put("$gt", 50);
+        query = new HashMap<String, Object>();
+        query.put("name", "mike");
+        query.put("age", gt50);
+
+        // { "name": "mike", "comment": { "$exists": true } }
+        Map<String, Object> exists = new HashMap<String, Object>();
+        exists.put("$exists", true);
+        unindexedQuery = new HashMap<String, Object>();
+        unindexedQuery.put("name", "mike");
+        unindexedQuery.put("comment", exists);
+
+        coveredFields = Arrays.asList("name", "age");
+        uncoveredFields = Arrays.asList("name", "comment");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        indexManager.close();
+        datastore.close();
+        BenchmarkUtils.deleteTempDir(datastoreDir);
+    }
+
+    @Benchmark
+    public void findCoveredFields(Blackhole blackhole) {
+        consume(blackhole, query, coveredFields);
+    }
+
+    @Benchmark
+    public void findUncoveredFields(Blackhole blackhole) {
+        consume(blackhole, query, uncoveredFields);
+    }
+
+    @Benchmark
+    public void findAllFields(Blackhole blackhole) {
+        consume(blackhole, query, null);
+    }
+
+    @Benchmark
+    public void findWithUnindexedField(Blackhole blackhole) {
+        consume(blackhole, unindexedQuery, null);
+    }
+
+    private void consume(Blackhole blackhole, Map<String, Object> selector, List<String> fields) {
+        QueryResult result = executor.find(selector, indexManager.listIndexes(), 0, 0, fields,
+                null);
+        for (DocumentRevision revision : result) {
+            blackhole.consume(revision);
+        }
+    }
+}
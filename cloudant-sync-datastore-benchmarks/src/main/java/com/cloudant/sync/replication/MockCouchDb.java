@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.replication;
+
+import com.cloudant.sync.util.BenchmarkUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>An in-process HTTP server implementing just enough of the CouchDB API for the
+ * replicator, so replication can be benchmarked without a network or a real server.</p>
+ *
+ * <p>The database serves a fixed set of {@code documentCount} documents, {@code doc-0} to
+ * {@code doc-<documentCount-1>}, each with a single revision and sequence number
+ * {@code index + 1}. Documents pushed to it are accepted and discarded, and every pushed
+ * revision is reported as missing, so repeated pushes always transfer every document.
+ * Only checkpoint documents are stored.</p>
+ */
+class MockCouchDb {
+
+    private static final String DB_NAME = "benchmark";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpServer server;
+    private final List<Map<String, Object>> documents;
+    private final Map<String, byte[]> localDocuments = new ConcurrentHashMap<String, byte[]>();
+
+    MockCouchDb(int documentCount) throws IOException {
+        Random random = new Random(BenchmarkUtils.SEED);
+        documents = new ArrayList<Map<String, Object>>(documentCount);
+        for (int i = 0; i < documentCount; i++) {
+            String revHash = String.format("%032x", i);
+            Map<String, Object> revisions = new HashMap<String, Object>();
+            revisions.put("start", 1);
+            revisions.put("ids", Collections.singletonList(revHash));
+
+            Map<String, Object> document = BenchmarkUtils.documentBody(random, i);
+            document.put("_id", "doc-" + i);
+            document.put("_rev", "1-" + revHash);
+            document.put("_revisions", revisions);
+            documents.add(document);
+        }
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/" + DB_NAME, new DatabaseHandler());
+        server.setExecutor(Executors.newCachedThreadPool());
+    }
+
+    void start() {
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * Forget any checkpoints, so the next replication starts from the beginning.
+     */
+    void reset() {
+        localDocuments.clear();
+    }
+
+    URI getUri() {
+        return URI.create(String.format("http://127.0.0.1:%d/%s",
+                server.getAddress().getPort(), DB_NAME));
+    }
+
+    private class DatabaseHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String path = URLDecoder.decode(exchange.getRequestURI().getRawPath(), "UTF-8")
+                        .substring(DB_NAME.length() + 1);
+                String method = exchange.getRequestMethod();
+                Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+                if (path.isEmpty() || path.equals("/")) {
+                    if (method.equals("POST")) {
+                        putLocalDocument(exchange, null);
+                    } else {
+                        databaseInfo(exchange);
+                    }
+                } else if (path.startsWith("/_local/")) {
+                    String id = path.substring(1);
+                    if (method.equals("PUT")) {
+                        putLocalDocument(exchange, id);
+                    } else {
+                        getLocalDocument(exchange, id);
+                    }
+                } else if (path.equals("/_changes")) {
+                    changes(exchange, query);
+                } else if (path.equals("/_revs_diff")) {
+                    revsDiff(exchange);
+                } else if (path.equals("/_bulk_docs")) {
+                    consume(exchange);
+                    respond(exchange, 201, Collections.emptyList());
+                } else if (path.startsWith("/_")) {
+                    // _bulk_get isn't supported, so pull fetches documents one at a time
+                    notFound(exchange);
+                } else if (method.equals("GET")) {
+                    getDocument(exchange, path.substring(1));
+                } else {
+                    // pushed multipart documents
+                    consume(exchange);
+                    respond(exchange, 201, ok(path.substring(1)));
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void databaseInfo(HttpExchange exchange) throws IOException {
+            Map<String, Object> info = new HashMap<String, Object>();
+            info.put("db_name", DB_NAME);
+            info.put("doc_count", documents.size());
+            info.put("doc_del_count", 0);
+            info.put("update_seq", documents.size());
+            respond(exchange, 200, info);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void putLocalDocument(HttpExchange exchange, String id) throws IOException {
+            Map<String, Object> document = mapper.readValue(exchange.getRequestBody(), Map.class);
+            if (id == null) {
+                id = (String) document.get("_id");
+            }
+            document.put("_id", id);
+            document.put("_rev", "0-1");
+            localDocuments.put(id, mapper.writeValueAsBytes(document));
+            respond(exchange, 201, ok(id));
+        }
+
+        private void getLocalDocument(HttpExchange exchange, String id) throws IOException {
+            byte[] document = localDocuments.get(id);
+            if (document == null) {
+                notFound(exchange);
+            } else {
+                respond(exchange, 200, document);
+            }
+        }
+
+        private void changes(HttpExchange exchange, Map<String, String> query) throws IOException {
+            int since = query.containsKey("since")
+                    ? Integer.parseInt(query.get("since").replace("\"", "")) : 0;
+            int limit = query.containsKey("limit")
+                    ? Integer.parseInt(query.get("limit")) : documents.size();
+            int end = Math.min(documents.size(), since + limit);
+
+            List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+            for (int i = since; i < end; i++) {
+                Map<String, Object> document = documents.get(i);
+                Map<String, Object> row = new HashMap<String, Object>();
+                row.put("seq", i + 1);
+                row.put("id", document.get("_id"));
+                row.put("changes", Collections.singletonList(
+                        Collections.singletonMap("rev", document.get("_rev"))));
+                results.add(row);
+            }
+
+            Map<String, Object> changes = new HashMap<String, Object>();
+            changes.put("results", results);
+            changes.put("last_seq", Math.max(since, end));
+            respond(exchange, 200, changes);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void revsDiff(HttpExchange exchange) throws IOException {
+            Map<String, List<String>> revisions = mapper.readValue(exchange.getRequestBody(),
+                    Map.class);
+            Map<String, Object> missing = new HashMap<String, Object>();
+            for (Map.Entry<String, List<String>> entry : revisions.entrySet()) {
+                missing.put(entry.getKey(), Collections.singletonMap("missing", entry.getValue()));
+            }
+            respond(exchange, 200, missing);
+        }
+
+        private void getDocument(HttpExchange exchange, String id) throws IOException {
+            int index = id.startsWith("doc-") ? Integer.parseInt(id.substring(4)) : -1;
+            if (index < 0 || index >= documents.size()) {
+                notFound(exchange);
+            } else {
+                // only ever called with open_revs, which returns a list of revisions
+                respond(exchange, 200, Collections.singletonList(
+                        Collections.singletonMap("ok", documents.get(index))));
+            }
+        }
+
+        private Map<String, Object> ok(String id) {
+            Map<String, Object> response = new HashMap<String, Object>();
+            response.put("ok", true);
+            response.put("id", id);
+            response.put("rev", "0-1");
+            return response;
+        }
+
+        private void notFound(HttpExchange exchange) throws IOException {
+            consume(exchange);
+            Map<String, Object> error = new HashMap<String, Object>();
+            error.put("error", "not_found");
+            error.put("reason", "missing");
+            respond(exchange, 404, error);
+        }
+
+        private void consume(HttpExchange exchange) throws IOException {
+            InputStream in = exchange.getRequestBody();
+            IOUtils.skip(in, Long.MAX_VALUE);
+            in.close();
+        }
+
+        private void respond(HttpExchange exchange, int status, Object body) throws IOException {
+            respond(exchange, status, mapper.writeValueAsBytes(body));
+        }
+
+        private void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(status, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+
+        private Map<String, String> parseQuery(String query) throws IOException {
+            Map<String, String> parameters = new HashMap<String, String>();
+            if (query != null) {
+                for (String parameter : query.split("&")) {
+                    int equals = parameter.indexOf('=');
+                    if (equals > 0) {
+                        parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                                URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+                    }
+                }
+            }
+            return parameters;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.replication;
+
+import com.cloudant.sync.datastore.Datastore;
+import com.cloudant.sync.datastore.DatastoreManager;
+import com.cloudant.sync.util.BenchmarkUtils;
+import com.google.common.eventbus.Subscribe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full push and pull replications between a local datastore and a {@link MockCouchDb}.
+ * Every invocation replicates all the documents: the push benchmark forgets the remote
+ * checkpoint first, and the pull benchmark pulls into a new, empty datastore.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReplicationBenchmark {
+
+    @Param({"1000"})
+    public int documentCount;
+
+    private File datastoreDir;
+    private DatastoreManager manager;
+    private Datastore pushSource;
+    private Datastore pullTarget;
+    private MockCouchDb remote;
+    private int pulls;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        datastoreDir = BenchmarkUtils.createTempDir("ReplicationBenchmark");
+        manager = new DatastoreManager(datastoreDir);
+        pushSource = manager.openDatastore("push");
+        BenchmarkUtils.createDocuments(pushSource, documentCount);
+        remote = new MockCouchDb(documentCount);
+        remote.start();
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() throws Exception {
+        remote.reset();
+        if (pullTarget != null) {
+            pullTarget.close();
+            manager.deleteDatastore("pull" + pulls);
+        }
+        pullTarget = manager.openDatastore("pull" + ++pulls);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        remote.stop();
+        pushSource.close();
+        pullTarget.close();
+        BenchmarkUtils.deleteTempDir(datastoreDir);
+    }
+
+    @Benchmark
+    public int push() throws Exception {
+        return replicate(ReplicatorBuilder.push().from(pushSource).to(remote.getUri()).build());
+    }
+
+    @Benchmark
+    public int pull() throws Exception {
+        return replicate(ReplicatorBuilder.pull().from(remote.getUri()).to(pullTarget).build());
+    }
+
+    // runs the replication on this thread, rather than the replicator's own thread
+    private int replicate(Replicator replicator) throws Exception {
+        ReplicationStrategy strategy = ((BasicReplicator) replicator).strategy;
+        StrategyListener listener = new StrategyListener();
+        strategy.getEventBus().register(listener);
+        strategy.run();
+        if (listener.error != null) {
+            throw new IllegalStateException("Replication failed", listener.error);
+        }
+        return strategy.getDocumentCounter();
+    }
+
+    public static class StrategyListener {
+
+        private Throwable error;
+
+        @Subscribe
+        public void error(ReplicationStrategyErrored errored) {
+            error = errored.errorInfo.getException();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.util;
+
+import com.cloudant.sync.datastore.BasicDocumentRevision;
+import com.cloudant.sync.datastore.Datastore;
+import com.cloudant.sync.datastore.DocumentBodyFactory;
+import com.cloudant.sync.datastore.DocumentException;
+import com.cloudant.sync.datastore.MutableDocumentRevision;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Fixtures shared by the benchmarks. Document contents are generated from a fixed seed so
+ * that each run works on the same data.
+ */
+public class BenchmarkUtils {
+
+    public static final long SEED = 20160301L;
+
+    private static final String[] NAMES = {"mike", "fred", "john", "bill", "alice", "sue"};
+    private static final String[] PETS = {"cat", "dog", "fish", "snake", "parrot"};
+
+    public static File createTempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Could not create temporary directory " + dir);
+        }
+        return dir;
+    }
+
+    public static void deleteTempDir(File dir) {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    /**
+     * Returns a body for the {@code i}th benchmark document, with string, number and array
+     * fields for indexing and querying.
+     */
+    public static Map<String, Object> documentBody(Random random, int i) {
+        Map<String, Object> body = new HashMap<String, Object>();
+        body.put("name", NAMES[random.nextInt(NAMES.length)]);
+        body.put("age", random.nextInt(100));
+        body.put("index", i);
+        List<String> pets = new ArrayList<String>();
+        for (int j = random.nextInt(3); j >= 0; j--) {
+            pets.add(PETS[random.nextInt(PETS.length)]);
+        }
+        body.put("pets", pets);
+        body.put("comment", "Document number " + i + " created for benchmarking the datastore");
+        return body;
+    }
+
+    /**
+     * Creates {@code count} documents with ids {@code doc-0} to {@code doc-<count-1>}.
+     */
+    public static List<BasicDocumentRevision> createDocuments(Datastore datastore, int count)
+            throws DocumentException {
+        Random random = new Random(SEED);
+        List<BasicDocumentRevision> revisions = new ArrayList<BasicDocumentRevision>(count);
+        for (int i = 0; i < count; i++) {
+            MutableDocumentRevision rev = new MutableDocumentRevision();
+            rev.docId = "doc-" + i;
+            rev.body = DocumentBodyFactory.create(documentBody(random, i));
+            revisions.add(datastore.createDocumentFromRevision(rev));
+        }
+        return revisions;
+    }
+
+    public static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(SEED).nextBytes(bytes);
+        return bytes;
+    }
+}
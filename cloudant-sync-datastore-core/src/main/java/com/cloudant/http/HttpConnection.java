@@ -16,7 +16,6 @@ import com.google.common.io.Resources;
 
 import org.apache.commons.io.IOUtils;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -77,7 +76,7 @@ public class HttpConnection  {
     private HttpURLConnection connection;
 
     // set by the various setRequestBody() methods
-    private InputStreamGenerator input;
+    private RequestBodyWriter input;
     private long inputLength;
 
     public final HashMap<String, String> requestProperties;
@@ -123,10 +122,10 @@ public class HttpConnection  {
             final byte[] bytes = input.getBytes("UTF-8");
             // input is in bytes, not characters
             this.inputLength = bytes.length;
-            this.input = new InputStreamGenerator() {
+            this.input = new RequestBodyWriter() {
                 @Override
-                public InputStream getInputStream() {
-                    return new ByteArrayInputStream(bytes);
+                public void writeTo(OutputStream os) throws IOException {
+                    os.write(bytes);
                 }
             };
         } catch (UnsupportedEncodingException e) {
@@ -142,10 +141,10 @@ public class HttpConnection  {
      * @return an {@link HttpConnection} for method chaining 
      */
     public HttpConnection setRequestBody(final byte[] input) {
-        this.input = new InputStreamGenerator() {
+        this.input = new RequestBodyWriter() {
             @Override
-            public InputStream getInputStream() {
-                return new ByteArrayInputStream(input);
+            public void writeTo(OutputStream os) throws IOException {
+                os.write(input);
             }
         };
         this.inputLength = input.length;
@@ -158,10 +157,8 @@ public class HttpConnection  {
      * @return an {@link HttpConnection} for method chaining 
      */
     public HttpConnection setRequestBody(InputStreamGenerator input) {
-        this.input = input;
         // -1 signals inputLength unknown
-        this.inputLength = -1;
-        return this;
+        return setRequestBody(input, -1);
     }
 
     /**
@@ -170,12 +167,41 @@ public class HttpConnection  {
      * @param inputLength Length of request body data to be sent to the server, in bytes
      * @return an {@link HttpConnection} for method chaining 
      */
-    public HttpConnection setRequestBody(InputStreamGenerator input, long inputLength) {
-        this.input = input;
+    public HttpConnection setRequestBody(final InputStreamGenerator input, long inputLength) {
+        this.input = new RequestBodyWriter() {
+            @Override
+            public void writeTo(OutputStream os) throws IOException {
+                InputStream is = input.getInputStream();
+                try {
+                    IOUtils.copy(is, os);
+                } finally {
+                    IOUtils.closeQuietly(is);
+                }
+            }
+        };
         this.inputLength = inputLength;
         return this;
     }
 
+    /**
+     * <p>
+     * Set a writer for request body data to be sent to the server. The data is written
+     * directly to the connection using chunked transfer encoding, so it does not need
+     * to be held in memory.
+     * </p>
+     * <p>
+     * The writer is called again each time the request is retried.
+     * </p>
+     * @param input writer of request body data to be sent to the server
+     * @return an {@link HttpConnection} for method chaining
+     */
+    public HttpConnection setRequestBody(RequestBodyWriter input) {
+        this.input = input;
+        // -1 signals inputLength unknown
+        this.inputLength = -1;
+        return this;
+    }
+
     /**
      * <p>
      * Execute request without returning data from server.
@@ -241,15 +267,8 @@ public class HttpConnection  {
                     // requests could be 401 Unauthorized (eg cookie needs to be refreshed), etc.
                     connection.setRequestProperty("Expect", "100-continue");
 
-                    int bufSize = 1024;
-                    int nRead = 0;
-                    byte[] buf = new byte[bufSize];
-                    InputStream is = input.getInputStream();
                     OutputStream os = connection.getOutputStream();
-
-                    while ((nRead = is.read(buf)) >= 0) {
-                        os.write(buf, 0, nRead);
-                    }
+                    input.writeTo(os);
                     os.flush();
                     // we do not call os.close() - on some JVMs this incurs a delay of several seconds
                     // see http://stackoverflow.com/questions/19860436
@@ -388,4 +407,16 @@ public class HttpConnection  {
         InputStream getInputStream();
     }
 
+    /**
+     * Writes request body data to the connection's output stream.
+     */
+    public interface RequestBodyWriter
+    {
+        /**
+         * Writes the request body to {@code os}. Implementations should not close
+         * {@code os}.
+         */
+        void writeTo(OutputStream os) throws IOException;
+    }
+
 }
@@ -35,13 +35,14 @@ import org.apache.commons.io.IOUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.lang.reflect.Type;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -129,7 +130,7 @@ public class CouchClient  {
             }
             if (needsCouchException) {
                 try {
-                    Map<String, String> json = jsonHelper.fromJson(new InputStreamReader(errorStream),
+                    Map<String, String> json = jsonHelper.fromJson(errorStream,
                             Map.class);
                     CouchException ce = new CouchException(responseMessage, cause, responseCode);
                     ce.setError(json.get("error"));
@@ -225,9 +226,8 @@ public class CouchClient  {
     private <T> T executeToJsonObjectWithRetry(final HttpConnection connection,
                                                Class<T> c) throws CouchException {
         InputStream is = this.executeToInputStreamWithRetry(connection);
-        InputStreamReader isr = new InputStreamReader(is);
         try {
-            T json = new JSONHelper().fromJson(isr, c);
+            T json = jsonHelper.fromJson(is, c);
             return json;
         } finally {
             IOUtils.closeQuietly(is);
@@ -449,7 +449,7 @@ public class CouchClient  {
         Map<String, List<BulkGetRequest>> jsonRequest = new HashMap<String, List<BulkGetRequest>>();
         jsonRequest.put("docs", request);
         // build request
-        connection.setRequestBody(jsonHelper.toJson(jsonRequest));
+        connection.setRequestBody(jsonRequestBody(jsonRequest));
         // deserialise response
         BulkGetResponse response = executeToJsonObjectWithRetry(connection, BulkGetResponse.class);
 
@@ -499,7 +499,7 @@ public class CouchClient  {
                 try {
                     HttpConnection connection = Http.GET(doc);
                     is = executeToInputStreamWithRetry(connection);
-                    T returndoc = jsonHelper.fromJson(new InputStreamReader(is), type);
+                    T returndoc = jsonHelper.fromJson(is, type);
                     logger.fine("getDocument returning " + returndoc);
                     return returndoc;
                 } finally {
@@ -519,7 +519,7 @@ public class CouchClient  {
         InputStream is = null;
         try {
             is = this.getDocumentStream(id, rev);
-            T returndoc = jsonHelper.fromJson(new InputStreamReader(is), type);
+            T returndoc = jsonHelper.fromJson(is, type);
             logger.fine("getDocument returning " + returndoc);
             return returndoc;
         } finally {
@@ -559,7 +559,7 @@ public class CouchClient  {
         try {
             HttpConnection connection = Http.GET(findRevs);
             is = this.executeToInputStreamWithRetry(connection);
-            return jsonHelper.fromJson(new InputStreamReader(is), type);
+            return jsonHelper.fromJson(is, type);
         } finally {
             closeQuietly(is);
         }
@@ -603,12 +603,12 @@ public class CouchClient  {
 
     private InputStream bulkCreateDocsInputStream(List<?> objects) {
         Preconditions.checkNotNull(objects, "Object list must not be null.");
-        String newEditsVal = "\"new_edits\": false, ";
         URI uri = this.uriHelper.bulkDocsUri();
-        String payload = String.format("{%s%s%s}", newEditsVal, "\"docs\": ",
-                jsonHelper.toJson(objects));
+        final Map<String, Object> payload = new LinkedHashMap<String, Object>();
+        payload.put("new_edits", false);
+        payload.put("docs", objects);
         HttpConnection connection = Http.POST(uri, "application/json");
-        connection.setRequestBody(payload);
+        connection.setRequestBody(jsonRequestBody(payload));
         return this.executeToInputStreamWithRetry(connection);
     }
 
@@ -620,7 +620,7 @@ public class CouchClient  {
         InputStream is = null;
         try {
             is = bulkCreateDocsInputStream(objects);
-            return jsonHelper.fromJsonToList(new InputStreamReader(is), new TypeReference<List<Response>>() {});
+            return jsonHelper.fromJson(is, new TypeReference<List<Response>>() {});
         } finally {
             closeQuietly(is);
         }
@@ -646,31 +646,52 @@ public class CouchClient  {
      */
     public List<Response> bulkCreateSerializedDocs(List<String> serializedDocs) {
         Preconditions.checkNotNull(serializedDocs, "Serialized doc list must not be null.");
-        String payload = generateBulkSerializedDocsPayload(serializedDocs);
         URI uri = this.uriHelper.bulkDocsUri();
         InputStream is = null;
         HttpConnection connection = Http.POST(uri, "application/json");
-        connection.setRequestBody(payload);
+        connection.setRequestBody(bulkSerializedDocsRequestBody(serializedDocs));
         try {
             is = this.executeToInputStreamWithRetry(connection);
-            return jsonHelper.fromJsonToList(new InputStreamReader(is), new TypeReference<List<Response>>() {});
+            return jsonHelper.fromJson(is, new TypeReference<List<Response>>() {});
         }
         finally {
             closeQuietly(is);
         }
     }
 
-    private String generateBulkSerializedDocsPayload(List<String> serializedDocs) {
-        String newEditsVal = "\"new_edits\": false, ";
-        StringBuilder sb = new StringBuilder("[");
-        for(String doc : serializedDocs) {
-            if(sb.length() > 1) {
-                sb.append(", ");
+    /**
+     * Writes the _bulk_docs request straight to the connection, one document at a time,
+     * rather than building the whole payload in memory first.
+     */
+    private HttpConnection.RequestBodyWriter bulkSerializedDocsRequestBody(
+            final List<String> serializedDocs) {
+        return new HttpConnection.RequestBodyWriter() {
+            @Override
+            public void writeTo(OutputStream os) throws IOException {
+                os.write("{\"new_edits\": false, \"docs\": [".getBytes("UTF-8"));
+                boolean first = true;
+                for (String doc : serializedDocs) {
+                    if (!first) {
+                        os.write(", ".getBytes("UTF-8"));
+                    }
+                    os.write(doc.getBytes("UTF-8"));
+                    first = false;
+                }
+                os.write("]}".getBytes("UTF-8"));
             }
-            sb.append(doc);
-        }
-        sb.append("]");
-        return String.format("{%s%s%s}", newEditsVal, "\"docs\": ", sb.toString());
+        };
+    }
+
+    /**
+     * Writes {@code object} as JSON straight to the connection.
+     */
+    private HttpConnection.RequestBodyWriter jsonRequestBody(final Object object) {
+        return new HttpConnection.RequestBodyWriter() {
+            @Override
+            public void writeTo(OutputStream os) throws IOException {
+                jsonHelper.toJson(os, object);
+            }
+        };
     }
 
     /**
@@ -700,13 +721,12 @@ public class CouchClient  {
     public Map<String, MissingRevisions> revsDiff(Map<String, Set<String>> revisions) {
         Preconditions.checkNotNull(revisions, "Input revisions must not be null");
         URI uri = this.uriHelper.revsDiffUri();
-        String payload = this.jsonHelper.toJson(revisions);
         InputStream is = null;
         try {
             HttpConnection connection = Http.POST(uri, "application/json");
-            connection.setRequestBody(payload);
+            connection.setRequestBody(jsonRequestBody(revisions));
             is = executeToInputStreamWithRetry(connection);
-            Map<String, MissingRevisions> diff = jsonHelper.fromJson(new InputStreamReader(is),
+            Map<String, MissingRevisions> diff = jsonHelper.fromJson(is,
                 new TypeReference<Map<String, MissingRevisions>>() { });
             return diff;
         } finally {
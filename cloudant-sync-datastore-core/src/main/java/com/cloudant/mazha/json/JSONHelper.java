@@ -15,18 +15,26 @@
 package com.cloudant.mazha.json;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.util.List;
 import java.util.Map;
 
 public class JSONHelper {
 
+    // ObjectMapper is thread-safe once configured, and expensive to create,
+    // so all JSONHelpers share one
+    private static final ObjectMapper sharedObjectMapper = createObjectMapper();
+
     private final ObjectMapper objectMapper;
 
     public final static TypeReference<List<String>> STRING_LIST_TYPE_DEF =
@@ -36,11 +44,32 @@ public class JSONHelper {
             new TypeReference<Map<String, Object>>() {};
 
     public JSONHelper() {
-        objectMapper = new ObjectMapper();
+        objectMapper = sharedObjectMapper;
+    }
+
+    private static ObjectMapper createObjectMapper() {
+        ObjectMapper objectMapper = new ObjectMapper();
         objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
 
         // Should only disable this in production, cause we do want to see them in development?
         objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        return objectMapper;
+    }
+
+    public <T> T fromJson(InputStream is, TypeReference<T> typeRef) {
+        try {
+            return objectMapper.readValue(is, typeRef);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public <T> T fromJson(InputStream is, Class<T> clazz) {
+        try {
+            return objectMapper.readValue(is, clazz);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     public <T> T fromJson(Reader reader, TypeReference<T> typeRef) {
@@ -75,6 +104,17 @@ public class JSONHelper {
         }
     }
 
+    /**
+     * Writes {@code object} as UTF-8 encoded JSON to {@code os}, without
+     * buffering the whole of it in memory. The stream is flushed but not closed.
+     */
+    public void toJson(OutputStream os, Object object) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(os,
+                JsonEncoding.UTF8);
+        objectMapper.writeValue(generator, object);
+        generator.flush();
+    }
+
     public String toPrettyJson(Object object) {
         try {
             return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(object);
@@ -30,9 +30,11 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.logging.Level;
@@ -73,6 +75,20 @@ class AttachmentManager {
             "FROM attachments " +
             "WHERE sequence = ?";
 
+    private static final String SQL_ATTACHMENTS_SELECT_ALL_FOR_DOCUMENTS = "SELECT " +
+            "attachments.sequence AS sequence, " +
+            "filename, " +
+            "key, " +
+            "type, " +
+            "encoding, " +
+            "length, " +
+            "encoded_length, " +
+            "revpos " +
+            "FROM attachments, revs, docs " +
+            "WHERE docs.docid IN ( %s ) " +
+            "AND revs.doc_id = docs.doc_id " +
+            "AND attachments.sequence = revs.sequence";
+
     private static final String SQL_ATTACHMENTS_SELECT_ALL_KEYS = "SELECT key " +
             "FROM attachments";
 
@@ -322,18 +338,46 @@ class AttachmentManager {
             c = db.rawQuery(SQL_ATTACHMENTS_SELECT_ALL,
                     new String[]{String.valueOf(sequence)});
             while (c.moveToNext()) {
-                String filename = c.getString(c.getColumnIndex("filename"));
-                byte[] key = c.getBlob(c.getColumnIndex("key"));
-                String type = c.getString(c.getColumnIndex("type"));
-                int encoding = c.getInt(c.getColumnIndex("encoding"));
-                long length = c.getInt(c.getColumnIndex("length"));
-                long encodedLength = c.getInt(c.getColumnIndex("encoded_length"));
-                int revpos = c.getInt(c.getColumnIndex("revpos"));
-                File file = fileFromKey(db, key, attachmentsDir, false);
-                
-                atts.add(new SavedAttachment(sequence, filename, key, type, Attachment.Encoding
-                        .values()[encoding], length, encodedLength, revpos, file,
-                        attachmentStreamFactory));
+                atts.add(savedAttachmentFromCursor(db, c, attachmentsDir,
+                        attachmentStreamFactory, null));
+            }
+            return atts;
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to get attachments", e);
+            throw new AttachmentException(e);
+        } finally {
+            DatabaseUtils.closeCursorQuietly(c);
+        }
+    }
+
+    /**
+     * Returns the attachments for every revision of the given documents, keyed by the
+     * sequence number of the revision. Revisions without attachments have no entry.
+     *
+     * The number of document IDs must be within the query placeholder limit.
+     */
+    protected static Map<Long, List<SavedAttachment>> attachmentsForDocuments(SQLDatabase db,
+                                                          String attachmentsDir,
+                                                          AttachmentStreamFactory attachmentStreamFactory,
+                                                          Collection<String> docIds)
+            throws AttachmentException {
+        Cursor c = null;
+        try {
+            Map<Long, List<SavedAttachment>> atts = new HashMap<Long, List<SavedAttachment>>();
+            // attachments are often shared between revisions, so only look up each file once
+            Map<String, File> files = new HashMap<String, File>();
+            String sql = String.format(SQL_ATTACHMENTS_SELECT_ALL_FOR_DOCUMENTS,
+                    DatabaseUtils.makePlaceholders(docIds.size()));
+            c = db.rawQuery(sql, docIds.toArray(new String[docIds.size()]));
+            while (c.moveToNext()) {
+                SavedAttachment att = savedAttachmentFromCursor(db, c, attachmentsDir,
+                        attachmentStreamFactory, files);
+                List<SavedAttachment> revisionAtts = atts.get(att.seq);
+                if (revisionAtts == null) {
+                    revisionAtts = new LinkedList<SavedAttachment>();
+                    atts.put(att.seq, revisionAtts);
+                }
+                revisionAtts.add(att);
             }
             return atts;
         } catch (SQLException e) {
@@ -344,6 +388,33 @@ class AttachmentManager {
         }
     }
 
+    private static SavedAttachment savedAttachmentFromCursor(SQLDatabase db, Cursor c,
+                                                             String attachmentsDir,
+                                                             AttachmentStreamFactory attachmentStreamFactory,
+                                                             Map<String, File> files)
+            throws AttachmentException {
+        long sequence = c.getLong(c.getColumnIndex("sequence"));
+        String filename = c.getString(c.getColumnIndex("filename"));
+        byte[] key = c.getBlob(c.getColumnIndex("key"));
+        String type = c.getString(c.getColumnIndex("type"));
+        int encoding = c.getInt(c.getColumnIndex("encoding"));
+        long length = c.getInt(c.getColumnIndex("length"));
+        long encodedLength = c.getInt(c.getColumnIndex("encoded_length"));
+        int revpos = c.getInt(c.getColumnIndex("revpos"));
+
+        File file = files == null ? null : files.get(keyToString(key));
+        if (file == null) {
+            file = fileFromKey(db, key, attachmentsDir, false);
+            if (files != null) {
+                files.put(keyToString(key), file);
+            }
+        }
+
+        return new SavedAttachment(sequence, filename, key, type, Attachment.Encoding
+                .values()[encoding], length, encodedLength, revpos, file,
+                attachmentStreamFactory);
+    }
+
     private static void copyCursorValuesToNewSequence(SQLDatabase db, Cursor c, long newSequence) {
         while (c.moveToNext()) {
             String filename = c.getString(1);
@@ -497,7 +568,11 @@ class AttachmentManager {
         String keyString = keyToString(key);
         String filename = null;
 
-        db.beginTransaction();
+        // Lookups can run on a read-only connection, so only take the
+        // write lock when we may need to create a mapping.
+        if (allowCreateName) {
+            db.beginTransaction();
+        }
         try {
             Cursor c = db.rawQuery(SQL_FILENAME_LOOKUP_QUERY, new String[]{ keyString });
             if (c.moveToFirst()) {
@@ -508,12 +583,16 @@ class AttachmentManager {
                 logger.finest(String.format("Added filename %s for key %s", filename, keyString));
             }
             c.close();
-            db.setTransactionSuccessful();
+            if (allowCreateName) {
+                db.setTransactionSuccessful();
+            }
         } catch (SQLException e) {
             logger.log(Level.WARNING, "Couldn't read key,filename mapping database", e);
             filename = null;
         } finally {
-            db.endTransaction();
+            if (allowCreateName) {
+                db.endTransaction();
+            }
         }
 
         if (filename != null) {
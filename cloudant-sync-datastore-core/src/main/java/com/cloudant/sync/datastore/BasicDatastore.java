@@ -21,6 +21,7 @@ import com.cloudant.android.Base64InputStreamFactory;
 import com.cloudant.sync.datastore.callables.GetAllDocumentIdsCallable;
 import com.cloudant.sync.datastore.callables.GetPossibleAncestorRevisionIdsCallable;
 import com.cloudant.sync.datastore.callables.InsertRevisionCallable;
+import com.cloudant.sync.datastore.callables.RevsDiffCallable;
 import com.cloudant.sync.datastore.encryption.KeyProvider;
 import com.cloudant.sync.datastore.encryption.NullKeyProvider;
 import com.cloudant.sync.datastore.migrations.SchemaOnlyMigration;
@@ -40,8 +41,6 @@ import com.cloudant.sync.util.DatabaseUtils;
 import com.cloudant.sync.util.JSONUtils;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.eventbus.EventBus;
@@ -59,11 +58,13 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -74,6 +75,13 @@ class BasicDatastore implements Datastore, DatastoreExtended {
 
     private static final String FULL_DOCUMENT_COLS = "docs.docid, docs.doc_id, revid, sequence, json, current, deleted, parent";
 
+    // document columns for revision trees, with the body only for leaf revisions; the bodies
+    // of other revisions are loaded lazily
+    private static final String TREE_DOCUMENT_COLS = "docs.docid, docs.doc_id, revid, sequence, " +
+            "CASE WHEN EXISTS (SELECT 1 FROM revs AS children " +
+            "WHERE children.parent = revs.sequence) THEN NULL ELSE json END AS leaf_json, " +
+            "current, deleted, parent";
+
     private static final String GET_DOC_NUMERIC_ID =
             "SELECT doc_id from docs WHERE docid=?";
 
@@ -100,6 +108,25 @@ class BasicDatastore implements Datastore, DatastoreExtended {
     public static final String SQL_CHANGE_IDS_SINCE_LIMIT = "SELECT doc_id, max(sequence) FROM revs " +
             "WHERE sequence > ? AND sequence <= ? GROUP BY doc_id ";
 
+    // get the last sequence of the next page of at most ? changes after a sequence
+    private static final String SQL_CHANGES_PAGE_LAST_SEQUENCE = "SELECT max(sequence) FROM " +
+            "(SELECT sequence FROM revs WHERE sequence > ? ORDER BY sequence LIMIT ?)";
+
+    // get current revisions of documents changed between two sequences, ordered by sequence
+    private static final String SQL_CHANGES_PAGE = "SELECT " + FULL_DOCUMENT_COLS + " FROM revs, docs " +
+            "WHERE revs.doc_id IN (SELECT doc_id FROM revs WHERE sequence > ? AND sequence <= ?) " +
+            "AND current = 1 AND docs.doc_id = revs.doc_id ORDER BY revs.sequence";
+
+    // Number of changes read from the database at a time by changesIterator(long).
+    public static final int CHANGES_ITERATOR_PAGE_SIZE = 500;
+
+    // Number of conflicted document ids read from the conflicts table at a time
+    static final int CONFLICTED_DOCUMENT_IDS_PAGE_SIZE = 500;
+
+    private static final String SQL_CONFLICTED_DOCUMENT_IDS_PAGE = "SELECT conflicts.doc_id, " +
+            "docs.docid FROM conflicts, docs WHERE conflicts.doc_id > ? " +
+            "AND docs.doc_id = conflicts.doc_id ORDER BY conflicts.doc_id LIMIT ?";
+
     // get all non-deleted leaf rev ids for a given doc id
     public static final String GET_NON_DELETED_LEAFS = "SELECT revs.revid FROM revs " +
             "WHERE revs.doc_id = ? " +
@@ -148,6 +175,12 @@ class BasicDatastore implements Datastore, DatastoreExtended {
      */
     private final AttachmentStreamFactory attachmentStreamFactory;
 
+    /**
+     * Skeletons of recently written documents' revision trees, only used on the
+     * writer thread of {@link #queue}.
+     */
+    private final RevisionTreeSkeletonCache skeletons = new RevisionTreeSkeletonCache();
+
     public BasicDatastore(String dir, String name) throws SQLException, IOException, DatastoreException {
         this(dir, name, new NullKeyProvider());
     }
@@ -171,6 +204,13 @@ class BasicDatastore implements Datastore, DatastoreExtended {
         this.extensionsDir = FilenameUtils.concat(this.datastoreDir, "extensions");
         final String dbFilename = FilenameUtils.concat(this.datastoreDir, DB_FILE_NAME);
         queue = new SQLDatabaseQueue(dbFilename, provider);
+        queue.addRollbackListener(new Runnable() {
+            @Override
+            public void run() {
+                // skeletons may describe revisions which no longer exist
+                skeletons.clear();
+            }
+        });
 
         int dbVersion = queue.getVersion();
         // Increment the hundreds position if a schema change means that older
@@ -184,6 +224,7 @@ class BasicDatastore implements Datastore, DatastoreExtended {
         queue.updateSchema(new SchemaOnlyMigration(DatastoreConstants.getSchemaVersion5()), 5);
         queue.updateSchema(new SchemaOnlyMigration(DatastoreConstants.getSchemaVersion6()), 6);
         queue.updateSchema(new MigrateDatabase6To100(), 100);
+        queue.updateSchema(new SchemaOnlyMigration(DatastoreConstants.getSchemaVersion101()), 101);
         this.eventBus = new EventBus();
 
         this.attachmentsDir = this.extensionDataFolder(ATTACHMENTS_EXTENSION_NAME);
@@ -348,6 +389,48 @@ class BasicDatastore implements Datastore, DatastoreExtended {
         }
     }
 
+    /**
+     * Returns the skeleton of a document's revision tree. Must only be called
+     * from tasks running on the writer thread.
+     */
+    private RevisionTreeSkeleton getRevisionTreeSkeletonInQueue(SQLDatabase db, long docNumericId)
+            throws DatastoreException {
+        try {
+            return skeletons.get(db, docNumericId);
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error getting revision tree of document " + docNumericId, e);
+            throw new DatastoreException("Could not get revision tree of document " +
+                    docNumericId, e);
+        }
+    }
+
+    /**
+     * Reads the body of a revision for a {@link LazyDocumentBody}. This may be
+     * called from a task already running on the writer thread, for example by a
+     * conflict resolver, so the read is run with {@link SQLDatabaseQueue#runRead}.
+     */
+    DocumentBody getRevisionBody(final long sequence) {
+        try {
+            return queue.runRead(new SQLQueueCallable<DocumentBody>() {
+                @Override
+                public DocumentBody call(SQLDatabase db) throws Exception {
+                    return LazyDocumentBody.read(db, sequence);
+                }
+            });
+        } catch (InterruptedException e) {
+            logger.log(Level.SEVERE, "Failed to get body of revision " + sequence, e);
+            throw new IllegalStateException("Could not get body of revision " + sequence, e);
+        } catch (ExecutionException e) {
+            logger.log(Level.SEVERE, "Failed to get body of revision " + sequence, e);
+            throw new IllegalStateException("Could not get body of revision " + sequence, e);
+        }
+    }
+
+    private long insertRevisionInQueue(SQLDatabase db, InsertRevisionCallable callable) {
+        skeletons.invalidate(callable.docNumericId);
+        return callable.call(db);
+    }
+
     /**
      * Gets a document with the specified ID at the specified revision.
      * @param db The database from which to load the document
@@ -420,22 +503,111 @@ class BasicDatastore implements Datastore, DatastoreExtended {
         return null;
     }
 
+    @Override
+    public Map<String, DocumentRevisionTree> getAllRevisionsOfDocuments(
+            final List<String> documentIds) {
+        Preconditions.checkState(this.isOpen(), "Database is closed");
+        Preconditions.checkNotNull(documentIds, "Input document id list can not be null");
+
+        try {
+            return queue.submit(new SQLQueueCallable<Map<String, DocumentRevisionTree>>() {
+                @Override
+                public Map<String, DocumentRevisionTree> call(SQLDatabase db) throws Exception {
+                    Map<String, DocumentRevisionTree> trees =
+                            new HashMap<String, DocumentRevisionTree>();
+                    // Split into batches because SQLite has a limit on the number
+                    // of placeholders we can use in a single query.
+                    for (List<String> batch : Lists.partition(documentIds,
+                            SQLITE_QUERY_PLACEHOLDERS_LIMIT)) {
+                        getAllRevisionsOfDocumentsInQueue(db, batch, trees);
+                    }
+                    return trees;
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            logger.log(Level.SEVERE, "Failed to get all revisions of documents", e);
+        } catch (ExecutionException e) {
+            logger.log(Level.SEVERE, "Failed to get all revisions of documents", e);
+        }
+        return null;
+    }
+
+    /**
+     * Adds the revision trees of {@code docIds} to {@code trees}, using one query for the
+     * revisions and one for their attachments. The number of ids must be within
+     * {@link #SQLITE_QUERY_PLACEHOLDERS_LIMIT}.
+     */
+    private void getAllRevisionsOfDocumentsInQueue(SQLDatabase db, List<String> docIds,
+                                                   Map<String, DocumentRevisionTree> trees)
+            throws AttachmentException, DatastoreException {
+        String sql = String.format("SELECT " + TREE_DOCUMENT_COLS + " FROM revs, docs " +
+                "WHERE docs.docid IN ( %s ) AND revs.doc_id = docs.doc_id " +
+                "ORDER BY sequence ASC", DatabaseUtils.makePlaceholders(docIds.size()));
+        String[] args = docIds.toArray(new String[docIds.size()]);
+
+        Map<Long, List<SavedAttachment>> atts = AttachmentManager.attachmentsForDocuments(db,
+                this.attachmentsDir, this.attachmentStreamFactory, docIds);
+
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(sql, args);
+            while (cursor.moveToNext()) {
+                long sequence = cursor.getLong(3);
+                List<SavedAttachment> revisionAtts = atts.get(sequence);
+                BasicDocumentRevision rev = getFullRevisionFromCurrentCursor(cursor,
+                        getTreeRevisionBody(cursor, sequence),
+                        revisionAtts == null ? Collections.<SavedAttachment>emptyList() :
+                                revisionAtts);
+                DocumentRevisionTree tree = trees.get(rev.getId());
+                if (tree == null) {
+                    tree = new DocumentRevisionTree();
+                    trees.put(rev.getId(), tree);
+                }
+                // revisions are in sequence order, so parents are added before children
+                tree.add(rev);
+            }
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error getting all revisions of documents", e);
+            throw new DatastoreException("Could not get revision trees for documents", e);
+        } finally {
+            DatabaseUtils.closeCursorQuietly(cursor);
+        }
+    }
+
+    /**
+     * Returns the body of the revision in a row with the {@link #TREE_DOCUMENT_COLS} columns:
+     * the body read with the row for a leaf revision, or a {@link LazyDocumentBody} otherwise.
+     */
+    private DocumentBody getTreeRevisionBody(Cursor cursor, long sequence) {
+        int leafJson = cursor.getColumnIndex("leaf_json");
+        if (cursor.columnType(leafJson) == Cursor.FIELD_TYPE_NULL) {
+            return new LazyDocumentBody(this, sequence);
+        }
+        return BasicDocumentBody.trustedBodyWith(cursor.getBlob(leafJson));
+    }
+
     private DocumentRevisionTree getAllRevisionsOfDocumentInQueue(SQLDatabase db, String docId)
             throws DocumentNotFoundException, AttachmentException, DatastoreException {
-        String sql = "SELECT " + FULL_DOCUMENT_COLS + " FROM revs, docs " +
+        String sql = "SELECT " + TREE_DOCUMENT_COLS + " FROM revs, docs " +
                 "WHERE docs.docid=? AND revs.doc_id = docs.doc_id ORDER BY sequence ASC";
 
         String[] args = {docId};
         Cursor cursor = null;
 
+        Map<Long, List<SavedAttachment>> atts = AttachmentManager.attachmentsForDocuments(db,
+                this.attachmentsDir, this.attachmentStreamFactory,
+                Collections.singletonList(docId));
+
         try {
             DocumentRevisionTree tree = new DocumentRevisionTree();
             cursor = db.rawQuery(sql, args);
             while (cursor.moveToNext()) {
                 long sequence = cursor.getLong(3);
-                List<? extends Attachment> atts = AttachmentManager.attachmentsForRevision(db,
-                        this.attachmentsDir, this.attachmentStreamFactory, sequence);
-                BasicDocumentRevision rev = getFullRevisionFromCurrentCursor(cursor, atts);
+                List<SavedAttachment> revisionAtts = atts.get(sequence);
+                BasicDocumentRevision rev = getFullRevisionFromCurrentCursor(cursor,
+                        getTreeRevisionBody(cursor, sequence),
+                        revisionAtts == null ? Collections.<SavedAttachment>emptyList() :
+                                revisionAtts);
                 logger.finer("Rev: " + rev);
                 tree.add(rev);
             }
@@ -499,6 +671,60 @@ class BasicDatastore implements Datastore, DatastoreExtended {
 
     }
 
+    @Override
+    public ChangesIterator changesIterator(long since) {
+        return changesIterator(since, CHANGES_ITERATOR_PAGE_SIZE);
+    }
+
+    @Override
+    public ChangesIterator changesIterator(long since, int pageSize) {
+        Preconditions.checkState(this.isOpen(), "Database is closed");
+        return new ChangesIterator(this, since, pageSize);
+    }
+
+    /**
+     * Get the next page of changes for a {@link ChangesIterator}. The page covers at most
+     * {@code pageSize} sequence numbers after {@code since}, and contains the current revision
+     * of each document changed within them, ordered by sequence number.
+     *
+     * @param since the lower bound (exclusive) of the page's sequence numbers
+     * @param pageSize the maximum number of sequence numbers in the page
+     * @return the page of changes, which is empty when there are no changes after {@code since}
+     */
+    Changes changesPage(final long since, final int pageSize) {
+        Preconditions.checkState(this.isOpen(), "Database is closed");
+
+        try {
+            return queue.submit(new SQLQueueCallable<Changes>() {
+                @Override
+                public Changes call(SQLDatabase db) throws Exception {
+                    Cursor cursor = null;
+                    long lastSequence;
+                    try {
+                        cursor = db.rawQuery(SQL_CHANGES_PAGE_LAST_SEQUENCE,
+                                new String[]{Long.toString(since), Integer.toString(pageSize)});
+                        if (!cursor.moveToFirst() || cursor.columnType(0) == Cursor.FIELD_TYPE_NULL) {
+                            return new Changes(since, Collections.<BasicDocumentRevision>emptyList());
+                        }
+                        lastSequence = cursor.getLong(0);
+                    } catch (SQLException e) {
+                        throw new IllegalStateException("Error querying changes since: " + since, e);
+                    } finally {
+                        DatabaseUtils.closeCursorQuietly(cursor);
+                    }
+                    String[] args = {Long.toString(since), Long.toString(lastSequence)};
+                    return new Changes(lastSequence, getRevisionsFromRawQuery(db, SQL_CHANGES_PAGE, args));
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            logger.log(Level.SEVERE, "Failed to get changes", e);
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            logger.log(Level.SEVERE, "Failed to get changes", e);
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
     /**
      * Get list of documents for given list of numeric ids. The result list is ordered by sequence number,
      * and only the current revisions are returned.
@@ -744,7 +970,7 @@ class BasicDatastore implements Datastore, DatastoreExtended {
         callable.current = true;
         callable.data = body.asBytes();
         callable.available = true;
-        callable.call(db);
+        insertRevisionInQueue(db, callable);
 
         try {
             BasicDocumentRevision doc =  getDocumentInQueue(db, docId, callable.revId);
@@ -843,14 +1069,8 @@ class BasicDatastore implements Datastore, DatastoreExtended {
         }
 
 
-        DocumentRevisionTree revisionTree;
-        try {
-            revisionTree = getAllRevisionsOfDocumentInQueue(db, docId);
-        } catch(AttachmentException e){
-            // we can't get load the document, due to an attachment error,
-            // throw an exception saying we couldn't find the document.
-            throw new DocumentNotFoundException(e);
-        }
+        RevisionTreeSkeleton revisionTree = getRevisionTreeSkeletonInQueue(db,
+                prevRevision.getInternalNumericId());
 
          if (!revisionTree.leafRevisionIds().contains(prevRevId)) {
             throw new ConflictException("Document has newer revisions than the revision " +
@@ -875,7 +1095,7 @@ class BasicDatastore implements Datastore, DatastoreExtended {
         callable.current = prevRevision.isCurrent();
         callable.data = JSONUtils.EMPTY_JSON;
         callable.available = false;
-        callable.call(db);
+        insertRevisionInQueue(db, callable);
 
 
         try {
@@ -894,7 +1114,7 @@ class BasicDatastore implements Datastore, DatastoreExtended {
                 "Input document id can not be empty");
 
         try {
-            queue.submit(new SQLQueueCallable<Object>() {
+            queue.submitTransaction(new SQLQueueCallable<Object>() {
                 @Override
                 public Object call(SQLDatabase db) throws Exception {
                     String[] whereArgs = {docId};
@@ -929,7 +1149,7 @@ class BasicDatastore implements Datastore, DatastoreExtended {
         callable.current = false;
         callable.data = JSONUtils.EMPTY_JSON;
         callable.available = false;
-        return callable.call(db);
+        return insertRevisionInQueue(db, callable);
     }
 
     private LocalDocument doGetLocalDocument(SQLDatabase db, String docId)
@@ -942,7 +1162,7 @@ class BasicDatastore implements Datastore, DatastoreExtended {
             if (cursor.moveToFirst()) {
                 byte[] json = cursor.getBlob(0);
 
-                return new LocalDocument(docId,BasicDocumentBody.bodyWith(json));
+                return new LocalDocument(docId,BasicDocumentBody.trustedBodyWith(json));
             } else {
                 throw new DocumentNotFoundException(String.format("No local document found with id: %s", docId));
             }
@@ -1190,41 +1410,47 @@ class BasicDatastore implements Datastore, DatastoreExtended {
                 "doForceInsertExistingDocumentWithHistory",
                 new Object[]{newRevision, revisions, attachments});
         Preconditions.checkNotNull(newRevision, "New document revision must not be null.");
-        Preconditions.checkArgument(this.getDocumentInQueue(db, newRevision.getId(), null) != null, "DocumentRevisionTree must exist.");
+        RevisionTreeSkeleton revisionTree = getRevisionTreeSkeletonInQueue(db, docNumericId);
+        Preconditions.checkArgument(revisionTree.size() > 0, "DocumentRevisionTree must exist.");
         Preconditions.checkNotNull(revisions, "Revision history should not be null.");
         Preconditions.checkArgument(revisions.size() > 0, "Revision history should have at least one revision." );
 
         // do we have a common ancestor?
-        long ancestorSequence = getSequenceInQueue(db, newRevision.getId(), revisions.get(0));
+        long ancestorSequence = revisionTree.sequenceOf(revisions.get(0));
 
         long sequence;
 
         if(ancestorSequence == -1) {
-            sequence = insertDocumentHistoryToNewTree(db,newRevision, revisions, docNumericId);
+            sequence = insertDocumentHistoryToNewTree(db,newRevision, revisions, docNumericId,
+                    revisionTree);
         } else {
-            sequence = insertDocumentHistoryIntoExistingTree(db,newRevision, revisions, docNumericId, attachments);
+            sequence = insertDocumentHistoryIntoExistingTree(db,newRevision, revisions,
+                    docNumericId, revisionTree, attachments);
         }
         return sequence;
     }
 
     private long insertDocumentHistoryIntoExistingTree(SQLDatabase db, BasicDocumentRevision newRevision, List<String> revisions,
                                                        Long docNumericID,
+                                                       RevisionTreeSkeleton revisionTree,
                                                        Map<String, Object> attachments)
             throws AttachmentException, DocumentNotFoundException, DatastoreException {
 
         // get info about previous "winning" rev
-        long previousLeafSeq = getSequenceInQueue(db, newRevision.getId(), null);
+        long previousLeafSeq = revisionTree.currentSequence();
         Preconditions.checkArgument(previousLeafSeq > 0, "Parent revision must exist");
 
         // Insert the new stub revisions, going down the tree
-        // at the end of the loop, parentSeq will be the parent of our doc to insert
+        // at the end of the loop, parentSeq will be the parent of our doc to insert.
+        // The revisions looked up are distinct, so the stubs inserted by the loop
+        // don't need to be in the skeleton read before it.
         long parentSeq = 0L;
         for (int i=0; i<revisions.size()-1; i++) {
             String revId = revisions.get(i);
-            long seq = getSequenceInQueue(db, newRevision.getId(), revId);
+            long seq = revisionTree.sequenceOf(revId);
             if (seq == -1) {
                 seq = insertStubRevision(db,docNumericID, revId, parentSeq);
-                this.changeDocumentToBeNotCurrent(db, parentSeq);
+                this.changeDocumentToBeNotCurrent(db, docNumericID, parentSeq);
             }
             parentSeq = seq;
         }
@@ -1232,7 +1458,7 @@ class BasicDatastore implements Datastore, DatastoreExtended {
         // Insert the new leaf revision
         String newLeafRev = revisions.get(revisions.size() - 1);
         logger.finer("Inserting new revision, id: " + docNumericID + ", rev: " + newLeafRev);
-        this.changeDocumentToBeNotCurrent(db,parentSeq);
+        this.changeDocumentToBeNotCurrent(db, docNumericID, parentSeq);
         // don't copy over attachments
         InsertRevisionCallable callable = new InsertRevisionCallable();
         callable.docNumericId = docNumericID;
@@ -1242,7 +1468,7 @@ class BasicDatastore implements Datastore, DatastoreExtended {
         callable.current = false; // we'll call pickWinnerOfConflicts to set this if it needs it
         callable.data = newRevision.asBytes();
         callable.available = true;
-        long newLeafSeq = callable.call(db);
+        long newLeafSeq = insertRevisionInQueue(db, callable);
 
         pickWinnerOfConflicts(db, docNumericID, newRevision.getId(), previousLeafSeq);
 
@@ -1266,13 +1492,14 @@ class BasicDatastore implements Datastore, DatastoreExtended {
 
     private long insertDocumentHistoryToNewTree(SQLDatabase db, BasicDocumentRevision newRevision,
                                                 List<String> revisions,
-                                                Long docNumericID)
+                                                Long docNumericID,
+                                                RevisionTreeSkeleton revisionTree)
             throws AttachmentException, DocumentNotFoundException, DatastoreException {
         Preconditions.checkArgument(checkCurrentRevisionIsInRevisionHistory(newRevision, revisions),
                 "Current revision must exist in revision history.");
 
         // get info about previous "winning" rev
-        long previousLeafSeq = getSequenceInQueue(db, newRevision.getId(), null);
+        long previousLeafSeq = revisionTree.currentSequence();
 
         // Adding a brand new tree
         logger.finer("Inserting a brand new tree for an existing document.");
@@ -1291,7 +1518,7 @@ class BasicDatastore implements Datastore, DatastoreExtended {
         callable.current = false; // we'll call pickWinnerOfConflicts to set this if it needs it
         callable.data = newRevision.asBytes();
         callable.available = !newRevision.isDeleted();
-        long newLeafSeq = callable.call(db);
+        long newLeafSeq = insertRevisionInQueue(db, callable);
 
         pickWinnerOfConflicts(db, docNumericID, newRevision.getId(), previousLeafSeq);
         return newLeafSeq;
@@ -1318,32 +1545,13 @@ class BasicDatastore implements Datastore, DatastoreExtended {
          */
 
         // first get all non-deleted leafs
-        List<String> leafs = new ArrayList<String>();
-        Cursor cursor = null;
-        try {
-            cursor = db.rawQuery(GET_NON_DELETED_LEAFS, new String[]{Long.toString(docNumericId)});
-            while (cursor.moveToNext()) {
-                leafs.add(cursor.getString(0));
-            }
-        } catch (SQLException sqe) {
-            throw new DatastoreException("Exception thrown whilst trying to fetch non-deleted leaf nodes in pickWinnerOfConflicts", sqe);
-        } finally {
-            DatabaseUtils.closeCursorQuietly(cursor);
-        }
+        RevisionTreeSkeleton revisionTree = getRevisionTreeSkeletonInQueue(db, docNumericId);
+        List<String> leafs = revisionTree.leafRevisionIds(true);
 
         // this is a corner case - all leaf nodes are deleted
-        // re-get with the same query but without the revs.delete clause
+        // re-get without excluding the deleted ones
         if (leafs.size() == 0) {
-            try {
-                cursor = db.rawQuery(GET_ALL_LEAFS, new String[]{Long.toString(docNumericId)});
-                while (cursor.moveToNext()) {
-                    leafs.add(cursor.getString(0));
-                }
-            } catch (SQLException sqe) {
-                throw new DatastoreException("Exception thrown whilst trying to fetch all leaf nodes in pickWinnerOfConflicts", sqe);
-            } finally {
-                DatabaseUtils.closeCursorQuietly(cursor);
-            }
+            leafs = revisionTree.leafRevisionIds(false);
         }
 
         Collections.sort(leafs, new Comparator<String>() {
@@ -1362,10 +1570,10 @@ class BasicDatastore implements Datastore, DatastoreExtended {
         });
         // new winner will be at the top of the list
         String leaf = leafs.get(0);
-        long newWinnerSeq = getSequenceInQueue(db, docId, leaf);
+        long newWinnerSeq = revisionTree.sequenceOf(leaf);
         if (previousWinnerSeq != newWinnerSeq) {
-            this.changeDocumentToBeNotCurrent(db, previousWinnerSeq);
-            this.changeDocumentToBeCurrent(db, newWinnerSeq);
+            this.changeDocumentToBeNotCurrent(db, docNumericId, previousWinnerSeq);
+            this.changeDocumentToBeCurrent(db, docNumericId, newWinnerSeq);
         }
     }
 
@@ -1397,18 +1605,20 @@ class BasicDatastore implements Datastore, DatastoreExtended {
         callable.current = true;
         callable.data = rev.getBody().asBytes();
         callable.available = true;
-        long sequence = callable.call(db);
+        long sequence = insertRevisionInQueue(db, callable);
         return sequence;
     }
 
-    private void changeDocumentToBeCurrent(SQLDatabase db, long sequence) {
+    private void changeDocumentToBeCurrent(SQLDatabase db, long docNumericId, long sequence) {
+        skeletons.invalidate(docNumericId);
         ContentValues args = new ContentValues();
         args.put("current", 1);
         String[] whereArgs = {Long.toString(sequence)};
         db.update("revs", args, "sequence=?", whereArgs);
     }
 
-    private void changeDocumentToBeNotCurrent(SQLDatabase db, long sequence) {
+    private void changeDocumentToBeNotCurrent(SQLDatabase db, long docNumericId, long sequence) {
+        skeletons.invalidate(docNumericId);
         ContentValues args = new ContentValues();
         args.put("current", 0);
         String[] whereArgs = {Long.toString(sequence)};
@@ -1418,7 +1628,8 @@ class BasicDatastore implements Datastore, DatastoreExtended {
     @Override
     public void compact() {
         try {
-            queue.submit(new SQLQueueCallable<Object>() {
+            // VACUUM can't run inside a transaction
+            queue.submitWrite(new SQLQueueCallable<Object>() {
                 @Override
                 public Object call(SQLDatabase db) {
                     logger.finer("Deleting JSON of old revisions...");
@@ -1458,21 +1669,8 @@ class BasicDatastore implements Datastore, DatastoreExtended {
         Preconditions.checkNotNull(revisions, "Input revisions must not be null");
 
         try {
-            return queue.submit(new SQLQueueCallable<Map<String,Collection<String>>>(){
-                @Override
-                public Map<String, Collection<String>> call(SQLDatabase db) throws Exception {
-                    Multimap<String, String> missingRevs = ArrayListMultimap.create();
-                    // Break the potentially big multimap into small ones so for each map,
-                    // a single query can be use to check if the <id, revision> pairs in sqlDb or not
-                    List<Multimap<String, String>> batches =
-                            multiMapPartitions(revisions, SQLITE_QUERY_PLACEHOLDERS_LIMIT);
-                    for(Multimap<String, String> batch : batches) {
-                        revsDiffBatch(db,batch);
-                        missingRevs.putAll(batch);
-                    }
-                    return missingRevs.asMap();
-                }
-            }).get();
+            // the revisions are loaded into a temporary table, which needs a writable connection
+            return queue.submitWrite(new RevsDiffCallable(revisions)).get();
         } catch (InterruptedException e) {
             logger.log(Level.SEVERE,"Failed to do revsdiff",e);
         } catch (ExecutionException e) {
@@ -1482,65 +1680,6 @@ class BasicDatastore implements Datastore, DatastoreExtended {
         return null;
     }
 
-    List<Multimap<String, String>> multiMapPartitions(
-            Multimap<String, String> revisions, int size) {
-
-        List<Multimap<String, String>> partitions = new ArrayList<Multimap<String, String>>();
-        Multimap<String, String> current = HashMultimap.create();
-        for(Map.Entry<String, String> e : revisions.entries()) {
-            current.put(e.getKey(), e.getValue());
-            // the query uses below (see revsDiffBatch())
-            // `multimap.size() + multimap.keySet().size()` placeholders
-            // and SQLite has limit on the number of placeholders on a single query.
-            if(current.size() + current.keySet().size() >= size) {
-                partitions.add(current);
-                current = HashMultimap.create();
-            }
-        }
-
-        if(current.size() > 0) {
-            partitions.add(current);
-        }
-
-        return partitions;
-    }
-
-    /**
-     * Removes revisions present in the datastore from the input map.
-     *
-     * @param revisions an multimap from document id to set of revisions. The
-     *                  map is modified in place for performance consideration.
-     */
-    void revsDiffBatch(SQLDatabase db,Multimap<String, String> revisions) throws DatastoreException {
-
-        final String sql = String.format(
-                "SELECT docs.docid, revs.revid FROM docs, revs " +
-                "WHERE docs.doc_id = revs.doc_id AND docs.docid IN (%s) AND revs.revid IN (%s) " +
-                "ORDER BY docs.docid",
-                DatabaseUtils.makePlaceholders(revisions.keySet().size()),
-                DatabaseUtils.makePlaceholders(revisions.size()));
-
-        String[] args = new String[revisions.keySet().size() + revisions.size()];
-        String[] keys = revisions.keySet().toArray(new String[revisions.keySet().size()]);
-        String[] values = revisions.values().toArray(new String[revisions.size()]);
-        System.arraycopy(keys, 0, args, 0, revisions.keySet().size());
-        System.arraycopy(values, 0, args, revisions.keySet().size(), revisions.size());
-
-        Cursor cursor = null;
-        try {
-            cursor = db.rawQuery(sql, args);
-            while (cursor.moveToNext()) {
-                String docId = cursor.getString(0);
-                String revId = cursor.getString(1);
-                revisions.remove(docId, revId);
-            }
-        } catch (SQLException e) {
-           throw new DatastoreException(e);
-        } finally {
-            DatabaseUtils.closeCursorQuietly(cursor);
-        }
-    }
-
     @Override
     public String extensionDataFolder(String extensionName) {
         Preconditions.checkState(this.isOpen(), "Database is closed");
@@ -1551,47 +1690,51 @@ class BasicDatastore implements Datastore, DatastoreExtended {
 
     @Override
     public Iterator<String> getConflictedDocumentIds() {
+        Preconditions.checkState(this.isOpen(), "Database is closed");
+        return new ConflictedDocumentIdsIterator(this, CONFLICTED_DOCUMENT_IDS_PAGE_SIZE);
+    }
 
-        // the "SELECT DISTINCT ..." subquery selects all the parent
-        // sequence, and so the outer "SELECT ..." practically selects
-        // all the leaf nodes. The "GROUP BY" and "HAVING COUNT(*) > 1"
-        // make sure only those document with more than one leafs are
-        // returned.
-        final String sql = "SELECT docs.docid, COUNT(*) FROM docs,revs " +
-                "WHERE revs.doc_id = docs.doc_id " +
-                "AND deleted = 0 AND revs.sequence NOT IN " +
-                "(SELECT DISTINCT parent FROM revs WHERE parent NOT NULL) " +
-                "GROUP BY docs.docid HAVING COUNT(*) > 1";
+    /**
+     * <p>Returns up to {@code pageSize} conflicted documents with a numeric id
+     * greater than {@code afterDocId}, ordered by numeric id.</p>
+     *
+     * <p>Used by {@link ConflictedDocumentIdsIterator}.</p>
+     *
+     * @return map of numeric id to document id, in numeric id order
+     */
+    LinkedHashMap<Long, String> conflictedDocumentIdsPage(final long afterDocId,
+                                                         final int pageSize) {
+        Preconditions.checkState(this.isOpen(), "Database is closed");
 
         try {
-            return queue.submit(new SQLQueueCallable<Iterator<String>>() {
+            return queue.submit(new SQLQueueCallable<LinkedHashMap<Long, String>>() {
                 @Override
-                public Iterator<String> call(SQLDatabase db) throws Exception {
-
-                    List<String> conflicts = new ArrayList<String>();
+                public LinkedHashMap<Long, String> call(SQLDatabase db) throws Exception {
+                    LinkedHashMap<Long, String> conflicts = new LinkedHashMap<Long, String>();
                     Cursor cursor = null;
                     try {
-                        cursor = db.rawQuery(sql, new String[]{});
+                        cursor = db.rawQuery(SQL_CONFLICTED_DOCUMENT_IDS_PAGE,
+                                new String[]{Long.toString(afterDocId),
+                                        Integer.toString(pageSize)});
                         while (cursor.moveToNext()) {
-                            String docId = cursor.getString(0);
-                            conflicts.add(docId);
+                            conflicts.put(cursor.getLong(0), cursor.getString(1));
                         }
-                    }  catch (SQLException e) {
+                    } catch (SQLException e) {
                         logger.log(Level.SEVERE, "Error getting conflicted document: ", e);
                         throw new DatastoreException(e);
                     } finally {
                         DatabaseUtils.closeCursorQuietly(cursor);
                     }
-                    return conflicts.iterator();
+                    return conflicts;
                 }
             }).get();
         } catch (InterruptedException e) {
-            logger.log(Level.SEVERE,"Failed to get conflicted document Ids",e);
+            logger.log(Level.SEVERE, "Failed to get conflicted document Ids", e);
+            throw new IllegalStateException(e);
         } catch (ExecutionException e) {
             logger.log(Level.SEVERE, "Failed to get conflicted document Ids", e);
+            throw new IllegalStateException(e.getCause());
         }
-        return null;
-
     }
 
     @Override
@@ -1700,12 +1843,13 @@ class BasicDatastore implements Datastore, DatastoreExtended {
         callable.current = true;
         callable.data = newWinner.asBytes();
         callable.available = true;
-        callable.call(db);
+        insertRevisionInQueue(db, callable);
 
         return newRevisionId;
     }
 
     private void setCurrent(SQLDatabase db,BasicDocumentRevision winner, boolean currentValue) {
+        skeletons.invalidate(winner.getInternalNumericId());
         ContentValues updateContent = new ContentValues();
         updateContent.put("current", currentValue ? 1 : 0);
         String[] whereArgs = new String[]{String.valueOf(winner.getSequence())};
@@ -1714,11 +1858,22 @@ class BasicDatastore implements Datastore, DatastoreExtended {
 
     private static BasicDocumentRevision getFullRevisionFromCurrentCursor(Cursor cursor,
                                                                           List<? extends Attachment> attachments) {
+        byte[] json = cursor.getBlob(cursor.getColumnIndex("json"));
+        return getFullRevisionFromCurrentCursor(cursor, BasicDocumentBody.trustedBodyWith(json),
+                attachments);
+    }
+
+    /**
+     * Builds a revision from a row with the {@link #TREE_DOCUMENT_COLS} columns, and
+     * the given body rather than one read from the json column.
+     */
+    private static BasicDocumentRevision getFullRevisionFromCurrentCursor(Cursor cursor,
+                                                                          DocumentBody body,
+                                                                          List<? extends Attachment> attachments) {
         String docId = cursor.getString(cursor.getColumnIndex("docid"));
         long internalId = cursor.getLong(cursor.getColumnIndex("doc_id"));
         String revId = cursor.getString(cursor.getColumnIndex("revid"));
         long sequence = cursor.getLong(cursor.getColumnIndex("sequence"));
-        byte[] json = cursor.getBlob(cursor.getColumnIndex("json"));
         boolean current = cursor.getInt(cursor.getColumnIndex("current")) > 0;
         boolean deleted = cursor.getInt(cursor.getColumnIndex("deleted")) > 0;
 
@@ -1733,7 +1888,7 @@ class BasicDatastore implements Datastore, DatastoreExtended {
         DocumentRevisionBuilder builder = new DocumentRevisionBuilder()
                 .setDocId(docId)
                 .setRevId(revId)
-                .setBody(BasicDocumentBody.bodyWith(json))
+                .setBody(body)
                 .setDeleted(deleted)
                 .setSequence(sequence)
                 .setInternalId(internalId)
@@ -1794,6 +1949,12 @@ class BasicDatastore implements Datastore, DatastoreExtended {
     }
 
 
+    @Override
+    public void setGroupCommit(int maxBatchSize, long maxWait, TimeUnit unit) {
+        Preconditions.checkState(this.isOpen(), "Database is closed");
+        queue.setGroupCommit(maxBatchSize, maxWait, unit);
+    }
+
     @Override
     public EventBus getEventBus() {
         Preconditions.checkState(this.isOpen(), "Database is closed");
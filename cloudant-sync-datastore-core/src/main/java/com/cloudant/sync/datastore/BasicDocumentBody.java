@@ -20,7 +20,6 @@ package com.cloudant.sync.datastore;
 import com.cloudant.sync.util.JSONUtils;
 import com.google.common.base.Preconditions;
 
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -30,11 +29,15 @@ final class BasicDocumentBody implements DocumentBody {
     private Map<String, Object> map;
 
     protected BasicDocumentBody(byte[] bytes) {
+        this(bytes, true);
+    }
+
+    private BasicDocumentBody(byte[] bytes, boolean validate) {
         // compacted revisions have their bodies set to null, so return an empty body
         if (bytes == null) {
             bytes = JSONUtils.EMPTY_JSON;
         }
-        if(JSONUtils.isValidJSON(bytes)) {
+        if(!validate || JSONUtils.isValidJSON(bytes)) {
             this.bytes = bytes;
         } else {
             throw new IllegalArgumentException("Input bytes is not valid json data.");
@@ -58,10 +61,20 @@ final class BasicDocumentBody implements DocumentBody {
         return new BasicDocumentBody(map);
     }
 
+    /**
+     * <p>Returns a body for JSON bytes read back from the datastore, which
+     * were validated when they were written.</p>
+     *
+     * <p>The bytes aren't parsed until {@link #asMap()} is first called, and
+     * must not be modified by the caller afterwards.</p>
+     */
+    static DocumentBody trustedBodyWith(byte[] bytes) {
+        return new BasicDocumentBody(bytes, false);
+    }
+
     @Override
     public byte[] asBytes() {
-        byte[] jsonCopy = getJsonBytes();
-        return Arrays.copyOf(jsonCopy, jsonCopy.length);
+        return getJsonBytes().clone();
     }
 
     @SuppressWarnings("unchecked")
@@ -86,7 +99,7 @@ final class BasicDocumentBody implements DocumentBody {
             assert map != null;
             bytes = JSONUtils.serializeAsBytes(map);
         }
-        return bytes.clone();
+        return bytes;
     }
 
     private Map getMapObject() {
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.datastore;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>{@code ChangesIterator} iterates over the changes to a datastore after
+ * a given sequence number, returning the current revision of each changed
+ * document.</p>
+ *
+ * <p>Changes are read from the datastore a page at a time as the iterator is
+ * advanced, so only a single page of revisions is held in memory. Within a
+ * page, revisions are ordered by sequence number. A document changed in more
+ * than one page is returned once for each of those pages.</p>
+ *
+ * <p>Instances are returned by {@link Datastore#changesIterator(long)} and
+ * are not thread safe.</p>
+ */
+public class ChangesIterator implements Iterator<BasicDocumentRevision> {
+
+    private final BasicDatastore datastore;
+    private final int pageSize;
+
+    private Iterator<BasicDocumentRevision> page;
+    private long pageLastSequence;
+    private long returnedPageLastSequence;
+    private long lastSequence;
+    private boolean finished = false;
+
+    ChangesIterator(BasicDatastore datastore, long since, int pageSize) {
+        Preconditions.checkArgument(pageSize > 0, "Page size must be positive number");
+        this.datastore = datastore;
+        this.pageSize = pageSize;
+        this.pageLastSequence = since >= 0 ? since : 0;
+        this.lastSequence = this.pageLastSequence;
+        this.returnedPageLastSequence = this.pageLastSequence;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!finished && (page == null || !page.hasNext())) {
+            Changes changes = datastore.changesPage(pageLastSequence, pageSize);
+            if (changes.size() == 0) {
+                finished = true;
+            } else {
+                page = changes.getResults().iterator();
+                pageLastSequence = changes.getLastSequence();
+            }
+        }
+        return !finished;
+    }
+
+    @Override
+    public BasicDocumentRevision next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        BasicDocumentRevision revision = page.next();
+        returnedPageLastSequence = pageLastSequence;
+        if (!page.hasNext()) {
+            lastSequence = pageLastSequence;
+        }
+        return revision;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Changes can not be removed");
+    }
+
+    /**
+     * <p>Returns the sequence number up to which all changes have been
+     * returned by this iterator.</p>
+     *
+     * <p>This is suitable for use as a checkpoint: starting a new iterator
+     * from it won't miss any changes, though some documents already returned
+     * from a partially consumed page may be returned again.</p>
+     *
+     * @return the sequence number up to which all changes have been returned
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * <p>Returns the last sequence number of the page containing the revision
+     * most recently returned by {@link #next()}.</p>
+     *
+     * <p>The revision's document was changed after the previous page, at or
+     * before this sequence number. The revision itself may have a lower sequence
+     * number, for example when the change deleted the winning revision of a
+     * conflicted document, making an older leaf current.</p>
+     *
+     * @return the last sequence number of the current page
+     */
+    public long getPageLastSequence() {
+        return returnedPageLastSequence;
+    }
+}
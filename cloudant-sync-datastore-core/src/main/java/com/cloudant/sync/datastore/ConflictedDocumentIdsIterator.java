@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.datastore;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>Iterates over the ids of conflicted documents, reading them from the
+ * datastore's conflicts table a page at a time as the iterator is advanced.</p>
+ *
+ * <p>Documents which become conflicted or stop being conflicted while
+ * iterating may or may not be returned. Instances are not thread safe.</p>
+ */
+class ConflictedDocumentIdsIterator implements Iterator<String> {
+
+    private final BasicDatastore datastore;
+    private final int pageSize;
+
+    private Iterator<Map.Entry<Long, String>> page;
+    private long lastDocId = 0;
+    private boolean lastPage = false;
+    private boolean finished = false;
+
+    ConflictedDocumentIdsIterator(BasicDatastore datastore, int pageSize) {
+        Preconditions.checkArgument(pageSize > 0, "Page size must be positive number");
+        this.datastore = datastore;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!finished && (page == null || !page.hasNext())) {
+            if (lastPage) {
+                finished = true;
+            } else {
+                LinkedHashMap<Long, String> conflicts =
+                        datastore.conflictedDocumentIdsPage(lastDocId, pageSize);
+                page = conflicts.entrySet().iterator();
+                // a short page must be the last one
+                lastPage = conflicts.size() < pageSize;
+                finished = conflicts.isEmpty();
+            }
+        }
+        return !finished;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Map.Entry<Long, String> conflict = page.next();
+        lastDocId = conflict.getKey();
+        return conflict.getValue();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Conflicted document ids can not be removed");
+    }
+}
@@ -210,6 +210,21 @@ public interface Datastore {
      */
     Changes changes(long since, int limit);
 
+    /**
+     * <p>Returns an iterator over the documents changed after {@code since}.</p>
+     *
+     * <p>Unlike {@link #changes(long, int)}, the changes are read from the
+     * datastore a page at a time as the iterator is advanced, so large sets
+     * of changes can be processed without holding them all in memory.</p>
+     *
+     * @param since the lower bound (exclusive) of the change set
+     *              sequence number
+     * @return iterator over the current revisions of the changed documents
+     *
+     * @see ChangesIterator
+     */
+    ChangesIterator changesIterator(long since);
+
     /**
      * <p>Returns the EventBus which this Datastore posts
      * {@link com.cloudant.sync.notifications.DocumentModified Document Notification Events} to.</p>
@@ -122,4 +122,19 @@ class DatastoreConstants {
         };
     }
 
+    // conflicts has a row for each document with more than one non-deleted
+    // leaf revision, so conflicted documents can be listed without scanning
+    // every revision
+    public static String[] getSchemaVersion101(){
+        return new String[]{
+                "    CREATE TABLE conflicts ( " +
+                "            doc_id INTEGER PRIMARY KEY REFERENCES docs(doc_id) ON DELETE CASCADE); ",
+                "    INSERT INTO conflicts (doc_id) " +
+                "            SELECT revs.doc_id FROM revs " +
+                "            WHERE deleted = 0 AND revs.sequence NOT IN " +
+                "            (SELECT DISTINCT parent FROM revs WHERE parent NOT NULL) " +
+                "            GROUP BY revs.doc_id HAVING COUNT(*) > 1; "
+        };
+    }
+
 }
@@ -25,6 +25,7 @@ import java.sql.SQLException;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>{@code DatastoreExtended} adds further, lesser-used methods to the
@@ -75,11 +76,29 @@ public interface DatastoreExtended extends Datastore {
      * <p>The tree contains the complete revision history of the document,
      * including branches for conflicts and deleted leaves.</p>
      *
+     * <p>The bodies of the leaf revisions are read with the tree. The body of
+     * each other revision is read from the datastore the first time it's used,
+     * so the datastore must still be open when those bodies are accessed. If
+     * the datastore has been compacted in the meantime, they will be empty.</p>
+     *
      * @param documentId  id of the document
      * @return {@code DocumentRevisionTree} of the specified document
      */
     DocumentRevisionTree getAllRevisionsOfDocument(String documentId);
 
+    /**
+     * <p>Returns the {@code DocumentRevisionTree} of each of a list of documents.</p>
+     *
+     * <p>Each tree is the same as returned by {@link #getAllRevisionsOfDocument(String)},
+     * including the attachments of its revisions, but the trees are loaded using a small
+     * number of queries rather than several queries per document.</p>
+     *
+     * @param documentIds  ids of the documents
+     * @return map of document id to {@code DocumentRevisionTree}. Documents which
+     *      don't exist have no entry.
+     */
+    Map<String, DocumentRevisionTree> getAllRevisionsOfDocuments(List<String> documentIds);
+
     /**
      * <p>
      * Inserts one or more revisions of a document into the database. For efficiency, this is
@@ -264,4 +283,38 @@ public interface DatastoreExtended extends Datastore {
     List<? extends Attachment> attachmentsForRevision(BasicDocumentRevision rev) throws
             AttachmentException;
 
+    /**
+     * <p>Enables or disables group commit of write transactions.</p>
+     *
+     * <p>With group commit enabled, writes such as
+     * {@link #createDocumentFromRevision(MutableDocumentRevision)} which are
+     * waiting to run are committed together in one database transaction. A
+     * failure in one write only rolls back that write. Each call still only
+     * returns once its changes have been committed.</p>
+     *
+     * <p>Group commit is only available on Java SE; on other platforms this
+     * method has no effect.</p>
+     *
+     * @param maxBatchSize the maximum number of writes to commit together;
+     *                     1 or less disables group commit
+     * @param maxWait the maximum time to wait for more writes before committing
+     *                a batch which isn't full
+     * @param unit unit of {@code maxWait}
+     */
+    void setGroupCommit(int maxBatchSize, long maxWait, TimeUnit unit);
+
+    /**
+     * <p>Returns an iterator over the documents changed after {@code since},
+     * reading at most {@code pageSize} sequence numbers from the datastore at
+     * a time.</p>
+     *
+     * @param since the lower bound (exclusive) of the change set
+     *              sequence number
+     * @param pageSize the number of sequence numbers read at a time
+     * @return iterator over the current revisions of the changed documents
+     *
+     * @see Datastore#changesIterator(long)
+     */
+    ChangesIterator changesIterator(long since, int pageSize);
+
 }
@@ -120,6 +120,12 @@ import java.util.*;
  * that is not the root of a tree (that is, it has a parent), the parent must
  * be added first so the tree is constructed correctly.</p>
  *
+ * <p>Trees read from a datastore only contain the bodies of their leaf
+ * revisions when they're built; the body of each other revision is read the
+ * first time it's used. Working out the shape of the tree, such as its leaves
+ * and winner, doesn't need the bodies, so old bodies are only read if they're
+ * actually used.</p>
+ *
  * <p>When a complete tree has been constructed, it's possible to work out
  * things like the complete set of non-deleted leaf revisions (that is, the
  * conflicted revisions for the document) and what is the current winning
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.datastore;
+
+import com.cloudant.sync.sqlite.Cursor;
+import com.cloudant.sync.sqlite.SQLDatabase;
+import com.cloudant.sync.util.DatabaseUtils;
+
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * <p>Body of a revision in a revision tree, which isn't read from the datastore
+ * until it's first used.</p>
+ *
+ * <p>Revision trees returned by the datastore use these bodies for their
+ * non-leaf revisions, so reading the tree of a document with a long history
+ * doesn't read the JSON of every old revision. Leaf bodies are read with the
+ * tree, since callers such as push replication almost always use them.</p>
+ *
+ * <p>If the datastore is compacted before the body is loaded, the body of a
+ * revision which is no longer current is empty, as if it had been read after
+ * compaction.</p>
+ */
+class LazyDocumentBody implements DocumentBody {
+
+    private static final String SQL_REVISION_JSON = "SELECT json FROM revs WHERE sequence = ?";
+
+    private final BasicDatastore datastore;
+    private final long sequence;
+
+    private DocumentBody body;
+
+    LazyDocumentBody(BasicDatastore datastore, long sequence) {
+        this.datastore = datastore;
+        this.sequence = sequence;
+    }
+
+    @Override
+    public Map<String, Object> asMap() {
+        return getBody().asMap();
+    }
+
+    @Override
+    public byte[] asBytes() {
+        return getBody().asBytes();
+    }
+
+    /**
+     * @return whether the body has been read from the datastore
+     */
+    synchronized boolean isLoaded() {
+        return body != null;
+    }
+
+    private synchronized DocumentBody getBody() {
+        if (body == null) {
+            body = datastore.getRevisionBody(sequence);
+        }
+        return body;
+    }
+
+    /**
+     * Reads the body of a revision.
+     *
+     * @param db the database
+     * @param sequence the sequence of the revision
+     * @return the body, which is empty if the revision has been compacted
+     * @throws DatastoreException if the revision doesn't exist or couldn't be read
+     */
+    static DocumentBody read(SQLDatabase db, long sequence) throws DatastoreException {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(SQL_REVISION_JSON, new String[]{Long.toString(sequence)});
+            if (!cursor.moveToNext()) {
+                throw new DatastoreException("No revision with sequence " + sequence);
+            }
+            return BasicDocumentBody.trustedBodyWith(cursor.getBlob(0));
+        } catch (SQLException e) {
+            throw new DatastoreException("Could not read body of revision " + sequence, e);
+        } finally {
+            DatabaseUtils.closeCursorQuietly(cursor);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.datastore;
+
+import com.cloudant.sync.sqlite.Cursor;
+import com.cloudant.sync.sqlite.SQLDatabase;
+import com.cloudant.sync.util.DatabaseUtils;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>The shape of a document's revision tree: the revision id, sequence, parent
+ * sequence and deleted and current flags of each revision, without any bodies or
+ * attachments.</p>
+ *
+ * <p>This is enough to find revisions by id and to work out the leaf revisions
+ * and the winner, which is all the write paths need, so they don't read every
+ * revision's JSON from the database. A skeleton is immutable, and describes the
+ * tree at the time it was read; see {@link RevisionTreeSkeletonCache}.</p>
+ */
+class RevisionTreeSkeleton {
+
+    private static final String SQL_REVISIONS = "SELECT sequence, parent, current, deleted, " +
+            "revid FROM revs WHERE doc_id = ? ORDER BY sequence ASC";
+
+    private final long docNumericId;
+
+    // revisions in ascending sequence order, so parents come before their children
+    private final long[] sequences;
+    private final long[] parents;
+    private final boolean[] current;
+    private final boolean[] deleted;
+    private final String[] revIds;
+
+    // whether each revision is the parent of another, so not a leaf
+    private final boolean[] hasChildren;
+
+    private RevisionTreeSkeleton(long docNumericId, long[] sequences, long[] parents,
+                                 boolean[] current, boolean[] deleted, String[] revIds) {
+        this.docNumericId = docNumericId;
+        this.sequences = sequences;
+        this.parents = parents;
+        this.current = current;
+        this.deleted = deleted;
+        this.revIds = revIds;
+        this.hasChildren = new boolean[sequences.length];
+        for (long parent : parents) {
+            int i = indexOfSequence(parent);
+            if (i >= 0) {
+                hasChildren[i] = true;
+            }
+        }
+    }
+
+    /**
+     * Reads the skeleton of a document's revision tree.
+     *
+     * @param db the database
+     * @param docNumericId the numeric id of the document, from the docs table
+     * @return the skeleton, which has no revisions if the document doesn't exist
+     */
+    static RevisionTreeSkeleton read(SQLDatabase db, long docNumericId) throws SQLException {
+        List<long[]> numbers = new ArrayList<long[]>();
+        List<String> ids = new ArrayList<String>();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(SQL_REVISIONS, new String[]{Long.toString(docNumericId)});
+            while (cursor.moveToNext()) {
+                // a root revision's parent is NULL, which is read as 0
+                numbers.add(new long[]{cursor.getLong(0), cursor.getLong(1), cursor.getInt(2),
+                        cursor.getInt(3)});
+                ids.add(cursor.getString(4));
+            }
+        } finally {
+            DatabaseUtils.closeCursorQuietly(cursor);
+        }
+
+        int size = ids.size();
+        long[] sequences = new long[size];
+        long[] parents = new long[size];
+        boolean[] current = new boolean[size];
+        boolean[] deleted = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            long[] row = numbers.get(i);
+            sequences[i] = row[0];
+            parents[i] = row[1];
+            current[i] = row[2] > 0;
+            deleted[i] = row[3] > 0;
+        }
+        return new RevisionTreeSkeleton(docNumericId, sequences, parents, current, deleted,
+                ids.toArray(new String[size]));
+    }
+
+    long getDocumentNumericId() {
+        return docNumericId;
+    }
+
+    /**
+     * @return the number of revisions in the tree
+     */
+    int size() {
+        return sequences.length;
+    }
+
+    /**
+     * @return the sequence of the revision with id {@code revId}, or -1 if it isn't
+     *         in the tree
+     */
+    long sequenceOf(String revId) {
+        for (int i = 0; i < revIds.length; i++) {
+            if (revIds[i].equals(revId)) {
+                return sequences[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the sequence of the current revision, choosing the greatest revision
+     * id if more than one is marked current, or -1 if there's none.
+     */
+    long currentSequence() {
+        int winner = -1;
+        for (int i = 0; i < sequences.length; i++) {
+            if (current[i] && (winner < 0 || revIds[i].compareTo(revIds[winner]) > 0)) {
+                winner = i;
+            }
+        }
+        return winner >= 0 ? sequences[winner] : -1;
+    }
+
+    /**
+     * @param excludeDeleted whether to leave out deleted leaf revisions
+     * @return the ids of the leaf revisions, in sequence order
+     */
+    List<String> leafRevisionIds(boolean excludeDeleted) {
+        List<String> leafs = new ArrayList<String>();
+        for (int i = 0; i < sequences.length; i++) {
+            if (!hasChildren[i] && !(excludeDeleted && deleted[i])) {
+                leafs.add(revIds[i]);
+            }
+        }
+        return leafs;
+    }
+
+    /**
+     * @return the ids of all the leaf revisions, deleted or not
+     */
+    Set<String> leafRevisionIds() {
+        return new HashSet<String>(leafRevisionIds(false));
+    }
+
+    private int indexOfSequence(long sequence) {
+        int i = Arrays.binarySearch(sequences, sequence);
+        return i >= 0 ? i : -1;
+    }
+}
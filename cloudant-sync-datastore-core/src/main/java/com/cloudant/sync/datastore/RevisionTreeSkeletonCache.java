@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.datastore;
+
+import com.cloudant.sync.sqlite.SQLDatabase;
+
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Least recently used cache of {@link RevisionTreeSkeleton}s, keyed by
+ * document numeric id, so documents which are written to repeatedly, for
+ * example during replication or conflict resolution, don't have their revision
+ * trees read again for every write.</p>
+ *
+ * <p>The cache holds at most {@link #DEFAULT_MAX_REVISIONS} revisions across all
+ * its skeletons; the least recently used are evicted to make room, and a
+ * skeleton with more revisions than that isn't cached at all.</p>
+ *
+ * <p>Skeletons may describe changes which haven't been committed yet, so the
+ * cache must only be used on the database queue's writer thread. Any change to
+ * a document's revisions must {@link #invalidate(long)} its skeleton, and the
+ * whole cache must be cleared if a transaction is rolled back.</p>
+ */
+class RevisionTreeSkeletonCache {
+
+    /**
+     * Default limit on the number of revisions held by the cache.
+     */
+    static final int DEFAULT_MAX_REVISIONS = 10000;
+
+    private final int maxRevisions;
+    private int revisions = 0;
+
+    private final LinkedHashMap<Long, RevisionTreeSkeleton> skeletons =
+            new LinkedHashMap<Long, RevisionTreeSkeleton>(16, 0.75f, true);
+
+    RevisionTreeSkeletonCache() {
+        this(DEFAULT_MAX_REVISIONS);
+    }
+
+    RevisionTreeSkeletonCache(int maxRevisions) {
+        this.maxRevisions = maxRevisions;
+    }
+
+    /**
+     * Returns the skeleton of a document's revision tree, reading it from the
+     * database if it isn't cached.
+     *
+     * @param db the writer connection of the database queue
+     * @param docNumericId the numeric id of the document
+     */
+    synchronized RevisionTreeSkeleton get(SQLDatabase db, long docNumericId)
+            throws SQLException {
+        RevisionTreeSkeleton skeleton = skeletons.get(docNumericId);
+        if (skeleton == null) {
+            skeleton = RevisionTreeSkeleton.read(db, docNumericId);
+            put(skeleton);
+        }
+        return skeleton;
+    }
+
+    private void put(RevisionTreeSkeleton skeleton) {
+        if (skeleton.size() == 0 || skeleton.size() > maxRevisions) {
+            return;
+        }
+        skeletons.put(skeleton.getDocumentNumericId(), skeleton);
+        revisions += skeleton.size();
+        Iterator<Map.Entry<Long, RevisionTreeSkeleton>> eldest =
+                skeletons.entrySet().iterator();
+        while (revisions > maxRevisions) {
+            revisions -= eldest.next().getValue().size();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Removes the skeleton of a document whose revisions have changed.
+     *
+     * @param docNumericId the numeric id of the document
+     */
+    synchronized void invalidate(long docNumericId) {
+        RevisionTreeSkeleton skeleton = skeletons.remove(docNumericId);
+        if (skeleton != null) {
+            revisions -= skeleton.size();
+        }
+    }
+
+    /**
+     * Removes every skeleton.
+     */
+    synchronized void clear() {
+        skeletons.clear();
+        revisions = 0;
+    }
+
+    /**
+     * @return the number of documents whose skeletons are cached
+     */
+    synchronized int size() {
+        return skeletons.size();
+    }
+}
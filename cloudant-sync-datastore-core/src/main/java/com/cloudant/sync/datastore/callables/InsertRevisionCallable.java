@@ -14,18 +14,35 @@
 
 package com.cloudant.sync.datastore.callables;
 
-import com.cloudant.sync.sqlite.ContentValues;
+import com.cloudant.sync.sqlite.Cursor;
 import com.cloudant.sync.sqlite.SQLDatabase;
 import com.cloudant.sync.sqlite.SQLQueueCallable;
+import com.cloudant.sync.util.DatabaseUtils;
 
+import java.sql.SQLException;
 import java.util.logging.Logger;
 
 /**
  * Inserts a new row into the `revs` table, returning new database sequence number.
+ * The `conflicts` table is updated to reflect the document's new leaf revisions.
  */
 public class InsertRevisionCallable {
     private static final Logger logger = Logger.getLogger(InsertRevisionCallable.class.getCanonicalName());
 
+    private static final String SQL_COUNT_NON_DELETED_LEAFS = "SELECT COUNT(*) FROM revs " +
+            "WHERE doc_id = ? AND deleted = 0 AND sequence NOT IN " +
+            "(SELECT parent FROM revs WHERE doc_id = ? AND parent NOT NULL)";
+
+    // Inserts are compiled once and reused, as they run for every revision
+    private static final String SQL_INSERT_REVISION = "INSERT INTO revs " +
+            "(doc_id, revid, parent, current, deleted, available, json) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SQL_INSERT_CONFLICT = "INSERT OR IGNORE INTO conflicts " +
+            "(doc_id) VALUES (?)";
+
+    private static final String SQL_DELETE_CONFLICT = "DELETE FROM conflicts WHERE doc_id = ?";
+
     // doc_id in revs table
     public long docNumericId;
     public String revId;
@@ -51,22 +68,46 @@ public class InsertRevisionCallable {
 
     public long call(SQLDatabase db) {
         long newSequence;
-        ContentValues args = new ContentValues();
-        args.put("doc_id", this.docNumericId);
-        args.put("revid", this.revId);
-        // parent field is a foreign key
-        if (this.parentSequence > 0) {
-            args.put("parent", this.parentSequence);
-        }
-        args.put("current", this.current);
-        args.put("deleted", this.deleted);
-        args.put("available", this.available);
-        args.put("json", this.data);
+        Object[] args = new Object[]{
+                this.docNumericId,
+                this.revId,
+                // parent field is a foreign key
+                this.parentSequence > 0 ? this.parentSequence : null,
+                this.current,
+                this.deleted,
+                this.available,
+                this.data
+        };
         logger.fine("New revision inserted: " + this.docNumericId + ", " + this.revId);
-        newSequence = db.insert("revs", args);
-        if (newSequence < 0) {
-            throw new IllegalStateException("Unknown error inserting new revision, please check log");
+        try {
+            newSequence = db.compileStatement(SQL_INSERT_REVISION).executeInsert(args);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error inserting new revision", e);
         }
+        // A document's leaf revisions only change when a revision is inserted,
+        // so this is where the conflicts table is kept up to date.
+        updateConflicts(db, this.docNumericId);
         return newSequence;
     }
+
+    private static void updateConflicts(SQLDatabase db, long docNumericId) {
+        String docIdString = Long.toString(docNumericId);
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(SQL_COUNT_NON_DELETED_LEAFS,
+                    new String[]{docIdString, docIdString});
+            cursor.moveToFirst();
+            if (cursor.getInt(0) > 1) {
+                db.compileStatement(SQL_INSERT_CONFLICT).executeInsert(
+                        new Object[]{docNumericId});
+            } else {
+                db.compileStatement(SQL_DELETE_CONFLICT).executeUpdateDelete(
+                        new Object[]{docNumericId});
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error updating conflicts for document", e);
+        } finally {
+            DatabaseUtils.closeCursorQuietly(cursor);
+        }
+    }
 }
@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.datastore.callables;
+
+import com.cloudant.sync.datastore.DatastoreException;
+import com.cloudant.sync.sqlite.Cursor;
+import com.cloudant.sync.sqlite.SQLDatabase;
+import com.cloudant.sync.sqlite.SQLQueueCallable;
+import com.cloudant.sync.util.DatabaseUtils;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Multimap;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Finds which of a set of (document id, revision id) pairs are missing from
+ * the datastore.</p>
+ *
+ * <p>The pairs are loaded into a temporary table, numbered by their position in
+ * the input, and joined against the docs and revs tables on both ids, so only
+ * the pairs which are present are read back. This avoids matching every
+ * document in the input against every revision in the input, which the
+ * equivalent query using {@code IN} lists has to do.</p>
+ *
+ * <p>Temporary tables are private to a connection, so nothing outside this
+ * callable sees the rows it inserts. Android refuses any statement which writes,
+ * even to a temporary table, on a read-only connection, so this must be
+ * submitted with {@link com.cloudant.sync.sqlite.SQLDatabaseQueue#submitWrite}.</p>
+ */
+public class RevsDiffCallable extends SQLQueueCallable<Map<String, Collection<String>>> {
+
+    private static final Logger logger = Logger.getLogger(RevsDiffCallable.class.getName());
+
+    private static final String TABLE_NAME = "revs_diff_input";
+
+    private static final String SQL_CREATE_TABLE = "CREATE TEMP TABLE IF NOT EXISTS " +
+            TABLE_NAME + " (position INTEGER PRIMARY KEY, docid TEXT NOT NULL, " +
+            "revid TEXT NOT NULL)";
+
+    private static final String SQL_PRESENT_POSITIONS = "SELECT input.position " +
+            "FROM " + TABLE_NAME + " input, docs, revs " +
+            "WHERE docs.docid = input.docid AND revs.doc_id = docs.doc_id " +
+            "AND revs.revid = input.revid";
+
+    private static final String SQL_CLEAR_TABLE = "DELETE FROM " + TABLE_NAME;
+
+    /**
+     * Number of pairs inserted by each statement; each takes three placeholders,
+     * and one SELECT in the compound SELECT of the INSERT statement.
+     */
+    private static final int INSERT_BATCH_SIZE = 150;
+
+    private final String[] docIds;
+    private final String[] revIds;
+
+    /**
+     * Creates a RevsDiffCallable to find the missing revisions in {@code revisions}.
+     * @param revisions map from document id to the revision ids to check
+     */
+    public RevsDiffCallable(Multimap<String, String> revisions) {
+        this.docIds = new String[revisions.size()];
+        this.revIds = new String[revisions.size()];
+        int i = 0;
+        for (Map.Entry<String, String> e : revisions.entries()) {
+            docIds[i] = e.getKey();
+            revIds[i] = e.getValue();
+            i++;
+        }
+    }
+
+    @Override
+    public Map<String, Collection<String>> call(SQLDatabase db) throws Exception {
+        Map<String, Collection<String>> missingRevs = new HashMap<String, Collection<String>>();
+        if (docIds.length == 0) {
+            return missingRevs;
+        }
+
+        boolean[] present = new boolean[docIds.length];
+        try {
+            db.execSQL(SQL_CREATE_TABLE);
+            // in case rows were left behind by a call which failed to clear them
+            db.execSQL(SQL_CLEAR_TABLE);
+            int start = 0;
+            while (start < docIds.length) {
+                // Batches after the full ones are a power of two long, so only a few
+                // different INSERT statements are ever compiled and cached
+                int remaining = docIds.length - start;
+                int length = remaining >= INSERT_BATCH_SIZE ?
+                        INSERT_BATCH_SIZE : Integer.highestOneBit(remaining);
+                insertBatch(db, start, length);
+                start += length;
+            }
+            markPresent(db, present);
+        } catch (SQLException e) {
+            throw new DatastoreException(e);
+        } finally {
+            clearTable(db);
+        }
+
+        for (int i = 0; i < present.length; i++) {
+            if (!present[i]) {
+                Collection<String> revs = missingRevs.get(docIds[i]);
+                if (revs == null) {
+                    revs = new ArrayList<String>();
+                    missingRevs.put(docIds[i], revs);
+                }
+                revs.add(revIds[i]);
+            }
+        }
+        return missingRevs;
+    }
+
+    private void insertBatch(SQLDatabase db, int start, int length) throws SQLException {
+        List<String> rows = new ArrayList<String>(length);
+        Object[] args = new Object[length * 3];
+        for (int i = 0; i < length; i++) {
+            rows.add("SELECT ?, ?, ?");
+            args[i * 3] = (long) (start + i);
+            args[i * 3 + 1] = docIds[start + i];
+            args[i * 3 + 2] = revIds[start + i];
+        }
+        String sql = String.format("INSERT INTO %s (position, docid, revid) %s",
+                TABLE_NAME, Joiner.on(" UNION ALL ").join(rows));
+        db.compileStatement(sql).executeInsert(args);
+    }
+
+    private void markPresent(SQLDatabase db, boolean[] present) throws SQLException {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(SQL_PRESENT_POSITIONS, new String[]{});
+            while (cursor.moveToNext()) {
+                present[cursor.getInt(0)] = true;
+            }
+        } finally {
+            DatabaseUtils.closeCursorQuietly(cursor);
+        }
+    }
+
+    private static void clearTable(SQLDatabase db) {
+        try {
+            db.execSQL(SQL_CLEAR_TABLE);
+        } catch (SQLException e) {
+            // the next call clears the table before using it
+            logger.log(Level.WARNING, "Failed to clear revsDiff input table", e);
+        }
+    }
+}
@@ -12,6 +12,8 @@
 
 package com.cloudant.sync.query;
 
+import static com.cloudant.sync.query.QueryConstants.TEXT;
+
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -51,16 +53,20 @@ class Index {
 
     protected final Map<String, String> indexSettings;
 
+    protected final Map<String, Object> partialFilter;
+
     private ObjectMapper objectMapper;
 
     private Index(List<Object> fieldNames,
                   String indexName,
                   String indexType,
-                  Map<String, String> indexSettings) {
+                  Map<String, String> indexSettings,
+                  Map<String, Object> partialFilter) {
         this.fieldNames = fieldNames;
         this.indexName = indexName;
         this.indexType = indexType;
         this.indexSettings = indexSettings;
+        this.partialFilter = partialFilter;
     }
 
     /**
@@ -93,6 +99,27 @@ class Index {
                               String indexName,
                               String indexType,
                               Map<String, String> indexSettings) {
+        return getInstance(fieldNames, indexName, indexType, indexSettings, null);
+    }
+
+    /**
+     * This method handles index specific validation and ensures that the constructed
+     * Index object is valid.
+     *
+     * @param fieldNames the field names in the index
+     * @param indexName the index name
+     * @param indexType the index type (json or text)
+     * @param indexSettings the optional settings used to configure the index.
+     *                      Only supported parameter is 'tokenize' for text indexes only.
+     * @param partialFilter the optional selector for the documents in the index.
+     *                      Only json indexes can be partial.
+     * @return the Index object or null if arguments passed in were invalid.
+     */
+    public static Index getInstance(List<Object> fieldNames,
+                                    String indexName,
+                                    String indexType,
+                                    Map<String, String> indexSettings,
+                                    Map<String, Object> partialFilter) {
         if (fieldNames == null || fieldNames.isEmpty()) {
             logger.log(Level.SEVERE, "No field names were provided.");
             return null;
@@ -138,7 +165,34 @@ class Index {
             }
         }
 
-        return new Index(fieldNames, indexName, indexType, indexSettings);
+        if (partialFilter != null) {
+            if (!indexType.equalsIgnoreCase(JSON_TYPE)) {
+                logger.log(Level.SEVERE, String.format("Index type is %s, only %s indexes " +
+                                                       "can be partial.",
+                                                       indexType,
+                                                       JSON_TYPE));
+                return null;
+            }
+
+            // Store the filter in the form queries are normalised to, so
+            // that their terms can be compared.
+            Map<String, Object> normalisedFilter =
+                    QueryValidator.normaliseAndValidateQuery(partialFilter);
+            if (normalisedFilter == null) {
+                logger.log(Level.SEVERE, String.format("Invalid partial filter %s.",
+                                                       partialFilter));
+                return null;
+            }
+            if (containsTextSearch(normalisedFilter)) {
+                logger.log(Level.SEVERE, String.format("Partial filter %s cannot contain a " +
+                                                       "text search.",
+                                                       partialFilter));
+                return null;
+            }
+            partialFilter = normalisedFilter;
+        }
+
+        return new Index(fieldNames, indexName, indexType, indexSettings, partialFilter);
     }
 
     /**
@@ -195,6 +249,75 @@ class Index {
         return json;
     }
 
+    /**
+     * Checks whether a selector, or any selector nested in it, contains a text search.
+     */
+    private static boolean containsTextSearch(Object selector) {
+        if (selector instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) selector).entrySet()) {
+                if (TEXT.equals(entry.getKey()) || containsTextSearch(entry.getValue())) {
+                    return true;
+                }
+            }
+        } else if (selector instanceof List) {
+            for (Object element : (List<?>) selector) {
+                if (containsTextSearch(element)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compares the partial filter with the passed in normalised filter.
+     *
+     * @param partialFilter the partial filter to compare to, or null for none
+     * @return true/false - whether there is a match
+     */
+    protected boolean comparePartialFilterTo(Map<String, Object> partialFilter) {
+        if (this.partialFilter == null) {
+            return partialFilter == null;
+        }
+        return this.partialFilter.equals(partialFilter);
+    }
+
+    /**
+     * Converts the partial filter to a JSON string
+     *
+     * @return the JSON representation of the partial filter
+     */
+    protected String partialFilterAsJSON() {
+        String json = null;
+        if (partialFilter != null) {
+            try {
+                json = getObjectMapper().writeValueAsString(partialFilter);
+            } catch (JsonProcessingException e) {
+                String msg = String.format("Error processing partial filter %s",
+                                           this.partialFilter.toString());
+                logger.log(Level.SEVERE, msg, e);
+            }
+        }
+        return json;
+    }
+
+    /**
+     * Converts a partial filter stored as a JSON string back to a selector
+     *
+     * @param json the JSON representation of the partial filter
+     * @return the partial filter, or null if it couldn't be read
+     */
+    protected static Map<String, Object> partialFilterFromJSON(String json) {
+        try {
+            return new ObjectMapper().readValue(json, new TypeReference<Map<String, Object>>() {
+            });
+        } catch (IOException e) {
+            String msg = String.format("Error processing partial filter %s", json);
+            logger.log(Level.SEVERE, msg, e);
+            return null;
+        }
+    }
+
     private ObjectMapper getObjectMapper() {
         if (objectMapper == null) {
             objectMapper = new ObjectMapper();
@@ -122,13 +122,17 @@ class IndexCreator {
                         (Map<String, Object>) existingIndexes.get(index.indexName);
                 String existingType = (String) existingIndex.get("type");
                 String existingSettings = (String) existingIndex.get("settings");
+                Map<String, Object> existingFilter =
+                        (Map<String, Object>) existingIndex.get("partial_filter");
                 List<String> existingFieldsList = (List<String>) existingIndex.get("fields");
                 Set<String> existingFields = new HashSet<String>(existingFieldsList);
                 Set<String> newFields = new HashSet<String>(fieldNamesList);
                 if (existingFields.equals(newFields) &&
-                    index.compareIndexTypeTo(existingType, existingSettings)) {
+                    index.compareIndexTypeTo(existingType, existingSettings) &&
+                    index.comparePartialFilterTo(existingFilter)) {
                     boolean success = IndexUpdater.updateIndex(index.indexName,
                                                                fieldNamesList,
+                                                               index.partialFilter,
                                                                database,
                                                                datastore,
                                                                queue);
@@ -155,8 +159,13 @@ class IndexCreator {
                     parameters.put("index_name", index.indexName);
                     parameters.put("index_type", index.indexType);
                     parameters.put("index_settings", index.settingsAsJSON());
+                    parameters.put("partial_filter", index.partialFilterAsJSON());
                     parameters.put("field_name", fieldName);
                     parameters.put("last_sequence", 0);
+                    parameters.put("lossy_values", 0);
+                    if (index.indexType.equalsIgnoreCase(Index.JSON_TYPE)) {
+                        parameters.put("array_values", 0);
+                    }
                     long rowId = database.insert(IndexManager.INDEX_METADATA_TABLE_NAME,
                                                  parameters);
                     if (rowId < 0) {
@@ -186,6 +195,7 @@ class IndexCreator {
                 } else {
                     statements.add(createIndexTableStatementForIndex(index.indexName, columnList));
                     statements.add(createIndexIndexStatementForIndex(index.indexName, columnList));
+                    statements.addAll(createArrayTableStatementsForIndex(index.indexName));
                 }
                 for (String statement : statements) {
                     try {
@@ -219,12 +229,14 @@ class IndexCreator {
             return null;
         }
 
+        // The new index is empty, so is built from the whole datastore in parallel
         if (success) {
-            success = IndexUpdater.updateIndex(index.indexName,
-                                               fieldNamesList,
-                                               database,
-                                               datastore,
-                                               queue);
+            success = IndexUpdater.rebuildIndex(index.indexName,
+                                                fieldNamesList,
+                                                index.partialFilter,
+                                                database,
+                                                datastore,
+                                                queue);
         }
 
         return success ? index.indexName : null;
@@ -331,6 +343,27 @@ class IndexCreator {
         return String.format("CREATE INDEX %s ON %s ( %s )", sqlIndexName, tableName, cols);
     }
 
+    /**
+     * Array elements are indexed in a separate table, rather than as a row of the
+     * index table per element, so that documents with several array fields can be
+     * indexed. The index on ( field_name, value, _id ) finds the documents with an
+     * element, the index on _id the elements to replace when a document changes.
+     */
+    private List<String> createArrayTableStatementsForIndex(String indexName) {
+        String tableName = IndexManager.arrayTableNameForIndex(indexName);
+        List<String> statements = new ArrayList<String>();
+        statements.add(String.format("CREATE TABLE %s ( _id NONE, field_name NONE, value NONE )",
+                                     tableName));
+        statements.add(String.format("CREATE INDEX %s_value_index ON %s " +
+                                     "( field_name, value, _id )",
+                                     tableName,
+                                     tableName));
+        statements.add(String.format("CREATE INDEX %s_id_index ON %s ( _id )",
+                                     tableName,
+                                     tableName));
+        return statements;
+    }
+
     /**
      * This method generates the virtual table create SQL for the specified index.
      * Note:  Any column that contains an '=' will cause the statement to fail
@@ -39,22 +39,30 @@ package com.cloudant.sync.query;
 import com.cloudant.sync.datastore.Datastore;
 import com.cloudant.sync.datastore.encryption.KeyProvider;
 import com.cloudant.sync.datastore.migrations.SchemaOnlyMigration;
+import com.cloudant.sync.notifications.DocumentModified;
+import com.cloudant.sync.notifications.ReplicationCompleted;
 import com.cloudant.sync.sqlite.Cursor;
 import com.cloudant.sync.sqlite.SQLDatabase;
 import com.cloudant.sync.sqlite.SQLDatabaseFactory;
 import com.cloudant.sync.util.DatabaseUtils;
+import com.google.common.eventbus.Subscribe;
 
 import java.io.File;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -68,10 +76,17 @@ import java.util.regex.Pattern;
  *  - delete indexes
  *  - execute queries
  *  - update indexes (usually done automatically)
+ *
+ *  Indexes are brought up to date before each query by default. With
+ *  {@link #setBackgroundIndexing(boolean) background indexing} enabled, they are
+ *  also updated as documents change, so queries which don't need the latest
+ *  changes can run without waiting for indexing.
  */
 public class IndexManager {
 
     private static final String INDEX_TABLE_PREFIX = "_t_cloudant_sync_query_index_";
+
+    private static final String ARRAY_TABLE_PREFIX = "_t_cloudant_sync_query_array_";
     private static final String FTS_CHECK_TABLE_NAME = "_t_cloudant_sync_query_fts_check";
     public static final String INDEX_METADATA_TABLE_NAME = "_t_cloudant_sync_query_metadata";
 
@@ -85,6 +100,12 @@ public class IndexManager {
     private final Pattern validFieldName;
     private final ExecutorService queue;
 
+    // Runs background index updates, so they never hold up writes to the datastore
+    private final ExecutorService indexingQueue;
+    private final AtomicBoolean indexUpdatePending = new AtomicBoolean(false);
+    private final Object indexUpdateLock = new Object();
+    private volatile boolean backgroundIndexing = false;
+
     private boolean textSearchEnabled;
 
     /**
@@ -95,6 +116,7 @@ public class IndexManager {
         this.datastore = datastore;
         validFieldName = Pattern.compile(INDEX_FIELD_NAME_PATTERN);
         queue = Executors.newSingleThreadExecutor();
+        indexingQueue = Executors.newSingleThreadExecutor();
 
         final String filename = datastore.extensionDataFolder(EXTENSION_NAME) + File.separator
                                                                               + "indexes.sqlite";
@@ -112,6 +134,16 @@ public class IndexManager {
                                 new SchemaOnlyMigration(QueryConstants.getSchemaVersion1()), 1);
                         SQLDatabaseFactory.updateSchema(db,
                                 new SchemaOnlyMigration(QueryConstants.getSchemaVersion2()), 2);
+                        SQLDatabaseFactory.updateSchema(db,
+                                new SchemaOnlyMigration(QueryConstants.getSchemaVersion3()), 3);
+                        SQLDatabaseFactory.updateSchema(db,
+                                new SchemaOnlyMigration(QueryConstants.getSchemaVersion4()), 4);
+                        SQLDatabaseFactory.updateSchema(db,
+                                new SchemaOnlyMigration(QueryConstants.getSchemaVersion5()), 5);
+                        SQLDatabaseFactory.updateSchema(db,
+                                new SchemaOnlyMigration(QueryConstants.getSchemaVersion6()), 6);
+                        SQLDatabaseFactory.updateSchema(db,
+                                new SchemaOnlyMigration(QueryConstants.getSchemaVersion7()), 7);
                     }
 
                     return db;
@@ -127,6 +159,15 @@ public class IndexManager {
     }
 
     public void close() {
+        setBackgroundIndexing(false);
+        // interrupt any background update so it stops after its current batch
+        indexingQueue.shutdownNow();
+        try {
+            indexingQueue.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            logger.log(Level.SEVERE, "Interrupted waiting for background indexing to stop", e);
+            throw new RuntimeException(e);
+        }
         try {
             queue.submit(new Runnable() {
                 @Override
@@ -154,6 +195,13 @@ public class IndexManager {
      *                 fields: [field1, field2]
      *  }
      *
+     *  Partial indexes also have a partial_filter entry, the normalised selector
+     *  for the documents they contain. Indexes with an array table have an
+     *  array_fields entry, listing the fields whose array elements are in it.
+     *
+     *  An index whose partial filter can't be read is left out, so it isn't used
+     *  for queries or updated; delete it and create it again to use it.
+     *
      *  @return Map of indexes in the database.
      */
     public Map<String, Object> listIndexes() {
@@ -174,37 +222,68 @@ public class IndexManager {
 
     }
 
+    @SuppressWarnings("unchecked")
     protected static Map<String, Object> listIndexesInDatabase(SQLDatabase db) {
         // Accumulate indexes and definitions into a map
         String sql;
-        sql = String.format("SELECT index_name, index_type, field_name, index_settings FROM %s",
-                             INDEX_METADATA_TABLE_NAME);
+        sql = String.format("SELECT index_name, index_type, field_name, index_settings, " +
+                            "partial_filter, array_values FROM %s",
+                            INDEX_METADATA_TABLE_NAME);
         Map<String, Object> indexes = null;
         Map<String, Object> index;
         List<String> fields = null;
+        List<String> arrayFields = null;
+        Set<String> unreadableIndexes = new HashSet<String>();
         Cursor cursor = null;
         try {
             cursor = db.rawQuery(sql, new String[]{});
             indexes = new HashMap<String, Object>();
             while (cursor.moveToNext()) {
                 String rowIndex = cursor.getString(0);
+                if (unreadableIndexes.contains(rowIndex)) {
+                    continue;
+                }
                 String rowType = cursor.getString(1);
                 String rowField = cursor.getString(2);
                 String rowSettings = cursor.getString(3);
+                String rowFilter = cursor.getString(4);
                 if (!indexes.containsKey(rowIndex)) {
                     index = new HashMap<String, Object>();
                     fields = new ArrayList<String>();
+                    arrayFields = null;
                     index.put("type", rowType);
                     index.put("name", rowIndex);
                     index.put("fields", fields);
                     if (rowSettings != null && !rowSettings.isEmpty()) {
                         index.put("settings", rowSettings);
                     }
+                    if (rowFilter != null && !rowFilter.isEmpty()) {
+                        Map<String, Object> partialFilter = Index.partialFilterFromJSON(rowFilter);
+                        if (partialFilter == null) {
+                            // without its filter the index would be taken for a full index
+                            String msg = String.format("Index %s can't be used because its " +
+                                                       "partial filter can't be read", rowIndex);
+                            logger.log(Level.SEVERE, msg);
+                            unreadableIndexes.add(rowIndex);
+                            continue;
+                        }
+                        index.put("partial_filter", partialFilter);
+                    }
                     indexes.put(rowIndex, index);
                 }
                 if (fields != null) {
                     fields.add(rowField);
                 }
+                if (cursor.columnType(5) != Cursor.FIELD_TYPE_NULL) {
+                    if (arrayFields == null) {
+                        arrayFields = new ArrayList<String>();
+                        ((Map<String, Object>) indexes.get(rowIndex)).put("array_fields",
+                                                                          arrayFields);
+                    }
+                    if (cursor.getInt(5) != 0) {
+                        arrayFields.add(rowField);
+                    }
+                }
             }
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Failed to get a list of indexes in the database.", e);
@@ -284,6 +363,34 @@ public class IndexManager {
                                           queue);
     }
 
+    /**
+     *  Add a single, possibly compound, partial index for the given field names.
+     *
+     *  A partial index only contains the documents matching 'partialFilter', so its
+     *  size and the cost of updating it scale with those documents rather than the
+     *  whole datastore. It's only used for queries whose selector includes every
+     *  term of the filter, for example a query for
+     *  { "status": "active", "name": "mike" } can use an index with the filter
+     *  { "status": "active" }.
+     *
+     *  @param fieldNames List of field names in the sort format
+     *  @param indexName Name of index to create
+     *  @param partialFilter Selector for the documents to index, in the query format
+     *  @return name of created index
+     */
+    public String ensureIndexed(List<Object> fieldNames,
+                                String indexName,
+                                Map<String, Object> partialFilter) {
+        return IndexCreator.ensureIndexed(Index.getInstance(fieldNames,
+                                                            indexName,
+                                                            Index.JSON_TYPE,
+                                                            null,
+                                                            partialFilter),
+                                          database,
+                                          datastore,
+                                          queue);
+    }
+
     /**
      *  Delete an index.
      *
@@ -308,6 +415,11 @@ public class IndexManager {
                     String sql = String.format("DROP TABLE \"%s\"", tableName);
                     database.execSQL(sql);
 
+                    // and its array table, if it has one
+                    sql = String.format("DROP TABLE IF EXISTS \"%s\"",
+                                        arrayTableNameForIndex(indexName));
+                    database.execSQL(sql);
+
                     // Delete the metadata entries
                     String where = " index_name = ? ";
                     database.delete(INDEX_METADATA_TABLE_NAME, where, new String[]{ indexName });
@@ -346,9 +458,90 @@ public class IndexManager {
      *  @return update status as true/false
      */
     public boolean updateAllIndexes() {
-        Map<String, Object> indexes = listIndexes();
+        // Only one update runs at a time, so a query waiting for up-to-date indexes
+        // waits for any background update and then indexes what it didn't.
+        synchronized (indexUpdateLock) {
+            Map<String, Object> indexes = listIndexes();
+
+            return IndexUpdater.updateAllIndexes(indexes, database, datastore, queue);
+        }
+    }
+
+    /**
+     *  Enables or disables background indexing.
+     *
+     *  When enabled, this manager registers with the datastore's EventBus and
+     *  updates all indexes on a background thread after documents are created,
+     *  updated or deleted, including by replication. Changes made while an
+     *  update is running are coalesced into a single further update.
+     *
+     *  To also update indexes as soon as a replication completes, register
+     *  this manager with the replicator's EventBus.
+     *
+     *  Use {@link #find(Map, long, long, List, List, boolean)} to query without
+     *  waiting for indexes to be updated.
+     *
+     *  @param enabled true to update indexes in the background
+     */
+    public synchronized void setBackgroundIndexing(boolean enabled) {
+        if (enabled == backgroundIndexing) {
+            return;
+        }
+        backgroundIndexing = enabled;
+        if (enabled) {
+            datastore.getEventBus().register(this);
+            // catch up with changes made before now
+            scheduleIndexUpdate();
+        } else {
+            datastore.getEventBus().unregister(this);
+        }
+    }
+
+    /**
+     *  Schedules a background index update when a document is created, updated
+     *  or deleted. Only acts when background indexing is enabled.
+     *
+     *  @param event the document event
+     */
+    @Subscribe
+    public void onDocumentModified(DocumentModified event) {
+        if (backgroundIndexing) {
+            scheduleIndexUpdate();
+        }
+    }
+
+    /**
+     *  Schedules a background index update when a replication completes. Only
+     *  acts when background indexing is enabled.
+     *
+     *  @param event the replication event
+     */
+    @Subscribe
+    public void onReplicationCompleted(ReplicationCompleted event) {
+        if (backgroundIndexing) {
+            scheduleIndexUpdate();
+        }
+    }
 
-        return IndexUpdater.updateAllIndexes(indexes, database, datastore, queue);
+    private void scheduleIndexUpdate() {
+        // if an update is already waiting to run, it will pick up this change
+        if (!indexUpdatePending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            indexingQueue.submit(new Runnable() {
+                @Override
+                public void run() {
+                    indexUpdatePending.set(false);
+                    if (!updateAllIndexes()) {
+                        logger.log(Level.WARNING, "Background index update failed.");
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closed
+            indexUpdatePending.set(false);
+        }
     }
 
     public QueryResult find(Map<String, Object> query) {
@@ -360,25 +553,89 @@ public class IndexManager {
                             long limit,
                             List<String> fields,
                             List<Map<String, String>> sortDocument) {
+        return find(query, skip, limit, fields, sortDocument, true);
+    }
+
+    /**
+     *  Execute a query, optionally without first bringing indexes up to date.
+     *
+     *  Queries which don't update indexes are served from the indexes as last
+     *  updated, for example by {@link #setBackgroundIndexing(boolean) background
+     *  indexing}. Their results may miss documents changed since then, and may
+     *  include documents which no longer match the query, though the documents
+     *  returned are always their current revisions.
+     *
+     *  When indexes are updated and an index contains every field in 'fields', the
+     *  fields are read from the index rather than loading the documents, unless the
+     *  query needs documents to be matched without an index.
+     *
+     *  @param query the query selector
+     *  @param skip number of results to skip
+     *  @param limit maximum number of results to return, 0 for no limit
+     *  @param fields fields to project, or null for whole documents
+     *  @param sortDocument sort specification, or null
+     *  @param updateIndexes true to wait for indexes to be updated before querying
+     *  @return the query result, or null if the query or index update failed
+     */
+    public QueryResult find(Map<String, Object> query,
+                            long skip,
+                            long limit,
+                            List<String> fields,
+                            List<Map<String, String>> sortDocument,
+                            boolean updateIndexes) {
         if (query == null) {
             logger.log(Level.SEVERE, "-find called with null selector; bailing.");
             return null;
         }
 
-        if (!updateAllIndexes()) {
+        if (updateIndexes && !updateAllIndexes()) {
             return null;
         }
 
         QueryExecutor queryExecutor = new QueryExecutor(database, datastore, queue);
         Map<String, Object> indexes = listIndexes();
 
-        return queryExecutor.find(query, indexes, skip, limit, fields, sortDocument);
+        return queryExecutor.find(query,
+                                  indexes,
+                                  skip,
+                                  limit,
+                                  fields,
+                                  sortDocument,
+                                  updateIndexes);
+    }
+
+    /**
+     *  Describe how a query would be executed, without executing it.
+     *
+     *  The plan shows the indexes chosen for each part of the query, whether
+     *  documents have to be matched against the query without an index and why,
+     *  and the estimated cost. Indexes are not updated first.
+     *
+     *  @param query the query selector
+     *  @return the query plan, or null if the query is invalid or can't be executed
+     */
+    public QueryPlan explain(Map<String, Object> query) {
+        if (query == null) {
+            logger.log(Level.SEVERE, "-explain called with null selector; bailing.");
+            return null;
+        }
+
+        QueryExecutor queryExecutor = new QueryExecutor(database, datastore, queue);
+        return queryExecutor.explain(query, listIndexes());
     }
 
     protected static String tableNameForIndex(String indexName) {
         return INDEX_TABLE_PREFIX.concat(indexName);
     }
 
+    /**
+     *  Returns the name of the table holding the array elements of an index's
+     *  fields, as rows of ( _id, field_name, value ).
+     */
+    protected static String arrayTableNameForIndex(String indexName) {
+        return ARRAY_TABLE_PREFIX.concat(indexName);
+    }
+
     protected Datastore getDatastore() {
         return datastore;
     }
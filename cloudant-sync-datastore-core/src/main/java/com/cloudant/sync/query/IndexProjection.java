@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.query;
+
+import com.cloudant.sync.datastore.Attachment;
+import com.cloudant.sync.datastore.Datastore;
+import com.cloudant.sync.datastore.DocumentBodyFactory;
+import com.cloudant.sync.datastore.DocumentRevisionBuilder;
+import com.cloudant.sync.datastore.ProjectedDocumentRevision;
+import com.cloudant.sync.sqlite.Cursor;
+import com.cloudant.sync.sqlite.SQLDatabase;
+import com.cloudant.sync.util.DatabaseUtils;
+import com.google.common.base.Joiner;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ *  Projects fields of documents straight from an index table, so that query
+ *  results which only need those fields don't load documents from the datastore.
+ *
+ *  An index can be used if it contains every projected field and none of those
+ *  fields has been given a value which its column can't reproduce exactly, as
+ *  recorded by {@link IndexUpdater}. Documents with more than one row in the index
+ *  can't be projected from it, and are left for the caller to load.
+ *
+ *  Revisions projected from an index have no attachments or sequence number;
+ *  {@link ProjectedDocumentRevision#mutableCopy()} loads the full revision.
+ */
+class IndexProjection {
+
+    private static final Logger logger = Logger.getLogger(IndexProjection.class.getName());
+
+    private final String indexName;
+    private final List<String> bodyFields;
+    private final SQLDatabase database;
+    private final ExecutorService queue;
+    private final Datastore datastore;
+
+    private IndexProjection(String indexName,
+                            List<String> bodyFields,
+                            SQLDatabase database,
+                            ExecutorService queue,
+                            Datastore datastore) {
+        this.indexName = indexName;
+        this.bodyFields = bodyFields;
+        this.database = database;
+        this.queue = queue;
+        this.datastore = datastore;
+    }
+
+    /**
+     *  Returns a projection of 'fields' from one of 'indexes', or null if no index
+     *  can be used.
+     *
+     *  @param fields the fields to project, which must not be dotted
+     *  @param indexes dictionary of indexes
+     */
+    @SuppressWarnings("unchecked")
+    static IndexProjection projectionForFields(List<String> fields,
+                                               Map<String, Object> indexes,
+                                               final SQLDatabase database,
+                                               ExecutorService queue,
+                                               Datastore datastore) {
+        if (fields == null || fields.isEmpty() || indexes == null) {
+            return null;
+        }
+
+        // _id and _rev aren't part of the projected body
+        final List<String> bodyFields = new ArrayList<String>();
+        for (String field: fields) {
+            if (!field.equals("_id") && !field.equals("_rev") && !bodyFields.contains(field)) {
+                bodyFields.add(field);
+            }
+        }
+
+        final List<String> candidates = new ArrayList<String>();
+        for (String indexName: indexes.keySet()) {
+            Map<String, Object> indexDefinition = (Map<String, Object>) indexes.get(indexName);
+            String indexType = (String) indexDefinition.get("type");
+            List<String> indexFields = (List<String>) indexDefinition.get("fields");
+            if (!indexType.equalsIgnoreCase("text") && indexFields.containsAll(bodyFields)) {
+                candidates.add(indexName);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        Future<String> result = queue.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return exactIndexForFields(candidates, bodyFields, database);
+            }
+        });
+
+        String indexName;
+        try {
+            indexName = result.get();
+        } catch (ExecutionException e) {
+            logger.log(Level.WARNING, "Failed to choose an index to project fields from:", e);
+            return null;
+        } catch (InterruptedException e) {
+            logger.log(Level.WARNING, "Interrupted choosing an index to project fields from:", e);
+            return null;
+        }
+
+        if (indexName == null) {
+            return null;
+        }
+
+        return new IndexProjection(indexName, bodyFields, database, queue, datastore);
+    }
+
+    /**
+     *  Returns the first of 'candidates' where every one of 'bodyFields' is known to
+     *  have only exact values, or null if there's none.
+     */
+    private static String exactIndexForFields(List<String> candidates,
+                                              List<String> bodyFields,
+                                              SQLDatabase database) throws SQLException {
+        Map<String, Set<String>> exactFields = new HashMap<String, Set<String>>();
+        String sql = String.format("SELECT index_name, field_name FROM %s " +
+                                   "WHERE lossy_values = 0",
+                                   IndexManager.INDEX_METADATA_TABLE_NAME);
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery(sql, new String[]{});
+            while (cursor.moveToNext()) {
+                String indexName = cursor.getString(0);
+                Set<String> fields = exactFields.get(indexName);
+                if (fields == null) {
+                    fields = new HashSet<String>();
+                    exactFields.put(indexName, fields);
+                }
+                fields.add(cursor.getString(1));
+            }
+        } finally {
+            DatabaseUtils.closeCursorQuietly(cursor);
+        }
+
+        for (String indexName: candidates) {
+            Set<String> fields = exactFields.get(indexName);
+            // Indexes created before lossy values were recorded have no fields
+            // known to be exact, not even _id and _rev.
+            if (fields != null && fields.containsAll(bodyFields)) {
+                return indexName;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     *  Returns the projected revisions of the documents in 'docIds' which can be
+     *  projected from the index, keyed by document id.
+     */
+    Map<String, ProjectedDocumentRevision> projectedRevisions(final List<String> docIds) {
+        if (docIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Future<Map<String, ProjectedDocumentRevision>> result = queue.submit(
+                new Callable<Map<String, ProjectedDocumentRevision>>() {
+            @Override
+            public Map<String, ProjectedDocumentRevision> call() throws Exception {
+                return projectedRevisionsInQueue(docIds);
+            }
+        });
+
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            logger.log(Level.WARNING, "Failed to project fields from index:", e);
+        } catch (InterruptedException e) {
+            logger.log(Level.WARNING, "Interrupted projecting fields from index:", e);
+        }
+
+        // the caller loads the documents instead
+        return Collections.emptyMap();
+    }
+
+    private Map<String, ProjectedDocumentRevision> projectedRevisionsInQueue(List<String> docIds)
+            throws SQLException {
+        List<String> columns = new ArrayList<String>();
+        columns.add("_id");
+        columns.add("_rev");
+        for (String field: bodyFields) {
+            columns.add(String.format("\"%s\"", field));
+        }
+        List<String> placeholders = Collections.nCopies(docIds.size(), "?");
+        String sql = String.format("SELECT %s FROM %s WHERE _id IN (%s)",
+                                   Joiner.on(", ").join(columns),
+                                   IndexManager.tableNameForIndex(indexName),
+                                   Joiner.on(", ").join(placeholders));
+
+        Map<String, ProjectedDocumentRevision> revisions =
+                new HashMap<String, ProjectedDocumentRevision>();
+        Set<String> unprojectable = new HashSet<String>();
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery(sql, docIds.toArray(new String[docIds.size()]));
+            while (cursor.moveToNext()) {
+                String docId = cursor.getString(0);
+                if (unprojectable.contains(docId)) {
+                    continue;
+                }
+                Map<String, Object> body = bodyForRow(cursor);
+                // A second row means an array was indexed, so can't be projected
+                if (body == null || revisions.containsKey(docId)) {
+                    revisions.remove(docId);
+                    unprojectable.add(docId);
+                    continue;
+                }
+
+                DocumentRevisionBuilder revBuilder = new DocumentRevisionBuilder();
+                revBuilder.setDocId(docId);
+                revBuilder.setRevId(cursor.getString(1));
+                revBuilder.setBody(DocumentBodyFactory.create(body));
+                revBuilder.setAttachments(Collections.<Attachment>emptyList());
+                revBuilder.setDatastore(datastore);
+                revisions.put(docId, revBuilder.buildProjected());
+            }
+        } finally {
+            DatabaseUtils.closeCursorQuietly(cursor);
+        }
+
+        return revisions;
+    }
+
+    /**
+     *  Returns the body for the projected columns of the current row, or null if
+     *  a column has a value which couldn't have been indexed from an exact value.
+     */
+    private Map<String, Object> bodyForRow(Cursor cursor) {
+        Map<String, Object> body = new HashMap<String, Object>();
+        for (int i = 0; i < bodyFields.size(); i++) {
+            int column = i + 2;
+            switch (cursor.columnType(column)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    break;  // field missing from the document
+                case Cursor.FIELD_TYPE_STRING:
+                    body.put(bodyFields.get(i), cursor.getString(column));
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    // JSON integers which fit in an int are read as Integers
+                    long value = cursor.getLong(column);
+                    if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                        body.put(bodyFields.get(i), (int) value);
+                    } else {
+                        body.put(bodyFields.get(i), value);
+                    }
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return body;
+    }
+
+}
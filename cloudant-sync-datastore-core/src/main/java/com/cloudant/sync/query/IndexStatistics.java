@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.query;
+
+import static com.cloudant.sync.query.QueryConstants.EQ;
+import static com.cloudant.sync.query.QueryConstants.IN;
+import static com.cloudant.sync.query.QueryConstants.NOT;
+
+import com.cloudant.sync.sqlite.ContentValues;
+import com.cloudant.sync.sqlite.Cursor;
+import com.cloudant.sync.sqlite.SQLDatabase;
+import com.cloudant.sync.util.DatabaseUtils;
+import com.google.common.base.Joiner;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ *  Statistics about the contents of the indexes, used to estimate the cost of
+ *  executing a query using different indexes.
+ *
+ *  For each index, the statistics are the number of rows in the index table and
+ *  the number of distinct values of each field. They're gathered by
+ *  {@link IndexUpdater} once it has indexed enough changes to make the previous
+ *  statistics inaccurate, and stored in the index metadata table along with the
+ *  number of revisions indexed since, which adds up over many small updates.
+ *  Indexes without statistics are given default estimates.
+ */
+class IndexStatistics {
+
+    private static final Logger logger = Logger.getLogger(IndexStatistics.class.getName());
+
+    /**
+     *  Row count assumed for an index without statistics.
+     */
+    static final long DEFAULT_ROW_COUNT = 1000;
+
+    /**
+     *  Fraction of rows assumed to match an equality test on a field without statistics.
+     */
+    static final double DEFAULT_EQUALITY_SELECTIVITY = 0.1;
+
+    /**
+     *  Fraction of rows assumed to match a range or other test.
+     */
+    static final double DEFAULT_SELECTIVITY = 1.0 / 3;
+
+    /**
+     *  Statistics are gathered again once the number of revisions indexed since they
+     *  were last gathered reaches this fraction of the index's row count.
+     */
+    static final double REFRESH_FRACTION = 0.1;
+
+    private final Map<String, Long> rowCounts = new HashMap<String, Long>();
+    private final Map<String, Map<String, Long>> distinctValues =
+            new HashMap<String, Map<String, Long>>();
+
+    /**
+     *  Returns the number of rows in an index, or {@link #DEFAULT_ROW_COUNT} if it
+     *  has no statistics.
+     */
+    long rowCount(String indexName) {
+        Long rowCount = rowCounts.get(indexName);
+        return rowCount != null ? rowCount : DEFAULT_ROW_COUNT;
+    }
+
+    /**
+     *  Returns an estimate of the number of documents in the datastore, which is the
+     *  largest number of distinct document ids in any index.
+     */
+    long documentCount() {
+        long documentCount = -1;
+        for (Map<String, Long> fields : distinctValues.values()) {
+            Long ids = fields.get("_id");
+            if (ids != null && ids > documentCount) {
+                documentCount = ids;
+            }
+        }
+        return documentCount >= 0 ? documentCount : DEFAULT_ROW_COUNT;
+    }
+
+    /**
+     *  Returns the estimated number of rows in an index which match every term of
+     *  an AND clause.
+     *
+     *  @param indexName the index the clause is executed against
+     *  @param clause list of single field predicates, [ { "fieldName": { "$eq": "mike" } }, ... ]
+     */
+    @SuppressWarnings("unchecked")
+    double estimatedRows(String indexName, List<Object> clause) {
+        double rows = rowCount(indexName);
+        for (Object rawTerm : clause) {
+            Map<String, Object> term = (Map<String, Object>) rawTerm;
+            String fieldName = (String) term.keySet().toArray()[0];
+            Object predicate = term.get(fieldName);
+            if (predicate instanceof Map) {
+                rows = rows * selectivity(indexName, fieldName, (Map<String, Object>) predicate);
+            }
+        }
+        return rows;
+    }
+
+    @SuppressWarnings("unchecked")
+    private double selectivity(String indexName, String fieldName, Map<String, Object> predicate) {
+        if (predicate.size() != 1) {
+            return DEFAULT_SELECTIVITY;
+        }
+        String operator = (String) predicate.keySet().toArray()[0];
+        Object value = predicate.get(operator);
+
+        if (operator.equals(NOT) && value instanceof Map) {
+            return 1 - selectivity(indexName, fieldName, (Map<String, Object>) value);
+        } else if (operator.equals(EQ)) {
+            return equalitySelectivity(indexName, fieldName);
+        } else if (operator.equals(IN) && value instanceof List) {
+            int values = ((List<Object>) value).size();
+            return Math.min(1.0, values * equalitySelectivity(indexName, fieldName));
+        } else {
+            return DEFAULT_SELECTIVITY;
+        }
+    }
+
+    private double equalitySelectivity(String indexName, String fieldName) {
+        Map<String, Long> fields = distinctValues.get(indexName);
+        Long distinct = fields != null ? fields.get(fieldName) : null;
+        if (distinct == null || distinct <= 0) {
+            return DEFAULT_EQUALITY_SELECTIVITY;
+        }
+        return 1.0 / distinct;
+    }
+
+    /**
+     *  Reads the statistics for every index from the metadata table.
+     *
+     *  @param db the index database
+     *  @return the statistics, with none for indexes where they couldn't be read
+     */
+    static IndexStatistics statisticsInDatabase(SQLDatabase db) {
+        IndexStatistics statistics = new IndexStatistics();
+        String sql = String.format("SELECT index_name, field_name, row_count, distinct_values " +
+                                   "FROM %s WHERE row_count IS NOT NULL",
+                                   IndexManager.INDEX_METADATA_TABLE_NAME);
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(sql, new String[]{});
+            while (cursor.moveToNext()) {
+                String indexName = cursor.getString(0);
+                Map<String, Long> fields = statistics.distinctValues.get(indexName);
+                if (fields == null) {
+                    fields = new HashMap<String, Long>();
+                    statistics.distinctValues.put(indexName, fields);
+                    statistics.rowCounts.put(indexName, cursor.getLong(2));
+                }
+                fields.put(cursor.getString(1), cursor.getLong(3));
+            }
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to read index statistics.", e);
+        } finally {
+            DatabaseUtils.closeCursorQuietly(cursor);
+        }
+
+        return statistics;
+    }
+
+    /**
+     *  Gathers and stores the statistics for an index if there are none, or if
+     *  the revisions indexed since they were gathered, including 'revisionsIndexed',
+     *  are enough to make them inaccurate. Otherwise adds 'revisionsIndexed' to the
+     *  count stored for the index.
+     *
+     *  This reads the whole index table, so should be called once after indexing
+     *  a batch of changes rather than for each change.
+     *
+     *  @param db the index database
+     *  @param indexName the index
+     *  @param fieldNames the fields of the index
+     *  @param revisionsIndexed number of revisions indexed by the update just made
+     *  @return false if the statistics couldn't be gathered or stored
+     */
+    static boolean updateStatisticsInDatabase(SQLDatabase db,
+                                              String indexName,
+                                              List<String> fieldNames,
+                                              long revisionsIndexed) {
+        String metadataSql = String.format("SELECT row_count, revisions_indexed FROM %s " +
+                                           "WHERE index_name = ?",
+                                           IndexManager.INDEX_METADATA_TABLE_NAME);
+        List<String> counts = new ArrayList<String>();
+        counts.add("COUNT(*)");
+        for (String fieldName : fieldNames) {
+            counts.add(String.format("COUNT(DISTINCT \"%s\")", fieldName));
+        }
+        String countSql = String.format("SELECT %s FROM %s",
+                                        Joiner.on(", ").join(counts),
+                                        IndexManager.tableNameForIndex(indexName));
+
+        long indexedSinceGathered = revisionsIndexed;
+        boolean accurate = false;
+        Cursor metadataCursor = null;
+        try {
+            metadataCursor = db.rawQuery(metadataSql, new String[]{ indexName });
+            if (metadataCursor.moveToNext() &&
+                    metadataCursor.columnType(0) != Cursor.FIELD_TYPE_NULL) {
+                // a NULL revisions_indexed is read as 0
+                indexedSinceGathered += metadataCursor.getLong(1);
+                accurate = indexedSinceGathered < metadataCursor.getLong(0) * REFRESH_FRACTION;
+            }
+        } catch (SQLException e) {
+            String msg = String.format("Failed to read statistics for index %s.", indexName);
+            logger.log(Level.SEVERE, msg, e);
+            return false;
+        } finally {
+            DatabaseUtils.closeCursorQuietly(metadataCursor);
+        }
+
+        if (accurate) {
+            // existing statistics are still accurate enough
+            ContentValues v = new ContentValues();
+            v.put("revisions_indexed", indexedSinceGathered);
+            return db.update(IndexManager.INDEX_METADATA_TABLE_NAME,
+                             v,
+                             " index_name = ? ",
+                             new String[]{ indexName }) > 0;
+        }
+
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(countSql, new String[]{});
+            if (!cursor.moveToNext()) {
+                return false;
+            }
+            long rowCount = cursor.getLong(0);
+            for (int i = 0; i < fieldNames.size(); i++) {
+                ContentValues v = new ContentValues();
+                v.put("row_count", rowCount);
+                v.put("distinct_values", cursor.getLong(i + 1));
+                v.put("revisions_indexed", 0);
+                int rows = db.update(IndexManager.INDEX_METADATA_TABLE_NAME,
+                                     v,
+                                     " index_name = ? AND field_name = ? ",
+                                     new String[]{ indexName, fieldNames.get(i) });
+                if (rows <= 0) {
+                    return false;
+                }
+            }
+        } catch (SQLException e) {
+            String msg = String.format("Failed to gather statistics for index %s.", indexName);
+            logger.log(Level.SEVERE, msg, e);
+            return false;
+        } finally {
+            DatabaseUtils.closeCursorQuietly(cursor);
+        }
+
+        return true;
+    }
+
+}
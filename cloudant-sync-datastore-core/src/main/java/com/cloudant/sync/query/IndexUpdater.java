@@ -13,7 +13,7 @@
 package com.cloudant.sync.query;
 
 import com.cloudant.sync.datastore.BasicDocumentRevision;
-import com.cloudant.sync.datastore.Changes;
+import com.cloudant.sync.datastore.ChangesIterator;
 import com.cloudant.sync.datastore.Datastore;
 import com.cloudant.sync.sqlite.ContentValues;
 import com.cloudant.sync.sqlite.Cursor;
@@ -23,14 +23,22 @@ import com.cloudant.sync.util.DatabaseUtils;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 /**
  *  Handles updating indexes for a given datastore.
@@ -44,6 +52,27 @@ class IndexUpdater {
 
     private static final Logger logger = Logger.getLogger(IndexUpdater.class.getName());
 
+    private static final int MAX_REVISIONS_PER_TRANSACTION = 10000;
+
+    // Text which SQLite may convert to a number when it's stored in a column with
+    // NUMERIC affinity: decimal integer and real literals, allowing surrounding
+    // whitespace. This matches more than SQLite converts, which only costs projection.
+    private static final Pattern NUMERIC_TEXT =
+            Pattern.compile("\\s*[+-]?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?\\s*");
+
+    /**
+     *  Number of revisions in each batch converted to index rows by a worker when
+     *  rebuilding an index.
+     */
+    static final int REBUILD_BATCH_SIZE = 1000;
+
+    /**
+     *  Number of worker threads converting revisions to index rows when rebuilding
+     *  an index.
+     */
+    static final int REBUILD_THREADS =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
     /**
      *  Constructs a new CDTQQueryExecutor using the indexes in 'database' to index documents from
      *  'datastore'.
@@ -91,93 +120,243 @@ class IndexUpdater {
                                       SQLDatabase database,
                                       Datastore datastore,
                                       ExecutorService queue) {
+        return updateIndex(indexName, fieldNames, null, database, datastore, queue);
+    }
+
+    /**
+     *  Update a single, possibly partial, index.
+     *
+     *  This index is assumed to already exist.
+     *
+     *  @param indexName Name of index to update
+     *  @param fieldNames List of field names in the sort format
+     *  @param partialFilter Normalised selector for the documents in the index,
+     *                       or null to index every document
+     *  @param database The local database
+     *  @param datastore The local datastore
+     *  @param queue The executor service queue
+     *  @return index update success status (true/false)
+     */
+    public static boolean updateIndex(String indexName,
+                                      List<String> fieldNames,
+                                      Map<String, Object> partialFilter,
+                                      SQLDatabase database,
+                                      Datastore datastore,
+                                      ExecutorService queue) {
+        IndexUpdater updater = new IndexUpdater(database, datastore, queue);
+
+        return updater.updateIndex(indexName, fieldNames, partialFilter);
+    }
+
+    /**
+     *  Builds a newly created index from every document in the datastore.
+     *
+     *  Unlike {@link #updateIndex(String, List, Map, SQLDatabase, Datastore, ExecutorService)},
+     *  which reads, converts and writes one batch of changes at a time, this reads the
+     *  changes on the calling thread while a pool of {@link #REBUILD_THREADS} workers
+     *  converts them to index rows, and the rows are written in order on 'queue'. The
+     *  index's last sequence is updated with each batch written, so an interrupted
+     *  build is carried on by the next update.
+     *
+     *  @param indexName Name of index to build
+     *  @param fieldNames List of field names in the sort format
+     *  @param partialFilter Normalised selector for the documents in the index,
+     *                       or null to index every document
+     *  @param database The local database
+     *  @param datastore The local datastore
+     *  @param queue The executor service queue
+     *  @return index build success status (true/false)
+     */
+    public static boolean rebuildIndex(String indexName,
+                                       List<String> fieldNames,
+                                       Map<String, Object> partialFilter,
+                                       SQLDatabase database,
+                                       Datastore datastore,
+                                       ExecutorService queue) {
         IndexUpdater updater = new IndexUpdater(database, datastore, queue);
 
-        return updater.updateIndex(indexName, fieldNames);
+        return updater.rebuildIndex(indexName, fieldNames, partialFilter);
     }
 
     @SuppressWarnings("unchecked")
     private boolean updateAllIndexes(Map<String, Object> indexes) {
-        boolean success = true;
-
+        Map<String, List<String>> fieldNamesForIndexes = new HashMap<String, List<String>>();
+        Map<String, Map<String, Object>> partialFilters =
+                new HashMap<String, Map<String, Object>>();
         for (String indexName: indexes.keySet()) {
             Map<String, Object> index = (Map<String, Object>) indexes.get(indexName);
             List<String> fields = (ArrayList<String>) index.get("fields");
-            success = updateIndex(indexName, fields);
-            if (!success) {
-                break;
+            fieldNamesForIndexes.put(indexName, fields);
+            Map<String, Object> partialFilter = (Map<String, Object>) index.get("partial_filter");
+            if (partialFilter != null) {
+                partialFilters.put(indexName, partialFilter);
             }
         }
 
-        return success;
+        return updateIndexes(fieldNamesForIndexes, partialFilters);
     }
 
-    private boolean updateIndex(String indexName, List<String> fieldNames) {
-        boolean success;
-        Changes changes;
-        long lastSequence = sequenceNumberForIndex(indexName);
+    private boolean updateIndex(String indexName,
+                                List<String> fieldNames,
+                                Map<String, Object> partialFilter) {
+        if (indexName == null || indexName.isEmpty()) {
+            return false;
+        }
 
-        do {
-            changes = datastore.changes(lastSequence, 10000);
-            success = updateIndex(indexName, fieldNames, changes, lastSequence);
-            lastSequence = changes.getLastSequence();
-        } while (success && changes.size() > 0);
+        Map<String, Map<String, Object>> partialFilters = partialFilter != null ?
+                Collections.singletonMap(indexName, partialFilter) :
+                Collections.<String, Map<String, Object>>emptyMap();
+        return updateIndexes(Collections.singletonMap(indexName, fieldNames), partialFilters);
+    }
+
+    /**
+     *  Updates a set of indexes from a single pass over the changes feed.
+     *
+     *  The changes are read from the lowest last sequence of the indexes, and
+     *  each changed document's current revision is written to the indexes which
+     *  haven't already indexed the page of changes it came from. Partial
+     *  indexes only get rows for the revisions matching their filter.
+     *
+     *  @param fieldNamesForIndexes Map of index names to their field names
+     *  @param partialFilters Map of partial index names to their filters
+     *  @return index update success status (true/false)
+     */
+    private boolean updateIndexes(Map<String, List<String>> fieldNamesForIndexes,
+                                  Map<String, Map<String, Object>> partialFilters) {
+        if (fieldNamesForIndexes.isEmpty()) {
+            return true;
+        }
+
+        Map<String, UnindexedMatcher> matchers = new HashMap<String, UnindexedMatcher>();
+        for (Map.Entry<String, Map<String, Object>> partialFilter: partialFilters.entrySet()) {
+            UnindexedMatcher matcher = UnindexedMatcher.matcherWithSelector(
+                    partialFilter.getValue());
+            if (matcher == null) {
+                String msg = String.format("Invalid partial filter %s for index %s",
+                                           partialFilter.getValue(),
+                                           partialFilter.getKey());
+                logger.log(Level.SEVERE, msg);
+                return false;
+            }
+            matchers.put(partialFilter.getKey(), matcher);
+        }
+
+        Map<String, Long> sequenceNumbers =
+                sequenceNumbersForIndexes(fieldNamesForIndexes.keySet());
+        if (sequenceNumbers == null) {
+            return false;
+        }
+
+        Set<String> arrayTableIndexes = indexesWithArrayTables(fieldNamesForIndexes.keySet());
+        if (arrayTableIndexes == null) {
+            return false;
+        }
+
+        boolean success = true;
+        long since = Collections.min(sequenceNumbers.values());
+        ChangesIterator changes = datastore.changesIterator(since);
+        Map<String, Long> revisionsIndexed = new HashMap<String, Long>();
+
+        while (success && changes.hasNext()) {
+            success = updateIndexes(fieldNamesForIndexes, matchers, arrayTableIndexes,
+                                    sequenceNumbers, revisionsIndexed, changes);
+        }
 
         // raise error
         if (!success) {
-            logger.log(Level.SEVERE, String.format("Problem updating index %s", indexName));
+            logger.log(Level.SEVERE, String.format("Problem updating indexes %s",
+                                                   fieldNamesForIndexes.keySet()));
+        } else if (!revisionsIndexed.isEmpty()) {
+            updateStatistics(fieldNamesForIndexes, revisionsIndexed);
         }
 
         return success;
     }
 
-    private boolean updateIndex(final String indexName,
-                                final List<String> fieldNames,
-                                final Changes changes,
-                                long lastSequence) {
-        if (indexName == null || indexName.isEmpty()) {
-            return false;
-        }
-
+    /**
+     *  Indexes the next batch of at most {@code MAX_REVISIONS_PER_TRANSACTION} revisions
+     *  from 'changes' into every index in a single transaction, then records the
+     *  new last sequence of each index in the same transaction. A revision not
+     *  matching the filter of a partial index is removed from it, as if deleted.
+     *
+     *  'sequenceNumbers' is updated with the new last sequences if the transaction
+     *  succeeds, and 'revisionsIndexed' with the number of revisions written to each
+     *  index. Fields given values the index can't reproduce exactly are recorded in
+     *  the metadata table, for {@link IndexProjection}, as are fields given array
+     *  values in indexes with an array table, for {@link QuerySqlTranslator}.
+     */
+    private boolean updateIndexes(final Map<String, List<String>> fieldNamesForIndexes,
+                                  final Map<String, UnindexedMatcher> matchers,
+                                  final Set<String> arrayTableIndexes,
+                                  final Map<String, Long> sequenceNumbers,
+                                  final Map<String, Long> revisionsIndexed,
+                                  final ChangesIterator changes) {
         Future<Boolean> result = queue.submit( new Callable<Boolean>() {
             @Override
             public Boolean call() {
                 boolean transactionSuccess = true;
+                Map<String, Set<String>> lossyFields = new HashMap<String, Set<String>>();
+                Map<String, Set<String>> arrayFields = new HashMap<String, Set<String>>();
                 database.beginTransaction();
-                for (BasicDocumentRevision rev: changes.getResults()) {
-                    // Delete existing values
-                    String tableName = IndexManager.tableNameForIndex(indexName);
-                    database.delete(tableName, " _id = ? ", new String[]{rev.getId()});
-
-                    // Insert new values if the rev isn't deleted
-                    if (!rev.isDeleted()) {
-                        // If we are indexing a document where one field is an array, we
-                        // have multiple rows to insert into the index.
-                        List<DBParameter> parameters = parametersToIndexRevision(rev,
-                                                                                 indexName,
-                                                                                 fieldNames);
-                        if (parameters == null) {
+                for (int i = 0; i < MAX_REVISIONS_PER_TRANSACTION && changes.hasNext(); i++) {
+                    BasicDocumentRevision rev = changes.next();
+                    // Only convert the body once for all the indexes
+                    Map<String, Object> body = rev.isDeleted() ? null : rev.getBody().asMap();
+                    for (Map.Entry<String, List<String>> index:
+                            fieldNamesForIndexes.entrySet()) {
+                        String indexName = index.getKey();
+                        if (changes.getPageLastSequence() <= sequenceNumbers.get(indexName)) {
+                            // every change in this page was indexed by an earlier update;
+                            // the revision's own sequence can't be used, as it may be
+                            // older than the change which made it current
                             continue;
                         }
-                        for (DBParameter parameter: parameters) {
-                            if (parameter != null) {
-                                long rowId = database.insert(parameter.tableName,
-                                                             parameter.contentValues);
-                                if (rowId < 0) {
-                                    transactionSuccess = false;
-                                }
+                        UnindexedMatcher matcher = matchers.get(indexName);
+                        Map<String, Object> indexedBody = body;
+                        if (body != null && matcher != null && !matcher.matches(rev, body)) {
+                            indexedBody = null;  // outside the partial index
+                        }
+                        boolean arrayTable = arrayTableIndexes.contains(indexName);
+                        transactionSuccess = updateIndex(indexName, index.getValue(), rev,
+                                                         indexedBody, arrayTable);
+                        Long indexed = revisionsIndexed.get(indexName);
+                        revisionsIndexed.put(indexName, indexed != null ? indexed + 1 : 1);
+                        if (indexedBody != null) {
+                            Set<String> lossy = lossyFields.get(indexName);
+                            if (lossy == null) {
+                                lossy = new HashSet<String>();
+                                lossyFields.put(indexName, lossy);
                             }
-                            if (!transactionSuccess) {
-                                String msg = String.format("Updating index %s failed.", indexName);
-                                logger.log(Level.SEVERE, msg);
-                                break;
+                            addLossyFields(index.getValue(), body, lossy);
+                        }
+                        if (indexedBody != null && arrayTable) {
+                            Set<String> arrays = arrayFields.get(indexName);
+                            if (arrays == null) {
+                                arrays = new HashSet<String>();
+                                arrayFields.put(indexName, arrays);
                             }
+                            arrays.addAll(arrayFieldNames(index.getValue(), body));
+                        }
+                        if (!transactionSuccess) {
+                            String msg = String.format("Updating index %s failed.", indexName);
+                            logger.log(Level.SEVERE, msg);
+                            break;
                         }
                     }
                     if (!transactionSuccess) {
                         break;
                     }
                 }
+                if (transactionSuccess) {
+                    transactionSuccess = updateMetadataForIndexes(sequenceNumbers,
+                                                                  changes.getLastSequence());
+                }
+                if (transactionSuccess) {
+                    transactionSuccess = updateFieldsForIndexes(lossyFields, "lossy_values");
+                }
+                if (transactionSuccess) {
+                    transactionSuccess = updateFieldsForIndexes(arrayFields, "array_values");
+                }
                 if (transactionSuccess) {
                     database.setTransactionSuccessful();
                 }
@@ -198,14 +377,353 @@ class IndexUpdater {
             success = false;
         }
 
-        // if there was a problem, we rolled back, so the sequence won't be updated
+        // if there was a problem, we rolled back, so the sequences won't be updated
         if (success) {
-            success = updateMetadataForIndex(indexName, lastSequence);
+            for (Map.Entry<String, Long> sequenceNumber: sequenceNumbers.entrySet()) {
+                if (sequenceNumber.getValue() < changes.getLastSequence()) {
+                    sequenceNumber.setValue(changes.getLastSequence());
+                }
+            }
         }
 
         return success;
     }
 
+    private boolean rebuildIndex(final String indexName,
+                                 final List<String> fieldNames,
+                                 Map<String, Object> partialFilter) {
+        if (indexName == null || indexName.isEmpty()) {
+            return false;
+        }
+
+        UnindexedMatcher matcher = null;
+        if (partialFilter != null) {
+            matcher = UnindexedMatcher.matcherWithSelector(partialFilter);
+            if (matcher == null) {
+                String msg = String.format("Invalid partial filter %s for index %s",
+                                           partialFilter,
+                                           indexName);
+                logger.log(Level.SEVERE, msg);
+                return false;
+            }
+        }
+
+        Map<String, Long> sequenceNumbers =
+                sequenceNumbersForIndexes(Collections.singleton(indexName));
+        Set<String> arrayTableIndexes = indexesWithArrayTables(Collections.singleton(indexName));
+        if (sequenceNumbers == null || arrayTableIndexes == null) {
+            return false;
+        }
+        boolean arrayTable = arrayTableIndexes.contains(indexName);
+
+        // Workers convert revisions to rows while the changes are read; batches
+        // are written in the order they were read, at most two per worker ahead
+        // of the writer so that only a few batches are held in memory.
+        ExecutorService workers = Executors.newFixedThreadPool(REBUILD_THREADS);
+        LinkedList<Future<RebuildBatch>> converting = new LinkedList<Future<RebuildBatch>>();
+        Future<Boolean> writing = null;
+        boolean success = true;
+        long revisionsIndexed = 0;
+        try {
+            ChangesIterator changes = datastore.changesIterator(sequenceNumbers.get(indexName));
+            while (success && changes.hasNext()) {
+                List<BasicDocumentRevision> revisions = new ArrayList<BasicDocumentRevision>();
+                for (int i = 0; i < REBUILD_BATCH_SIZE && changes.hasNext(); i++) {
+                    revisions.add(changes.next());
+                }
+                converting.add(workers.submit(new RebuildBatch(indexName,
+                                                               fieldNames,
+                                                               matcher,
+                                                               arrayTable,
+                                                               revisions,
+                                                               changes.getLastSequence())));
+                if (converting.size() >= 2 * REBUILD_THREADS) {
+                    RebuildBatch batch = converting.removeFirst().get();
+                    success = writing == null || writing.get();
+                    if (success) {
+                        writing = writeBatch(batch, arrayTable, sequenceNumbers);
+                        revisionsIndexed = revisionsIndexed + batch.docIds.size();
+                    }
+                }
+            }
+            while (success && !converting.isEmpty()) {
+                RebuildBatch batch = converting.removeFirst().get();
+                success = writing == null || writing.get();
+                if (success) {
+                    writing = writeBatch(batch, arrayTable, sequenceNumbers);
+                    revisionsIndexed = revisionsIndexed + batch.docIds.size();
+                }
+            }
+            if (success && writing != null) {
+                success = writing.get();
+            }
+        } catch (ExecutionException e) {
+            logger.log(Level.SEVERE, "Execution error encountered:", e);
+            success = false;
+        } catch (InterruptedException e) {
+            logger.log(Level.SEVERE, "Execution interrupted error encountered:", e);
+            success = false;
+        } finally {
+            workers.shutdownNow();
+        }
+
+        if (!success) {
+            logger.log(Level.SEVERE, String.format("Problem building index %s", indexName));
+        } else if (revisionsIndexed > 0) {
+            updateStatistics(Collections.singletonMap(indexName, fieldNames),
+                             Collections.singletonMap(indexName, revisionsIndexed));
+        }
+
+        return success;
+    }
+
+    /**
+     *  Submits the rows of a converted batch to be written on the queue, in a single
+     *  transaction which also records the batch's last sequence for the index.
+     */
+    private Future<Boolean> writeBatch(final RebuildBatch batch,
+                                       final boolean arrayTable,
+                                       final Map<String, Long> sequenceNumbers) {
+        return queue.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                boolean transactionSuccess = true;
+                database.beginTransaction();
+                for (int i = 0; i < batch.docIds.size(); i++) {
+                    transactionSuccess = replaceRows(batch.indexName,
+                                                     batch.docIds.get(i),
+                                                     batch.parameters.get(i),
+                                                     arrayTable);
+                    if (!transactionSuccess) {
+                        String msg = String.format("Updating index %s failed.", batch.indexName);
+                        logger.log(Level.SEVERE, msg);
+                        break;
+                    }
+                }
+                if (transactionSuccess) {
+                    transactionSuccess = updateMetadataForIndexes(sequenceNumbers,
+                                                                  batch.lastSequence);
+                }
+                if (transactionSuccess) {
+                    transactionSuccess = updateFieldsForIndexes(
+                            Collections.singletonMap(batch.indexName, batch.lossyFields),
+                            "lossy_values");
+                }
+                if (transactionSuccess) {
+                    transactionSuccess = updateFieldsForIndexes(
+                            Collections.singletonMap(batch.indexName, batch.arrayFields),
+                            "array_values");
+                }
+                if (transactionSuccess) {
+                    database.setTransactionSuccessful();
+                    if (sequenceNumbers.get(batch.indexName) < batch.lastSequence) {
+                        sequenceNumbers.put(batch.indexName, batch.lastSequence);
+                    }
+                }
+                database.endTransaction();
+
+                return transactionSuccess;
+            }
+        });
+    }
+
+    /**
+     *  A batch of revisions converted to index rows by a worker while rebuilding
+     *  an index, with the fields given lossy and array values by them.
+     */
+    private class RebuildBatch implements Callable<RebuildBatch> {
+
+        private final String indexName;
+        private final List<String> fieldNames;
+        private final UnindexedMatcher matcher;
+        private final boolean arrayTable;
+        private final long lastSequence;
+        private List<BasicDocumentRevision> revisions;
+
+        private final List<String> docIds = new ArrayList<String>();
+        private final List<List<DBParameter>> parameters = new ArrayList<List<DBParameter>>();
+        private final Set<String> lossyFields = new HashSet<String>();
+        private final Set<String> arrayFields = new HashSet<String>();
+
+        RebuildBatch(String indexName,
+                     List<String> fieldNames,
+                     UnindexedMatcher matcher,
+                     boolean arrayTable,
+                     List<BasicDocumentRevision> revisions,
+                     long lastSequence) {
+            this.indexName = indexName;
+            this.fieldNames = fieldNames;
+            this.matcher = matcher;
+            this.arrayTable = arrayTable;
+            this.revisions = revisions;
+            this.lastSequence = lastSequence;
+        }
+
+        @Override
+        public RebuildBatch call() {
+            for (BasicDocumentRevision rev: revisions) {
+                Map<String, Object> body = rev.isDeleted() ? null : rev.getBody().asMap();
+                if (body != null && matcher != null && !matcher.matches(rev, body)) {
+                    body = null;  // outside the partial index
+                }
+                docIds.add(rev.getId());
+                parameters.add(parametersForRevision(indexName,
+                                                     fieldNames,
+                                                     rev,
+                                                     body,
+                                                     arrayTable));
+                if (body != null) {
+                    addLossyFields(fieldNames, body, lossyFields);
+                    if (arrayTable) {
+                        arrayFields.addAll(arrayFieldNames(fieldNames, body));
+                    }
+                }
+            }
+            // the rows are all that's needed from here on
+            revisions = null;
+            return this;
+        }
+    }
+
+    /**
+     *  Gathers new statistics for the indexes which have had enough revisions
+     *  indexed to make their statistics inaccurate.
+     *
+     *  Statistics are only used to plan queries, so failing to gather them
+     *  doesn't fail the update.
+     */
+    private void updateStatistics(final Map<String, List<String>> fieldNamesForIndexes,
+                                  final Map<String, Long> revisionsIndexed) {
+        Future<Boolean> result = queue.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                boolean transactionSuccess = true;
+                database.beginTransaction();
+                for (Map.Entry<String, Long> indexed: revisionsIndexed.entrySet()) {
+                    String indexName = indexed.getKey();
+                    transactionSuccess = IndexStatistics.updateStatisticsInDatabase(database,
+                            indexName,
+                            fieldNamesForIndexes.get(indexName),
+                            indexed.getValue());
+                    if (!transactionSuccess) {
+                        break;
+                    }
+                }
+                if (transactionSuccess) {
+                    database.setTransactionSuccessful();
+                }
+                database.endTransaction();
+
+                return transactionSuccess;
+            }
+        });
+
+        boolean success;
+        try {
+            success = result.get();
+        } catch (ExecutionException e) {
+            logger.log(Level.WARNING, "Execution error encountered:", e);
+            success = false;
+        } catch (InterruptedException e) {
+            logger.log(Level.WARNING, "Execution interrupted error encountered:", e);
+            success = false;
+        }
+
+        if (!success) {
+            logger.log(Level.WARNING, String.format("Problem gathering statistics for indexes %s",
+                                                    revisionsIndexed.keySet()));
+        }
+    }
+
+    /**
+     *  Replaces the rows for a single revision in an index. Must be called on
+     *  the queue, inside a transaction.
+     *
+     *  @param body the revision's body as a map, or null if the revision is deleted
+     *              or shouldn't be in the index
+     *  @param arrayTable true if the index has an array table for array elements
+     */
+    private boolean updateIndex(String indexName,
+                                List<String> fieldNames,
+                                BasicDocumentRevision rev,
+                                Map<String, Object> body,
+                                boolean arrayTable) {
+        List<DBParameter> parameters = parametersForRevision(indexName,
+                                                             fieldNames,
+                                                             rev,
+                                                             body,
+                                                             arrayTable);
+        return replaceRows(indexName, rev.getId(), parameters, arrayTable);
+    }
+
+    /**
+     *  Returns the rows to insert to index a single revision, or null if there
+     *  are none. Doesn't use the database, so can be called off the queue.
+     *
+     *  @param body the revision's body as a map, or null if the revision is deleted
+     *              or shouldn't be in the index
+     *  @param arrayTable true if the index has an array table for array elements
+     */
+    private List<DBParameter> parametersForRevision(String indexName,
+                                                    List<String> fieldNames,
+                                                    BasicDocumentRevision rev,
+                                                    Map<String, Object> body,
+                                                    boolean arrayTable) {
+        if (body == null) {
+            return null;
+        }
+
+        // If we are indexing a document where one field is an array, we have
+        // multiple rows to insert, either into the array table or the index.
+        if (arrayTable) {
+            return parametersToIndexRevisionWithArrayTable(rev, body, indexName, fieldNames);
+        } else {
+            return parametersToIndexRevision(rev, body, indexName, fieldNames);
+        }
+    }
+
+    /**
+     *  Deletes a document's rows from an index and inserts 'parameters' in their
+     *  place. Must be called on the queue, inside a transaction.
+     *
+     *  @param parameters the rows to insert, or null to only delete the existing rows
+     */
+    private boolean replaceRows(String indexName,
+                                String docId,
+                                List<DBParameter> parameters,
+                                boolean arrayTable) {
+        // Delete existing values, using statements compiled once per index
+        try {
+            String sql = String.format("DELETE FROM %s WHERE _id = ?",
+                                       IndexManager.tableNameForIndex(indexName));
+            database.compileStatement(sql).executeUpdateDelete(new Object[]{docId});
+            if (arrayTable) {
+                sql = String.format("DELETE FROM %s WHERE _id = ?",
+                                    IndexManager.arrayTableNameForIndex(indexName));
+                database.compileStatement(sql).executeUpdateDelete(new Object[]{docId});
+            }
+        } catch (SQLException e) {
+            String msg = String.format("Failed to delete %s from index %s", docId, indexName);
+            logger.log(Level.SEVERE, msg, e);
+            return false;
+        }
+
+        // Insert new values if the rev isn't deleted
+        if (parameters == null) {
+            return true;
+        }
+        for (DBParameter parameter: parameters) {
+            if (parameter != null) {
+                long rowId = database.insert(parameter.tableName, parameter.contentValues);
+                if (rowId < 0) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
     /**
      *  Returns a List of DBParameters containing table name and ContentValues to index
      *  a document in an index.
@@ -215,6 +733,7 @@ class IndexUpdater {
      */
     @SuppressWarnings("unchecked")
     private List<DBParameter> parametersToIndexRevision (BasicDocumentRevision rev,
+                                                         Map<String, Object> body,
                                                          String indexName,
                                                          List<String> fieldNames) {
         if (rev == null) {
@@ -232,7 +751,7 @@ class IndexUpdater {
         int arrayCount = 0;
         String arrayFieldName = null; // only record the last, as error if more than one
         for (String fieldName: fieldNames) {
-            Object value = ValueExtractor.extractValueForFieldName(fieldName, rev.getBody());
+            Object value = ValueExtractor.extractValueForFieldName(fieldName, body);
             if (value != null && value instanceof List) {
                 arrayCount = arrayCount + 1;
                 arrayFieldName = fieldName;
@@ -252,7 +771,7 @@ class IndexUpdater {
         List<Object> arrayFieldValues = null;
         if (arrayCount == 1) {
             arrayFieldValues = (List) ValueExtractor.extractValueForFieldName(arrayFieldName,
-                                                                              rev.getBody());
+                                                                              body);
         }
 
         if (arrayFieldValues != null && arrayFieldValues.size() > 0) {
@@ -269,7 +788,7 @@ class IndexUpdater {
                                                             initialIncludedFields,
                                                             initialArgs,
                                                             indexName,
-                                                            rev);
+                                                            body);
                 if (parameter == null) {
                     return null;
                 }
@@ -286,7 +805,7 @@ class IndexUpdater {
                                                         initialIncludedFields,
                                                         initialArgs,
                                                         indexName,
-                                                        rev);
+                                                        body);
             if (parameter == null) {
                 return null;
             }
@@ -296,11 +815,69 @@ class IndexUpdater {
         return parameters;
     }
 
+    /**
+     *  Returns a List of DBParameters to index a document in an index with an array
+     *  table: a single row for the index table, with no values for array fields, and
+     *  a row in the array table for each distinct element of each array field.
+     */
+    @SuppressWarnings("unchecked")
+    private List<DBParameter> parametersToIndexRevisionWithArrayTable(
+            BasicDocumentRevision rev,
+            Map<String, Object> body,
+            String indexName,
+            List<String> fieldNames) {
+        List<String> arrayFieldNames = arrayFieldNames(fieldNames, body);
+        List<String> scalarFieldNames = new ArrayList<String>(fieldNames);
+        scalarFieldNames.removeAll(arrayFieldNames);
+
+        List<DBParameter> parameters = new ArrayList<DBParameter>();
+        List<String> initialIncludedFields = Arrays.asList("_id", "_rev");
+        List<Object> initialArgs = Arrays.<Object>asList(rev.getId(), rev.getRevision());
+        parameters.add(populateDBParameter(scalarFieldNames,
+                                           initialIncludedFields,
+                                           initialArgs,
+                                           indexName,
+                                           body));
+
+        String arrayTableName = IndexManager.arrayTableNameForIndex(indexName);
+        for (String fieldName: arrayFieldNames) {
+            List<Object> elements = (List<Object>) ValueExtractor.extractValueForFieldName(
+                    fieldName, body);
+            for (Object element: new LinkedHashSet<Object>(elements)) {
+                ContentValues contentValues = new ContentValues();
+                contentValues.put("_id", rev.getId());
+                contentValues.put("field_name", fieldName);
+                // Elements which can't be compared in SQL, such as nulls
+                // and objects, can't be matched so aren't indexed.
+                if (putValue(contentValues, "value", element)) {
+                    parameters.add(new DBParameter(arrayTableName, contentValues));
+                }
+            }
+        }
+
+        return parameters;
+    }
+
+    /**
+     *  Returns the fields in 'fieldNames' which have non-empty array values in 'body'.
+     */
+    private static List<String> arrayFieldNames(List<String> fieldNames,
+                                                Map<String, Object> body) {
+        List<String> arrayFieldNames = new ArrayList<String>();
+        for (String fieldName: fieldNames) {
+            Object value = ValueExtractor.extractValueForFieldName(fieldName, body);
+            if (value instanceof List && !((List) value).isEmpty()) {
+                arrayFieldNames.add(fieldName);
+            }
+        }
+        return arrayFieldNames;
+    }
+
     private DBParameter populateDBParameter(List<String> fieldNames,
                                             List<String> initialIncludedFields,
                                             List<Object> initialArgs,
                                             String indexName,
-                                            BasicDocumentRevision rev) {
+                                            Map<String, Object> body) {
         List<String> includeFieldNames = new ArrayList<String>();
         includeFieldNames.addAll(initialIncludedFields);
         List<Object> args = new ArrayList<Object>();
@@ -313,7 +890,7 @@ class IndexUpdater {
                 continue;
             }
 
-            Object value = ValueExtractor.extractValueForFieldName(fieldName, rev.getBody());
+            Object value = ValueExtractor.extractValueForFieldName(fieldName, body);
             if (value != null && !(value instanceof List && ((List) value).size() == 0)) {
                 // Only include a field with a value or a field with a populated list
                 includeFieldNames.add(fieldName);
@@ -326,25 +903,7 @@ class IndexUpdater {
         for (String fieldName: includeFieldNames) {
             fieldName = String.format("\"%s\"", fieldName);
             Object argument = args.get(argIndex);
-            if (argument instanceof Boolean) {
-                contentValues.put(fieldName, (Boolean) argument);
-            } else if (argument instanceof Byte) {
-                contentValues.put(fieldName, (Byte) argument);
-            } else if (argument instanceof byte[]) {
-                contentValues.put(fieldName, (byte[]) argument);
-            } else if (argument instanceof Double) {
-                contentValues.put(fieldName, (Double) argument);
-            } else if (argument instanceof Float) {
-                contentValues.put(fieldName, (Float) argument);
-            } else if (argument instanceof Integer) {
-                contentValues.put(fieldName, (Integer) argument);
-            } else if (argument instanceof Long) {
-                contentValues.put(fieldName, (Long) argument);
-            } else if (argument instanceof Short) {
-                contentValues.put(fieldName, (Short) argument);
-            } else if (argument instanceof String) {
-                contentValues.put(fieldName, (String) argument);
-            } else {
+            if (!putValue(contentValues, fieldName, argument)) {
                 contentValues.put(fieldName, (String) null);
             }
             argIndex = argIndex + 1;
@@ -354,23 +913,64 @@ class IndexUpdater {
         return new DBParameter(tableName, contentValues);
     }
 
-    private long sequenceNumberForIndex(final String indexName) {
-        Future<Long> sequenceNumber = queue.submit( new Callable<Long>() {
+    /**
+     *  Puts 'value' into 'contentValues' as the type SQLite should store it as.
+     *
+     *  @return false if the value has no SQLite type, so wasn't put
+     */
+    private static boolean putValue(ContentValues contentValues, String key, Object value) {
+        if (value instanceof Boolean) {
+            contentValues.put(key, (Boolean) value);
+        } else if (value instanceof Byte) {
+            contentValues.put(key, (Byte) value);
+        } else if (value instanceof byte[]) {
+            contentValues.put(key, (byte[]) value);
+        } else if (value instanceof Double) {
+            contentValues.put(key, (Double) value);
+        } else if (value instanceof Float) {
+            contentValues.put(key, (Float) value);
+        } else if (value instanceof Integer) {
+            contentValues.put(key, (Integer) value);
+        } else if (value instanceof Long) {
+            contentValues.put(key, (Long) value);
+        } else if (value instanceof Short) {
+            contentValues.put(key, (Short) value);
+        } else if (value instanceof String) {
+            contentValues.put(key, (String) value);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     *  Returns the last sequence number of each of 'indexNames', or null if they
+     *  couldn't be read. Indexes without metadata have a last sequence of 0.
+     */
+    private Map<String, Long> sequenceNumbersForIndexes(final Set<String> indexNames) {
+        Future<Map<String, Long>> sequenceNumbers = queue.submit(
+                new Callable<Map<String, Long>>() {
             @Override
-            public Long call() {
-                long result = 0;
-                String sql = String.format("SELECT last_sequence FROM %s WHERE index_name = ?",
+            public Map<String, Long> call() throws SQLException {
+                Map<String, Long> result = new HashMap<String, Long>();
+                for (String indexName: indexNames) {
+                    result.put(indexName, 0L);
+                }
+                // All rows for a given index will have the same last_sequence
+                String sql = String.format("SELECT DISTINCT index_name, last_sequence FROM %s",
                                            IndexManager.INDEX_METADATA_TABLE_NAME);
                 Cursor cursor = null;
                 try {
-                    cursor = database.rawQuery(sql, new String[]{ indexName });
-                    if (cursor.getCount() > 0) {
-                        // All rows for a given index will have the same last_sequence
-                        cursor.moveToNext();
-                        result = cursor.getLong(0);
+                    cursor = database.rawQuery(sql, new String[]{});
+                    while (cursor.moveToNext()) {
+                        String indexName = cursor.getString(0);
+                        if (result.containsKey(indexName)) {
+                            result.put(indexName, cursor.getLong(1));
+                        }
                     }
                 } catch (SQLException e) {
-                    logger.log(Level.SEVERE, "Error getting last sequence number. ", e);
+                    logger.log(Level.SEVERE, "Error getting last sequence numbers. ", e);
+                    throw e;
                 } finally {
                     DatabaseUtils.closeCursorQuietly(cursor);
                 }
@@ -378,48 +978,134 @@ class IndexUpdater {
             }
         });
 
-        long lastSequenceNumber = 0;
         try {
-            lastSequenceNumber = sequenceNumber.get();
+            return sequenceNumbers.get();
         } catch (ExecutionException e) {
             logger.log(Level.SEVERE, "Execution error encountered:", e);
         } catch (InterruptedException e) {
             logger.log(Level.SEVERE, "Execution interrupted error encountered:", e);
         }
 
-        return lastSequenceNumber;
+        return null;
     }
 
-    private boolean updateMetadataForIndex(final String indexName, final long lastSequence) {
-        Future<Boolean> result = queue.submit(new Callable<Boolean>() {
-            @Override
-            public Boolean call() {
-                boolean updateSuccess = true;
+    /**
+     *  Sets the last sequence of each index in 'sequenceNumbers' which is behind
+     *  'lastSequence'. Must be called on the queue, inside the transaction which
+     *  indexed the changes.
+     */
+    private boolean updateMetadataForIndexes(Map<String, Long> sequenceNumbers,
+                                             long lastSequence) {
+        for (Map.Entry<String, Long> sequenceNumber: sequenceNumbers.entrySet()) {
+            String indexName = sequenceNumber.getKey();
+            if (sequenceNumber.getValue() >= lastSequence) {
+                continue;
+            }
+            ContentValues v = new ContentValues();
+            v.put("last_sequence", lastSequence);
+            int row = database.update(IndexManager.INDEX_METADATA_TABLE_NAME,
+                                      v,
+                                      " index_name = ? ",
+                                      new String[]{ indexName });
+            if (row <= 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     *  Adds the fields whose values in 'body' can't be reproduced exactly from
+     *  their index columns to 'lossyFields'. Only strings and integers can be,
+     *  a missing field being a NULL column. Index columns have NUMERIC affinity,
+     *  so strings which look like numbers, such as "02134", are stored as numbers
+     *  and can't be.
+     */
+    private static void addLossyFields(List<String> fieldNames,
+                                       Map<String, Object> body,
+                                       Set<String> lossyFields) {
+        for (String fieldName: fieldNames) {
+            if (lossyFields.contains(fieldName) ||
+                    fieldName.equals("_id") || fieldName.equals("_rev")) {
+                continue;
+            }
+            Object value = ValueExtractor.extractValueForFieldName(fieldName, body);
+            boolean lossy = value == null ?
+                            body.containsKey(fieldName) :  // explicit null
+                            !((value instanceof String &&
+                               !NUMERIC_TEXT.matcher((String) value).matches()) ||
+                              value instanceof Integer ||
+                              value instanceof Long);
+            if (lossy) {
+                lossyFields.add(fieldName);
+            }
+        }
+    }
+
+    /**
+     *  Sets 'column' to 1 in the metadata table for the fields in 'fields', such as
+     *  to mark them as having lossy values. Must be called on the queue, inside the
+     *  transaction which indexed the values.
+     */
+    private boolean updateFieldsForIndexes(Map<String, Set<String>> fields, String column) {
+        for (Map.Entry<String, Set<String>> index: fields.entrySet()) {
+            for (String fieldName: index.getValue()) {
                 ContentValues v = new ContentValues();
-                v.put("last_sequence", lastSequence);
+                v.put(column, 1);
                 int row = database.update(IndexManager.INDEX_METADATA_TABLE_NAME,
                                           v,
-                                          " index_name = ? ",
-                                          new String[]{ indexName });
-                if (row <= 0) {
-                    updateSuccess = false;
+                                          " index_name = ? AND field_name = ? ",
+                                          new String[]{ index.getKey(), fieldName });
+                if (row < 0) {
+                    return false;
                 }
-                return updateSuccess;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     *  Returns which of 'indexNames' have an array table, or null if they
+     *  couldn't be read. Those indexes have a non-NULL array_values.
+     */
+    private Set<String> indexesWithArrayTables(final Set<String> indexNames) {
+        Future<Set<String>> indexes = queue.submit(new Callable<Set<String>>() {
+            @Override
+            public Set<String> call() throws SQLException {
+                Set<String> result = new HashSet<String>();
+                String sql = String.format("SELECT DISTINCT index_name FROM %s " +
+                                           "WHERE array_values IS NOT NULL",
+                                           IndexManager.INDEX_METADATA_TABLE_NAME);
+                Cursor cursor = null;
+                try {
+                    cursor = database.rawQuery(sql, new String[]{});
+                    while (cursor.moveToNext()) {
+                        String indexName = cursor.getString(0);
+                        if (indexNames.contains(indexName)) {
+                            result.add(indexName);
+                        }
+                    }
+                } catch (SQLException e) {
+                    logger.log(Level.SEVERE, "Error getting indexes with array tables. ", e);
+                    throw e;
+                } finally {
+                    DatabaseUtils.closeCursorQuietly(cursor);
+                }
+                return result;
             }
         });
 
-        boolean success;
         try {
-            success = result.get();
+            return indexes.get();
         } catch (ExecutionException e) {
             logger.log(Level.SEVERE, "Execution error encountered:", e);
-            success = false;
         } catch (InterruptedException e) {
             logger.log(Level.SEVERE, "Execution interrupted error encountered:", e);
-            success = false;
         }
 
-        return success;
+        return null;
     }
 
     private class DBParameter {
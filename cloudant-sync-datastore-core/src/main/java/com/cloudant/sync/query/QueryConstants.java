@@ -67,4 +67,57 @@ final class QueryConstants {
         };
     }
 
+    // row_count and distinct_values are the statistics used to plan queries. They're
+    // NULL until gathered, and like last_sequence, row_count is the same for all rows
+    // of an index.
+    public static String[] getSchemaVersion3() {
+        return new String[] {
+                "ALTER TABLE " + IndexManager.INDEX_METADATA_TABLE_NAME +
+                "        ADD COLUMN row_count INTEGER NULL;",
+                "ALTER TABLE " + IndexManager.INDEX_METADATA_TABLE_NAME +
+                "        ADD COLUMN distinct_values INTEGER NULL;"
+        };
+    }
+
+    // lossy_values is 1 once a field has had a value its index column can't reproduce
+    // exactly, such as an array, boolean or floating point number, 0 if it hasn't, and
+    // NULL if unknown because the index was created before this column was added.
+    public static String[] getSchemaVersion4() {
+        return new String[] {
+                "ALTER TABLE " + IndexManager.INDEX_METADATA_TABLE_NAME +
+                "        ADD COLUMN lossy_values INTEGER NULL;"
+        };
+    }
+
+    // partial_filter is the normalised selector, as JSON, of the documents a partial
+    // index contains, or NULL if the index contains every document.
+    public static String[] getSchemaVersion5() {
+        return new String[] {
+                "ALTER TABLE " + IndexManager.INDEX_METADATA_TABLE_NAME +
+                "        ADD COLUMN partial_filter TEXT NULL;"
+        };
+    }
+
+    // array_values is 1 once a field has had an array value, whose elements are
+    // indexed in the index's array table, 0 if it hasn't, and NULL if the index has
+    // no array table because it was created before this column was added or is a
+    // text index. Those indexes have a row per array element instead.
+    public static String[] getSchemaVersion6() {
+        return new String[] {
+                "ALTER TABLE " + IndexManager.INDEX_METADATA_TABLE_NAME +
+                "        ADD COLUMN array_values INTEGER NULL;"
+        };
+    }
+
+    // revisions_indexed is the number of revisions written to an index since its
+    // statistics were last gathered, kept across updates so that many small updates
+    // eventually cause the statistics to be gathered again. Like row_count, it's the
+    // same for all rows of an index, and NULL is read as 0.
+    public static String[] getSchemaVersion7() {
+        return new String[] {
+                "ALTER TABLE " + IndexManager.INDEX_METADATA_TABLE_NAME +
+                "        ADD COLUMN revisions_indexed INTEGER NULL;"
+        };
+    }
+
 }
@@ -21,6 +21,7 @@ import com.google.common.collect.Sets;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -75,6 +76,33 @@ class QueryExecutor {
                             long limit,
                             List<String> fields,
                             final List<Map<String, String>> sortDocument) {
+        return find(query, indexes, skip, limit, fields, sortDocument, false);
+    }
+
+    /**
+     *  Execute the query passed using the selection of index definition provided,
+     *  optionally projecting fields from an index rather than loading documents.
+     *
+     *  Fields can only be projected from an index which is up to date, as otherwise
+     *  the revisions returned might not be the current ones.
+     *
+     *  @param query query to execute.
+     *  @param indexes indexes to use (this method will select the most appropriate).
+     *  @param skip how many results to skip before returning results to caller
+     *  @param limit number of documents the result should be limited to
+     *  @param fields fields to project from the result documents
+     *  @param sortDocument document specifying the order to return results, null to have no sorting
+     *  @param indexesUpToDate true if 'indexes' have just been updated, so fields can be
+     *                         projected from them
+     *  @return the query result
+     */
+    public QueryResult find(Map<String, Object> query,
+                            final Map<String, Object> indexes,
+                            long skip,
+                            long limit,
+                            List<String> fields,
+                            final List<Map<String, String>> sortDocument,
+                            boolean indexesUpToDate) {
         //
         // Validate inputs
         //
@@ -97,26 +125,56 @@ class QueryExecutor {
             return null;
         }
 
+        // Partial indexes are only used when they contain every matching document
+        final Map<String, Object> usableIndexes =
+                QuerySqlTranslator.indexesUsableForQuery(query, indexes);
+
         //
         // Execute the query
         //
 
+        final IndexStatistics statistics = loadStatistics();
+        QueryPlan plan = new QueryPlan();
         Boolean[] indexesCoverQuery = new Boolean[]{ false };
-        final ChildrenQueryNode root = translateQuery(query, indexes, indexesCoverQuery);
+        final ChildrenQueryNode root = translateQuery(query,
+                                                      usableIndexes,
+                                                      statistics,
+                                                      plan,
+                                                      indexesCoverQuery);
 
         if (root == null) {
             return null;
         }
 
+        UnindexedMatcher matcher = matcherForIndexCoverage(indexesCoverQuery, query);
+
+        // When a single index answers the whole query and sort, let SQLite apply
+        // the sort, skip and limit so only the requested page of ids is read.
+        final SqlParts pageSql = matcher == null ?
+                                 sqlToPageIds(root, sortDocument, usableIndexes, skip, limit) :
+                                 null;
+        // Otherwise, without a matcher to filter out documents, the sorted ids
+        // beyond skip + limit are never returned so needn't be read.
+        final long maxResults = (matcher == null && limit > 0) ? skip + limit : 0;
+
         Future<List<String>> result = queue.submit(new Callable<List<String>>() {
             @Override
             public List<String> call() throws Exception {
+                if (pageSql != null) {
+                    return executePageSql(pageSql, database);
+                }
+
                 Set<String> docIdSet = executeQueryTree(root, database);
                 List<String> docIdList;
 
                 // sorting
                 if (sortDocument != null && !sortDocument.isEmpty()) {
-                    docIdList = sortIds(docIdSet, sortDocument, indexes, database);
+                    docIdList = sortIds(docIdSet,
+                                        sortDocument,
+                                        usableIndexes,
+                                        statistics,
+                                        database,
+                                        maxResults);
                 } else {
                     docIdList = docIdSet != null ? new ArrayList<String>(docIdSet) : null;
                 }
@@ -140,26 +198,94 @@ class QueryExecutor {
             return null;
         }
 
-        UnindexedMatcher matcher = matcherForIndexCoverage(indexesCoverQuery, query);
+        // When the documents needn't be matched, projected fields which an index
+        // contains can be read from the index instead of the documents.
+        IndexProjection projection = null;
+        if (matcher == null && indexesUpToDate) {
+            projection = IndexProjection.projectionForFields(fields,
+                                                             usableIndexes,
+                                                             database,
+                                                             queue,
+                                                             datastore);
+        }
+
+        if (pageSql != null) {
+            // skip and limit have already been applied
+            return new QueryResult(docIds, datastore, fields, 0, 0, null, projection);
+        }
 
         if (matcher != null) {
             String msg = "Query could not be executed using indexes alone; falling back to ";
             msg += "filtering documents themselves. This will be VERY SLOW as each candidate ";
             msg += "document is loaded from the datastore and matched against the query selector.";
+            msg += "\nQuery plan:\n" + plan;
             logger.log(Level.WARNING, msg);
         }
 
-        return new QueryResult(docIds, datastore, fields, skip, limit, matcher);
+        return new QueryResult(docIds, datastore, fields, skip, limit, matcher, projection);
+    }
+
+    /**
+     *  Returns the plan for executing a query, without executing it.
+     *
+     *  @param query query to explain.
+     *  @param indexes indexes to use (this method will select the most appropriate).
+     *  @return the query plan, or null if the query is invalid or can't be executed
+     */
+    public QueryPlan explain(Map<String, Object> query, Map<String, Object> indexes) {
+        query = QueryValidator.normaliseAndValidateQuery(query);
+
+        if (query == null) {
+            return null;
+        }
+
+        Map<String, Object> usableIndexes =
+                QuerySqlTranslator.indexesUsableForQuery(query, indexes);
+        QueryPlan plan = new QueryPlan();
+        Boolean[] indexesCoverQuery = new Boolean[]{ false };
+        ChildrenQueryNode root = translateQuery(query,
+                                                usableIndexes,
+                                                loadStatistics(),
+                                                plan,
+                                                indexesCoverQuery);
+
+        return root != null ? plan : null;
     }
 
     protected ChildrenQueryNode translateQuery(Map<String, Object> query,
                                                Map<String, Object> indexes,
+                                               IndexStatistics statistics,
+                                               QueryPlan plan,
                                                Boolean[] indexesCoverQuery) {
         return (ChildrenQueryNode) QuerySqlTranslator.translateQuery(query,
                                                                      indexes,
+                                                                     statistics,
+                                                                     plan,
                                                                      indexesCoverQuery);
     }
 
+    /**
+     *  Reads the index statistics, returning null if they can't be read so that
+     *  indexes are chosen without them.
+     */
+    private IndexStatistics loadStatistics() {
+        Future<IndexStatistics> result = queue.submit(new Callable<IndexStatistics>() {
+            @Override
+            public IndexStatistics call() throws Exception {
+                return IndexStatistics.statisticsInDatabase(database);
+            }
+        });
+
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            logger.log(Level.WARNING, "Failed to read index statistics:", e);
+        } catch (InterruptedException e) {
+            logger.log(Level.WARNING, "Interrupted reading index statistics:", e);
+        }
+        return null;
+    }
+
     protected UnindexedMatcher matcherForIndexCoverage(Boolean[] indexesCoverQuery,
                                                        Map<String, Object> selector) {
         return indexesCoverQuery[0] ? null : UnindexedMatcher.matcherWithSelector(selector);
@@ -292,15 +418,19 @@ class QueryExecutor {
      *  @param sortDocument Array of ordering definitions
      *                      '[ {"fieldName": "asc"}, {"fieldName2", "desc"} ]'
      *  @param indexes dictionary of indexes
+     *  @param statistics statistics for choosing the smallest index to sort with, or null
      *  @param db database containing 'indexes' to use when sorting documents
+     *  @param maxResults the number of sorted IDs needed, 0 for all of them
      *  @return an ordered list of document IDs using provided indexes.
      */
     private List<String> sortIds(Set<String> docIdSet,
                                  List<Map<String, String>> sortDocument,
                                  Map<String, Object> indexes,
-                                 SQLDatabase db) {
+                                 IndexStatistics statistics,
+                                 SQLDatabase db,
+                                 long maxResults) {
         boolean smallResultSet = (docIdSet.size() < SMALL_RESULT_SET_SIZE_THRESHOLD);
-        SqlParts orderBy = sqlToSortIds(docIdSet, sortDocument, indexes);
+        SqlParts orderBy = sqlToSortIds(docIdSet, sortDocument, indexes, statistics);
         List<String> sortedIds = null;
         if (orderBy != null) {
             // The query will iterate through a sorted list of docIds.
@@ -315,6 +445,9 @@ class QueryExecutor {
                     if (sortedIds == null) {
                         sortedIds = new ArrayList<String>();
                     }
+                    if (maxResults > 0 && sortedIds.size() >= maxResults) {
+                        break;
+                    }
 
                     String candidateId = cursor.getString(0);
 
@@ -353,9 +486,18 @@ class QueryExecutor {
     protected static SqlParts sqlToSortIds(Set<String> docIdSet,
                                   List<Map<String, String>> sortDocument,
                                   Map<String, Object> indexes) {
-        String chosenIndex = chooseIndexForSort(sortDocument, indexes);
+        return sqlToSortIds(docIdSet, sortDocument, indexes, null);
+    }
+
+    protected static SqlParts sqlToSortIds(Set<String> docIdSet,
+                                           List<Map<String, String>> sortDocument,
+                                           Map<String, Object> indexes,
+                                           IndexStatistics statistics) {
+        String chosenIndex = chooseIndexForSort(sortDocument, indexes, statistics);
         if (chosenIndex == null) {
-            String msg = String.format("No single index can satisfy order %s", sortDocument);
+            String msg = String.format("No single index can satisfy order %s. Fields with " +
+                                       "array values in a json index can't be sorted on.",
+                                       sortDocument);
             logger.log(Level.SEVERE, msg);
             return null;
         }
@@ -367,15 +509,6 @@ class QueryExecutor {
         // for large result sets:
         // SELECT _id FROM idx ORDER BY fieldName ASC, fieldName2 DESC
 
-        List<String> orderClauses = new ArrayList<String>();
-        for (Map<String, String> clause : sortDocument) {
-            String fieldName = (String) clause.keySet().toArray()[0];
-            String direction = clause.get(fieldName);
-
-            String orderClause = String.format("\"%s\" %s", fieldName, direction.toUpperCase());
-            orderClauses.add(orderClause);
-        }
-
         // If we have few results, it's more efficient to reduce the search space
         // for SQLite. 500 placeholders should be a safe value.
         List<String> parameterList = new ArrayList<String>();
@@ -392,7 +525,7 @@ class QueryExecutor {
             whereClause = String.format("WHERE _id IN (%s)", joiner.join(placeholders));
         }
 
-        String orderBy = joiner.join(orderClauses);
+        String orderBy = orderByForSortDocument(sortDocument);
         String sql = String.format("SELECT DISTINCT _id FROM %s %s ORDER BY %s", indexTable,
                                                                                  whereClause,
                                                                                  orderBy);
@@ -400,9 +533,112 @@ class QueryExecutor {
         return SqlParts.partsForSql(sql, parameterList.toArray(parameters));
     }
 
+    /**
+     *  Return SQL to get the page of document IDs selected by 'skip' and 'limit',
+     *  in the order given by 'sortDocument', directly from an index.
+     *
+     *  This is only possible when the query tree is a single SQL query and the index
+     *  it uses also contains every sort field. Method assumes `sortDocument` is valid.
+     *
+     *  @param root the translated query
+     *  @param sortDocument Array of ordering definitions, or null for no sorting
+     *  @param indexes dictionary of indexes
+     *  @param skip how many results to skip, 0 for none
+     *  @param limit number of results to return, 0 for all of them
+     *  @return the SQL for the page of document IDs, or null if the page can't be
+     *          selected by a single SQL query or there's no benefit in doing so
+     */
+    @SuppressWarnings("unchecked")
+    protected static SqlParts sqlToPageIds(ChildrenQueryNode root,
+                                           List<Map<String, String>> sortDocument,
+                                           Map<String, Object> indexes,
+                                           long skip,
+                                           long limit) {
+        boolean sorted = sortDocument != null && !sortDocument.isEmpty();
+        if (!sorted && skip <= 0 && limit <= 0) {
+            return null;  // whole result set is needed, unordered
+        }
+
+        if (root.children.size() != 1 || !(root.children.get(0) instanceof SqlQueryNode)) {
+            return null;  // results must be combined in code
+        }
+
+        SqlQueryNode sqlNode = (SqlQueryNode) root.children.get(0);
+        if (sqlNode.sql == null || sqlNode.indexName == null || indexes == null) {
+            return null;
+        }
+
+        String select = sqlNode.sql.sqlWithPlaceHolders;
+        String selectPrefix = "SELECT _id ";
+        if (!select.startsWith(selectPrefix)) {
+            return null;
+        }
+
+        // Fields with array values have a row per array element, so
+        // remove duplicate ids before applying skip and limit.
+        StringBuilder sql = new StringBuilder("SELECT DISTINCT _id ");
+        sql.append(select.substring(selectPrefix.length()));
+
+        if (sorted) {
+            Map<String, Object> index = (Map<String, Object>) indexes.get(sqlNode.indexName);
+            if (index == null) {
+                return null;
+            }
+            Set<String> providedFields = new HashSet<String>((List<String>) index.get("fields"));
+            Set<String> sortFields = new HashSet<String>();
+            for (Map<String, String> orderSpecifier : sortDocument) {
+                sortFields.add((String) orderSpecifier.keySet().toArray()[0]);
+            }
+            if (!providedFields.containsAll(sortFields) || hasArrayTableField(index, sortFields)) {
+                return null;  // fall back to sorting with another index
+            }
+            sql.append(" ORDER BY ").append(orderByForSortDocument(sortDocument));
+        }
+
+        if (skip > 0 || limit > 0) {
+            // A negative limit means no limit to SQLite
+            sql.append(String.format(" LIMIT %d OFFSET %d", limit > 0 ? limit : -1,
+                                                            skip > 0 ? skip : 0));
+        }
+
+        return SqlParts.partsForSql(sql.toString(), sqlNode.sql.placeHolderValues);
+    }
+
+    private static String orderByForSortDocument(List<Map<String, String>> sortDocument) {
+        List<String> orderClauses = new ArrayList<String>();
+        for (Map<String, String> clause : sortDocument) {
+            String fieldName = (String) clause.keySet().toArray()[0];
+            String direction = clause.get(fieldName);
+
+            String orderClause = String.format("\"%s\" %s", fieldName, direction.toUpperCase());
+            orderClauses.add(orderClause);
+        }
+
+        return Joiner.on(", ").skipNulls().join(orderClauses);
+    }
+
+    private List<String> executePageSql(SqlParts pageSql, SQLDatabase db) {
+        List<String> docIds = new ArrayList<String>();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery(pageSql.sqlWithPlaceHolders, pageSql.placeHolderValues);
+            while (cursor.moveToNext()) {
+                docIds.add(cursor.getString(0));
+            }
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to get a page of doc ids.", e);
+            return null;
+        } finally {
+            DatabaseUtils.closeCursorQuietly(cursor);
+        }
+
+        return docIds;
+    }
+
     @SuppressWarnings("unchecked")
     private static String chooseIndexForSort(List<Map<String, String>> sortDocument,
-                                      Map<String, Object> indexes) {
+                                             Map<String, Object> indexes,
+                                             IndexStatistics statistics) {
         if (indexes == null || indexes.isEmpty()) {
             return null;  // Can't choose an index if one does not exist.
         }
@@ -421,13 +657,31 @@ class QueryExecutor {
         for (String indexName : indexes.keySet()) {
             Map<String, Object> index = (Map<String, Object>) indexes.get(indexName);
             Set<String> providedFields = new HashSet<String>((List<String>) index.get("fields"));
-            if (providedFields.containsAll(neededFields)) {
-                chosenIndex = indexName;
-                break;
+            if (providedFields.containsAll(neededFields) &&
+                    !hasArrayTableField(index, neededFields)) {
+                if (statistics == null) {
+                    chosenIndex = indexName;
+                    break;
+                } else if (chosenIndex == null ||
+                        statistics.rowCount(indexName) < statistics.rowCount(chosenIndex)) {
+                    chosenIndex = indexName;
+                }
             }
         }
 
         return chosenIndex;
     }
 
+    /**
+     *  Returns whether any of 'fieldNames' has had array values in an index with an
+     *  array table. Their column in the index table is NULL, the elements being in
+     *  the array table, so the index can't order documents by them.
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean hasArrayTableField(Map<String, Object> index,
+                                              Set<String> fieldNames) {
+        List<String> arrayFields = (List<String>) index.get("array_fields");
+        return arrayFields != null && !Collections.disjoint(arrayFields, fieldNames);
+    }
+
 }
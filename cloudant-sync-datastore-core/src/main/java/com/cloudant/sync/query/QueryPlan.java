@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *  Describes how a query is executed, as returned by {@link IndexManager#explain(java.util.Map)}.
+ *
+ *  The plan is a list of steps, indented to show the AND and OR nodes of the query
+ *  they belong to, with the reasons for falling back to matching documents without
+ *  an index. The estimated cost is in units of index rows read; loading a document
+ *  to match it against the query costs {@link #DOCUMENT_MATCH_COST} rows.
+ *
+ *  @see IndexManager#explain(java.util.Map)
+ */
+public class QueryPlan {
+
+    /**
+     *  Estimated cost of loading a document from the datastore and matching it
+     *  against a query, relative to reading an index row.
+     */
+    public static final double DOCUMENT_MATCH_COST = 100;
+
+    private final List<String> steps = new ArrayList<String>();
+    private double estimatedCost = 0;
+    private boolean indexesCoverQuery = true;
+
+    QueryPlan() {
+    }
+
+    void addStep(int depth, String step) {
+        StringBuilder indented = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            indented.append("  ");
+        }
+        steps.add(indented.append(step).toString());
+    }
+
+    void addCost(double cost) {
+        estimatedCost = estimatedCost + cost;
+    }
+
+    void clear() {
+        steps.clear();
+        estimatedCost = 0;
+    }
+
+    void setIndexesCoverQuery(boolean indexesCoverQuery) {
+        this.indexesCoverQuery = indexesCoverQuery;
+    }
+
+    /**
+     *  @return the steps of the plan, in the order they're executed
+     */
+    public List<String> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    /**
+     *  @return the estimated cost of executing the query, in index rows read
+     */
+    public double getEstimatedCost() {
+        return estimatedCost;
+    }
+
+    /**
+     *  @return true if the query is executed using indexes alone, false if documents are
+     *          loaded and matched against the query without an index
+     */
+    public boolean indexesCoverQuery() {
+        return indexesCoverQuery;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder plan = new StringBuilder();
+        for (String step : steps) {
+            plan.append(step).append('\n');
+        }
+        plan.append(String.format("Estimated cost: %.0f", estimatedCost));
+        return plan.toString();
+    }
+
+}
@@ -18,6 +18,7 @@ import com.cloudant.sync.datastore.Datastore;
 import com.cloudant.sync.datastore.DocumentBodyFactory;
 import com.cloudant.sync.datastore.DocumentRevision;
 import com.cloudant.sync.datastore.DocumentRevisionBuilder;
+import com.cloudant.sync.datastore.ProjectedDocumentRevision;
 import com.google.common.collect.Lists;
 
 import java.util.ArrayList;
@@ -42,6 +43,7 @@ public class QueryResult implements Iterable<DocumentRevision> {
     private final long skip;
     private final long limit;
     private final UnindexedMatcher matcher;
+    private final IndexProjection projection;
 
     public QueryResult(List<String> originalDocIds,
                        Datastore datastore,
@@ -49,12 +51,27 @@ public class QueryResult implements Iterable<DocumentRevision> {
                        long skip,
                        long limit,
                        UnindexedMatcher matcher) {
+        this(originalDocIds, datastore, fields, skip, limit, matcher, null);
+    }
+
+    /**
+     *  @param projection projects 'fields' from an index instead of loading
+     *                    documents, or null to always load documents
+     */
+    QueryResult(List<String> originalDocIds,
+                Datastore datastore,
+                List<String> fields,
+                long skip,
+                long limit,
+                UnindexedMatcher matcher,
+                IndexProjection projection) {
         this.originalDocIds = originalDocIds;
         this.datastore = datastore;
         this.fields = fields;
         this.skip = skip;
         this.limit = limit;
         this.matcher = matcher;
+        this.projection = projection;
     }
 
     /**
@@ -132,7 +149,7 @@ public class QueryResult implements Iterable<DocumentRevision> {
                 range.length = Math.min(DEFAULT_BATCH_SIZE, originalDocIds.size() - range.location);
                 List<String> batch = originalDocIds.subList(range.location,
                                                             range.location + range.length);
-                List<BasicDocumentRevision> docs = datastore.getDocumentsWithIds(batch);
+                List<BasicDocumentRevision> docs = documentsWithIds(batch);
                 for (BasicDocumentRevision rev : docs) {
                     DocumentRevision innerRev;
                     innerRev = rev;  // Allows us to replace later if projecting
@@ -148,7 +165,8 @@ public class QueryResult implements Iterable<DocumentRevision> {
                         continue;
                     }
 
-                    if (fields != null && !fields.isEmpty()) {
+                    if (fields != null && !fields.isEmpty() &&
+                            !(rev instanceof ProjectedDocumentRevision)) {
                         innerRev = projectFields(fields, rev, datastore);
                     }
 
@@ -177,6 +195,43 @@ public class QueryResult implements Iterable<DocumentRevision> {
         }
     }
 
+    /**
+     *  Returns the documents for a batch of ids, in the same order, projecting them
+     *  from an index where possible.
+     */
+    private List<BasicDocumentRevision> documentsWithIds(List<String> docIds) {
+        if (projection == null) {
+            return datastore.getDocumentsWithIds(docIds);
+        }
+
+        Map<String, ProjectedDocumentRevision> projected = projection.projectedRevisions(docIds);
+        List<String> unprojectedIds = new ArrayList<String>();
+        for (String docId : docIds) {
+            if (!projected.containsKey(docId)) {
+                unprojectedIds.add(docId);
+            }
+        }
+
+        Map<String, BasicDocumentRevision> loaded = new HashMap<String, BasicDocumentRevision>();
+        if (!unprojectedIds.isEmpty()) {
+            for (BasicDocumentRevision rev : datastore.getDocumentsWithIds(unprojectedIds)) {
+                loaded.put(rev.getId(), rev);
+            }
+        }
+
+        List<BasicDocumentRevision> docs = new ArrayList<BasicDocumentRevision>();
+        for (String docId : docIds) {
+            BasicDocumentRevision rev = projected.get(docId);
+            if (rev == null) {
+                rev = loaded.get(docId);
+            }
+            if (rev != null) {
+                docs.add(rev);
+            }
+        }
+        return docs;
+    }
+
     private DocumentRevision projectFields(List<String> fields,
                                            BasicDocumentRevision rev,
                                            Datastore datastore) {
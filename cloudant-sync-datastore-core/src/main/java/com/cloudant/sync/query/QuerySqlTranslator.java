@@ -102,8 +102,35 @@ class QuerySqlTranslator {
     public static QueryNode translateQuery(Map<String, Object> query,
                                            Map<String, Object> indexes,
                                            Boolean[] indexesCoverQuery) {
+        return translateQuery(query, indexes, null, new QueryPlan(), indexesCoverQuery);
+    }
+
+    /**
+     *  Translates a query, choosing between indexes by their estimated cost.
+     *
+     *  With statistics, the cheapest index containing the fields needed is used,
+     *  and an AND clause which no single index contains can be executed as an
+     *  intersection of several indexes when that's estimated to be cheaper than
+     *  matching the candidate documents without an index.
+     *
+     *  @param query the normalised query
+     *  @param indexes dictionary of indexes
+     *  @param statistics statistics for the indexes, or null to use the first index
+     *                    containing the fields needed
+     *  @param plan records the steps of the chosen plan and its estimated cost
+     *  @param indexesCoverQuery set to whether indexes alone are used to execute the query
+     *  @return the root of the query tree, or null if the query can't be executed
+     */
+    public static QueryNode translateQuery(Map<String, Object> query,
+                                           Map<String, Object> indexes,
+                                           IndexStatistics statistics,
+                                           QueryPlan plan,
+                                           Boolean[] indexesCoverQuery) {
         TranslatorState state = new TranslatorState();
+        state.statistics = statistics;
+        state.plan = plan;
         QueryNode node = translateQuery(query, indexes, state);
+        IndexStatistics estimates = estimates(state);
 
         if (state.textIndexMissing) {
             String msg = "No text index defined, cannot execute query containing a text search.";
@@ -124,13 +151,22 @@ class QuerySqlTranslator {
             // run over every document to manually carry out the query.
             SqlQueryNode sqlNode = new SqlQueryNode();
             Set<String> neededFields = new HashSet<String>(Collections.singletonList("_id"));
-            String allDocsIndex = chooseIndexForFields(neededFields, indexes);
+            String allDocsIndex = chooseIndexForFields(neededFields, indexes, statistics);
 
+            plan.clear();
             if (allDocsIndex != null && !allDocsIndex.isEmpty()) {
                 String tableName = IndexManager.tableNameForIndex(allDocsIndex);
                 String sql = String.format("SELECT _id FROM %s", tableName);
                 sqlNode.sql = SqlParts.partsForSql(sql, new String[]{});
+                sqlNode.indexName = allDocsIndex;
+                plan.addStep(0, String.format("Read all document ids from index %s",
+                                              allDocsIndex));
+                plan.addCost(estimates.rowCount(allDocsIndex));
+            } else {
+                plan.addStep(0, "Read all document ids from the datastore");
+                plan.addCost(estimates.documentCount());
             }
+            addUnindexedMatcherStep(estimates.documentCount(), state);
 
             AndQueryNode root = new AndQueryNode();
             root.children.add(sqlNode);
@@ -139,10 +175,54 @@ class QuerySqlTranslator {
             return root;
         } else {
             indexesCoverQuery[0] = !state.atLeastOneIndexMissing;
+            if (!indexesCoverQuery[0]) {
+                addUnindexedMatcherStep(estimatedRows(node, state), state);
+            }
             return node;
         }
     }
 
+    private static void addUnindexedMatcherStep(double documents, TranslatorState state) {
+        state.plan.setIndexesCoverQuery(false);
+        state.plan.addStep(0, String.format("Match ~%.0f documents against the query without " +
+                                            "an index", documents));
+        for (String reason : state.missingIndexReasons) {
+            state.plan.addStep(1, reason);
+        }
+        state.plan.addCost(documents * QueryPlan.DOCUMENT_MATCH_COST);
+    }
+
+    /**
+     *  Returns the statistics to estimate costs with, which are the defaults
+     *  when indexes are being chosen without statistics.
+     */
+    private static IndexStatistics estimates(TranslatorState state) {
+        return state.statistics != null ? state.statistics : new IndexStatistics();
+    }
+
+    /**
+     *  Estimates the number of document ids returned by executing a query tree.
+     */
+    private static double estimatedRows(QueryNode node, TranslatorState state) {
+        double documents = estimates(state).documentCount();
+        if (node instanceof AndQueryNode) {
+            double rows = documents;
+            for (QueryNode child : ((AndQueryNode) node).children) {
+                rows = Math.min(rows, estimatedRows(child, state));
+            }
+            return rows;
+        } else if (node instanceof OrQueryNode) {
+            double rows = 0;
+            for (QueryNode child : ((OrQueryNode) node).children) {
+                rows = rows + estimatedRows(child, state);
+            }
+            return Math.min(rows, documents);
+        } else {
+            Double rows = state.estimatedRows.get(node);
+            return rows != null ? Math.min(rows, documents) : documents;
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private static QueryNode translateQuery(Map<String, Object> query,
                                            Map<String, Object> indexes,
@@ -163,6 +243,11 @@ class QuerySqlTranslator {
             root = new OrQueryNode();
         }
 
+        if (root != null) {
+            state.plan.addStep(state.depth, root instanceof AndQueryNode ? "AND" : "OR");
+        }
+        state.depth++;
+
         // Compile a list of simple clauses to be handled below.  If a text clause is
         // encountered, store it separately from the simple clauses since it will be
         // handled later on its own.
@@ -190,28 +275,46 @@ class QuerySqlTranslator {
                 // For an AND query, we require a single compound index and we generate a
                 // single SQL statement to use that index to satisfy the clauses.
 
-                String chosenIndex = chooseIndexForAndClause(basicClauses, indexes);
+                String chosenIndex = chooseIndexForAndClause(basicClauses,
+                                                             indexes,
+                                                             state.statistics);
                 if (chosenIndex == null || chosenIndex.isEmpty()) {
-                    state.atLeastOneIndexMissing = true;
-                    String msg = String.format("No single index contains all of %s; %s",
-                            basicClauses.toString(),
-                            "add index for these fields to query efficiently.");
-                    logger.log(Level.WARNING, msg);
+                    List<QueryNode> nodes = new ArrayList<QueryNode>();
+                    if (state.statistics != null && !isOperatorFoundInClause(SIZE, basicClauses)) {
+                        nodes = nodesForAndClauseWithoutCoveringIndex(basicClauses,
+                                                                      indexes,
+                                                                      state);
+                        if (nodes == null) {
+                            return null;
+                        }
+                    }
+
+                    if (nodes.isEmpty()) {
+                        state.atLeastOneIndexMissing = true;
+                        String msg = String.format("No single index contains all of %s; %s",
+                                basicClauses.toString(),
+                                "add index for these fields to query efficiently.");
+                        logger.log(Level.WARNING, msg);
+                        state.missingIndexReasons.add(String.format("No index contains any of %s",
+                                                                    basicClauses));
+                    } else {
+                        state.atLeastOneIndexUsed = true;
+                        if (root != null) {
+                            root.children.addAll(nodes);
+                        }
+                    }
                 } else {
                     state.atLeastOneIndexUsed = true;
 
                     // Execute SQL on that index with appropriate values
-                    SqlParts select = selectStatementForAndClause(basicClauses, chosenIndex);
-                    if (select == null) {
-                        String msg = String.format("Error generating SELECT clause for %s",
-                                basicClauses);
-                        logger.log(Level.SEVERE, msg);
+                    SqlQueryNode sqlNode = sqlNodeForAndClause(basicClauses,
+                                                               chosenIndex,
+                                                               indexes,
+                                                               state);
+                    if (sqlNode == null) {
                         return null;
                     }
 
-                    SqlQueryNode sqlNode = new SqlQueryNode();
-                    sqlNode.sql = select;
-
                     if (root != null) {
                         root.children.add(sqlNode);
                     }
@@ -229,7 +332,9 @@ class QuerySqlTranslator {
 
                 for (Object basicClause : basicClauses) {
                     List<Object> wrappedClause = Arrays.asList(basicClause);
-                    String chosenIndex = chooseIndexForAndClause(wrappedClause, indexes);
+                    String chosenIndex = chooseIndexForAndClause(wrappedClause,
+                                                                 indexes,
+                                                                 state.statistics);
                     if (chosenIndex == null || chosenIndex.isEmpty()) {
                         state.atLeastOneIndexMissing = true;
                         state.atLeastOneORIndexMissing = true;
@@ -237,21 +342,21 @@ class QuerySqlTranslator {
                                 basicClauses.toString(),
                                 "add index for these fields to query efficiently.");
                         logger.log(Level.WARNING, msg);
+                        state.missingIndexReasons.add(String.format("No index contains %s, " +
+                                                                    "which is part of an $or",
+                                                                    wrappedClause));
                     } else {
                         state.atLeastOneIndexUsed = true;
 
                         // Execute SQL on that index with appropriate values
-                        SqlParts select = selectStatementForAndClause(wrappedClause, chosenIndex);
-                        if (select == null) {
-                            String msg = String.format("Error generating SELECT clause for %s",
-                                    basicClauses);
-                            logger.log(Level.SEVERE, msg);
+                        SqlQueryNode sqlNode = sqlNodeForAndClause(wrappedClause,
+                                                                   chosenIndex,
+                                                                   indexes,
+                                                                   state);
+                        if (sqlNode == null) {
                             return null;
                         }
 
-                        SqlQueryNode sqlNode = new SqlQueryNode();
-                        sqlNode.sql = select;
-
                         if (root != null) {
                             root.children.add(sqlNode);
                         }
@@ -279,6 +384,10 @@ class QuerySqlTranslator {
 
                 SqlQueryNode sqlNode = new SqlQueryNode();
                 sqlNode.sql = select;
+                sqlNode.indexName = textIndex;
+                state.plan.addStep(state.depth, String.format("Search text index %s",
+                                                              textIndex));
+                state.plan.addCost(estimates(state).rowCount(textIndex));
 
                 if (root != null) {
                     root.children.add(sqlNode);
@@ -316,9 +425,150 @@ class QuerySqlTranslator {
             }
         }
 
+        state.depth--;
         return root;
     }
 
+    /**
+     *  Creates the node selecting the documents matching an AND clause from an index,
+     *  adding the index scan to the plan.
+     *
+     *  @return the node, or null if SQL couldn't be generated for the clause
+     */
+    private static SqlQueryNode sqlNodeForAndClause(List<Object> clause,
+                                                    String indexName,
+                                                    Map<String, Object> indexes,
+                                                    TranslatorState state) {
+        SqlParts select = selectStatementForAndClause(clause,
+                                                      indexName,
+                                                      arrayFieldsForIndex(indexName, indexes));
+        if (select == null) {
+            String msg = String.format("Error generating SELECT clause for %s", clause);
+            logger.log(Level.SEVERE, msg);
+            return null;
+        }
+
+        SqlQueryNode sqlNode = new SqlQueryNode();
+        sqlNode.sql = select;
+        sqlNode.indexName = indexName;
+
+        IndexStatistics estimates = estimates(state);
+        double rows = estimates.estimatedRows(indexName, clause);
+        state.estimatedRows.put(sqlNode, rows);
+        state.plan.addStep(state.depth, String.format("Scan index %s for %s (~%.0f rows)",
+                                                      indexName,
+                                                      fieldsForAndClause(clause),
+                                                      rows));
+        state.plan.addCost(estimates.rowCount(indexName));
+        return sqlNode;
+    }
+
+    /**
+     *  Plans an AND clause which no single index contains, using the statistics.
+     *
+     *  Indexes are picked greedily by how many of the clause's remaining fields they
+     *  contain, preferring smaller indexes. If the indexes picked contain every field
+     *  and reading them all is estimated to be cheaper than matching the documents
+     *  selected by the first one, their results are intersected. Otherwise the first
+     *  index selects candidate documents, which are matched against the query without
+     *  an index.
+     *
+     *  @return the nodes to add to the AND node, empty if no index contains any of
+     *          the fields, or null if SQL couldn't be generated
+     */
+    @SuppressWarnings("unchecked")
+    private static List<QueryNode> nodesForAndClauseWithoutCoveringIndex(List<Object> clause,
+                                                                        Map<String, Object> indexes,
+                                                                        TranslatorState state) {
+        IndexStatistics statistics = state.statistics;
+        Set<String> uncoveredFields = new HashSet<String>(fieldsForAndClause(clause));
+        List<String> chosenIndexes = new ArrayList<String>();
+        List<List<Object>> subclauses = new ArrayList<List<Object>>();
+
+        while (!uncoveredFields.isEmpty()) {
+            String bestIndex = null;
+            Set<String> bestFields = Collections.emptySet();
+            for (String indexName : indexes.keySet()) {
+                Map<String, Object> indexDefinition = (Map<String, Object>) indexes.get(indexName);
+                String indexType = (String) indexDefinition.get("type");
+                if (indexType.equalsIgnoreCase("text")) {
+                    continue;
+                }
+
+                List<String> fieldList = (List<String>) indexDefinition.get("fields");
+                Set<String> fields = new HashSet<String>(fieldList);
+                fields.retainAll(uncoveredFields);
+                if (fields.size() > bestFields.size() ||
+                        (!fields.isEmpty() && fields.size() == bestFields.size() &&
+                         statistics.rowCount(indexName) < statistics.rowCount(bestIndex))) {
+                    bestIndex = indexName;
+                    bestFields = fields;
+                }
+            }
+            if (bestIndex == null) {
+                break;
+            }
+
+            List<Object> subclause = new ArrayList<Object>();
+            for (Object rawTerm : clause) {
+                Map<String, Object> term = (Map<String, Object>) rawTerm;
+                if (bestFields.contains(term.keySet().toArray()[0])) {
+                    subclause.add(rawTerm);
+                }
+            }
+            chosenIndexes.add(bestIndex);
+            subclauses.add(subclause);
+            uncoveredFields.removeAll(bestFields);
+        }
+
+        List<QueryNode> nodes = new ArrayList<QueryNode>();
+        if (chosenIndexes.isEmpty()) {
+            return nodes;
+        }
+
+        String firstIndex = chosenIndexes.get(0);
+        double intersectionCost = 0;
+        for (String indexName : chosenIndexes) {
+            intersectionCost = intersectionCost + statistics.rowCount(indexName);
+        }
+        double matchingCost = statistics.rowCount(firstIndex) +
+                statistics.estimatedRows(firstIndex, subclauses.get(0)) *
+                QueryPlan.DOCUMENT_MATCH_COST;
+
+        if (uncoveredFields.isEmpty() && intersectionCost <= matchingCost) {
+            state.plan.addStep(state.depth, String.format("Intersect indexes %s",
+                                                          chosenIndexes));
+            state.depth++;
+            for (int i = 0; i < chosenIndexes.size(); i++) {
+                SqlQueryNode sqlNode = sqlNodeForAndClause(subclauses.get(i),
+                                                           chosenIndexes.get(i),
+                                                           indexes,
+                                                           state);
+                if (sqlNode == null) {
+                    return null;
+                }
+                nodes.add(sqlNode);
+            }
+            state.depth--;
+        } else {
+            SqlQueryNode sqlNode = sqlNodeForAndClause(subclauses.get(0),
+                                                       firstIndex,
+                                                       indexes,
+                                                       state);
+            if (sqlNode == null) {
+                return null;
+            }
+            nodes.add(sqlNode);
+            state.atLeastOneIndexMissing = true;
+            state.missingIndexReasons.add(String.format("Index %s contains only %s of %s",
+                                                        firstIndex,
+                                                        fieldsForAndClause(subclauses.get(0)),
+                                                        clause));
+        }
+
+        return nodes;
+    }
+
     private static List<String> fieldsForAndClause(List<Object> clause) {
         if (clause == null) {
             return null;
@@ -356,8 +606,62 @@ class QuerySqlTranslator {
         return found;
     }
 
+    /**
+     *  Returns the indexes which can be used to execute a query, which are all
+     *  of them apart from the partial indexes whose filter the query doesn't imply.
+     *
+     *  A query implies a filter when every term of the filter is also a term of
+     *  the query's top level AND clause. Every document the query matches is then
+     *  in the partial index, so it can be used for any part of the query, as well
+     *  as for sorting and projecting the results.
+     *
+     *  @param query the normalised query
+     *  @param indexes dictionary of indexes
+     *  @return dictionary of the usable indexes
+     */
+    @SuppressWarnings("unchecked")
+    protected static Map<String, Object> indexesUsableForQuery(Map<String, Object> query,
+                                                               Map<String, Object> indexes) {
+        if (indexes == null) {
+            return null;
+        }
+
+        List<Object> queryTerms = termsForSelector(query);
+        Map<String, Object> usableIndexes = new HashMap<String, Object>();
+        for (String indexName: indexes.keySet()) {
+            Map<String, Object> indexDefinition = (Map<String, Object>) indexes.get(indexName);
+            Map<String, Object> partialFilter =
+                    (Map<String, Object>) indexDefinition.get("partial_filter");
+            if (partialFilter == null ||
+                    queryTerms.containsAll(termsForSelector(partialFilter))) {
+                usableIndexes.put(indexName, indexDefinition);
+            }
+        }
+
+        return usableIndexes;
+    }
+
+    /**
+     *  Returns the terms of a normalised selector's top level AND clause, or the
+     *  selector itself as the only term if it's an OR clause.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Object> termsForSelector(Map<String, Object> selector) {
+        Object terms = selector.get(AND);
+        if (terms instanceof List) {
+            return (List<Object>) terms;
+        }
+        return Collections.<Object>singletonList(selector);
+    }
+
     protected static String chooseIndexForAndClause(List<Object> clause,
                                                     Map<String, Object> indexes) {
+        return chooseIndexForAndClause(clause, indexes, null);
+    }
+
+    protected static String chooseIndexForAndClause(List<Object> clause,
+                                                    Map<String, Object> indexes,
+                                                    IndexStatistics statistics) {
         if (clause == null || clause.isEmpty()) {
             return null;
         }
@@ -382,12 +686,22 @@ class QuerySqlTranslator {
             return null;
         }
 
-        return chooseIndexForFields(neededFields, indexes);
+        return chooseIndexForFields(neededFields, indexes, statistics);
     }
 
-    @SuppressWarnings("unchecked")
     protected static String chooseIndexForFields(Set<String> neededFields,
                                                  Map<String, Object> indexes) {
+        return chooseIndexForFields(neededFields, indexes, null);
+    }
+
+    /**
+     *  Chooses an index containing all the fields needed. Without statistics this is
+     *  the first such index, otherwise it's the one with the fewest rows to scan.
+     */
+    @SuppressWarnings("unchecked")
+    protected static String chooseIndexForFields(Set<String> neededFields,
+                                                 Map<String, Object> indexes,
+                                                 IndexStatistics statistics) {
         String chosenIndex = null;
         for (String indexName: indexes.keySet()) {
             Map<String, Object> indexDefinition = (Map<String, Object>) indexes.get(indexName);
@@ -401,8 +715,13 @@ class QuerySqlTranslator {
             List<String> fieldList = (List<String>) indexDefinition.get("fields");
             Set<String> providedFields = new HashSet<String>(fieldList);
             if (providedFields.containsAll(neededFields)) {
-                chosenIndex = indexName;
-                break;
+                if (statistics == null) {
+                    chosenIndex = indexName;
+                    break;
+                } else if (chosenIndex == null ||
+                        statistics.rowCount(indexName) < statistics.rowCount(chosenIndex)) {
+                    chosenIndex = indexName;
+                }
             }
         }
 
@@ -423,8 +742,30 @@ class QuerySqlTranslator {
         return textIndex;
     }
 
+    /**
+     *  Returns the fields of an index which have array values in its array table.
+     */
+    @SuppressWarnings("unchecked")
+    private static Set<String> arrayFieldsForIndex(String indexName,
+                                                   Map<String, Object> indexes) {
+        Map<String, Object> indexDefinition = (Map<String, Object>) indexes.get(indexName);
+        List<String> arrayFields = indexDefinition != null ?
+                                   (List<String>) indexDefinition.get("array_fields") :
+                                   null;
+        if (arrayFields == null) {
+            return Collections.emptySet();
+        }
+        return new HashSet<String>(arrayFields);
+    }
+
     protected static SqlParts selectStatementForAndClause(List<Object> clause,
                                                           String indexName) {
+        return selectStatementForAndClause(clause, indexName, Collections.<String>emptySet());
+    }
+
+    protected static SqlParts selectStatementForAndClause(List<Object> clause,
+                                                          String indexName,
+                                                          Set<String> arrayFields) {
         if (clause == null || clause.isEmpty()) {
             return null;  // no query here
         }
@@ -433,7 +774,7 @@ class QuerySqlTranslator {
             return null;
         }
 
-        SqlParts where = whereSqlForAndClause(clause, indexName);
+        SqlParts where = whereSqlForAndClause(clause, indexName, arrayFields);
 
         if (where == null) {
             return null;
@@ -473,8 +814,26 @@ class QuerySqlTranslator {
         return SqlParts.partsForSql(sql, new String[]{ search });
     }
 
-    @SuppressWarnings("unchecked")
     protected static SqlParts whereSqlForAndClause(List<Object> clause, String indexName) {
+        return whereSqlForAndClause(clause, indexName, Collections.<String>emptySet());
+    }
+
+    /**
+     *  Returns the WHERE clause selecting the rows of an index which match every term
+     *  of an AND clause.
+     *
+     *  The elements of fields in 'arrayFields' are in the index's array table rather
+     *  than the index table, so terms for those fields also match documents with an
+     *  element in the array table which matches.
+     *
+     *  @param clause list of single field predicates
+     *  @param indexName the index the clause is executed against
+     *  @param arrayFields the fields which have array values in the index's array table
+     */
+    @SuppressWarnings("unchecked")
+    protected static SqlParts whereSqlForAndClause(List<Object> clause,
+                                                   String indexName,
+                                                   Set<String> arrayFields) {
         if (clause == null || clause.isEmpty()) {
             return null;  //  no point in querying empty set of fields
         }
@@ -534,12 +893,17 @@ class QuerySqlTranslator {
 
                     boolean exists = !((Boolean) predicateValue);
                     // since this clause is negated we need to negate the bool value
-                    whereClauses.add(convertExistsToSqlClauseForFieldName(fieldName, exists));
+                    whereClauses.add(convertExistsToSqlClauseForFieldName(fieldName,
+                                                                          exists,
+                                                                          indexName,
+                                                                          arrayFields,
+                                                                          sqlParameters));
                 } else {
                     String whereClause;
                     String sqlOperator = operatorMap.get(operator);
                     String tableName = IndexManager.tableNameForIndex(indexName);
                     String placeholder;
+                    int firstParameter = sqlParameters.size();
                     if (operator.equals(IN)) {
                         // The predicate map value must be a List here.
                         // This was validated during normalization.
@@ -564,16 +928,33 @@ class QuerySqlTranslator {
                     }
 
                     whereClause = whereClauseForNot(fieldName, sqlOperator, tableName, placeholder);
+                    if (arrayFields.contains(fieldName)) {
+                        // nor any document with an element matching
+                        String elementClause = whereClauseForArrayElements(fieldName,
+                                sqlOperator,
+                                indexName,
+                                placeholder,
+                                sqlParameters,
+                                firstParameter);
+                        whereClause = String.format("%s AND _id NOT IN (%s)",
+                                                    whereClause,
+                                                    elementClause);
+                    }
                     whereClauses.add(whereClause);
                 }
             } else {
                 if (operator.equals(EXISTS)) {
                     boolean exists = (Boolean) predicate.get(operator);
-                    whereClauses.add(convertExistsToSqlClauseForFieldName(fieldName, exists));
+                    whereClauses.add(convertExistsToSqlClauseForFieldName(fieldName,
+                                                                          exists,
+                                                                          indexName,
+                                                                          arrayFields,
+                                                                          sqlParameters));
                 } else {
                     String whereClause;
                     String sqlOperator = operatorMap.get(operator);
                     String placeholder;
+                    int firstParameter = sqlParameters.size();
                     if (operator.equals(IN)) {
                         // The predicate map value must be a List here.
                         // This was validated during normalization.
@@ -600,6 +981,18 @@ class QuerySqlTranslator {
                     whereClause = String.format("\"%s\" %s %s", fieldName,
                                                                 sqlOperator,
                                                                 placeholder);
+                    if (arrayFields.contains(fieldName)) {
+                        // or any document with an element matching
+                        String elementClause = whereClauseForArrayElements(fieldName,
+                                sqlOperator,
+                                indexName,
+                                placeholder,
+                                sqlParameters,
+                                firstParameter);
+                        whereClause = String.format("(%s OR _id IN (%s))",
+                                                    whereClause,
+                                                    elementClause);
+                    }
                     whereClauses.add(whereClause);
                 }
             }
@@ -651,7 +1044,37 @@ class QuerySqlTranslator {
         return String.format("_id NOT IN (%s)", subSelect);
     }
 
-    private static String convertExistsToSqlClauseForFieldName(String fieldName, boolean exists) {
+    /**
+     * Returns a sub-SELECT of the documents with an element of an array field
+     * matching the operator, from the index's array table.
+     *
+     * The operand's placeholders are for the parameters added to 'sqlParameters'
+     * from 'firstParameter' on, which are added again after the field name for
+     * the sub-SELECT.
+     */
+    private static String whereClauseForArrayElements(String fieldName,
+                                                      String sqlOperator,
+                                                      String indexName,
+                                                      String operand,
+                                                      List<Object> sqlParameters,
+                                                      int firstParameter) {
+        List<Object> operandParameters =
+                new ArrayList<Object>(sqlParameters.subList(firstParameter,
+                                                            sqlParameters.size()));
+        sqlParameters.add(fieldName);
+        sqlParameters.addAll(operandParameters);
+
+        return String.format("SELECT _id FROM %s WHERE field_name = ? AND value %s %s",
+                             IndexManager.arrayTableNameForIndex(indexName),
+                             sqlOperator,
+                             operand);
+    }
+
+    private static String convertExistsToSqlClauseForFieldName(String fieldName,
+                                                               boolean exists,
+                                                               String indexName,
+                                                               Set<String> arrayFields,
+                                                               List<Object> sqlParameters) {
         String sqlClause;
         if (exists) {
             // so this field needs to exist
@@ -661,6 +1084,22 @@ class QuerySqlTranslator {
             sqlClause = String.format("(\"%s\" IS NULL)", fieldName);
         }
 
+        if (arrayFields.contains(fieldName)) {
+            // a field with an array value has elements in the array table instead
+            String elements = String.format("SELECT _id FROM %s WHERE field_name = ?",
+                                            IndexManager.arrayTableNameForIndex(indexName));
+            sqlParameters.add(fieldName);
+            if (exists) {
+                sqlClause = String.format("(\"%s\" IS NOT NULL OR _id IN (%s))",
+                                          fieldName,
+                                          elements);
+            } else {
+                sqlClause = String.format("(\"%s\" IS NULL AND _id NOT IN (%s))",
+                                          fieldName,
+                                          elements);
+            }
+        }
+
         return sqlClause;
     }
 
@@ -22,4 +22,9 @@ class SqlQueryNode implements QueryNode {
 
     public SqlParts sql;
 
+    /**
+     *  The index which {@link #sql} selects from.
+     */
+    public String indexName;
+
 }
@@ -12,6 +12,11 @@
 
 package com.cloudant.sync.query;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  *  The purpose of a TranslatorState object is to track the state of a query translation operation
  *  performed by method calls in the {@link com.cloudant.sync.query.QuerySqlTranslator}.  Since
@@ -30,12 +35,26 @@ class TranslatorState {
     public boolean textIndexRequired;
     public boolean textIndexMissing;
 
+    // Used to choose between indexes by estimated cost, null to choose the first
+    // index containing the fields needed.
+    public IndexStatistics statistics;
+    public QueryPlan plan;
+    public int depth;
+    // Reasons the query can't be executed using indexes alone
+    public List<String> missingIndexReasons;
+    public Map<QueryNode, Double> estimatedRows;
+
     TranslatorState() {
         atLeastOneIndexUsed = false;
         atLeastOneIndexMissing = false;
         atLeastOneORIndexMissing = false;
         textIndexRequired = false;
         textIndexMissing = false;
+        statistics = null;
+        plan = new QueryPlan();
+        depth = 0;
+        missingIndexReasons = new ArrayList<String>();
+        estimatedRows = new HashMap<QueryNode, Double>();
     }
 
 }
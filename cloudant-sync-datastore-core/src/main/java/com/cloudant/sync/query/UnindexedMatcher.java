@@ -17,10 +17,11 @@ import com.cloudant.sync.datastore.DocumentRevision;
 import static com.cloudant.sync.query.QueryConstants.*;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,8 +33,12 @@ import java.util.logging.Logger;
  *  representation and is able to then determine whether a document
  *  matches that selector.
  *
- *  The matcher works by first creating a simple tree, which is then
- *  executed against each document it's asked to match.
+ *  The matcher works by first compiling the selector into a simple tree, which
+ *  is then executed against each document it's asked to match. Compiling splits
+ *  dotted field names, resolves each operator to its comparison and puts the
+ *  values of $eq and $in into hash sets, so none of this is repeated for each
+ *  document. The tree is immutable, so a matcher can be shared between threads
+ *  and reused for every execution of the same selector.
  *
  *
  *  Some examples:
@@ -83,7 +88,7 @@ import java.util.logging.Logger;
  */
 class UnindexedMatcher {
 
-    private ChildrenQueryNode root;
+    private Predicate root;
 
     private static final Logger logger = Logger.getLogger(UnindexedMatcher.class.getName());
 
@@ -94,7 +99,7 @@ class UnindexedMatcher {
      *  the query processing.
      */
     public static UnindexedMatcher matcherWithSelector(Map<String, Object> selector) {
-        ChildrenQueryNode root = buildExecutionTreeForSelector(selector);
+        Predicate root = compileSelector(selector);
 
         if (root == null) {
             return null;
@@ -107,43 +112,37 @@ class UnindexedMatcher {
     }
 
     @SuppressWarnings("unchecked")
-    private static ChildrenQueryNode buildExecutionTreeForSelector(Map<String, Object> selector) {
+    private static Predicate compileSelector(Map<String, Object> selector) {
         // At this point we will have a root compound predicate, AND or OR, and
         // the query will be reduced to a single entry:
         // { "$and": [ ... predicates (possibly compound) ... ] }
         // { "$or": [ ... predicates (possibly compound) ... ] }
 
-        ChildrenQueryNode root = null;
-        List<Object> clauses = new ArrayList<Object>();
+        boolean and;
+        List<Object> clauses;
 
         if (selector.get(AND) != null) {
             clauses = (List<Object>) selector.get(AND);
-            root = new AndQueryNode();
+            and = true;
         } else if (selector.get(OR) != null) {
             clauses = (List<Object>) selector.get(OR);
-            root = new OrQueryNode();
+            and = false;
+        } else {
+            return null;
         }
 
+        List<Predicate> children = new ArrayList<Predicate>();
+
         //
         // First handle the simple "field": { "$operator": "value" } clauses.
         //
 
-        List<Object> basicClauses = new ArrayList<Object>();
-
+        // Execution step will evaluate each child node and AND or OR the results.
         for (Object rawClause: clauses) {
             Map<String, Object> clause = (Map<String, Object>) rawClause;
             String field = (String) clause.keySet().toArray()[0];
             if (!field.startsWith("$")) {
-                basicClauses.add(rawClause);
-            }
-        }
-
-        // Execution step will evaluate each child node and AND or OR the results.
-        for (Object expression: basicClauses) {
-            OperatorExpressionNode node = new OperatorExpressionNode();
-            node.expression = (Map<String, Object>) expression;
-            if (root != null) {
-                root.children.add(node);
+                children.add(compileOperatorExpression(clause));
             }
         }
 
@@ -158,10 +157,7 @@ class UnindexedMatcher {
             Map<String, Object> clause = (Map<String, Object>) rawClause;
             String field = (String) clause.keySet().toArray()[0];
             if (field.equals(OR)) {
-                QueryNode orNode = buildExecutionTreeForSelector(clause);
-                if (root != null) {
-                    root.children.add(orNode);
-                }
+                children.add(compileSelector(clause));
             }
         }
 
@@ -170,14 +166,79 @@ class UnindexedMatcher {
             Map<String, Object> clause = (Map<String, Object>) rawClause;
             String field = (String) clause.keySet().toArray()[0];
             if (field.equals(AND)) {
-                QueryNode andNode = buildExecutionTreeForSelector(clause);
-                if (root != null) {
-                    root.children.add(andNode);
-                }
+                children.add(compileSelector(clause));
             }
         }
 
-        return root;
+        Predicate[] childArray = children.toArray(new Predicate[children.size()]);
+        return and ? new AndPredicate(childArray) : new OrPredicate(childArray);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Predicate compileOperatorExpression(Map<String, Object> expression) {
+        // Here we could have:
+        //   { fieldName: { operator: value } }
+        // or
+        //   { fieldName: { $not: { operator: value } } }
+
+        String fieldName = (String) expression.keySet().toArray()[0];
+        Map<String, Object> operatorExpression;
+        operatorExpression = (Map<String, Object>) expression.get(fieldName);
+
+        String operator = (String) operatorExpression.keySet().toArray()[0];
+
+        // First work out whether we need to invert the result when done
+        boolean invertResult = operator.equals(NOT);
+        if (invertResult) {
+            operatorExpression = (Map<String, Object>) operatorExpression.get(NOT);
+            operator = (String) operatorExpression.keySet().toArray()[0];
+        }
+
+        Object expected = operatorExpression.get(operator);
+
+        // Since $in is the same as a series of $eq comparisons -
+        // Treat them the same by ensuring that expected is a list.
+        List<Object> expectedItems = expected instanceof List ?
+                                     (List<Object>) expected :
+                                     Collections.singletonList(expected);
+
+        if (operator.equals(EQ) || operator.equals(IN)) {
+            return new ValueSetPredicate(fieldName, invertResult, expectedItems);
+        } else if (operator.equals(MOD) || operator.equals(SIZE)) {
+            // If an operator like $mod or $size is found we need to treat the
+            // comparison as a special case.
+            //
+            // $mod: perform modulo arithmetic on the actual value using the first
+            //       element in the expected list as the divisor before comparing
+            //       the result to the second element in the expected list.
+            //
+            // $size: check whether the actual value is a list, then compare the
+            //        actual list size with the expected value.
+            Comparison comparison = operator.equals(MOD) ? Comparison.MOD : Comparison.SIZE;
+            return new ComparisonPredicate(fieldName, invertResult, comparison,
+                    Collections.singletonList(expected), false);
+        }
+
+        Comparison comparison;
+        if (operator.equals(LT)) {
+            comparison = Comparison.LT;
+        } else if (operator.equals(LTE)) {
+            comparison = Comparison.LTE;
+        } else if (operator.equals(GT)) {
+            comparison = Comparison.GT;
+        } else if (operator.equals(GTE)) {
+            comparison = Comparison.GTE;
+        } else if (operator.equals(EXISTS)) {
+            comparison = Comparison.EXISTS;
+        } else {
+            String msg = String.format("Found unexpected operator in selector: %s", operator);
+            logger.log(Level.WARNING, msg);
+            // No value passes an unknown operator, so this matches nothing
+            return new ValueSetPredicate(fieldName, invertResult,
+                                         Collections.<Object>emptyList());
+        }
+
+        return new ComparisonPredicate(fieldName, invertResult, comparison, expectedItems, true);
     }
 
     /**
@@ -187,130 +248,253 @@ class UnindexedMatcher {
      * @return document and matcher's selector matching status.
      */
     public boolean matches(DocumentRevision rev) {
-        return executeSelectorTree(root, rev);
+        return matches(rev, rev.getBody().asMap());
     }
 
-    @SuppressWarnings("unchecked")
-    private boolean executeSelectorTree(QueryNode node, DocumentRevision rev) {
-        if (node instanceof AndQueryNode) {
-            boolean passed = true;
+    /**
+     * Returns true is a document matches this matcher's selector, using a body
+     * which has already been converted to a map.
+     *
+     * @param rev The document revision to match selector to.
+     * @param body The revision's body as a map.
+     * @return document and matcher's selector matching status.
+     */
+    boolean matches(DocumentRevision rev, Map<String, Object> body) {
+        return root.matches(rev, body);
+    }
 
-            AndQueryNode andNode = (AndQueryNode) node;
+    /**
+     *  A node of the compiled selector tree.
+     */
+    private static abstract class Predicate {
 
-            for (QueryNode child: andNode.children) {
-                passed = passed && executeSelectorTree(child, rev);
-            }
+        abstract boolean matches(DocumentRevision rev, Map<String, Object> body);
 
-            return passed;
-        }
-        if (node instanceof OrQueryNode) {
-            boolean passed = false;
+    }
+
+    private static class AndPredicate extends Predicate {
 
-            OrQueryNode orNode = (OrQueryNode) node;
+        private final Predicate[] children;
 
-            for (QueryNode child: orNode.children) {
-                passed = passed || executeSelectorTree(child, rev);
+        AndPredicate(Predicate[] children) {
+            this.children = children;
+        }
+
+        @Override
+        boolean matches(DocumentRevision rev, Map<String, Object> body) {
+            for (Predicate child: children) {
+                if (!child.matches(rev, body)) {
+                    return false;
+                }
             }
+            return true;
+        }
 
-            return passed;
-        } else if (node instanceof OperatorExpressionNode) {
-            Map<String, Object> expression = ((OperatorExpressionNode) node).expression;
+    }
 
-            // Here we could have:
-            //   { fieldName: { operator: value } }
-            // or
-            //   { fieldName: { $not: { operator: value } } }
+    private static class OrPredicate extends Predicate {
 
-            // Next evaluate the result
-            String fieldName = (String) expression.keySet().toArray()[0];
-            Map<String, Object> operatorExpression;
-            operatorExpression = (Map<String, Object>) expression.get(fieldName);
+        private final Predicate[] children;
 
-            String operator = (String) operatorExpression.keySet().toArray()[0];
+        OrPredicate(Predicate[] children) {
+            this.children = children;
+        }
 
-            // First work out whether we need to invert the result when done
-            boolean invertResult = operator.equals(NOT);
-            if (invertResult) {
-                operatorExpression = (Map<String, Object>) operatorExpression.get(NOT);
-                operator = (String) operatorExpression.keySet().toArray()[0];
+        @Override
+        boolean matches(DocumentRevision rev, Map<String, Object> body) {
+            for (Predicate child: children) {
+                if (child.matches(rev, body)) {
+                    return true;
+                }
             }
+            return false;
+        }
+
+    }
+
+    /**
+     *  Tests the value of a single field, inverting the result for $not.
+     */
+    private static abstract class FieldPredicate extends Predicate {
 
-            Object expected = operatorExpression.get(operator);
-            Object actual = ValueExtractor.extractValueForFieldName(fieldName, rev);
-
-            boolean passed = false;
-            List<String> specialCaseOperators = Arrays.asList(MOD, SIZE);
-            if (specialCaseOperators.contains(operator)) {
-                // If an operator like $mod or $size is found we need to treat the
-                // comparison as a special case.
-                //
-                // $mod: perform modulo arithmetic on the actual value using the first
-                //       element in the expected list as the divisor before comparing
-                //       the result to the second element in the expected list.
-                //
-                // $size: check whether the actual value is a list, then compare the
-                //        actual list size with the expected value.
-                passed = valueCompare(actual, operator, expected);
+        private final String fieldName;
+        private final String[] fieldPath;
+        private final boolean invertResult;
+
+        FieldPredicate(String fieldName, boolean invertResult) {
+            this.fieldName = fieldName;
+            this.fieldPath = ValueExtractor.fieldPathForFieldName(fieldName);
+            this.invertResult = invertResult;
+        }
+
+        @Override
+        final boolean matches(DocumentRevision rev, Map<String, Object> body) {
+            // _id and _rev are special fields which come from attributes
+            // of the revision and not its body.
+            Object actual;
+            if (fieldName.equals("_id")) {
+                actual = rev.getId();
+            } else if (fieldName.equals("_rev")) {
+                actual = rev.getRevision();
             } else {
-                // Since $in is the same as a series of $eq comparisons -
-                // Treat them the same by:
-                // - Ensuring that both expected and actual are lists/collections.
-                // - Convert the $in operator to the $eq operator.
-                if (!(expected instanceof List)) {
-                    expected = Collections.singletonList(expected);
+                actual = ValueExtractor.extractValueForFieldPath(fieldPath, body);
+            }
+
+            boolean passed = matchesValue(actual);
+            return invertResult ? !passed : passed;
+        }
+
+        abstract boolean matchesValue(Object actual);
+
+        /**
+         *  Returns the items to compare for an actual value, where any item
+         *  of an array value can match.
+         */
+        @SuppressWarnings("unchecked")
+        static List<Object> actualItems(Object actual) {
+            return actual instanceof List ?
+                   (List<Object>) actual :
+                   Collections.singletonList(actual);
+        }
+
+    }
+
+    /**
+     *  Matches $eq and $in by looking up each actual item in a hash set of
+     *  the expected values.
+     */
+    private static class ValueSetPredicate extends FieldPredicate {
+
+        private final Set<Object> expectedKeys = new HashSet<Object>();
+
+        ValueSetPredicate(String fieldName, boolean invertResult, List<Object> expectedItems) {
+            super(fieldName, invertResult);
+            for (Object expectedItem: expectedItems) {
+                Object key = equalityKey(expectedItem);
+                if (key != null) {
+                    expectedKeys.add(key);
                 }
-                if (!(actual instanceof List)) {
-                    actual = Collections.singletonList(actual);
+            }
+        }
+
+        @Override
+        boolean matchesValue(Object actual) {
+            for (Object actualItem: actualItems(actual)) {
+                Object key = equalityKey(actualItem);
+                if (key != null && expectedKeys.contains(key)) {
+                    return true;
                 }
-                if (operator.equals(IN)) {
-                    operator = EQ;
+            }
+            return false;
+        }
+
+        /**
+         *  Returns a key which is equal for values {@link #compareEq(Object, Object)}
+         *  considers equal, or null for values it considers equal to nothing.
+         */
+        private static Object equalityKey(Object value) {
+            if (value instanceof String || value instanceof Boolean) {
+                return value;
+            } else if (value instanceof Number) {
+                double number = ((Number) value).doubleValue();
+                if (Double.isNaN(number)) {
+                    return null;
                 }
+                // -0.0 == 0.0, but their Doubles aren't equal
+                return number == 0 ? 0.0 : number;
+            } else {
+                return null;
+            }
+        }
 
-                for (Object expectedItem : (List<Object>) expected) {
-                    for (Object actualItem: (List<Object>) actual) {
-                        // OR since any actual item can match any value in the expected list
-                        passed = passed || valueCompare(actualItem, operator, expectedItem);
+    }
+
+    /**
+     *  Matches the other operators by comparing actual items with each expected
+     *  item, or the whole actual value for $mod and $size.
+     */
+    private static class ComparisonPredicate extends FieldPredicate {
+
+        private final Comparison comparison;
+        private final Object[] expectedItems;
+        private final boolean compareActualItems;
+
+        ComparisonPredicate(String fieldName,
+                            boolean invertResult,
+                            Comparison comparison,
+                            List<Object> expectedItems,
+                            boolean compareActualItems) {
+            super(fieldName, invertResult);
+            this.comparison = comparison;
+            this.expectedItems = expectedItems.toArray();
+            this.compareActualItems = compareActualItems;
+        }
+
+        @Override
+        boolean matchesValue(Object actual) {
+            if (!compareActualItems) {
+                return comparison.compare(actual, expectedItems[0]);
+            }
+            for (Object expectedItem: expectedItems) {
+                for (Object actualItem: actualItems(actual)) {
+                    // any actual item can match any value in the expected list
+                    if (comparison.compare(actualItem, expectedItem)) {
+                        return true;
                     }
                 }
             }
-
-            return invertResult ? !passed : passed;
-        } else {
-            // We constructed the tree, so shouldn't end up here; error if we do.
-            String msg = String.format("Found unexpected selector execution tree: %s", node);
-            logger.log(Level.SEVERE, msg);
             return false;
         }
-    }
 
-    private boolean valueCompare(Object actual, String operator, Object expected) {
-        boolean passed;
+    }
 
-        if (operator.equals(EQ)) {
-            passed = compareEq(actual, expected);
-        } else if (operator.equals(LT)) {
-            passed = compareLT(actual, expected);
-        } else if (operator.equals(LTE)) {
-            passed = compareLTE(actual, expected);
-        } else if (operator.equals(GT)) {
-            passed = compareGT(actual, expected);
-        } else if (operator.equals(GTE)) {
-            passed = compareGTE(actual, expected);
-        } else if (operator.equals(MOD)) {
-            passed = compareMOD(actual, expected);
-        } else if (operator.equals(SIZE)) {
-            passed = compareSIZE(actual, expected);
-        } else if (operator.equals(EXISTS)) {
-            boolean expectedBool = (Boolean) expected;
-            boolean exists = (actual != null);
-            passed = (exists == expectedBool);
-        } else {
-            String msg = String.format("Found unexpected operator in selector: %s", operator);
-            logger.log(Level.WARNING, msg);
-            passed = false;
-        }
+    private enum Comparison {
+        LT {
+            @Override
+            boolean compare(Object actual, Object expected) {
+                return compareLT(actual, expected);
+            }
+        },
+        LTE {
+            @Override
+            boolean compare(Object actual, Object expected) {
+                return compareLTE(actual, expected);
+            }
+        },
+        GT {
+            @Override
+            boolean compare(Object actual, Object expected) {
+                return compareGT(actual, expected);
+            }
+        },
+        GTE {
+            @Override
+            boolean compare(Object actual, Object expected) {
+                return compareGTE(actual, expected);
+            }
+        },
+        EXISTS {
+            @Override
+            boolean compare(Object actual, Object expected) {
+                boolean expectedBool = (Boolean) expected;
+                boolean exists = (actual != null);
+                return exists == expectedBool;
+            }
+        },
+        MOD {
+            @Override
+            boolean compare(Object actual, Object expected) {
+                return compareMOD(actual, expected);
+            }
+        },
+        SIZE {
+            @Override
+            boolean compare(Object actual, Object expected) {
+                return compareSIZE(actual, expected);
+            }
+        };
 
-        return passed;
+        abstract boolean compare(Object actual, Object expected);
     }
 
     protected static boolean compareEq(Object l, Object r) {
@@ -15,9 +15,7 @@ package com.cloudant.sync.query;
 import com.cloudant.sync.datastore.DocumentBody;
 import com.cloudant.sync.datastore.DocumentRevision;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -39,35 +37,60 @@ class ValueExtractor {
         }
     }
 
-    @SuppressWarnings("unchecked")
     public static Object extractValueForFieldName(String possiblyDottedField, DocumentBody body) {
+        return extractValueForFieldName(possiblyDottedField, body.asMap());
+    }
+
+    /**
+     *  Extracts a field's value from a document body which has already been
+     *  converted to a map, so callers extracting several fields from the same
+     *  body need only convert it once.
+     */
+    public static Object extractValueForFieldName(String possiblyDottedField,
+                                                  Map<String, Object> body) {
+        return extractValueForFieldPath(fieldPathForFieldName(possiblyDottedField), body);
+    }
+
+    /**
+     *  Splits a possibly dotted field name into the path of fields leading to
+     *  its value, for callers extracting the same field from many documents.
+     */
+    public static String[] fieldPathForFieldName(String possiblyDottedField) {
+        return possiblyDottedField.contains(".") ?
+               possiblyDottedField.split("\\.") :
+               new String[]{possiblyDottedField};
+    }
+
+    /**
+     *  Extracts the value at a field path, as returned by
+     *  {@link #fieldPathForFieldName(String)}, from a document body.
+     */
+    @SuppressWarnings("unchecked")
+    public static Object extractValueForFieldPath(String[] fieldPath, Map<String, Object> body) {
         // The algorithm here is to split the fields into a "path" and a "lastSegment".
         // The path leads us to the final sub-document. We know that if we have either
         // nil or a non-dictionary object while traversing path that the body doesn't
         // have the right fields for this field selector -- it allows us to make sure
         // that each level of the `path` results in a document rather than a value,
         // because if it's a value, we can't continue the selection process.
-        String[] fields = possiblyDottedField.contains(".") ?
-                          possiblyDottedField.split("\\.") :
-                          new String[]{possiblyDottedField};
-
-        List<String> path = new ArrayList<String>(Arrays.asList(fields));
-        String lastSegment = path.remove(path.size() - 1);
+        int lastSegment = fieldPath.length - 1;
 
-        Map<String, Object> currentLevel = body.asMap();
-        for (String field: path) {
-            Object map = currentLevel.get(field);
+        Map<String, Object> currentLevel = body;
+        for (int i = 0; i < lastSegment; i++) {
+            Object map = currentLevel.get(fieldPath[i]);
             if (map != null && map instanceof Map) {
                 currentLevel = (Map<String, Object>) map;
             } else {
-                String msg = String.format("Could not extract field %s from document.",
-                                           possiblyDottedField);
-                logger.log(Level.FINE, msg);
+                if (logger.isLoggable(Level.FINE)) {
+                    String msg = String.format("Could not extract field %s from document.",
+                                               Arrays.toString(fieldPath));
+                    logger.log(Level.FINE, msg);
+                }
                 return null;
             }
         }
 
-        return currentLevel.get(lastSegment);
+        return currentLevel.get(fieldPath[lastSegment]);
     }
 
 }
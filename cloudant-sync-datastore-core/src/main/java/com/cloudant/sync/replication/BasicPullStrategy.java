@@ -46,7 +46,14 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -66,7 +73,12 @@ class BasicPullStrategy implements ReplicationStrategy {
 
         int documentCounter = 0;
 
-        int batchCounter = 0;
+        // Volatile as it is set from the thread fetching changes.
+        volatile int batchCounter = 0;
+
+        // Set when inserting stops, after which nothing takes from the insert
+        // queue. Volatile as it is read by the thread fetching changes.
+        private volatile boolean insertStopped = false;
     }
 
     private State state;
@@ -96,6 +108,24 @@ class BasicPullStrategy implements ReplicationStrategy {
 
     public boolean pullAttachmentsInline = false;
 
+    // Number of fetched insert batches which can be waiting to be inserted. Fetching
+    // revisions runs ahead of inserting them by at most this many batches.
+    public int insertQueueSize = 4;
+
+    // Number of attachments downloaded at the same time when attachments are not
+    // pulled inline.
+    public int attachmentDownloadParallelism = 4;
+
+    // How long the thread fetching changes waits for room in the insert queue
+    // before checking whether inserting has stopped.
+    private static final long INSERT_QUEUE_OFFER_TIMEOUT_MS = 100;
+
+    // Only used during a replication run
+    private ExecutorService attachmentExecutor;
+
+    // Only used during a replication run
+    ExecutorService fetchExecutor;
+
     public BasicPullStrategy(URI source,
                              Datastore target,
                              PullFilter filter,
@@ -213,6 +243,68 @@ class BasicPullStrategy implements ReplicationStrategy {
         }
 
         this.state.documentCounter = 0;
+
+        // Fetching changes, revisions and attachments runs on its own thread, ahead of
+        // inserting them on this thread. The bounded queue between the two stops fetching
+        // getting too far ahead. As the queue is processed in order, a checkpoint is only
+        // put once everything fetched before it has been inserted.
+        final BlockingQueue<PipelineItem> insertQueue =
+                new ArrayBlockingQueue<PipelineItem>(this.insertQueueSize);
+        this.fetchExecutor = Executors.newSingleThreadExecutor();
+        this.attachmentExecutor = Executors.newFixedThreadPool(this
+                .attachmentDownloadParallelism);
+        try {
+            Future<Void> fetchResult = fetchExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        fetchChanges(insertQueue);
+                    } finally {
+                        offerToInsertQueue(insertQueue, PipelineItem.END);
+                    }
+                    return null;
+                }
+            });
+
+            try {
+                insertChanges(insertQueue);
+            } finally {
+                // the fetching thread stops waiting for room in the queue once this is set
+                this.state.insertStopped = true;
+            }
+
+            // We were cancelled, the fetching thread may be blocked on the queue
+            if (this.state.cancel) { return; }
+
+            // re-throw any error from fetching, without wrapping it twice
+            try {
+                fetchResult.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof ExecutionException) {
+                    throw (ExecutionException) e.getCause();
+                }
+                throw e;
+            }
+        } finally {
+            this.fetchExecutor.shutdownNow();
+            this.attachmentExecutor.shutdownNow();
+        }
+
+        long endTime = System.currentTimeMillis();
+        long deltaTime = endTime - startTime;
+        String msg =  String.format(
+            "Pull completed in %sms (%s total changes processed)",
+            deltaTime,
+            this.state.documentCounter
+        );
+        logger.info(msg);
+    }
+
+    private void fetchChanges(BlockingQueue<PipelineItem> insertQueue)
+            throws ExecutionException, InterruptedException, DatastoreException {
+        Object lastSequence = this.targetDb.getCheckpoint(this.getReplicationId());
+        logger.fine("last checkpoint "+lastSequence);
+
         for (this.state.batchCounter = 1; this.state.batchCounter < this.batchLimitPerRun; this.state.batchCounter++) {
 
             if (this.state.cancel) { return; }
@@ -225,8 +317,7 @@ class BasicPullStrategy implements ReplicationStrategy {
             logger.info(msg);
             long batchStartTime = System.currentTimeMillis();
 
-            ChangesResultWrapper changeFeeds = this.nextBatch();
-            int batchChangesProcessed = 0;
+            ChangesResultWrapper changeFeeds = this.nextBatch(lastSequence);
 
             // So we can check whether all changes were processed during
             // a log analysis.
@@ -238,18 +329,17 @@ class BasicPullStrategy implements ReplicationStrategy {
             logger.info(msg);
 
             if (changeFeeds.size() > 0) {
-                batchChangesProcessed = processOneChangesBatch(changeFeeds);
-                state.documentCounter += batchChangesProcessed;
+                fetchOneChangesBatch(changeFeeds, insertQueue);
+                if (this.state.cancel || !offerToInsertQueue(insertQueue,
+                        new PipelineItem(this.state.batchCounter, batchStartTime,
+                                changeFeeds.getLastSeq()))) {
+                    return;
+                }
             }
 
-            long batchEndTime = System.currentTimeMillis();
-            msg =  String.format(
-                    "Batch %s completed in %sms (batch was %s changes)",
-                    this.state.batchCounter,
-                    batchEndTime-batchStartTime,
-                    batchChangesProcessed
-            );
-            logger.info(msg);
+            // The next batch starts from the end of this one, even though it
+            // may not have been inserted and checkpointed yet.
+            lastSequence = changeFeeds.getLastSeq();
 
             // This logic depends on the changes in the feed rather than the
             // changes we actually processed.
@@ -257,15 +347,89 @@ class BasicPullStrategy implements ReplicationStrategy {
                 break;
             }
         }
+    }
 
-        long endTime = System.currentTimeMillis();
-        long deltaTime = endTime - startTime;
-        String msg =  String.format(
-            "Pull completed in %sms (%s total changes processed)",
-            deltaTime,
-            this.state.documentCounter
-        );
-        logger.info(msg);
+    private void insertChanges(BlockingQueue<PipelineItem> insertQueue)
+            throws ExecutionException, InterruptedException {
+        int batchChangesProcessed = 0;
+        for (PipelineItem item = insertQueue.take(); item != PipelineItem.END;
+             item = insertQueue.take()) {
+
+            // We promise not to insert documents after cancel is set
+            if (this.state.cancel) { return; }
+
+            if (item.batchesToInsert != null) {
+                try {
+                    this.targetDb.bulkInsert(item.batchesToInsert, this.pullAttachmentsInline);
+                } catch (Exception e) {
+                    throw new ExecutionException(e);
+                }
+                batchChangesProcessed += item.batchesToInsert.size();
+                this.state.documentCounter += item.batchesToInsert.size();
+            } else {
+                try {
+                    this.targetDb.putCheckpoint(this.getReplicationId(), item.checkpoint);
+                } catch (DatastoreException e){
+                    logger.log(Level.WARNING,"Failed to put checkpoint doc, next replication will start from previous checkpoint",e);
+                }
+
+                long batchEndTime = System.currentTimeMillis();
+                String msg =  String.format(
+                        "Batch %s completed in %sms (batch was %s changes)",
+                        item.batchCounter,
+                        batchEndTime-item.batchStartTime,
+                        batchChangesProcessed
+                );
+                logger.info(msg);
+                batchChangesProcessed = 0;
+            }
+        }
+    }
+
+    /**
+     * Adds an item to the insert queue, waiting for room for as long as inserting
+     * carries on. A blocking put could wait forever if inserting failed or was
+     * cancelled with the queue full.
+     *
+     * @return false if inserting has stopped, so the item wasn't added
+     */
+    private boolean offerToInsertQueue(BlockingQueue<PipelineItem> insertQueue,
+                                       PipelineItem item) throws InterruptedException {
+        while (!this.state.insertStopped) {
+            if (insertQueue.offer(item, INSERT_QUEUE_OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * An item passed from fetching to inserting: either a list of revisions to insert
+     * in one go, or the checkpoint to put after a changes feed batch has been inserted.
+     */
+    private static class PipelineItem {
+
+        // marks the end of the queue
+        static final PipelineItem END = new PipelineItem(null);
+
+        final List<BatchItem> batchesToInsert;
+        final int batchCounter;
+        final long batchStartTime;
+        final Object checkpoint;
+
+        PipelineItem(List<BatchItem> batchesToInsert) {
+            this.batchesToInsert = batchesToInsert;
+            this.batchCounter = 0;
+            this.batchStartTime = 0;
+            this.checkpoint = null;
+        }
+
+        PipelineItem(int batchCounter, long batchStartTime, Object checkpoint) {
+            this.batchesToInsert = null;
+            this.batchCounter = batchCounter;
+            this.batchStartTime = batchStartTime;
+            this.checkpoint = checkpoint;
+        }
     }
 
     public class BatchItem {
@@ -280,8 +444,9 @@ class BasicPullStrategy implements ReplicationStrategy {
         public DocumentRevsList revsList;
     }
 
-    private int processOneChangesBatch(ChangesResultWrapper changeFeeds)
-            throws ExecutionException, InterruptedException, DocumentException {
+    private void fetchOneChangesBatch(ChangesResultWrapper changeFeeds,
+                                      BlockingQueue<PipelineItem> insertQueue)
+            throws ExecutionException, InterruptedException {
         String feed = String.format(
                 "Change feed: { last_seq: %s, change size: %s}",
                 changeFeeds.getLastSeq(),
@@ -292,8 +457,6 @@ class BasicPullStrategy implements ReplicationStrategy {
         Multimap<String, String> openRevs = changeFeeds.openRevisions(0, changeFeeds.size());
         Map<String, Collection<String>> missingRevisions = this.targetDb.getDbCore().revsDiff(openRevs);
 
-        int changesProcessed = 0;
-
         // Process the changes in batches
         List<String> ids = Lists.newArrayList(missingRevisions.keySet());
         List<List<String>> batches = Lists.partition(ids, this.insertBatchSize);
@@ -308,6 +471,14 @@ class BasicPullStrategy implements ReplicationStrategy {
             try {
                 Iterable<DocumentRevsList> result = createTask(batch, missingRevisions);
 
+                // downloads of attachments we don't already have, keyed by digest and
+                // name so each attachment is downloaded only once per batch
+                Map<String, Future<PreparedAttachment>> downloads = new HashMap<String,
+                        Future<PreparedAttachment>>();
+                List<Map<String[], List<Future<PreparedAttachment>>>> pendingAtts = new
+                        ArrayList<Map<String[], List<Future<PreparedAttachment>>>>();
+                List<DocumentRevsList> revsLists = new ArrayList<DocumentRevsList>();
+
                 for (DocumentRevsList revsList : result) {
                     // We promise not to insert documents after cancel is set
                     if (this.state.cancel) {
@@ -317,8 +488,8 @@ class BasicPullStrategy implements ReplicationStrategy {
                     // attachments, keyed by docId and revId, so that
                     // we can add the attachments to the correct leaf
                     // nodes
-                    HashMap<String[], List<PreparedAttachment>> atts = new HashMap<String[],
-                            List<PreparedAttachment>>();
+                    Map<String[], List<Future<PreparedAttachment>>> atts = new HashMap<String[],
+                            List<Future<PreparedAttachment>>>();
 
                     // now put together a list of attachments we need to download
                     if (!this.pullAttachmentsInline) {
@@ -326,8 +497,8 @@ class BasicPullStrategy implements ReplicationStrategy {
                             for (DocumentRevs documentRevs : revsList) {
                                 Map<String, Object> attachments = documentRevs.getAttachments();
                                 // keep track of attachments we are going to prepare
-                                ArrayList<PreparedAttachment> preparedAtts = new
-                                        ArrayList<PreparedAttachment>();
+                                ArrayList<Future<PreparedAttachment>> preparedAtts = new
+                                        ArrayList<Future<PreparedAttachment>>();
                                 atts.put(new String[]{documentRevs.getId(), documentRevs.getRev()
                                 }, preparedAtts);
 
@@ -367,15 +538,27 @@ class BasicPullStrategy implements ReplicationStrategy {
                                             //do nothing, we may not have the document yet
                                         }
                                     }
-                                    UnsavedStreamAttachment usa = this.sourceDb
-                                            .getAttachmentStream(documentRevs.getId(),
-                                                    documentRevs.getRev(), attachmentName,
-                                                    contentType, encoding);
-
-                                    // by preparing the attachment here, it is downloaded outside
-                                    // of the database transaction
-                                    preparedAtts.add(this.targetDb.prepareAttachment(usa, length,
-                                            encodedLength));
+
+                                    // the name is part of the key as it is stored with the
+                                    // prepared attachment
+                                    String digest = (String) attachmentMetadata.get("digest");
+                                    String downloadKey = digest == null ? null : digest + "/" +
+                                            attachmentName;
+                                    Future<PreparedAttachment> download = downloadKey == null ?
+                                            null : downloads.get(downloadKey);
+                                    if (download == null) {
+                                        // by preparing the attachment here, it is downloaded
+                                        // outside of the database transaction
+                                        download = attachmentExecutor.submit(
+                                                new PrepareAttachmentCallable(documentRevs.getId(),
+                                                        documentRevs.getRev(), attachmentName,
+                                                        contentType, encoding, length,
+                                                        encodedLength));
+                                        if (downloadKey != null) {
+                                            downloads.put(downloadKey, download);
+                                        }
+                                    }
+                                    preparedAtts.add(download);
                                 }
                             }
                         } catch (Exception e) {
@@ -390,24 +573,79 @@ class BasicPullStrategy implements ReplicationStrategy {
                     if (this.state.cancel)
                         break;
 
-                    batchesToInsert.add(new BatchItem(revsList, atts));
-                    changesProcessed++;
+                    revsLists.add(revsList);
+                    pendingAtts.add(atts);
+                }
+
+                // wait for this batch's downloads to finish, while they were running
+                // further revisions could be fetched
+                for (int i = 0; i < revsLists.size() && !this.state.cancel; i++) {
+                    HashMap<String[], List<PreparedAttachment>> atts = new HashMap<String[],
+                            List<PreparedAttachment>>();
+                    try {
+                        for (Map.Entry<String[], List<Future<PreparedAttachment>>> entry :
+                                pendingAtts.get(i).entrySet()) {
+                            List<PreparedAttachment> preparedAtts = new
+                                    ArrayList<PreparedAttachment>();
+                            for (Future<PreparedAttachment> download : entry.getValue()) {
+                                preparedAtts.add(download.get());
+                            }
+                            atts.put(entry.getKey(), preparedAtts);
+                        }
+                    } catch (ExecutionException e) {
+                        logger.log(Level.SEVERE,
+                                "There was a problem downloading an attachment to the" +
+                                        " datastore, terminating replication",
+                                e.getCause());
+                        this.state.cancel = true;
+                        break;
+                    }
+                    batchesToInsert.add(new BatchItem(revsLists.get(i), atts));
                 }
-                this.targetDb.bulkInsert(batchesToInsert, this.pullAttachmentsInline);
             } catch (Exception e) {
                 throw new ExecutionException(e);
             }
-        }
 
-        if (!this.state.cancel) {
-            try {
-                this.targetDb.putCheckpoint(this.getReplicationId(), changeFeeds.getLastSeq());
-            } catch (DatastoreException e){
-                logger.log(Level.WARNING,"Failed to put checkpoint doc, next replication will start from previous checkpoint",e);
+            if (this.state.cancel) { break; }
+
+            if (!offerToInsertQueue(insertQueue, new PipelineItem(batchesToInsert))) {
+                break;
             }
         }
+    }
 
-        return changesProcessed;
+    /**
+     * Downloads an attachment from the source database to a temporary file in the
+     * target datastore, ready to be added to a revision.
+     */
+    private class PrepareAttachmentCallable implements Callable<PreparedAttachment> {
+
+        private final String id;
+        private final String rev;
+        private final String attachmentName;
+        private final String contentType;
+        private final String encoding;
+        private final long length;
+        private final long encodedLength;
+
+        PrepareAttachmentCallable(String id, String rev, String attachmentName,
+                                  String contentType, String encoding, long length,
+                                  long encodedLength) {
+            this.id = id;
+            this.rev = rev;
+            this.attachmentName = attachmentName;
+            this.contentType = contentType;
+            this.encoding = encoding;
+            this.length = length;
+            this.encodedLength = encodedLength;
+        }
+
+        @Override
+        public PreparedAttachment call() throws Exception {
+            UnsavedStreamAttachment usa = sourceDb.getAttachmentStream(id, rev, attachmentName,
+                    contentType, encoding);
+            return targetDb.prepareAttachment(usa, length, encodedLength);
+        }
     }
 
     public String getReplicationId() throws DatastoreException {
@@ -424,12 +662,10 @@ class BasicPullStrategy implements ReplicationStrategy {
         return new String(sha1Hex);
     }
 
-    private ChangesResultWrapper nextBatch() throws DatastoreException {
-        final Object lastCheckpoint = this.targetDb.getCheckpoint(this.getReplicationId());
-        logger.fine("last checkpoint "+lastCheckpoint);
+    private ChangesResultWrapper nextBatch(Object lastSequence) {
         ChangesResult changeFeeds = this.sourceDb.changes(
                 this.filter,
-                lastCheckpoint,
+                lastSequence,
                 this.changeLimitPerBatch);
         logger.finer("changes feed: "+JSONUtils.toPrettyJson(changeFeeds));
         return new ChangesResultWrapper(changeFeeds);
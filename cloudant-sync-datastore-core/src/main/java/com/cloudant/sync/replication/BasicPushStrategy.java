@@ -20,7 +20,7 @@ import com.cloudant.mazha.CouchClient;
 import com.cloudant.mazha.json.JSONHelper;
 import com.cloudant.sync.datastore.Attachment;
 import com.cloudant.sync.datastore.AttachmentException;
-import com.cloudant.sync.datastore.Changes;
+import com.cloudant.sync.datastore.ChangesIterator;
 import com.cloudant.sync.datastore.Datastore;
 import com.cloudant.sync.datastore.DatastoreException;
 import com.cloudant.sync.datastore.DatastoreExtended;
@@ -32,7 +32,6 @@ import com.cloudant.sync.util.JSONUtils;
 import com.cloudant.sync.util.Misc;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
 import com.google.common.eventbus.EventBus;
 
 import org.apache.commons.codec.binary.Hex;
@@ -40,11 +39,16 @@ import org.apache.commons.codec.binary.Hex;
 import java.io.ByteArrayInputStream;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -91,6 +95,12 @@ class BasicPushStrategy implements ReplicationStrategy {
 
     public PushAttachmentsInline pushAttachmentsInline = PushAttachmentsInline.Small;
 
+    // Number of multipart and _bulk_docs requests sent to the target at the same time
+    public int pushConcurrency = 4;
+
+    // Only used during a replication run
+    private ExecutorService requestExecutor;
+
     public BasicPushStrategy(Datastore source,
                              URI target,
                              List<HttpConnectionRequestInterceptor> requestInterceptors,
@@ -198,6 +208,28 @@ class BasicPushStrategy implements ReplicationStrategy {
         }
 
         this.state.documentCounter = 0;
+        ChangesIterator changes = getChangesIterator();
+        this.requestExecutor = Executors.newFixedThreadPool(this.pushConcurrency);
+        try {
+            pushChanges(changes);
+        } finally {
+            // let any requests already sent finish, but don't wait for them
+            this.requestExecutor.shutdown();
+        }
+
+        long endTime = System.currentTimeMillis();
+        long deltaTime = endTime - startTime;
+        String msg =  String.format(
+            "Push completed in %sms (%s total changes processed)",
+            deltaTime,
+            this.state.documentCounter
+        );
+        logger.info(msg);
+    }
+
+    private void pushChanges(ChangesIterator changes)
+            throws ExecutionException, InterruptedException, AttachmentException,
+            DatastoreException {
         for(this.state.batchCounter = 1 ; this.state.batchCounter < this.batchLimitPerRun; this.state.batchCounter ++) {
 
             if (this.state.cancel) { return; }
@@ -210,19 +242,10 @@ class BasicPushStrategy implements ReplicationStrategy {
             logger.info(msg);
             long batchStartTime = System.currentTimeMillis();
 
-            Changes changes = getNextBatch();
+            boolean hasChanges = changes.hasNext();
             int changesProcessed = 0;
 
-            // So we can check whether all changes were processed during
-            // a log analysis.
-            msg = String.format(
-                    "Batch %s contains %s changes",
-                    this.state.batchCounter,
-                    changes.size()
-            );
-            logger.info(msg);
-
-            if (changes.size() > 0) {
+            if (hasChanges) {
                 changesProcessed = processOneChangesBatch(changes);
                 this.state.documentCounter += changesProcessed;
             }
@@ -238,25 +261,16 @@ class BasicPushStrategy implements ReplicationStrategy {
 
             // This logic depends on the changes in the feed rather than the
             // changes we actually processed.
-            if(changes.size() == 0) {
+            if(!hasChanges) {
                 break;
             }
         }
-
-        long endTime = System.currentTimeMillis();
-        long deltaTime = endTime - startTime;
-        String msg =  String.format(
-            "Push completed in %sms (%s total changes processed)",
-            deltaTime,
-            this.state.documentCounter
-        );
-        logger.info(msg);
     }
 
-    private Changes getNextBatch() throws ExecutionException, InterruptedException, DatastoreException {
+    private ChangesIterator getChangesIterator() throws ExecutionException, InterruptedException, DatastoreException {
         long lastPushSequence = getLastCheckpointSequence();
         logger.fine("Last push sequence from remote database: " + lastPushSequence);
-        return this.sourceDb.getDbCore().changes(lastPushSequence, this.changeLimitPerBatch);
+        return this.sourceDb.getDbCore().changesIterator(lastPushSequence, this.changeLimitPerBatch);
     }
 
     /**
@@ -274,20 +288,39 @@ class BasicPushStrategy implements ReplicationStrategy {
         List<MultipartAttachmentWriter> multiparts;
     }
 
-    private int processOneChangesBatch(Changes changes) throws AttachmentException, DatastoreException {
+    /**
+     * Push the next {@code changeLimitPerBatch} changes from {@code changes}, then checkpoint.
+     */
+    private int processOneChangesBatch(ChangesIterator changes)
+            throws AttachmentException, DatastoreException, ExecutionException,
+            InterruptedException {
 
+        int changesRead = 0;
         int changesProcessed = 0;
 
+        // Requests which have been sent but not yet checked, oldest first. A document
+        // changed again after the changes page it was first read in is read again from a
+        // later page, so revisions of one document can be in more than one request.
+        // Revisions are sent with new_edits=false, which adds each one to the target's
+        // revision tree in whatever order they arrive, so the requests can still be sent
+        // concurrently.
+        List<Future<Void>> requests = new ArrayList<Future<Void>>();
+
         // Process the changes themselves in batches, where we post a batch
-        // at a time to the remote database's _bulk_docs endpoint.
-        List<List<BasicDocumentRevision>> batches = Lists.partition(
-                changes.getResults(),
-                this.bulkInsertSize
-        );
-        for (List<BasicDocumentRevision> batch : batches) {
+        // at a time to the remote database's _bulk_docs endpoint. Only one
+        // batch is read from the changes iterator at a time.
+        while (changesRead < this.changeLimitPerBatch && changes.hasNext()) {
 
             if (this.state.cancel) { break; }
 
+            List<BasicDocumentRevision> batch = new ArrayList<BasicDocumentRevision>();
+            while (batch.size() < this.bulkInsertSize
+                    && changesRead < this.changeLimitPerBatch
+                    && changes.hasNext()) {
+                batch.add(changes.next());
+                changesRead++;
+            }
+
             Map<String, DocumentRevisionTree> allTrees = this.sourceDb.getDocumentTrees(batch);
             Map<String, Set<String>> docOpenRevs = this.openRevisions(allTrees);
             Map<String, CouchClient.MissingRevisions> docMissingRevs = this.targetDb.revsDiff(docOpenRevs);
@@ -297,12 +330,40 @@ class BasicPushStrategy implements ReplicationStrategy {
             List<MultipartAttachmentWriter> multiparts = itemsToPush.multiparts;
 
             if (!this.state.cancel) {
-                this.targetDb.putMultiparts(multiparts);
-                this.targetDb.bulkCreateSerializedDocs(serialisedMissingRevs);
+                for (final MultipartAttachmentWriter multipart : multiparts) {
+                    sendRequest(requests, new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            targetDb.putMultiparts(Collections.singletonList(multipart));
+                            return null;
+                        }
+                    });
+                }
+                final List<String> docs = serialisedMissingRevs;
+                sendRequest(requests, new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        targetDb.bulkCreateSerializedDocs(docs);
+                        return null;
+                    }
+                });
                 changesProcessed += docMissingRevs.size();
             }
         }
 
+        // every request must succeed before we can checkpoint
+        while (!requests.isEmpty()) {
+            waitForRequest(requests.remove(0));
+        }
+
+        // So we can check whether all changes were processed during
+        // a log analysis.
+        logger.info(String.format(
+                "Batch %s contains %s changes",
+                this.state.batchCounter,
+                changesRead
+        ));
+
         if (!this.state.cancel) {
             try {
                 this.putCheckpoint(String.valueOf(changes.getLastSequence()));
@@ -315,6 +376,32 @@ class BasicPushStrategy implements ReplicationStrategy {
         return changesProcessed;
     }
 
+    /**
+     * Sends a request using the request executor, first waiting for the oldest request
+     * to complete if {@code pushConcurrency} requests are already in progress.
+     */
+    private void sendRequest(List<Future<Void>> requests, Callable<Void> request)
+            throws ExecutionException, InterruptedException {
+        if (requests.size() >= this.pushConcurrency) {
+            waitForRequest(requests.remove(0));
+        }
+        requests.add(this.requestExecutor.submit(request));
+    }
+
+    private static void waitForRequest(Future<Void> request)
+            throws ExecutionException, InterruptedException {
+        try {
+            request.get();
+        } catch (ExecutionException e) {
+            // report errors from the target database as if the request was made
+            // on this thread
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
     /**
      * Generate serialised JSON strings and/or MIME multipart/related writer objects for revisions
      * which are missing on the server
@@ -345,9 +432,11 @@ class BasicPushStrategy implements ReplicationStrategy {
                 long sequence = tree.lookup(docId, rev).getSequence();
                 List<BasicDocumentRevision> path = tree.getPathForNode(sequence);
 
-                // get the attachments for the leaf of this path
+                // get the attachments for the leaf of this path, which were loaded
+                // with the tree
                 BasicDocumentRevision dr = path.get(0);
-                List<? extends Attachment> atts = this.sourceDb.getDbCore().attachmentsForRevision(dr);
+                List<? extends Attachment> atts = new ArrayList<Attachment>(dr.getAttachments()
+                        .values());
 
                 // get common ancestor generation - needed to correctly stub out attachments
                 // closest back (first) instance of one of the possible ancestors rev id in the history tree
@@ -122,14 +122,11 @@ class DatastoreWrapper {
     }
 
     Map<String, DocumentRevisionTree> getDocumentTrees(List<BasicDocumentRevision> documents) {
-        Map<String, DocumentRevisionTree> allDocumentTrees =
-                new HashMap<String, DocumentRevisionTree>();
+        List<String> docIds = new ArrayList<String>(documents.size());
         for(BasicDocumentRevision doc: documents) {
-            DocumentRevisionTree tree =
-                    this.dbCore.getAllRevisionsOfDocument(doc.getId());
-            allDocumentTrees.put(doc.getId(), tree);
+            docIds.add(doc.getId());
         }
-        return allDocumentTrees;
+        return this.dbCore.getAllRevisionsOfDocuments(docIds);
     }
 
     protected PreparedAttachment prepareAttachment(Attachment att, long length, long encodedLength) throws AttachmentException {
@@ -17,6 +17,7 @@ package com.cloudant.sync.replication;
 import com.cloudant.http.HttpConnectionRequestInterceptor;
 import com.cloudant.http.HttpConnectionResponseInterceptor;
 import com.cloudant.sync.datastore.Datastore;
+import com.google.common.base.Preconditions;
 
 import java.net.URI;
 import java.util.ArrayList;
@@ -52,6 +53,8 @@ public abstract class ReplicatorBuilder<S, T, E> {
 
         private PushAttachmentsInline pushAttachmentsInline = PushAttachmentsInline.Small;
 
+        private int pushConcurrency = 4;
+
         @Override
         public Replicator build() {
 
@@ -68,6 +71,7 @@ public abstract class ReplicatorBuilder<S, T, E> {
             pushStrategy.batchLimitPerRun = batchLimitPerRun;
             pushStrategy.bulkInsertSize = bulkInsertSize;
             pushStrategy.pushAttachmentsInline = pushAttachmentsInline;
+            pushStrategy.pushConcurrency = pushConcurrency;
 
             return new BasicReplicator(pushStrategy, super.id);
         }
@@ -115,6 +119,21 @@ public abstract class ReplicatorBuilder<S, T, E> {
             this.pushAttachmentsInline = pushAttachmentsInline;
             return this;
         }
+
+        /**
+         * Sets the number of multipart attachment uploads and _bulk_docs requests to send to
+         * the CouchDB instance at the same time
+         *
+         * @param pushConcurrency The number of requests to send to the CouchDB instance at the
+         *                        same time
+         * @return This instance of {@link ReplicatorBuilder}
+         * @throws IllegalArgumentException if {@code pushConcurrency} is less than 1
+         */
+        public Push pushConcurrency(int pushConcurrency) {
+            Preconditions.checkArgument(pushConcurrency >= 1, "pushConcurrency must be at least 1");
+            this.pushConcurrency = pushConcurrency;
+            return this;
+        }
     }
 
     /**
@@ -132,6 +151,8 @@ public abstract class ReplicatorBuilder<S, T, E> {
 
         private boolean pullAttachmentsInline = false;
 
+        private int attachmentDownloadParallelism = 4;
+
         @Override
         public Replicator build() {
 
@@ -149,6 +170,7 @@ public abstract class ReplicatorBuilder<S, T, E> {
             pullStrategy.batchLimitPerRun = batchLimitPerRun;
             pullStrategy.insertBatchSize = insertBatchSize;
             pullStrategy.pullAttachmentsInline = pullAttachmentsInline;
+            pullStrategy.attachmentDownloadParallelism = attachmentDownloadParallelism;
 
             return new BasicReplicator(pullStrategy, super.id);
         }
@@ -207,6 +229,23 @@ public abstract class ReplicatorBuilder<S, T, E> {
             this.pullAttachmentsInline = pullAttachmentsInline;
             return this;
         }
+
+        /**
+         * Sets the number of attachments to download at the same time when attachments are
+         * not pulled inline
+         *
+         * @param attachmentDownloadParallelism The number of attachments to download at the
+         *                                      same time
+         * @return This instance of {@link ReplicatorBuilder}
+         * @throws IllegalArgumentException if {@code attachmentDownloadParallelism} is less
+         *                                  than 1
+         */
+        public Pull attachmentDownloadParallelism(int attachmentDownloadParallelism) {
+            Preconditions.checkArgument(attachmentDownloadParallelism >= 1,
+                    "attachmentDownloadParallelism must be at least 1");
+            this.attachmentDownloadParallelism = attachmentDownloadParallelism;
+            return this;
+        }
     }
 
 
@@ -116,6 +116,78 @@ public abstract class SQLDatabase {
      */
     public abstract int getVersion();
 
+    /**
+     * <p>Switches the database to the write-ahead log journal mode, which allows
+     * read-only connections to read concurrently with a writer:</p>
+     *
+     * <pre>    PRAGMA journal_mode=WAL;</pre>
+     *
+     * <p>The journal mode is persistent, so this only needs calling once for
+     * a given database file.</p>
+     *
+     * @return true if the database is now in WAL mode, false if it is not
+     *         supported (for example, in-memory databases)
+     *
+     * @see <a href="https://www.sqlite.org/wal.html">SQLite Write-Ahead Logging</a>
+     */
+    public boolean enableWriteAheadLogging() {
+        Cursor cursor = null;
+        try {
+            cursor = this.rawQuery("PRAGMA journal_mode=WAL", null);
+            return cursor.moveToFirst() && "wal".equalsIgnoreCase(cursor.getString(0));
+        } catch (SQLException e) {
+            return false;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * <p>Returns a compiled form of an INSERT, UPDATE or DELETE statement, which
+     * can be executed repeatedly with different arguments.</p>
+     *
+     * <p>Implementations keep compiled statements in a least recently used
+     * {@link StatementCache} for each connection, so a statement is only parsed
+     * and planned the first time its SQL is used. This implementation doesn't
+     * compile statements, it runs them using {@link #execSQL(String, Object[])}.</p>
+     *
+     * @param sql the SQL statement, with ?s for its arguments
+     * @return the compiled statement
+     * @throws java.sql.SQLException if the SQL string is invalid
+     */
+    public SQLStatement compileStatement(final String sql) throws SQLException {
+        return new SQLStatement() {
+            @Override
+            public long executeInsert(Object[] bindArgs) throws SQLException {
+                execSQL(sql, bindArgs);
+                return longForQuery("SELECT last_insert_rowid()");
+            }
+
+            @Override
+            public int executeUpdateDelete(Object[] bindArgs) throws SQLException {
+                execSQL(sql, bindArgs);
+                return (int) longForQuery("SELECT changes()");
+            }
+        };
+    }
+
+    private long longForQuery(String sql) throws SQLException {
+        Cursor cursor = null;
+        try {
+            cursor = this.rawQuery(sql, new String[]{});
+            if (!cursor.moveToFirst()) {
+                throw new SQLException("Query returned no rows: " + sql);
+            }
+            return cursor.getLong(0);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
     /**
      * Open the database
      */
@@ -171,6 +243,79 @@ public abstract class SQLDatabase {
      */
      public abstract void setTransactionSuccessful();
 
+    /**
+     * Whether the current transaction will still be committed when it's ended, as far as is
+     * known so far: false once any of its nested transactions has been ended without being
+     * marked successful, unless {@link #rollbackToSavepoint(String)} has undone that nested
+     * transaction. Implementations which can't tell return false.
+     *
+     * @return true if no nested transaction of the current transaction has failed
+     */
+    public boolean isTransactionSetSuccessful() {
+        return false;
+    }
+
+    /**
+     * Whether the last outermost transaction ended by {@link #endTransaction()} was committed.
+     * It's rolled back rather than committed if any of its nested transactions wasn't marked
+     * successful, or if the commit failed, without {@code endTransaction()} throwing.
+     * Implementations which can't tell return false, so callers assume it was rolled back.
+     *
+     * @return true if the last transaction was committed
+     */
+    public boolean isLastTransactionCommitted() {
+        return false;
+    }
+
+    /**
+     * Whether this implementation supports {@link #beginSavepoint(String)},
+     * {@link #releaseSavepoint(String)} and {@link #rollbackToSavepoint(String)}.
+     *
+     * @return true if savepoints are supported
+     */
+    public boolean supportsSavepoints() {
+        return false;
+    }
+
+    /**
+     * Starts a savepoint with the given name inside the current transaction.
+     * Work done after the savepoint can be undone with
+     * {@link #rollbackToSavepoint(String)} without affecting the rest of the
+     * enclosing transaction.
+     *
+     * @param name the savepoint name, which must be a valid SQL identifier
+     * @throws java.sql.SQLException if the savepoint could not be started
+     * @throws UnsupportedOperationException if {@link #supportsSavepoints()} is false
+     */
+    public void beginSavepoint(String name) throws SQLException {
+        throw new UnsupportedOperationException("Savepoints are not supported");
+    }
+
+    /**
+     * Releases the named savepoint, keeping the work done since it was started
+     * as part of the enclosing transaction.
+     *
+     * @param name the savepoint name
+     * @throws java.sql.SQLException if the savepoint could not be released
+     * @throws UnsupportedOperationException if {@link #supportsSavepoints()} is false
+     */
+    public void releaseSavepoint(String name) throws SQLException {
+        throw new UnsupportedOperationException("Savepoints are not supported");
+    }
+
+    /**
+     * Undoes the work done since the named savepoint was started, including
+     * any nested transactions ended without being marked successful. The
+     * savepoint remains active and must still be released.
+     *
+     * @param name the savepoint name
+     * @throws java.sql.SQLException if the rollback failed
+     * @throws UnsupportedOperationException if {@link #supportsSavepoints()} is false
+     */
+    public void rollbackToSavepoint(String name) throws SQLException {
+        throw new UnsupportedOperationException("Savepoints are not supported");
+    }
+
     /**
      * Convenience method for updating rows in the database.
      *
@@ -133,6 +133,42 @@ public class SQLDatabaseFactory {
         }
     }
 
+    /**
+     * Opens a read-only connection to an existing database, for use alongside
+     * a writer connection when the database is in WAL mode.
+     * @param dbFilename full file path of the db file
+     * @param provider Key provider object storing the SQLCipher key
+     *                 Supply a NullKeyProvider to use a non-encrypted database.
+     * @return read-only {@code SQLDatabase} for the given filename, or null if
+     *         it could not be opened
+     * @throws UnsupportedOperationException if the database is encrypted; SQLCipher
+     *         databases only support a single connection
+     */
+    public static SQLDatabase openReadOnlySqlDatabase(String dbFilename, KeyProvider provider) {
+
+        boolean runningOnAndroid =  Misc.isRunningOnAndroid();
+        boolean useSqlCipher = (provider.getEncryptionKey() != null);
+
+        if (useSqlCipher) {
+            throw new UnsupportedOperationException("No read-only SQLCipher-based database implementation");
+        }
+
+        try {
+            if (runningOnAndroid) {
+                return (SQLDatabase) Class.forName("com.cloudant.sync.sqlite.android.AndroidSQLite")
+                        .getMethod("openAndroidSQLiteReadOnly", String.class)
+                        .invoke(null, dbFilename);
+            } else {
+                return (SQLDatabase) Class.forName("com.cloudant.sync.sqlite.sqlite4java.SQLiteWrapper")
+                        .getMethod("openSQLiteWrapperReadOnly", String.class)
+                        .invoke(null, dbFilename);
+            }
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Failed to load database module", e);
+            return null;
+        }
+    }
+
     /**
      * This method runs a simple SQL query to validate the opened database
      * is readable. In particular, this is useful for testing the key we
@@ -17,31 +17,97 @@ package com.cloudant.sync.sqlite;
 import com.cloudant.sync.datastore.encryption.KeyProvider;
 import com.cloudant.sync.datastore.encryption.NullKeyProvider;
 import com.cloudant.sync.datastore.migrations.Migration;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.SettableFuture;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * SQLDatabaseQuue provides the ability to ensure that the
- * only a single thread accesses the SQLDatabase. Tasks submitted to this
- * queue are guaranteed to be executed in the order they are received
+ * <p>SQLDatabaseQueue provides the ability to ensure that only a single
+ * thread writes to the SQLDatabase. Write tasks submitted to this
+ * queue are guaranteed to be executed in the order they are received.</p>
+ *
+ * <p>When the database can be switched to WAL journal mode, read tasks
+ * are executed concurrently on a bounded pool of read-only connections,
+ * so long running reads do not block other reads or the writer. Each
+ * reader thread owns its own connection, which is opened the first time
+ * the thread runs a task and closed when the queue is shut down. If WAL
+ * mode isn't available, or the database is encrypted, read tasks run
+ * on the writer connection in submission order as before.</p>
  */
 public class SQLDatabaseQueue {
 
+    /**
+     * Default number of read-only connections, one per available core.
+     */
+    public static final int DEFAULT_READER_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
     private final SQLDatabase db;
-    private final ExecutorService queue = Executors.newSingleThreadExecutor();
+
+    /**
+     * The thread running tasks on the writer connection.
+     */
+    private volatile Thread writerThread;
+
+    private final ExecutorService queue = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = Executors.defaultThreadFactory().newThread(r);
+            writerThread = thread;
+            return thread;
+        }
+    });
     private final Logger logger = Logger.getLogger(SQLDatabase.class.getCanonicalName());
     private volatile boolean acceptTasks = true;
 
+    private final String filename;
+    private final KeyProvider provider;
+
+    /**
+     * Pool of threads running read tasks, or {@code null} if reads are run on the writer.
+     */
+    private final ExecutorService readers;
+
+    /**
+     * The read-only connection owned by the current reader thread.
+     */
+    private final ThreadLocal<SQLDatabase> readerDb = new ThreadLocal<SQLDatabase>();
+
+    /**
+     * Group commit settings, see {@link #setGroupCommit(int, long, TimeUnit)}.
+     * A maximum batch size of 1 means group commit is disabled.
+     */
+    private volatile int groupCommitMaxBatchSize = 1;
+    private volatile long groupCommitMaxWaitNanos = 0;
+
+    /**
+     * Transaction tasks waiting to be group committed, guarded by its own lock.
+     */
+    private final Queue<GroupCommitTask<?>> pendingTransactions =
+            new LinkedList<GroupCommitTask<?>>();
+
+    /**
+     * Run on the writer thread when a transaction task's changes are rolled back.
+     */
+    private final List<Runnable> rollbackListeners = new CopyOnWriteArrayList<Runnable>();
+
     /**
      * Creates an SQLQueue for the database specified.
      * @param filename The file where the database is located
@@ -59,6 +125,24 @@ public class SQLDatabaseQueue {
      * @throws IOException If a problem occurs creating the database
      */
     public SQLDatabaseQueue(String filename, KeyProvider provider) throws IOException {
+        this(filename, provider, DEFAULT_READER_POOL_SIZE);
+    }
+
+    /**
+     * Creates an SQLQueue for the SQLCipher-based database specified, with
+     * at most {@code readerPoolSize} concurrent read-only connections.
+     * @param filename The file where the database is located
+     * @param provider The key provider object that contains the user-defined SQLCipher key.
+     *                 Supply a NullKeyProvider to use a non-encrypted database.
+     * @param readerPoolSize The maximum number of read tasks to run concurrently. Supply
+     *                       0 to run all tasks on the single writer connection.
+     * @throws IOException If a problem occurs creating the database
+     */
+    public SQLDatabaseQueue(String filename, KeyProvider provider, int readerPoolSize)
+            throws IOException {
+        Preconditions.checkArgument(readerPoolSize >= 0, "readerPoolSize must be >= 0");
+        this.filename = filename;
+        this.provider = provider;
         this.db = SQLDatabaseFactory.createSQLDatabase(filename, provider);
         queue.submit(new Runnable() {
             @Override
@@ -66,21 +150,99 @@ public class SQLDatabaseQueue {
                 db.open();
             }
         });
+
+        // SQLCipher databases are only opened through the writer connection.
+        boolean useReaders = readerPoolSize > 0 && provider.getEncryptionKey() == null
+                && enableWriteAheadLogging();
+        this.readers = useReaders ? createReaderPool(readerPoolSize) : null;
+    }
+
+    /**
+     * Switches the writer connection to WAL journal mode, which allows readers
+     * to run concurrently with the writer.
+     * @return true if the database is now in WAL mode
+     */
+    private boolean enableWriteAheadLogging() {
+        try {
+            return queue.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return db != null && db.enableWriteAheadLogging();
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            logger.log(Level.WARNING, "Failed to enable WAL mode, reads will be serialised", e);
+        } catch (ExecutionException e) {
+            logger.log(Level.WARNING, "Failed to enable WAL mode, reads will be serialised", e);
+        }
+        return false;
+    }
+
+    private ExecutorService createReaderPool(int size) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(size, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            r.run();
+                        } finally {
+                            // Connections are confined to the thread which opened
+                            // them, so close ours before the thread exits.
+                            SQLDatabase reader = readerDb.get();
+                            if (reader != null) {
+                                reader.close();
+                                readerDb.remove();
+                            }
+                        }
+                    }
+                }, "SQLDatabaseQueue-reader-" + threadCount.incrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * Returns the read-only connection for the current reader thread, opening it
+     * if needed.
+     */
+    private SQLDatabase getReaderDatabase() throws IOException {
+        SQLDatabase reader = readerDb.get();
+        if (reader == null) {
+            reader = SQLDatabaseFactory.openReadOnlySqlDatabase(filename, provider);
+            if (reader == null) {
+                throw new IOException("Failed to open read-only connection to " + filename);
+            }
+            reader.open();
+            readerDb.set(reader);
+        }
+        return reader;
     }
 
     /**
      * Updates the schema of the database.
+     *
+     * This method blocks until the migration has run, so that tasks
+     * subsequently submitted to the reader pool see the migrated schema.
      * @param migration Object which performs migration; should not check or set version
      * @param version The version of the schema
      */
     public void updateSchema(final Migration migration, final int version){
-        queue.submit(new Callable<Object>() {
+        Future<Object> result = queue.submit(new Callable<Object>() {
             @Override
             public Object call() throws Exception {
                 SQLDatabaseFactory.updateSchema(db, migration, version);
                 return null;
             }
-        }); //fire and forget
+        });
+        try {
+            result.get();
+        } catch (InterruptedException e) {
+            logger.log(Level.SEVERE, "Interrupted waiting for schema update", e);
+        } catch (ExecutionException e) {
+            logger.log(Level.SEVERE, "Failed to update schema to version " + version, e);
+        }
     }
 
     /**
@@ -106,29 +268,285 @@ public class SQLDatabaseQueue {
     }
 
     /**
-     * Submits a database task for execution
+     * Submits a read-only database task for execution.
+     *
+     * If the reader pool is available the task may run concurrently with
+     * other reads and with the writer, so it must not modify the database;
+     * use {@link #submitTransaction(SQLQueueCallable)} or
+     * {@link #submitWrite(SQLQueueCallable)} for that.
      * @param callable The task to be performed
      * @param <T> The type of object that is returned from the task
      * @throws RejectedExecutionException Thrown when the queue has been shutdown
      * @return Future representing the task to be executed.
      */
-    public <T> Future<T> submit(SQLQueueCallable<T> callable){
+    public <T> Future<T> submit(final SQLQueueCallable<T> callable){
+        callable.setRunInTransaction(false);
+        if (readers == null) {
+            callable.setDb(db);
+            return this.submitTaskToQueue(callable);
+        }
+        if (!acceptTasks) {
+            throw new RejectedExecutionException("Database is closed");
+        }
+        return readers.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                callable.setDb(getReaderDatabase());
+                return callable.call();
+            }
+        });
+    }
+
+    /**
+     * <p>Runs a read-only database task and waits for its result.</p>
+     *
+     * <p>This is for code which may be called back from a task already running on
+     * the writer thread, such as a lazily loaded value used by a transaction task.
+     * On the writer thread the task is run straight away on the writer connection,
+     * as submitting it would wait forever for the running task to finish;
+     * otherwise it's submitted as by {@link #submit(SQLQueueCallable)}.</p>
+     *
+     * @param callable The task to be performed
+     * @param <T> The type of object that is returned from the task
+     * @return the result of the task
+     * @throws RejectedExecutionException Thrown when the queue has been shutdown
+     * @throws ExecutionException if the task threw an exception
+     * @throws InterruptedException if interrupted waiting for the task
+     */
+    public <T> T runRead(SQLQueueCallable<T> callable)
+            throws ExecutionException, InterruptedException {
+        if (Thread.currentThread() != writerThread) {
+            return submit(callable).get();
+        }
+        callable.setDb(db);
+        callable.setRunInTransaction(false);
+        try {
+            return callable.call();
+        } catch (Exception e) {
+            throw new ExecutionException(e);
+        }
+    }
+
+    /**
+     * Submits a database task for execution on the writer connection, outside
+     * of a transaction. This is needed for statements such as {@code VACUUM}
+     * which cannot run inside a transaction.
+     * @param callable The task to be performed
+     * @param <T> The type of object that is returned from the task
+     * @throws RejectedExecutionException Thrown when the queue has been shutdown
+     * @return Future representing the task to be executed.
+     */
+    public <T> Future<T> submitWrite(SQLQueueCallable<T> callable){
         callable.setDb(db);
         callable.setRunInTransaction(false);
         return this.submitTaskToQueue(callable);
     }
 
     /**
-     * Submits a database task for execution in a transaction
+     * Submits a database task for execution in a transaction.
+     *
+     * When group commit is enabled, the task may share a physical transaction
+     * with other waiting transaction tasks; see
+     * {@link #setGroupCommit(int, long, TimeUnit)}.
      * @param callable The task to be performed
      * @param <T> The type of object that is returned from the task
      * @throws RejectedExecutionException thrown when the queue has been shutdown
      * @return Future representing the task to be executed.
      */
-    public <T> Future<T> submitTransaction(SQLQueueCallable<T> callable){
+    public <T> Future<T> submitTransaction(final SQLQueueCallable<T> callable){
         callable.setDb(db);
         callable.setRunInTransaction(true);
-        return this.submitTaskToQueue(callable);
+        if (groupCommitMaxBatchSize > 1) {
+            return this.submitToGroupCommit(callable);
+        }
+        return this.submitTaskToQueue(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                T result;
+                try {
+                    result = callable.call();
+                } catch (Exception e) {
+                    // the transaction was ended without being marked successful
+                    notifyRollback();
+                    throw e;
+                }
+                if (!db.isLastTransactionCommitted()) {
+                    // a nested transaction wasn't marked successful, or the commit
+                    // failed, so the changes were rolled back without an exception
+                    notifyRollback();
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * <p>Adds a listener which is run on the writer thread whenever the changes
+     * made by a transaction task are rolled back, before the task's future
+     * completes and before any other task is run.</p>
+     *
+     * <p>This lets callers which cache what they have written, on the writer
+     * thread, discard anything which was never committed.</p>
+     *
+     * @param listener the listener to run
+     */
+    public void addRollbackListener(Runnable listener) {
+        Preconditions.checkNotNull(listener, "listener must not be null");
+        rollbackListeners.add(listener);
+    }
+
+    private void notifyRollback() {
+        for (Runnable listener : rollbackListeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "Rollback listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * <p>Enables or disables group commit of transaction tasks.</p>
+     *
+     * <p>With group commit enabled, transaction tasks which are waiting for
+     * the writer are run together in a single physical transaction, so a burst
+     * of small writes pays for one commit rather than one per task. Each task
+     * runs inside its own savepoint: if it throws, or ends a nested transaction
+     * without marking it successful, only its own changes are rolled back and
+     * its future fails, while the other tasks in the batch are still committed.
+     * Futures complete only after the shared commit.</p>
+     *
+     * <p>Once the writer starts a batch it waits up to {@code maxWait} for
+     * further tasks to arrive, trading write latency for throughput.
+     * Group-committed tasks may be reordered relative to tasks submitted
+     * with {@link #submitWrite(SQLQueueCallable)}, but not relative to each
+     * other.</p>
+     *
+     * <p>Group commit requires savepoint support from the underlying
+     * database; if it isn't available this method logs a warning and leaves
+     * group commit disabled.</p>
+     *
+     * @param maxBatchSize the maximum number of tasks to commit together.
+     *                     Values of 1 or less disable group commit.
+     * @param maxWait the maximum time to wait for further tasks before
+     *                committing a batch which isn't full
+     * @param unit unit of {@code maxWait}
+     */
+    public void setGroupCommit(int maxBatchSize, long maxWait, TimeUnit unit) {
+        Preconditions.checkArgument(maxWait >= 0, "maxWait must be >= 0");
+        Preconditions.checkNotNull(unit, "unit must not be null");
+        if (maxBatchSize > 1 && !db.supportsSavepoints()) {
+            logger.warning("Group commit requires savepoint support, leaving it disabled");
+            return;
+        }
+        this.groupCommitMaxWaitNanos = unit.toNanos(maxWait);
+        this.groupCommitMaxBatchSize = Math.max(maxBatchSize, 1);
+    }
+
+    private <T> Future<T> submitToGroupCommit(SQLQueueCallable<T> callable) {
+        if (!acceptTasks) {
+            throw new RejectedExecutionException("Database is closed");
+        }
+        GroupCommitTask<T> task = new GroupCommitTask<T>(callable);
+        synchronized (pendingTransactions) {
+            pendingTransactions.add(task);
+            pendingTransactions.notifyAll();
+        }
+        // Every task schedules a run of the writer, but a run may commit tasks
+        // queued after it, so later runs can find nothing left to do.
+        queue.submit(new Runnable() {
+            @Override
+            public void run() {
+                runGroupCommit();
+            }
+        });
+        return task.future;
+    }
+
+    /**
+     * Runs on the writer thread: takes a batch of pending transaction tasks,
+     * runs each in its own savepoint and commits them together.
+     */
+    private void runGroupCommit() {
+        List<GroupCommitTask<?>> batch = takeGroupCommitBatch();
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Throwable batchFailure = null;
+        boolean rolledBack = false;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                GroupCommitTask<?> task = batch.get(i);
+                String savepoint = "group_commit_" + i;
+                db.beginSavepoint(savepoint);
+                try {
+                    task.run(db);
+                    if (!db.isTransactionSetSuccessful()) {
+                        // otherwise ending the batch would roll back every task in it
+                        task.failure = new SQLException("A nested transaction wasn't " +
+                                "marked successful, so the task's changes were rolled back");
+                    }
+                } catch (Exception e) {
+                    task.failure = e;
+                }
+                if (task.failure != null) {
+                    rolledBack = true;
+                    db.rollbackToSavepoint(savepoint);
+                }
+                db.releaseSavepoint(savepoint);
+            }
+            db.setTransactionSuccessful();
+        } catch (Throwable t) {
+            logger.log(Level.SEVERE, "Group commit failed, rolling back " + batch.size()
+                    + " tasks", t);
+            batchFailure = t;
+        } finally {
+            try {
+                db.endTransaction();
+                if (batchFailure == null && !db.isLastTransactionCommitted()) {
+                    batchFailure = new SQLException("Group commit transaction was rolled back");
+                }
+            } catch (Throwable t) {
+                if (batchFailure == null) {
+                    batchFailure = t;
+                }
+            }
+        }
+
+        if (rolledBack || batchFailure != null) {
+            notifyRollback();
+        }
+        for (GroupCommitTask<?> task : batch) {
+            task.complete(batchFailure);
+        }
+    }
+
+    private List<GroupCommitTask<?>> takeGroupCommitBatch() {
+        List<GroupCommitTask<?>> batch = new ArrayList<GroupCommitTask<?>>();
+        int maxBatchSize = Math.max(groupCommitMaxBatchSize, 1);
+        long deadline = System.nanoTime() + groupCommitMaxWaitNanos;
+        synchronized (pendingTransactions) {
+            while (batch.size() < maxBatchSize) {
+                GroupCommitTask<?> next = pendingTransactions.poll();
+                if (next != null) {
+                    batch.add(next);
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (batch.isEmpty() || remaining <= 0 || !acceptTasks) {
+                    break;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(pendingTransactions, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        return batch;
     }
 
     /**
@@ -140,6 +558,19 @@ public class SQLDatabaseQueue {
      */
     public void shutdown() {
         acceptTasks = false;
+        synchronized (pendingTransactions) {
+            // stop a group commit waiting for more tasks
+            pendingTransactions.notifyAll();
+        }
+        if (readers != null) {
+            // reader threads close their connections as they exit
+            readers.shutdown();
+            try {
+                readers.awaitTermination(5, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                logger.log(Level.SEVERE, "Interrupted while waiting for readers to terminate", e);
+            }
+        }
         //pass straight to queue, tasks passed via submitTaskToQueue will now be blocked.
         queue.submit(new Runnable() {
             @Override
@@ -172,11 +603,42 @@ public class SQLDatabaseQueue {
      * @return Future representing the task to be executed.
      * @throws RejectedExecutionException If the queue has been shutdown.
      */
-    private <T> Future<T> submitTaskToQueue(SQLQueueCallable<T> callable){
+    private <T> Future<T> submitTaskToQueue(Callable<T> callable){
         if(acceptTasks){
             return queue.submit(callable);
         } else {
             throw new RejectedExecutionException("Database is closed");
         }
     }
+
+    /**
+     * A transaction task waiting to be group committed, whose future is only
+     * completed once the shared transaction has ended.
+     */
+    private static class GroupCommitTask<T> {
+
+        private final SQLQueueCallable<T> callable;
+        private final SettableFuture<T> future = SettableFuture.create();
+        private T result;
+        private Exception failure;
+
+        GroupCommitTask(SQLQueueCallable<T> callable) {
+            this.callable = callable;
+        }
+
+        void run(SQLDatabase db) throws Exception {
+            // call the task body directly; the transaction is managed by the batch
+            result = callable.call(db);
+        }
+
+        void complete(Throwable batchFailure) {
+            if (batchFailure != null) {
+                future.setException(batchFailure);
+            } else if (failure != null) {
+                future.setException(failure);
+            } else {
+                future.set(result);
+            }
+        }
+    }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.sqlite;
+
+import java.sql.SQLException;
+
+/**
+ * <p>A compiled INSERT, UPDATE or DELETE statement, which can be executed
+ * repeatedly with different arguments without its SQL being parsed and
+ * planned each time.</p>
+ *
+ * <p>Statements are returned by {@link SQLDatabase#compileStatement(String)}
+ * and belong to its connection's statement cache, so they must only be used
+ * on the thread using the connection and needn't be closed.</p>
+ */
+public interface SQLStatement {
+
+    /**
+     * Executes an INSERT statement.
+     *
+     * @param bindArgs the values for the statement's ?s, which may be null,
+     *     byte[], String, Boolean or a Number
+     * @return the row ID of the last row inserted
+     * @throws SQLException if the statement fails, for example by violating
+     *     a constraint
+     */
+    long executeInsert(Object[] bindArgs) throws SQLException;
+
+    /**
+     * Executes an UPDATE or DELETE statement.
+     *
+     * @param bindArgs the values for the statement's ?s, which may be null,
+     *     byte[], String, Boolean or a Number
+     * @return the number of rows changed
+     * @throws SQLException if the statement fails
+     */
+    int executeUpdateDelete(Object[] bindArgs) throws SQLException;
+
+}
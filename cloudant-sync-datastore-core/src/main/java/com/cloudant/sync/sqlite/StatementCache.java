@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.sqlite;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Least recently used cache of the compiled statements for a database
+ * connection, keyed by their SQL. Statements evicted from the cache, or left in
+ * it when it's cleared, are disposed.</p>
+ *
+ * <p>Instances are not thread safe.</p>
+ *
+ * @param <T> the type of compiled statement
+ */
+public abstract class StatementCache<T> {
+
+    /**
+     * Number of statements cached for each connection by default.
+     */
+    public static final int DEFAULT_SIZE = 50;
+
+    private final Map<String, T> statements;
+
+    public StatementCache(final int size) {
+        this.statements = new LinkedHashMap<String, T>(size, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+                if (size() > size) {
+                    dispose(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the compiled statement for 'sql', compiling it if it isn't cached.
+     */
+    public T get(String sql) throws SQLException {
+        T statement = statements.get(sql);
+        if (statement == null) {
+            statement = compile(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Disposes every cached statement.
+     */
+    public void clear() {
+        for (T statement : statements.values()) {
+            dispose(statement);
+        }
+        statements.clear();
+    }
+
+    protected abstract T compile(String sql) throws SQLException;
+
+    protected abstract void dispose(T statement);
+
+}
@@ -24,12 +24,16 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class JSONHelperTest {
 
@@ -114,6 +118,35 @@ public class JSONHelperTest {
     }
 
 
+    @Test
+    public void testHashMapToJSONOutputStream() throws Exception {
+        final AtomicBoolean closed = new AtomicBoolean(false);
+        ByteArrayOutputStream os = new ByteArrayOutputStream() {
+            @Override
+            public void close() throws IOException {
+                closed.set(true);
+                super.close();
+            }
+        };
+        helper.toJson(os, expectedJSONMap);
+        Assert.assertEquals("JSON Strings not the same", expectedJson, os.toString("UTF-8"));
+        Assert.assertFalse("Output stream should not have been closed", closed.get());
+    }
+
+    @Test
+    public void testResponseFromJSONInputStream() throws Exception
+    {
+        File fixture = TestUtils.loadFixture("fixture/json_helper_response.json");
+        FileInputStream fis = new FileInputStream(fixture);
+        try {
+            Response res = helper.fromJson(fis, Response.class);
+            Assert.assertTrue("Response should have been okay -> true", res.getOk());
+            Assert.assertEquals("Response should have Id of myId","myId", res.getId());
+        } finally {
+            fis.close();
+        }
+    }
+
     @Test
     public void testMapFromJson() throws Exception
     {
@@ -95,6 +95,28 @@ public class BasicDBBodyTest {
         Assert.assertTrue(m.get("IntegerValue").equals(2147483647)); // Integer.MAX_VALUE
     }
 
+    @Test
+    public void trustedBodyWith_byteArray_correctObjectShouldBeCreated() throws Exception {
+        DocumentBody body = BasicDocumentBody.trustedBodyWith(jsonData);
+        Assert.assertTrue(Arrays.equals(jsonData, body.asBytes()));
+        assertMapIsCorrect(body.asMap());
+    }
+
+    @Test
+    public void trustedBodyWith_null_objectWithEmptyJsonShouldBeCreated() {
+        DocumentBody body = BasicDocumentBody.trustedBodyWith(null);
+        Assert.assertTrue(Arrays.equals("{}".getBytes(), body.asBytes()));
+        Assert.assertTrue(body.asMap().size() == 0);
+    }
+
+    @Test
+    public void asBytes_modifyResult_bodyNotChanged() {
+        DocumentBody body = BasicDocumentBody.trustedBodyWith(jsonData);
+        byte[] bytes = body.asBytes();
+        bytes[0] = ' ';
+        Assert.assertTrue(Arrays.equals(jsonData, body.asBytes()));
+    }
+
     private void assertMapIsCorrect(Map<String, Object> actualMap) {
         Assert.assertEquals(5, actualMap.size());
         Assert.assertTrue((Boolean) actualMap.get("Sunrise"));
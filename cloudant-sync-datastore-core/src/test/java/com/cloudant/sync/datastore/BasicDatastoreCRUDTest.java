@@ -27,8 +27,10 @@ import com.cloudant.sync.util.DatabaseUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -289,6 +291,83 @@ public class BasicDatastoreCRUDTest extends BasicDatastoreTestBase {
         Assert.assertFalse(newInsertedRevision.isCurrent());
     }
 
+    @Test
+    public void getAllRevisionsOfDocuments_multipleDocuments_sameTreesAsSingleDocument()
+            throws Exception {
+        MutableDocumentRevision rev1aMut = new MutableDocumentRevision();
+        rev1aMut.body = bodyOne;
+        BasicDocumentRevision rev1a = this.datastore.createDocumentFromRevision(rev1aMut);
+        MutableDocumentRevision rev2aMut = rev1a.mutableCopy();
+        rev2aMut.body = bodyTwo;
+        rev2aMut.attachments.put("att1", new UnsavedStreamAttachment(
+                new ByteArrayInputStream("attachment".getBytes()), "att1", "text/plain"));
+        this.datastore.updateDocumentFromRevision(rev2aMut);
+        BasicDocumentRevision rev3b = this.createDetachedDocumentRevision(rev1a.getId(), "3-b", bodyOne);
+        this.datastore.forceInsert(rev3b, rev1a.getRevision(), "2-b", "3-b");
+
+        MutableDocumentRevision otherMut = new MutableDocumentRevision();
+        otherMut.body = bodyTwo;
+        BasicDocumentRevision other = this.datastore.createDocumentFromRevision(otherMut);
+
+        Map<String, DocumentRevisionTree> trees = this.datastore.getAllRevisionsOfDocuments(
+                Arrays.asList(rev1a.getId(), other.getId(), "missing"));
+        Assert.assertEquals(2, trees.size());
+        for (String docId : Arrays.asList(rev1a.getId(), other.getId())) {
+            DocumentRevisionTree expected = this.datastore.getAllRevisionsOfDocument(docId);
+            DocumentRevisionTree actual = trees.get(docId);
+            Assert.assertEquals(expected.leafRevisionIds(), actual.leafRevisionIds());
+            Assert.assertEquals(expected.getCurrentRevision().getRevision(),
+                    actual.getCurrentRevision().getRevision());
+            for (BasicDocumentRevision leaf : expected.leafRevisions()) {
+                BasicDocumentRevision actualLeaf = actual.lookup(docId, leaf.getRevision());
+                Assert.assertEquals(leaf.getSequence(), actualLeaf.getSequence());
+                Assert.assertEquals(leaf.getAttachments().keySet(),
+                        actualLeaf.getAttachments().keySet());
+            }
+        }
+        BasicDocumentRevision rev2a = trees.get(rev1a.getId()).getCurrentRevision();
+        Assert.assertTrue(rev2a.getAttachments().containsKey("att1"));
+    }
+
+    @Test
+    public void getAllRevisionsOfDocument_nonLeafBodiesLoadedWhenUsed() throws Exception {
+        MutableDocumentRevision rev1Mut = new MutableDocumentRevision();
+        rev1Mut.body = bodyOne;
+        BasicDocumentRevision rev1 = this.datastore.createDocumentFromRevision(rev1Mut);
+        MutableDocumentRevision rev2Mut = rev1.mutableCopy();
+        rev2Mut.body = bodyTwo;
+        BasicDocumentRevision rev2 = this.datastore.updateDocumentFromRevision(rev2Mut);
+
+        DocumentRevisionTree tree = this.datastore.getAllRevisionsOfDocument(rev1.getId());
+        DocumentBody leafBody = tree.getCurrentRevision().getBody();
+        Assert.assertFalse(leafBody instanceof LazyDocumentBody);
+        Assert.assertEquals(rev2.getBody().asMap(), leafBody.asMap());
+
+        LazyDocumentBody rootBody = (LazyDocumentBody) tree.lookup(rev1.getId(),
+                rev1.getRevision()).getBody();
+        Assert.assertFalse(rootBody.isLoaded());
+        Assert.assertEquals(rev1.getBody().asMap(), rootBody.asMap());
+        Assert.assertTrue(rootBody.isLoaded());
+    }
+
+    @Test
+    public void getAllRevisionsOfDocuments_leafBodiesLoadedWithTree() throws Exception {
+        MutableDocumentRevision rev1Mut = new MutableDocumentRevision();
+        rev1Mut.body = bodyOne;
+        BasicDocumentRevision rev1 = this.datastore.createDocumentFromRevision(rev1Mut);
+        MutableDocumentRevision rev2Mut = rev1.mutableCopy();
+        rev2Mut.body = bodyTwo;
+        BasicDocumentRevision rev2 = this.datastore.updateDocumentFromRevision(rev2Mut);
+
+        DocumentRevisionTree tree = this.datastore.getAllRevisionsOfDocuments(
+                Collections.singletonList(rev1.getId())).get(rev1.getId());
+        DocumentBody leafBody = tree.getCurrentRevision().getBody();
+        Assert.assertFalse(leafBody instanceof LazyDocumentBody);
+        Assert.assertEquals(rev2.getBody().asMap(), leafBody.asMap());
+        Assert.assertTrue(tree.lookup(rev1.getId(), rev1.getRevision()).getBody()
+                instanceof LazyDocumentBody);
+    }
+
     private BasicDocumentRevision createDetachedDocumentRevision(String docId, String rev, DocumentBody body) {
         DocumentRevisionBuilder builder = new DocumentRevisionBuilder();
         builder.setDocId(docId);
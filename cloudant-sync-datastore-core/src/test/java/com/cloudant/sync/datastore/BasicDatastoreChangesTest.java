@@ -102,4 +102,44 @@ public class BasicDatastoreChangesTest extends BasicDatastoreTestBase {
         Assert.assertThat(changes.getIds(), hasItems(docs[0].getId(), docs[1].getId(), docs[2].getId()));
         Assert.assertEquals(4, changes.getLastSequence());
     }
+
+    @Test
+    public void changesIterator_noChanges_nothing() {
+        ChangesIterator changes = datastore.changesIterator(0);
+        Assert.assertFalse(changes.hasNext());
+        Assert.assertEquals(0, changes.getLastSequence());
+    }
+
+    @Test
+    public void changesIterator_sinceTwo_oneDocumentShouldBeReturned() throws Exception {
+        BasicDocumentRevision[] docs = createThreeDocuments();
+        ChangesIterator changes = datastore.changesIterator(2);
+        Assert.assertTrue(changes.hasNext());
+        Assert.assertEquals(docs[2].getId(), changes.next().getId());
+        Assert.assertFalse(changes.hasNext());
+        Assert.assertEquals(4, changes.getLastSequence());
+    }
+
+    @Test
+    public void changesIterator_pageSizeTwo_allDocumentsReturnedInSequenceOrder() throws Exception {
+        BasicDocumentRevision[] docs = createThreeDocuments();
+        ChangesIterator changes = datastore.changesIterator(0, 2);
+
+        Assert.assertEquals(docs[0].getId(), changes.next().getId());
+        // the first page isn't finished yet
+        Assert.assertEquals(0, changes.getLastSequence());
+        Assert.assertEquals(docs[1].getId(), changes.next().getId());
+        Assert.assertEquals(2, changes.getLastSequence());
+
+        BasicDocumentRevision last = changes.next();
+        Assert.assertEquals(docs[2].getId(), last.getId());
+        Assert.assertEquals(docs[2].getRevision(), last.getRevision());
+        Assert.assertEquals(4, changes.getLastSequence());
+        Assert.assertFalse(changes.hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void changesIterator_pageSizeZero_exception() throws Exception {
+        datastore.changesIterator(0, 0);
+    }
 }
@@ -91,6 +91,31 @@ public class BasicDatastoreConflictsTest extends BasicDatastoreTestBase {
         testWithConflictCount(1000);
     }
 
+    @Test
+    public void getConflictedDocumentIds_resolvedWhileIterating_allConflictsReturned()
+            throws Exception {
+        List<String> expectedConflicts = createConflictDocuments(10);
+        // use a small page size so conflicts are resolved between pages
+        Iterator<String> iterator = new ConflictedDocumentIdsIterator(this.datastore, 3);
+        List<String> actualConflicts = new ArrayList<String>();
+        while (iterator.hasNext()) {
+            String docId = iterator.next();
+            actualConflicts.add(docId);
+            this.datastore.resolveConflictsForDocument(docId, new ConflictResolver() {
+                @Override
+                public BasicDocumentRevision resolve(String docId,
+                                                     List<BasicDocumentRevision> conflicts) {
+                    return conflicts.get(0);
+                }
+            });
+        }
+        Assert.assertThat(actualConflicts, hasSize(expectedConflicts.size()));
+        for(String id : expectedConflicts) {
+            Assert.assertThat(actualConflicts, hasItem(id));
+        }
+        Assert.assertFalse(this.datastore.getConflictedDocumentIds().hasNext());
+    }
+
     @Test
     public void resolveConflictsForDocument_twoConflictAndException_nothing()
             throws Exception {
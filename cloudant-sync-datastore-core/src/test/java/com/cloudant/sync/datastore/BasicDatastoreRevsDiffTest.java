@@ -135,4 +135,31 @@ public class BasicDatastoreRevsDiffTest extends BasicDatastoreTestBase{
         Assert.assertFalse(missing.get(rev1.getId()).contains(rev1.getRevision()));
     }
 
+    @Test
+    public void revsDiff_revisionOfAnotherDocument_returned() throws Exception {
+        MutableDocumentRevision revMut1 = new MutableDocumentRevision();
+        revMut1.body = bodyOne;
+        BasicDocumentRevision rev1 = datastore.createDocumentFromRevision(revMut1);
+        MutableDocumentRevision revMut2 = new MutableDocumentRevision();
+        revMut2.body = bodyTwo;
+        BasicDocumentRevision rev2 = datastore.createDocumentFromRevision(revMut2);
+        MutableDocumentRevision rev3Mut = rev2.mutableCopy();
+        rev3Mut.body = bodyOne;
+        BasicDocumentRevision rev3 = datastore.updateDocumentFromRevision(rev3Mut);
+
+        // rev3's revision id exists, but not for the first document
+        Multimap<String, String> revs = HashMultimap.create();
+        revs.put(rev1.getId(), rev1.getRevision());
+        revs.put(rev1.getId(), rev3.getRevision());
+        revs.put(rev2.getId(), rev3.getRevision());
+
+        Map<String, Collection<String>> missingRevs = datastore.revsDiff(revs);
+        Assert.assertEquals(1, missingRevs.size());
+        Assert.assertEquals(1, missingRevs.get(rev1.getId()).size());
+        Assert.assertTrue(missingRevs.get(rev1.getId()).contains(rev3.getRevision()));
+
+        // the same result when called again with the same input
+        Assert.assertEquals(missingRevs, datastore.revsDiff(revs));
+    }
+
 }
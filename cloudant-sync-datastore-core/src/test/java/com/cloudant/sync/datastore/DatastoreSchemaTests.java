@@ -24,6 +24,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 
 import com.cloudant.sync.datastore.encryption.NullKeyProvider;
 import com.cloudant.sync.datastore.migrations.MigrateDatabase6To100;
+import com.cloudant.sync.datastore.migrations.SchemaOnlyMigration;
 import com.cloudant.sync.sqlite.ContentValues;
 import com.cloudant.sync.sqlite.Cursor;
 import com.cloudant.sync.sqlite.SQLDatabase;
@@ -173,6 +174,58 @@ public class DatastoreSchemaTests {
     }
 
 
+    @Test
+    /**
+     * Test the migration of a version 100 database to version 101, which should
+     * add the conflicts table and populate it with documents which have more
+     * than one non-deleted leaf revision.
+     */
+    public void migrateVersion100To101() throws ExecutionException, InterruptedException {
+        File temp_folder = new File(TestUtils.createTempTestingDir(this.getClass().getName()));
+        final String dbPath = j(temp_folder.getAbsolutePath(), "db.sync");
+        SQLDatabaseQueue queue = new SQLDatabaseQueue(dbPath, new NullKeyProvider());
+        queue.updateSchema(new SchemaOnlyMigration(DatastoreConstants.getSchemaVersion3()), 3);
+        queue.updateSchema(new SchemaOnlyMigration(DatastoreConstants.getSchemaVersion4()), 4);
+        queue.updateSchema(new SchemaOnlyMigration(DatastoreConstants.getSchemaVersion5()), 5);
+        queue.updateSchema(new SchemaOnlyMigration(DatastoreConstants.getSchemaVersion6()), 6);
+        queue.updateSchema(new MigrateDatabase6To100(), 100);
+
+        // doc 1 is conflicted, doc 2 has a deleted conflicting leaf and
+        // doc 3 has a single branch
+        queue.submitTransaction(new SQLQueueCallable<Object>() {
+            @Override
+            public Object call(SQLDatabase db) throws Exception {
+                db.execSQL("INSERT INTO docs (doc_id, docid) VALUES (1, 'a'), (2, 'b'), (3, 'c')");
+                db.execSQL("INSERT INTO revs (sequence, doc_id, parent, current, deleted, revid) " +
+                        "VALUES (1, 1, NULL, 0, 0, '1-a'), (2, 1, 1, 1, 0, '2-a'), " +
+                        "(3, 1, 1, 0, 0, '2-b'), " +
+                        "(4, 2, NULL, 0, 0, '1-a'), (5, 2, 4, 1, 0, '2-a'), " +
+                        "(6, 2, 4, 0, 1, '2-b'), " +
+                        "(7, 3, NULL, 0, 0, '1-a'), (8, 3, 7, 1, 0, '2-a')");
+                return null;
+            }
+        }).get();
+
+        queue.updateSchema(new SchemaOnlyMigration(DatastoreConstants.getSchemaVersion101()), 101);
+
+        queue.submit(new SQLQueueCallable<Object>() {
+            @Override
+            public Object call(SQLDatabase db) throws Exception {
+                Assert.assertEquals("DB version should be 101", 101, db.getVersion());
+                Cursor c = db.rawQuery("SELECT doc_id FROM conflicts", null);
+                Assert.assertEquals(1, c.getCount());
+                c.moveToFirst();
+                Assert.assertEquals(1, c.getLong(0));
+                c.close();
+                return null;
+            }
+        }).get();
+
+        queue.shutdown();
+
+        TestUtils.deleteTempTestingDir(temp_folder.getAbsolutePath());
+    }
+
     @Test
     /**
      * Ensure database is migrated to version 100 or above when opening.
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.datastore;
+
+import com.cloudant.sync.sqlite.SQLDatabase;
+import com.cloudant.sync.util.TestUtils;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+public class RevisionTreeSkeletonCacheTest {
+
+    String databaseDir;
+    SQLDatabase database;
+
+    @Before
+    public void setUp() throws Exception {
+        databaseDir = TestUtils.createTempTestingDir(RevisionTreeSkeletonCacheTest.class.getName());
+        database = DatastoreTestUtils.createDatabase(databaseDir, "skeletons");
+
+        /*
+         * doc 1:  1-a -> 2-a -> 3-a (current)
+         *                 \-> 3-b (deleted)
+         * doc 2:  1-c (current)
+         */
+        database.execSQL("INSERT INTO docs (doc_id, docid) VALUES (1, 'one')");
+        database.execSQL("INSERT INTO docs (doc_id, docid) VALUES (2, 'two')");
+        insertRevision(1, 1, null, false, false, "1-a");
+        insertRevision(2, 1, 1L, false, false, "2-a");
+        insertRevision(3, 1, 2L, true, false, "3-a");
+        insertRevision(4, 1, 2L, false, true, "3-b");
+        insertRevision(5, 2, null, true, false, "1-c");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        database.close();
+        TestUtils.deleteTempTestingDir(databaseDir);
+    }
+
+    private void insertRevision(long sequence, long docId, Long parent, boolean current,
+                                boolean deleted, String revId) throws Exception {
+        database.execSQL("INSERT INTO revs (sequence, doc_id, parent, current, deleted, revid) " +
+                "VALUES (?, ?, ?, ?, ?, ?)", new Object[]{sequence, docId, parent,
+                current ? 1 : 0, deleted ? 1 : 0, revId});
+    }
+
+    @Test
+    public void skeletonDescribesTree() throws Exception {
+        RevisionTreeSkeleton skeleton = RevisionTreeSkeleton.read(database, 1);
+        Assert.assertEquals(4, skeleton.size());
+        Assert.assertEquals(2, skeleton.sequenceOf("2-a"));
+        Assert.assertEquals(-1, skeleton.sequenceOf("2-c"));
+        Assert.assertEquals(3, skeleton.currentSequence());
+        Assert.assertEquals(Arrays.asList("3-a"), skeleton.leafRevisionIds(true));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("3-a", "3-b")),
+                skeleton.leafRevisionIds());
+    }
+
+    @Test
+    public void skeletonOfMissingDocumentIsEmpty() throws Exception {
+        RevisionTreeSkeleton skeleton = RevisionTreeSkeleton.read(database, 3);
+        Assert.assertEquals(0, skeleton.size());
+        Assert.assertEquals(-1, skeleton.currentSequence());
+    }
+
+    @Test
+    public void cacheReturnsSameSkeletonUntilInvalidated() throws Exception {
+        RevisionTreeSkeletonCache cache = new RevisionTreeSkeletonCache();
+        RevisionTreeSkeleton skeleton = cache.get(database, 1);
+        Assert.assertSame(skeleton, cache.get(database, 1));
+
+        insertRevision(6, 1, 3L, false, false, "4-a");
+        cache.invalidate(1);
+        RevisionTreeSkeleton updated = cache.get(database, 1);
+        Assert.assertNotSame(skeleton, updated);
+        Assert.assertEquals(6, updated.sequenceOf("4-a"));
+    }
+
+    @Test
+    public void cacheEvictsLeastRecentlyUsedSkeleton() throws Exception {
+        // room for doc 1's four revisions and doc 2's one, but not another of doc 2's
+        RevisionTreeSkeletonCache cache = new RevisionTreeSkeletonCache(5);
+        cache.get(database, 1);
+        cache.get(database, 2);
+        Assert.assertEquals(2, cache.size());
+
+        insertRevision(6, 2, 5L, true, false, "2-c");
+        cache.invalidate(2);
+        cache.get(database, 1);
+        cache.get(database, 2);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(6, cache.get(database, 2).currentSequence());
+    }
+
+    @Test
+    public void cacheDoesNotHoldEmptySkeletons() throws Exception {
+        RevisionTreeSkeletonCache cache = new RevisionTreeSkeletonCache();
+        cache.get(database, 3);
+        Assert.assertEquals(0, cache.size());
+    }
+}
@@ -15,12 +15,18 @@ package com.cloudant.sync.query;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
 
 import com.cloudant.sync.datastore.DocumentBodyFactory;
 import com.cloudant.sync.datastore.MutableDocumentRevision;
+import com.cloudant.sync.sqlite.ContentValues;
 import com.cloudant.sync.util.SQLDatabaseTestUtils;
 
 import org.junit.Test;
@@ -29,6 +35,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 public class IndexManagerTest extends AbstractIndexTestBase {
 
@@ -145,6 +152,146 @@ public class IndexManagerTest extends AbstractIndexTestBase {
         assertThat(im.listIndexes().isEmpty(), is(true));
     }
 
+    @Test
+    public void findWithoutUpdatingIndexes() throws Exception {
+        im.ensureIndexed(Arrays.<Object>asList("name"), "basic");
+
+        MutableDocumentRevision rev = new MutableDocumentRevision();
+        Map<String, Object> bodyMap = new HashMap<String, Object>();
+        bodyMap.put("name", "mike");
+        rev.body = DocumentBodyFactory.create(bodyMap);
+        ds.createDocumentFromRevision(rev);
+
+        Map<String, Object> query = new HashMap<String, Object>();
+        query.put("name", "mike");
+        assertThat(im.find(query, 0, 0, null, null, false).size(), is(0));
+        assertThat(im.find(query).size(), is(1));
+        assertThat(im.find(query, 0, 0, null, null, false).size(), is(1));
+    }
+
+    @Test
+    public void backgroundIndexingUpdatesIndexes() throws Exception {
+        im.ensureIndexed(Arrays.<Object>asList("name"), "basic");
+        im.setBackgroundIndexing(true);
+
+        for (int i = 0; i < 10; i++) {
+            MutableDocumentRevision rev = new MutableDocumentRevision();
+            Map<String, Object> bodyMap = new HashMap<String, Object>();
+            bodyMap.put("name", "mike");
+            rev.body = DocumentBodyFactory.create(bodyMap);
+            ds.createDocumentFromRevision(rev);
+        }
+
+        Map<String, Object> query = new HashMap<String, Object>();
+        query.put("name", "mike");
+        long timeout = System.currentTimeMillis() + 10000;
+        while (im.find(query, 0, 0, null, null, false).size() < 10 &&
+               System.currentTimeMillis() < timeout) {
+            Thread.sleep(50);
+        }
+        assertThat(im.find(query, 0, 0, null, null, false).size(), is(10));
+
+        im.setBackgroundIndexing(false);
+    }
+
+    @Test
+    public void explainQueryWithoutIndex() throws Exception {
+        im.ensureIndexed(Arrays.<Object>asList("name"), "basic");
+
+        Map<String, Object> query = new HashMap<String, Object>();
+        query.put("age", 12);
+        QueryPlan plan = im.explain(query);
+        assertThat(plan.indexesCoverQuery(), is(false));
+        assertThat(plan.getSteps(), hasItem(startsWith("Match ~")));
+        assertThat(plan.getSteps(), hasItem(containsString("No index contains any of")));
+    }
+
+    @Test
+    public void explainQueryUsingIntersectionOfIndexes() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            MutableDocumentRevision rev = new MutableDocumentRevision();
+            Map<String, Object> bodyMap = new HashMap<String, Object>();
+            bodyMap.put("name", "mike" + i);
+            bodyMap.put("age", i);
+            rev.body = DocumentBodyFactory.create(bodyMap);
+            ds.createDocumentFromRevision(rev);
+        }
+        im.ensureIndexed(Arrays.<Object>asList("name"), "names");
+        im.ensureIndexed(Arrays.<Object>asList("age"), "ages");
+        assertThat(im.updateAllIndexes(), is(true));
+
+        // Each index selects a single row from ten, so reading both is
+        // cheaper than matching the documents selected by one of them.
+        Map<String, Object> query = new HashMap<String, Object>();
+        query.put("name", "mike3");
+        query.put("age", 3);
+        QueryPlan plan = im.explain(query);
+        assertThat(plan.indexesCoverQuery(), is(true));
+        assertThat(plan.getSteps(), hasItem(startsWith("  Intersect indexes")));
+        assertThat(im.find(query).size(), is(1));
+    }
+
+    @Test
+    public void findUsingPartialIndex() throws Exception {
+        String[][] people = { { "mike12", "mike", "cat" },
+                              { "mike34", "mike", "dog" },
+                              { "fred34", "fred", "cat" } };
+        for (String[] person : people) {
+            MutableDocumentRevision rev = new MutableDocumentRevision();
+            rev.docId = person[0];
+            Map<String, Object> bodyMap = new HashMap<String, Object>();
+            bodyMap.put("name", person[1]);
+            bodyMap.put("pet", person[2]);
+            rev.body = DocumentBodyFactory.create(bodyMap);
+            ds.createDocumentFromRevision(rev);
+        }
+        Map<String, Object> partialFilter = new HashMap<String, Object>();
+        partialFilter.put("pet", "cat");
+        assertThat(im.ensureIndexed(Arrays.<Object>asList("name", "pet"), "cats", partialFilter),
+                   is("cats"));
+        assertThat(im.listIndexes().get("cats"), is(notNullValue()));
+
+        // the query implies the filter, so the partial index can be used
+        Map<String, Object> query = new HashMap<String, Object>();
+        query.put("pet", "cat");
+        query.put("name", "mike");
+        QueryPlan plan = im.explain(query);
+        assertThat(plan.indexesCoverQuery(), is(true));
+        assertThat(plan.getSteps(), hasItem(startsWith("  Scan index cats")));
+        assertThat(im.find(query).documentIds(), contains("mike12"));
+
+        // dogs aren't in the partial index, so it can't be used
+        query.clear();
+        query.put("name", "mike");
+        plan = im.explain(query);
+        assertThat(plan.indexesCoverQuery(), is(false));
+        assertThat(plan.getSteps(), not(hasItem(containsString("cats"))));
+        assertThat(im.find(query).documentIds(), containsInAnyOrder("mike12", "mike34"));
+    }
+
+    @Test
+    public void listIndexesLeavesOutIndexWithUnreadablePartialFilter() throws Exception {
+        Map<String, Object> partialFilter = new HashMap<String, Object>();
+        partialFilter.put("pet", "cat");
+        assertThat(im.ensureIndexed(Arrays.<Object>asList("name", "pet"), "cats", partialFilter),
+                   is("cats"));
+        assertThat(im.ensureIndexed(Arrays.<Object>asList("name"), "names"), is("names"));
+        im.getQueue().submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                ContentValues values = new ContentValues();
+                values.put("partial_filter", "{\"pet\": ");
+                im.getDatabase().update(IndexManager.INDEX_METADATA_TABLE_NAME, values,
+                                        "index_name = ?", new String[]{ "cats" });
+                return null;
+            }
+        }).get();
+
+        // without its filter the index would be used as if it had every document
+        assertThat(im.listIndexes().keySet(), contains("names"));
+        assertThat(im.deleteIndexNamed("cats"), is(true));
+    }
+
     @Test
     public void validateTextSearchIsAvailable() throws Exception {
         assertThat(im.isTextSearchEnabled(), is(true));
@@ -152,4 +152,37 @@ public class IndexTest {
         assertThat(index.settingsAsJSON(), is(nullValue()));
     }
 
+    @Test
+    public void normalisesPartialFilter() {
+        Map<String, Object> partialFilter = new HashMap<String, Object>();
+        partialFilter.put("status", "active");
+        Index index = Index.getInstance(fieldNames, indexName, "json", null, partialFilter);
+
+        Map<String, Object> eq = new HashMap<String, Object>();
+        eq.put("$eq", "active");
+        Map<String, Object> term = new HashMap<String, Object>();
+        term.put("status", eq);
+        Map<String, Object> expected = new HashMap<String, Object>();
+        expected.put("$and", Arrays.<Object>asList(term));
+        assertThat(index.partialFilter, is(expected));
+        assertThat(index.comparePartialFilterTo(expected), is(true));
+        assertThat(index.comparePartialFilterTo(null), is(false));
+    }
+
+    @Test
+    public void returnsNullWhenPartialFilterOnTextIndex() {
+        Map<String, Object> partialFilter = new HashMap<String, Object>();
+        partialFilter.put("status", "active");
+        Index index = Index.getInstance(fieldNames, indexName, "text", null, partialFilter);
+        assertThat(index, is(nullValue()));
+    }
+
+    @Test
+    public void returnsNullWhenInvalidPartialFilter() {
+        Map<String, Object> partialFilter = new HashMap<String, Object>();
+        partialFilter.put("$and", "active");
+        Index index = Index.getInstance(fieldNames, indexName, "json", null, partialFilter);
+        assertThat(index, is(nullValue()));
+    }
+
 }
@@ -13,6 +13,7 @@
 package com.cloudant.sync.query;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.Matchers.hasKey;
@@ -23,6 +24,7 @@ import static org.hamcrest.Matchers.nullValue;
 import com.cloudant.sync.datastore.BasicDocumentRevision;
 import com.cloudant.sync.datastore.DocumentBodyFactory;
 import com.cloudant.sync.datastore.DocumentException;
+import com.cloudant.sync.datastore.DocumentRevisionBuilder;
 import com.cloudant.sync.datastore.MutableDocumentRevision;
 import com.cloudant.sync.sqlite.Cursor;
 import com.cloudant.sync.sqlite.SQLDatabase;
@@ -30,6 +32,7 @@ import com.cloudant.sync.util.DatabaseUtils;
 import com.cloudant.sync.util.TestUtils;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
@@ -517,6 +520,17 @@ public class IndexUpdaterTest extends AbstractIndexTestBase {
         assertThat(IndexUpdater.updateIndex("basic", fields, db, ds, im.getQueue()), is(true));
         assertThat(getIndexSequenceNumber("basic"), is(1l));
 
+        if (testType.equals(JSON_INDEX_EXECUTION)) {
+            // json indexes have a row per document, with the elements in the array table
+            assertThat(getIndexValues("basic", "_id"), contains((Object) "id123"));
+            assertThat(getIndexValues("basic", "_rev"), contains((Object) saved.getRevision()));
+            assertThat(getIndexValues("basic", "name"), contains((Object) "mike"));
+            assertThat(getIndexValues("basic", "pet"), contains((Object) null));
+            assertThat(getArrayValues("basic", "pet"), containsInAnyOrder("cat", "dog", "parrot"));
+            assertThat(getArrayDocIds("basic"), contains("id123"));
+            return;
+        }
+
         cursor = null;
         try {
             SQLDatabase db = TestUtils.getDatabaseConnectionToExistingDb(this.db);
@@ -578,6 +592,17 @@ public class IndexUpdaterTest extends AbstractIndexTestBase {
         assertThat(IndexUpdater.updateIndex("basic", fields, db, ds, im.getQueue()), is(true));
         assertThat(getIndexSequenceNumber("basic"), is(1l));
 
+        if (testType.equals(JSON_INDEX_EXECUTION)) {
+            // json indexes have a row per document, with the elements in the array table
+            assertThat(getIndexValues("basic", "_id"), contains((Object) "id123"));
+            assertThat(getIndexValues("basic", "_rev"), contains((Object) saved.getRevision()));
+            assertThat(getIndexValues("basic", "name"), contains((Object) "mike"));
+            assertThat(getIndexValues("basic", "pet.species"), contains((Object) null));
+            assertThat(getArrayValues("basic", "pet.species"), containsInAnyOrder("cat", "dog"));
+            assertThat(getArrayDocIds("basic"), contains("id123"));
+            return;
+        }
+
         cursor = null;
         try {
             SQLDatabase db = TestUtils.getDatabaseConnectionToExistingDb(this.db);
@@ -606,6 +631,9 @@ public class IndexUpdaterTest extends AbstractIndexTestBase {
 
     @Test
     public void rejectsDocsWithMultipleArrays() throws Exception {
+        // json indexes keep array elements in the index's array table, so accept
+        // documents with several arrays; see acceptsDocsWithMultipleArrays
+        Assume.assumeTrue(testType.equals(TEXT_INDEX_EXECUTION));
         createIndex("basic", Arrays.<Object>asList("name", "pet", "pet2"));
 
         assertThat(getIndexSequenceNumber("basic"), is(0l));
@@ -679,6 +707,49 @@ public class IndexUpdaterTest extends AbstractIndexTestBase {
         }
     }
 
+    @Test
+    public void acceptsDocsWithMultipleArrays() throws Exception {
+        // text indexes have a row per array element, so reject documents with
+        // several arrays; see rejectsDocsWithMultipleArrays
+        Assume.assumeTrue(testType.equals(JSON_INDEX_EXECUTION));
+        createIndex("basic", Arrays.<Object>asList("name", "pet", "pet2"));
+
+        MutableDocumentRevision oneArrayRev = new MutableDocumentRevision();
+        oneArrayRev.docId = "id123";
+        // body content: { "name" : "mike", "pet" : [ "cat", "dog", "parrot" ] }
+        Map<String, Object> oneArrayBodyMap = new HashMap<String, Object>();
+        oneArrayBodyMap.put("name", "mike");
+        List<String> pets = Arrays.asList("cat", "dog", "parrot");
+        oneArrayBodyMap.put("pet", pets);
+        oneArrayRev.body = DocumentBodyFactory.create(oneArrayBodyMap);
+
+        MutableDocumentRevision twoArraysRev = new MutableDocumentRevision();
+        twoArraysRev.docId = "id456";
+        // body content: { "name" : "fred",
+        //                 "pet" : [ "cat", "dog", "parrot" ],
+        //                 "pet2" : [ "fish" ] }
+        Map<String, Object> twoArraysBodyMap = new HashMap<String, Object>();
+        twoArraysBodyMap.put("name", "fred");
+        twoArraysBodyMap.put("pet", pets);
+        twoArraysBodyMap.put("pet2", Arrays.asList("fish"));
+        twoArraysRev.body = DocumentBodyFactory.create(twoArraysBodyMap);
+        ds.createDocumentFromRevision(oneArrayRev);
+        ds.createDocumentFromRevision(twoArraysRev);
+
+        assertThat(IndexUpdater.updateIndex("basic", fields, db, ds, im.getQueue()), is(true));
+        assertThat(getIndexSequenceNumber("basic"), is(2l));
+
+        // Both documents are indexed, with a row each and their elements in the array table
+        assertThat(getIndexValues("basic", "_id"), containsInAnyOrder((Object) "id123", "id456"));
+        assertThat(getIndexValues("basic", "name"), containsInAnyOrder((Object) "mike", "fred"));
+        assertThat(getIndexValues("basic", "pet"), contains((Object) null, null));
+        assertThat(getIndexValues("basic", "pet2"), contains((Object) null, null));
+        assertThat(getArrayValues("basic", "pet"),
+                   containsInAnyOrder("cat", "dog", "parrot", "cat", "dog", "parrot"));
+        assertThat(getArrayValues("basic", "pet2"), contains("fish"));
+        assertThat(getArrayDocIds("basic"), containsInAnyOrder("id123", "id456"));
+    }
+
     @Test
     public void indexSingleArrayFieldWithEmptyValue() throws Exception {
         createIndex("basic", Arrays.<Object>asList("name", "car", "pet"));
@@ -947,6 +1018,358 @@ public class IndexUpdaterTest extends AbstractIndexTestBase {
         }
     }
 
+    @Test
+    public void updateAllIndexesAtDifferentSequences() throws Exception {
+        MutableDocumentRevision rev = new MutableDocumentRevision();
+        rev.docId = "mike12";
+        Map<String, Object> bodyMap = new HashMap<String, Object>();
+        bodyMap.put("name", "mike");
+        bodyMap.put("pet", "cat");
+        rev.body = DocumentBodyFactory.create(bodyMap);
+        BasicDocumentRevision mike = ds.createDocumentFromRevision(rev);
+
+        createIndex("basicName", Arrays.<Object>asList("name"), "json");
+        assertThat(getIndexSequenceNumber("basicName"), is(1l));
+
+        rev.docId = "fred34";
+        bodyMap.put("name", "fred");
+        bodyMap.put("pet", "dog");
+        rev.body = DocumentBodyFactory.create(bodyMap);
+        ds.createDocumentFromRevision(rev);
+
+        createIndex("basicPet", Arrays.<Object>asList("pet"), "json");
+        assertThat(getIndexSequenceNumber("basicName"), is(1l));
+        assertThat(getIndexSequenceNumber("basicPet"), is(2l));
+
+        rev.docId = "john72";
+        bodyMap.put("name", "john");
+        bodyMap.put("pet", "fish");
+        rev.body = DocumentBodyFactory.create(bodyMap);
+        ds.createDocumentFromRevision(rev);
+
+        MutableDocumentRevision update = mike.mutableCopy();
+        bodyMap.put("name", "mike");
+        bodyMap.put("pet", "parrot");
+        update.body = DocumentBodyFactory.create(bodyMap);
+        ds.updateDocumentFromRevision(update);
+
+        assertThat(im.updateAllIndexes(), is(true));
+
+        assertThat(getIndexSequenceNumber("basicName"), is(4l));
+        assertThat(getIndexSequenceNumber("basicPet"), is(4l));
+
+        assertThat(getIndexValues("basicName", "name"),
+                   containsInAnyOrder((Object) "mike", "fred", "john"));
+        assertThat(getIndexValues("basicPet", "pet"),
+                   containsInAnyOrder((Object) "parrot", "dog", "fish"));
+    }
+
+    @Test
+    public void updateIndexRecordsLossyFields() throws Exception {
+        createIndex("basic", Arrays.<Object>asList("name", "age", "pet", "tags"), "json");
+
+        MutableDocumentRevision rev = new MutableDocumentRevision();
+        rev.docId = "mike12";
+        Map<String, Object> bodyMap = new HashMap<String, Object>();
+        bodyMap.put("name", "mike");
+        bodyMap.put("age", 12);
+        bodyMap.put("tags", Arrays.asList("a", "b"));
+        rev.body = DocumentBodyFactory.create(bodyMap);
+        ds.createDocumentFromRevision(rev);
+
+        assertThat(im.updateAllIndexes(), is(true));
+
+        // strings, integers and missing fields can be read back from the index
+        assertThat(getLossyValues("basic", "_id"), is(0l));
+        assertThat(getLossyValues("basic", "name"), is(0l));
+        assertThat(getLossyValues("basic", "age"), is(0l));
+        assertThat(getLossyValues("basic", "pet"), is(0l));
+        assertThat(getLossyValues("basic", "tags"), is(1l));
+    }
+
+    @Test
+    public void updateIndexRecordsStringsWhichLookLikeNumbersAsLossy() throws Exception {
+        createIndex("basic", Arrays.<Object>asList("name", "zip", "code"), "json");
+
+        MutableDocumentRevision rev = new MutableDocumentRevision();
+        rev.docId = "mike12";
+        Map<String, Object> bodyMap = new HashMap<String, Object>();
+        bodyMap.put("name", "mike");
+        bodyMap.put("zip", "02134");
+        bodyMap.put("code", " 1.5");
+        rev.body = DocumentBodyFactory.create(bodyMap);
+        ds.createDocumentFromRevision(rev);
+
+        assertThat(im.updateAllIndexes(), is(true));
+
+        // SQLite stores these strings as numbers, so they can't be read back from the index
+        assertThat(getLossyValues("basic", "name"), is(0l));
+        assertThat(getLossyValues("basic", "zip"), is(1l));
+        assertThat(getLossyValues("basic", "code"), is(1l));
+    }
+
+    @Test
+    public void updatePartialIndexOnlyIndexesMatchingDocuments() throws Exception {
+        Map<String, Object> partialFilter = new HashMap<String, Object>();
+        partialFilter.put("pet", "cat");
+        assertThat(im.ensureIndexed(Arrays.<Object>asList("name"), "cats", partialFilter),
+                   is("cats"));
+
+        MutableDocumentRevision rev = new MutableDocumentRevision();
+        rev.docId = "mike12";
+        Map<String, Object> bodyMap = new HashMap<String, Object>();
+        bodyMap.put("name", "mike");
+        bodyMap.put("pet", "cat");
+        rev.body = DocumentBodyFactory.create(bodyMap);
+        BasicDocumentRevision mike = ds.createDocumentFromRevision(rev);
+
+        rev.docId = "fred34";
+        bodyMap.put("name", "fred");
+        bodyMap.put("pet", "dog");
+        rev.body = DocumentBodyFactory.create(bodyMap);
+        ds.createDocumentFromRevision(rev);
+
+        assertThat(im.updateAllIndexes(), is(true));
+        assertThat(getIndexValues("cats", "name"), containsInAnyOrder((Object) "mike"));
+
+        // a document which stops matching the filter is removed from the index
+        MutableDocumentRevision update = mike.mutableCopy();
+        bodyMap.put("name", "mike");
+        bodyMap.put("pet", "dog");
+        update.body = DocumentBodyFactory.create(bodyMap);
+        ds.updateDocumentFromRevision(update);
+
+        assertThat(im.updateAllIndexes(), is(true));
+        assertThat(getIndexValues("cats", "name").isEmpty(), is(true));
+        assertThat(getIndexSequenceNumber("cats"), is(3l));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void updateIndexKeepsArrayElementsInArrayTable() throws Exception {
+        createIndex("basic", Arrays.<Object>asList("name", "pet", "pet2"), "json");
+
+        MutableDocumentRevision rev = new MutableDocumentRevision();
+        rev.docId = "mike12";
+        // body content: { "name" : "mike",
+        //                 "pet" : [ "cat", "dog", "parrot" ],
+        //                 "pet2" : [ "cat", "cat" ] }
+        Map<String, Object> bodyMap = new HashMap<String, Object>();
+        bodyMap.put("name", "mike");
+        bodyMap.put("pet", Arrays.asList("cat", "dog", "parrot"));
+        bodyMap.put("pet2", Arrays.asList("cat", "cat"));
+        rev.body = DocumentBodyFactory.create(bodyMap);
+        BasicDocumentRevision saved = ds.createDocumentFromRevision(rev);
+
+        assertThat(im.updateAllIndexes(), is(true));
+
+        // one row per document, with the elements in the array table
+        assertThat(getIndexValues("basic", "name"), contains((Object) "mike"));
+        assertThat(getIndexValues("basic", "pet"), contains((Object) null));
+        assertThat(getArrayValues("basic", "pet"), containsInAnyOrder("cat", "dog", "parrot"));
+        assertThat(getArrayValues("basic", "pet2"), contains("cat"));
+
+        Map<String, Object> index = (Map<String, Object>) im.listIndexes().get("basic");
+        assertThat((List<String>) index.get("array_fields"), containsInAnyOrder("pet", "pet2"));
+
+        // elements are removed once the field is no longer an array
+        MutableDocumentRevision update = saved.mutableCopy();
+        bodyMap.put("pet", "fish");
+        update.body = DocumentBodyFactory.create(bodyMap);
+        ds.updateDocumentFromRevision(update);
+
+        assertThat(im.updateAllIndexes(), is(true));
+        assertThat(getIndexValues("basic", "pet"), contains((Object) "fish"));
+        assertThat(getArrayValues("basic", "pet").isEmpty(), is(true));
+        assertThat(getArrayValues("basic", "pet2"), contains("cat"));
+    }
+
+    @Test
+    public void smallUpdatesAddUpToRefreshStatistics() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            createNamedDocument(String.format("name%d", i));
+        }
+        createIndex("basic", Arrays.<Object>asList("name"), "json");
+        assertThat(getRowCount("basic"), is(20l));
+
+        // one revision is below the refresh fraction of the row count
+        createNamedDocument("name20");
+        assertThat(im.updateAllIndexes(), is(true));
+        assertThat(getRowCount("basic"), is(20l));
+
+        // but two, over two updates, reach it
+        createNamedDocument("name21");
+        assertThat(im.updateAllIndexes(), is(true));
+        assertThat(getRowCount("basic"), is(22l));
+    }
+
+    private void createNamedDocument(String name) throws Exception {
+        MutableDocumentRevision rev = new MutableDocumentRevision();
+        Map<String, Object> bodyMap = new HashMap<String, Object>();
+        bodyMap.put("name", name);
+        rev.body = DocumentBodyFactory.create(bodyMap);
+        ds.createDocumentFromRevision(rev);
+    }
+
+    private long getRowCount(String indexName) {
+        String sql = String.format("SELECT DISTINCT row_count FROM %s WHERE index_name = ?",
+                                   IndexManager.INDEX_METADATA_TABLE_NAME);
+        Cursor cursor = null;
+        SQLDatabase db = TestUtils.getDatabaseConnectionToExistingDb(this.db);
+        try {
+            cursor = db.rawQuery(sql, new String[]{ indexName });
+            assertThat(cursor.moveToNext(), is(true));
+            return cursor.getLong(0);
+        } catch (SQLException e) {
+            Assert.fail(String.format("SQLException occurred executing %s: %s", sql, e));
+            return -1;
+        } finally {
+            DatabaseUtils.closeCursorQuietly(cursor);
+        }
+    }
+
+    @Test
+    public void updateIndexAfterDeletingConflictWinner() throws Exception {
+        MutableDocumentRevision rev = new MutableDocumentRevision();
+        rev.docId = "mike12";
+        Map<String, Object> bodyMap = new HashMap<String, Object>();
+        bodyMap.put("name", "mike");
+        rev.body = DocumentBodyFactory.create(bodyMap);
+        BasicDocumentRevision mike = ds.createDocumentFromRevision(rev);
+
+        // 2-a and 2-b conflict, and 2-b wins
+        ds.forceInsert(conflictingRevision("mike12", "2-a", "fred"),
+                       mike.getRevision(), "2-a");
+        ds.forceInsert(conflictingRevision("mike12", "2-b", "john"),
+                       mike.getRevision(), "2-b");
+
+        createIndex("basic", Arrays.<Object>asList("name"));
+        assertThat(getIndexSequenceNumber("basic"), is(3l));
+        assertThat(getIndexValues("basic", "name"), contains((Object) "john"));
+
+        // 2-a becomes current, though its sequence is older than the index's
+        ds.deleteDocumentFromRevision(ds.getDocument("mike12", "2-b"));
+        assertThat(im.updateAllIndexes(), is(true));
+        assertThat(getIndexSequenceNumber("basic"), is(4l));
+        assertThat(getIndexValues("basic", "name"), contains((Object) "fred"));
+    }
+
+    private static BasicDocumentRevision conflictingRevision(String docId, String revId,
+                                                             String name) {
+        Map<String, Object> bodyMap = new HashMap<String, Object>();
+        bodyMap.put("name", name);
+        DocumentRevisionBuilder builder = new DocumentRevisionBuilder();
+        builder.setDocId(docId);
+        builder.setRevId(revId);
+        builder.setBody(DocumentBodyFactory.create(bodyMap));
+        return builder.build();
+    }
+
+    @Test
+    public void ensureIndexedBuildsNewIndexFromManyBatches() throws Exception {
+        int docCount = 2 * IndexUpdater.REBUILD_BATCH_SIZE + 1;
+        for (int i = 0; i < docCount; i++) {
+            MutableDocumentRevision rev = new MutableDocumentRevision();
+            rev.docId = String.format("doc%d", i);
+            Map<String, Object> bodyMap = new HashMap<String, Object>();
+            bodyMap.put("name", String.format("name%d", i));
+            bodyMap.put("pet", i % 2 == 0 ? "cat" : "dog");
+            rev.body = DocumentBodyFactory.create(bodyMap);
+            ds.createDocumentFromRevision(rev);
+        }
+
+        createIndex("basic", Arrays.<Object>asList("name", "pet"));
+        assertThat(getIndexValues("basic", "name").size(), is(docCount));
+        assertThat(getIndexValues("basic", "name"), hasItems((Object) "name0",
+                                                             "name1000",
+                                                             "name2000"));
+        assertThat(getIndexSequenceNumber("basic"), is((long) docCount));
+
+        // a partial index only gets the matching documents
+        Map<String, Object> partialFilter = new HashMap<String, Object>();
+        partialFilter.put("pet", "cat");
+        assertThat(im.ensureIndexed(Arrays.<Object>asList("name"), "cats", partialFilter),
+                   is("cats"));
+        assertThat(getIndexValues("cats", "name").size(), is(IndexUpdater.REBUILD_BATCH_SIZE + 1));
+        assertThat(getIndexSequenceNumber("cats"), is((long) docCount));
+    }
+
+    private List<String> getArrayValues(String indexName, String fieldName) {
+        String sql = String.format("SELECT value FROM %s WHERE field_name = ?",
+                                   IndexManager.arrayTableNameForIndex(indexName));
+        List<String> values = new ArrayList<String>();
+        Cursor cursor = null;
+        SQLDatabase db = TestUtils.getDatabaseConnectionToExistingDb(this.db);
+        try {
+            cursor = db.rawQuery(sql, new String[]{ fieldName });
+            while (cursor.moveToNext()) {
+                values.add(cursor.getString(0));
+            }
+        } catch (SQLException e) {
+            Assert.fail(String.format("SQLException occurred executing %s: %s", sql, e));
+        } finally {
+            DatabaseUtils.closeCursorQuietly(cursor);
+        }
+        return values;
+    }
+
+    private List<String> getArrayDocIds(String indexName) {
+        String sql = String.format("SELECT DISTINCT _id FROM %s",
+                                   IndexManager.arrayTableNameForIndex(indexName));
+        List<String> docIds = new ArrayList<String>();
+        Cursor cursor = null;
+        SQLDatabase db = TestUtils.getDatabaseConnectionToExistingDb(this.db);
+        try {
+            cursor = db.rawQuery(sql, new String[]{});
+            while (cursor.moveToNext()) {
+                docIds.add(cursor.getString(0));
+            }
+        } catch (SQLException e) {
+            Assert.fail(String.format("SQLException occurred executing %s: %s", sql, e));
+        } finally {
+            DatabaseUtils.closeCursorQuietly(cursor);
+        }
+        return docIds;
+    }
+
+    private long getLossyValues(String indexName, String fieldName) {
+        String sql = String.format("SELECT lossy_values FROM %s " +
+                                   "WHERE index_name = ? AND field_name = ?",
+                                   IndexManager.INDEX_METADATA_TABLE_NAME);
+        Cursor cursor = null;
+        SQLDatabase db = TestUtils.getDatabaseConnectionToExistingDb(this.db);
+        try {
+            cursor = db.rawQuery(sql, new String[]{ indexName, fieldName });
+            assertThat(cursor.moveToNext(), is(true));
+            return cursor.getLong(0);
+        } catch (SQLException e) {
+            Assert.fail(String.format("SQLException occurred executing %s: %s", sql, e));
+            return -1;
+        } finally {
+            DatabaseUtils.closeCursorQuietly(cursor);
+        }
+    }
+
+    private List<Object> getIndexValues(String indexName, String fieldName) {
+        String sql = String.format("SELECT \"%s\" FROM %s",
+                                   fieldName,
+                                   IndexManager.tableNameForIndex(indexName));
+        List<Object> values = new ArrayList<Object>();
+        Cursor cursor = null;
+        SQLDatabase db = TestUtils.getDatabaseConnectionToExistingDb(this.db);
+        try {
+            cursor = db.rawQuery(sql, new String[]{});
+            while (cursor.moveToNext()) {
+                values.add(cursor.getString(0));
+            }
+        } catch (SQLException e) {
+            Assert.fail(String.format("SQLException occurred executing %s: %s", sql, e));
+        } finally {
+            DatabaseUtils.closeCursorQuietly(cursor);
+        }
+        return values;
+    }
+
     private long getIndexSequenceNumber(String indexName) {
         String where = String.format("index_name = \"%s\" group by last_sequence", indexName);
         String sql = String.format("SELECT last_sequence FROM %s where %s",
@@ -47,6 +47,8 @@ public class MockMatcherQueryExecutor extends QueryExecutor{
     @Override
     protected ChildrenQueryNode translateQuery(Map<String, Object> query,
                                                Map<String, Object> indexes,
+                                               IndexStatistics statistics,
+                                               QueryPlan plan,
                                                Boolean[] indexesCoverQuery) {
         return new AndQueryNode();
     }
@@ -1355,6 +1355,59 @@ public class QueryCoveringIndexesTest extends AbstractQueryTestBase {
         assertThat(queryResult, is(nullValue()));
     }
 
+    @Test
+    public void canFindDocumentsUsingIndexWithMultipleArrays() throws Exception {
+        setUpArrayIndexingData();
+        MutableDocumentRevision rev = new MutableDocumentRevision();
+        rev.docId = "bill23";
+        Map<String, Object> bodyMap = new HashMap<String, Object>();
+        bodyMap.put("name", "bill");
+        bodyMap.put("pet", Arrays.<Object>asList("cat", "dog"));
+        bodyMap.put("toy", Arrays.<Object>asList("ball", "rope"));
+        rev.body = DocumentBodyFactory.create(bodyMap);
+        ds.createDocumentFromRevision(rev);
+
+        rev.docId = "bob32";
+        bodyMap.clear();
+        bodyMap.put("name", "bob");
+        bodyMap.put("pet", "dog");
+        bodyMap.put("toy", Arrays.<Object>asList("bone", "ball"));
+        rev.body = DocumentBodyFactory.create(bodyMap);
+        ds.createDocumentFromRevision(rev);
+
+        assertThat(im.ensureIndexed(Arrays.<Object>asList("name", "pet", "toy"), "toys"),
+                   is("toys"));
+
+        // query - { "pet" : { "$eq" : "dog" }, "toy" : { "$in" : [ "ball", "stick" ] } }
+        Map<String, Object> eqDog = new HashMap<String, Object>();
+        eqDog.put("$eq", "dog");
+        Map<String, Object> inToys = new HashMap<String, Object>();
+        inToys.put("$in", Arrays.<Object>asList("ball", "stick"));
+        Map<String, Object> query = new HashMap<String, Object>();
+        query.put("pet", eqDog);
+        query.put("toy", inToys);
+        QueryResult queryResult = im.find(query);
+        assertThat(queryResult.documentIds(), containsInAnyOrder("bill23", "bob32"));
+
+        // query - { "toy" : { "$not" : { "$eq" : "rope" } }, "pet" : { "$exists" : true } }
+        Map<String, Object> eqRope = new HashMap<String, Object>();
+        eqRope.put("$eq", "rope");
+        Map<String, Object> notRope = new HashMap<String, Object>();
+        notRope.put("$not", eqRope);
+        Map<String, Object> exists = new HashMap<String, Object>();
+        exists.put("$exists", true);
+        query.clear();
+        query.put("toy", notRope);
+        query.put("pet", exists);
+        queryResult = im.find(query);
+        assertThat(queryResult.documentIds(), containsInAnyOrder("mike12",
+                                                                 "fred34",
+                                                                 "mike34",
+                                                                 "john44",
+                                                                 "john22",
+                                                                 "bob32"));
+    }
+
     // When querying using $exists operator
 
     @Test
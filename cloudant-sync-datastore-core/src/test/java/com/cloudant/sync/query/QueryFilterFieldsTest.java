@@ -194,4 +194,82 @@ public class QueryFilterFieldsTest extends AbstractQueryTestBase {
         }
     }
 
+    @Test
+    public void projectsFieldsFromIndexWithoutLoadingDocuments() {
+        // query - { "name" : "mike" }
+        Map<String, Object> query = new HashMap<String, Object>();
+        query.put("name", "mike");
+        QueryResult queryResult = im.find(query,
+                                          0,
+                                          Long.MAX_VALUE,
+                                          Arrays.asList("name", "age"),
+                                          null);
+        assertThat(queryResult.size(), is(3));
+        for (DocumentRevision rev : queryResult) {
+            assertThat(rev, is(instanceOf(ProjectedDocumentRevision.class)));
+            // revisions read from the index have no sequence number
+            assertThat(((ProjectedDocumentRevision) rev).getSequence(), is(-1L));
+            Map<String, Object> revBody = rev.getBody().asMap();
+            assertThat(revBody.keySet(), containsInAnyOrder("name", "age"));
+            assertThat((String) revBody.get("name"), is("mike"));
+            assertThat(revBody.get("age"), is(instanceOf(Integer.class)));
+        }
+    }
+
+    @Test
+    public void projectsStringsWhichLookLikeNumbersUnchanged() throws Exception {
+        // index columns have NUMERIC affinity, so SQLite stores these strings as numbers
+        for (String pet : Arrays.asList("02134", "123")) {
+            MutableDocumentRevision rev = new MutableDocumentRevision();
+            rev.docId = "bob" + pet;
+            Map<String, Object> bodyMap = new HashMap<String, Object>();
+            bodyMap.put("name", "bob");
+            bodyMap.put("pet", pet);
+            rev.body = DocumentBodyFactory.create(bodyMap);
+            ds.createDocumentFromRevision(rev);
+        }
+
+        // query - { "name" : "bob" }
+        Map<String, Object> query = new HashMap<String, Object>();
+        query.put("name", "bob");
+        QueryResult queryResult = im.find(query,
+                                          0,
+                                          Long.MAX_VALUE,
+                                          Arrays.asList("name", "pet"),
+                                          null);
+        assertThat(queryResult.size(), is(2));
+        for (DocumentRevision doc : queryResult) {
+            Object pet = doc.getBody().asMap().get("pet");
+            assertThat(pet, is(instanceOf(String.class)));
+            assertThat(doc.getId(), is("bob" + pet));
+        }
+    }
+
+    @Test
+    public void loadsDocumentsWhenIndexCantReproduceField() throws Exception {
+        MutableDocumentRevision rev = new MutableDocumentRevision();
+        rev.docId = "mike12.5";
+        Map<String, Object> bodyMap = new HashMap<String, Object>();
+        bodyMap.put("name", "mike");
+        bodyMap.put("age", 12.5);
+        rev.body = DocumentBodyFactory.create(bodyMap);
+        ds.createDocumentFromRevision(rev);
+
+        // query - { "name" : "mike" }
+        Map<String, Object> query = new HashMap<String, Object>();
+        query.put("name", "mike");
+        QueryResult queryResult = im.find(query,
+                                          0,
+                                          Long.MAX_VALUE,
+                                          Arrays.asList("name", "age"),
+                                          null);
+        assertThat(queryResult.size(), is(4));
+        for (DocumentRevision doc : queryResult) {
+            assertThat(((ProjectedDocumentRevision) doc).getSequence() > 0, is(true));
+            if (doc.getId().equals("mike12.5")) {
+                assertThat((Double) doc.getBody().asMap().get("age"), is(12.5));
+            }
+        }
+    }
+
 }
@@ -12,6 +12,7 @@
 
 package com.cloudant.sync.query;
 
+import static com.cloudant.sync.query.QueryExecutor.sqlToPageIds;
 import static com.cloudant.sync.query.QueryExecutor.sqlToSortIds;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
@@ -111,6 +112,21 @@ public class QuerySortTest extends AbstractQueryTestBase {
         assertThat(queryResult.documentIds(), contains("mike12", "fred11", "fred34"));
     }
 
+    @Test
+    public void returnsNullWhenSortingOnFieldWithArrayValues() throws Exception {
+        // mike12's age is an array, so its elements are in the index's array table
+        // and the index's age column can't be used to order the documents
+        setUpSortingQueryData();
+        Map<String, Object> query = new HashMap<String, Object>();
+        query.put("same", "all");
+        Map<String, String> sortAge = new HashMap<String, String>();
+        sortAge.put("age", "asc");
+        List<Map<String, String>> order = new ArrayList<Map<String, String>>();
+        order.add(sortAge);
+        QueryResult queryResult = im.find(query, 0, Long.MAX_VALUE, null, order);
+        assertThat(queryResult, is(nullValue()));
+    }
+
     @Test
     public void returnsNullWhenNotUsingAscOrDesc() throws Exception {
         setUpSortingQueryData();
@@ -327,6 +343,24 @@ public class QuerySortTest extends AbstractQueryTestBase {
         assertThat(sqlToSortIds(smallDocIdSet, order, indexes), is(nullValue()));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void failsWhenFieldHasArrayValuesInArrayTable() {
+        ((Map<String, Object>) indexes.get("a")).put("array_fields", Arrays.asList("pet"));
+        Map<String, String> sortPet = new HashMap<String, String>();
+        sortPet.put("pet", "asc");
+        List<Map<String, String>> order = new ArrayList<Map<String, String>>();
+        order.add(sortPet);
+        assertThat(sqlToSortIds(smallDocIdSet, order, indexes), is(nullValue()));
+        assertThat(sqlToPageIds(pageQueryNode("a"), order, indexes, 0, 20), is(nullValue()));
+
+        // other fields of the index can still be sorted on
+        Map<String, String> sortName = new HashMap<String, String>();
+        sortName.put("name", "asc");
+        order.set(0, sortName);
+        assertThat(sqlToSortIds(smallDocIdSet, order, indexes), is(notNullValue()));
+    }
+
     @Test
     public void returnsNullWhenNoIndexes() {
         Map<String, String> sortY = new HashMap<String, String>();
@@ -338,4 +372,66 @@ public class QuerySortTest extends AbstractQueryTestBase {
         assertThat(sqlToSortIds(smallDocIdSet, order, null), is(nullValue()));
     }
 
+    // When generating paging SQL
+
+    @Test
+    public void pageSqlUsesQueryIndexForSortSkipAndLimit() {
+        Map<String, String> sortName = new HashMap<String, String>();
+        sortName.put("name", "asc");
+        List<Map<String, String>> order = new ArrayList<Map<String, String>>();
+        order.add(sortName);
+        SqlParts parts = sqlToPageIds(pageQueryNode("a"), order, indexes, 10, 20);
+        String sql = "SELECT DISTINCT _id FROM _t_cloudant_sync_query_index_a " +
+                     "WHERE \"age\" = ? ORDER BY \"name\" ASC LIMIT 20 OFFSET 10";
+        assertThat(parts.sqlWithPlaceHolders, is(sql));
+        assertThat(parts.placeHolderValues, is(new String[]{ "12" }));
+    }
+
+    @Test
+    public void pageSqlWithoutSortOrLimit() {
+        Map<String, String> sortName = new HashMap<String, String>();
+        sortName.put("name", "asc");
+        List<Map<String, String>> order = new ArrayList<Map<String, String>>();
+        order.add(sortName);
+
+        SqlParts parts = sqlToPageIds(pageQueryNode("a"), null, indexes, 0, 20);
+        String sql = "SELECT DISTINCT _id FROM _t_cloudant_sync_query_index_a " +
+                     "WHERE \"age\" = ? LIMIT 20 OFFSET 0";
+        assertThat(parts.sqlWithPlaceHolders, is(sql));
+
+        parts = sqlToPageIds(pageQueryNode("a"), order, indexes, 0, 0);
+        sql = "SELECT DISTINCT _id FROM _t_cloudant_sync_query_index_a " +
+              "WHERE \"age\" = ? ORDER BY \"name\" ASC";
+        assertThat(parts.sqlWithPlaceHolders, is(sql));
+
+        assertThat(sqlToPageIds(pageQueryNode("a"), null, indexes, 0, 0), is(nullValue()));
+    }
+
+    @Test
+    public void noPageSqlWhenSortNeedsAnotherIndex() {
+        Map<String, String> sortY = new HashMap<String, String>();
+        sortY.put("y", "asc");
+        List<Map<String, String>> order = new ArrayList<Map<String, String>>();
+        order.add(sortY);
+        assertThat(sqlToPageIds(pageQueryNode("a"), order, indexes, 0, 20), is(nullValue()));
+    }
+
+    @Test
+    public void noPageSqlWhenResultsAreCombined() {
+        ChildrenQueryNode root = pageQueryNode("a");
+        root.children.add(new OrQueryNode());
+        assertThat(sqlToPageIds(root, null, indexes, 0, 20), is(nullValue()));
+    }
+
+    private ChildrenQueryNode pageQueryNode(String indexName) {
+        SqlQueryNode sqlNode = new SqlQueryNode();
+        String sql = String.format("SELECT _id FROM %s WHERE \"age\" = ?",
+                                   IndexManager.tableNameForIndex(indexName));
+        sqlNode.sql = SqlParts.partsForSql(sql, new String[]{ "12" });
+        sqlNode.indexName = indexName;
+        ChildrenQueryNode root = new AndQueryNode();
+        root.children.add(sqlNode);
+        return root;
+    }
+
 }
@@ -1049,6 +1049,68 @@ public class QuerySqlTranslatorTest extends AbstractIndexTestBase {
         assertThat(where.placeHolderValues, is(arrayContaining("2", "1")));
     }
 
+    // When generating query WHERE clauses for fields with array elements
+
+    @Test
+    public void matchesArrayElementsWhenUsingEQ() {
+        Map<String, Object> op = new HashMap<String, Object>();
+        op.put("$eq", "cat");
+        Map<String, Object> pet = new HashMap<String, Object>();
+        pet.put("pet", op);
+
+        SqlParts where =
+                QuerySqlTranslator.whereSqlForAndClause(Collections.<Object>singletonList(pet),
+                                                        indexName,
+                                                        Collections.singleton("pet"));
+        String expected = String.format("(\"pet\" = ? OR _id IN " +
+                                        "(SELECT _id FROM %s WHERE field_name = ? AND value = ?))",
+                                        IndexManager.arrayTableNameForIndex(indexName));
+        assertThat(where.sqlWithPlaceHolders, is(expected));
+        assertThat(where.placeHolderValues, is(arrayContaining("cat", "pet", "cat")));
+    }
+
+    @Test
+    public void matchesArrayElementsWhenUsingNOTIN() {
+        Map<String, Object> op = new HashMap<String, Object>();
+        op.put("$in", Arrays.<Object>asList("cat", "dog"));
+        Map<String, Object> notOp = new HashMap<String, Object>();
+        notOp.put("$not", op);
+        Map<String, Object> pet = new HashMap<String, Object>();
+        pet.put("pet", notOp);
+
+        SqlParts where =
+                QuerySqlTranslator.whereSqlForAndClause(Collections.<Object>singletonList(pet),
+                                                        indexName,
+                                                        Collections.singleton("pet"));
+        String expected = String.format("_id NOT IN " +
+                                        "(SELECT _id FROM %s WHERE \"pet\" IN ( ?, ? ))" +
+                                        " AND _id NOT IN (SELECT _id FROM %s" +
+                                        " WHERE field_name = ? AND value IN ( ?, ? ))",
+                                        indexTable,
+                                        IndexManager.arrayTableNameForIndex(indexName));
+        assertThat(where.sqlWithPlaceHolders, is(expected));
+        assertThat(where.placeHolderValues,
+                   is(arrayContaining("cat", "dog", "pet", "cat", "dog")));
+    }
+
+    @Test
+    public void matchesArrayElementsWhenUsingEXISTS() {
+        Map<String, Object> op = new HashMap<String, Object>();
+        op.put("$exists", true);
+        Map<String, Object> pet = new HashMap<String, Object>();
+        pet.put("pet", op);
+
+        SqlParts where =
+                QuerySqlTranslator.whereSqlForAndClause(Collections.<Object>singletonList(pet),
+                                                        indexName,
+                                                        Collections.singleton("pet"));
+        String expected = String.format("(\"pet\" IS NOT NULL OR _id IN " +
+                                        "(SELECT _id FROM %s WHERE field_name = ?))",
+                                        IndexManager.arrayTableNameForIndex(indexName));
+        assertThat(where.sqlWithPlaceHolders, is(expected));
+        assertThat(where.placeHolderValues, is(arrayContaining("pet")));
+    }
+
     // When generating query SELECT clauses
 
     @Test
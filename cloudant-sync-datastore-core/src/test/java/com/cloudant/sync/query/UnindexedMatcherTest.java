@@ -1439,4 +1439,33 @@ public class UnindexedMatcherTest {
         assertThat(matcher.matches(rev), is(false));
     }
 
+    @Test
+    public void matchOnNumberOfDifferentTypeUsingIn() {
+        // Selector - { "age" : { "$in" : [ "31", 31.0 ] } }
+        Map<String, Object> op = new HashMap<String, Object>();
+        op.put("$in", Arrays.<Object>asList("31", 31.0));
+        Map<String, Object> selector = new HashMap<String, Object>();
+        selector.put("age", op);
+        selector = QueryValidator.normaliseAndValidateQuery(selector);
+        UnindexedMatcher matcher = UnindexedMatcher.matcherWithSelector(selector);
+        assertThat(matcher.matches(rev), is(true));
+        assertThat(matcher.matches(negRev), is(false));
+    }
+
+    @Test
+    public void matcherReusedForManyDocuments() {
+        // Selector - { "address.road" : "infinite loop", "score" : { "$lt" : 0 } }
+        Map<String, Object> op = new HashMap<String, Object>();
+        op.put("$lt", 0);
+        Map<String, Object> selector = new HashMap<String, Object>();
+        selector.put("address.road", "infinite loop");
+        selector.put("score", op);
+        selector = QueryValidator.normaliseAndValidateQuery(selector);
+        UnindexedMatcher matcher = UnindexedMatcher.matcherWithSelector(selector);
+        for (int i = 0; i < 3; i++) {
+            assertThat(matcher.matches(rev), is(false));
+            assertThat(matcher.matches(negRev), is(true));
+        }
+    }
+
 }
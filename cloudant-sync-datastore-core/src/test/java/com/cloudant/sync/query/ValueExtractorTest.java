@@ -115,6 +115,18 @@ public class ValueExtractorTest {
         assertThat(v, hasEntry("ccc", "mike"));
     }
 
+    @Test
+    public void extractSingleFieldUsingFieldPath() {
+        // a field path can be split once and reused for many bodies
+        String[] path = ValueExtractor.fieldPathForFieldName("aaa.bbb.ccc");
+        assertThat(path.length, is(3));
+        String v = (String) ValueExtractor.extractValueForFieldPath(path,
+                                                                    getThreeLevelBody().asMap());
+        assertThat(v, is("mike"));
+        assertThat(ValueExtractor.extractValueForFieldPath(path, getTwoLevelBody().asMap()),
+                   is(nullValue()));
+    }
+
     private DocumentBody getTwoLevelBody() {
         // body content: { "name" : { "first" : "mike" } }
         Map<String, String> levelTwo = new HashMap<String, String>();
@@ -25,6 +25,7 @@ import com.cloudant.mazha.CouchClient;
 import com.cloudant.mazha.Response;
 import com.cloudant.sync.datastore.BasicDocumentRevision;
 import com.cloudant.sync.datastore.DatastoreExtended;
+import com.cloudant.sync.datastore.DocumentException;
 import com.cloudant.sync.datastore.DocumentRevisionTree;
 import com.cloudant.sync.query.IndexManager;
 import com.cloudant.sync.query.QueryResult;
@@ -39,6 +40,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Category(RequireRunningCouchDB.class)
 public class BasicPullStrategyTest extends ReplicationTestBase {
@@ -210,6 +212,61 @@ public class BasicPullStrategyTest extends ReplicationTestBase {
 
     }
 
+    @Test
+    public void pull_insertFailsWithQueueFull_fetchingStops() throws Exception {
+        BasicPullStrategy replicator = pipelineStrategyWithQueueOfOne();
+        replicator.targetDb = new DatastoreWrapper(datastore) {
+            @Override
+            public void bulkInsert(List<BasicPullStrategy.BatchItem> batches,
+                                   boolean pullAttachmentsInline) throws DocumentException {
+                throw new DocumentException("Mocked error");
+            }
+        };
+        TestStrategyListener listener = new TestStrategyListener();
+        replicator.getEventBus().register(listener);
+
+        replicator.run();
+
+        Assert.assertTrue(listener.errorCalled);
+        Assert.assertEquals(0, replicator.getDocumentCounter());
+        // the fetching thread mustn't be left waiting for room in the queue
+        Assert.assertTrue(replicator.fetchExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void pull_cancelledWithQueueFull_fetchingStops() throws Exception {
+        final BasicPullStrategy replicator = pipelineStrategyWithQueueOfOne();
+        replicator.targetDb = new DatastoreWrapper(datastore) {
+            @Override
+            public void bulkInsert(List<BasicPullStrategy.BatchItem> batches,
+                                   boolean pullAttachmentsInline) throws DocumentException {
+                super.bulkInsert(batches, pullAttachmentsInline);
+                replicator.setCancel();
+            }
+        };
+        TestStrategyListener listener = new TestStrategyListener();
+        replicator.getEventBus().register(listener);
+
+        replicator.run();
+
+        Assert.assertTrue(listener.finishCalled);
+        Assert.assertFalse(listener.errorCalled);
+        Assert.assertEquals(1, replicator.getDocumentCounter());
+        Assert.assertTrue(replicator.fetchExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    // one revision per insert, with room for one insert at a time in the queue, so
+    // fetching the five documents fills the queue before the first is inserted
+    private BasicPullStrategy pipelineStrategyWithQueueOfOne() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            BarUtils.createBar(remoteDb, "Tom" + i, 31);
+        }
+        BasicPullStrategy replicator = super.getPullStrategy();
+        replicator.insertBatchSize = 1;
+        replicator.insertQueueSize = 1;
+        return replicator;
+    }
+
     @Test
     public void pull_twoTreeBothHasOneRevision_success() throws Exception {
         BasicPullStrategy replicator = super.getPullStrategy();
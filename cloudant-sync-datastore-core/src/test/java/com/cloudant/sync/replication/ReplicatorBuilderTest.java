@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.replication;
+
+import static org.mockito.Mockito.mock;
+
+import com.cloudant.sync.datastore.DatastoreExtended;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+
+public class ReplicatorBuilderTest {
+
+    @Test
+    public void attachmentDownloadParallelismIsSet() throws Exception {
+        BasicPullStrategy pull = (BasicPullStrategy) ((BasicReplicator) ReplicatorBuilder.pull()
+                .from(new URI("http://default-host/default-database"))
+                .to(mock(DatastoreExtended.class))
+                .attachmentDownloadParallelism(1)
+                .build()).strategy;
+
+        Assert.assertEquals(1, pull.attachmentDownloadParallelism);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void attachmentDownloadParallelismMustBePositive() {
+        ReplicatorBuilder.pull().attachmentDownloadParallelism(0);
+    }
+
+    @Test
+    public void pushConcurrencyIsSet() throws Exception {
+        BasicPushStrategy push = (BasicPushStrategy) ((BasicReplicator) ReplicatorBuilder.push()
+                .to(new URI("http://default-host/default-database"))
+                .from(mock(DatastoreExtended.class))
+                .pushConcurrency(1)
+                .build()).strategy;
+
+        Assert.assertEquals(1, push.pushConcurrency);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pushConcurrencyMustBePositive() {
+        ReplicatorBuilder.push().pushConcurrency(0);
+    }
+
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.sqlite;
+
+import com.cloudant.sync.datastore.encryption.NullKeyProvider;
+import com.cloudant.sync.datastore.migrations.SchemaOnlyMigration;
+import com.cloudant.sync.util.DatabaseUtils;
+import com.cloudant.sync.util.TestUtils;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SQLDatabaseQueueTest {
+
+    private String databaseDir;
+    private SQLDatabaseQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        databaseDir = TestUtils.createTempTestingDir(SQLDatabaseQueueTest.class.getName());
+        queue = new SQLDatabaseQueue(databaseDir + File.separator + "db.sync",
+                new NullKeyProvider(), 2);
+        queue.updateSchema(new SchemaOnlyMigration(new String[]{
+                "CREATE TABLE t (id INTEGER PRIMARY KEY, value TEXT)"}), 1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (!queue.isShutdown()) {
+            queue.shutdown();
+        }
+        TestUtils.deleteTempTestingDir(databaseDir);
+    }
+
+    @Test
+    public void readsRunConcurrently() throws Exception {
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        Future<Boolean> first = queue.submit(waitForOtherReader(bothRunning));
+        Future<Boolean> second = queue.submit(waitForOtherReader(bothRunning));
+        Assert.assertTrue(first.get());
+        Assert.assertTrue(second.get());
+    }
+
+    @Test
+    public void readSeesCommittedWrite() throws Exception {
+        queue.submitTransaction(new SQLQueueCallable<Object>() {
+            @Override
+            public Object call(SQLDatabase db) throws Exception {
+                ContentValues values = new ContentValues();
+                values.put("value", "hello");
+                Assert.assertTrue(db.insert("t", values) > 0);
+                return null;
+            }
+        }).get();
+
+        String value = queue.submit(new SQLQueueCallable<String>() {
+            @Override
+            public String call(SQLDatabase db) throws Exception {
+                Cursor cursor = null;
+                try {
+                    cursor = db.rawQuery("SELECT value FROM t", null);
+                    Assert.assertTrue(cursor.moveToFirst());
+                    return cursor.getString(0);
+                } finally {
+                    DatabaseUtils.closeCursorQuietly(cursor);
+                }
+            }
+        }).get();
+        Assert.assertEquals("hello", value);
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void readRejectedAfterShutdown() throws Exception {
+        queue.shutdown();
+        queue.submit(new SQLQueueCallable<Object>() {
+            @Override
+            public Object call(SQLDatabase db) throws Exception {
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void groupCommitRollsBackOnlyFailedTask() throws Exception {
+        queue.setGroupCommit(10, 100, TimeUnit.MILLISECONDS);
+
+        Future<Object> first = queue.submitTransaction(insertValue("first", false));
+        Future<Object> failed = queue.submitTransaction(insertValue("failed", true));
+        Future<Object> last = queue.submitTransaction(insertValue("last", false));
+
+        first.get();
+        last.get();
+        try {
+            failed.get();
+            Assert.fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        Assert.assertEquals(2, countRows());
+    }
+
+    @Test
+    public void groupCommitRollsBackOnlyTaskWithFailedNestedTransaction() throws Exception {
+        queue.setGroupCommit(10, 100, TimeUnit.MILLISECONDS);
+
+        Future<Object> first = queue.submitTransaction(insertValue("first", false));
+        Future<Object> failed = queue.submitTransaction(
+                insertValueInFailedNestedTransaction("failed"));
+        Future<Object> last = queue.submitTransaction(insertValue("last", false));
+
+        first.get();
+        last.get();
+        try {
+            failed.get();
+            Assert.fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof SQLException);
+        }
+        Assert.assertEquals(2, countRows());
+    }
+
+    @Test
+    public void rollbackListenerRunsWhenTransactionFails() throws Exception {
+        final AtomicInteger rollbacks = new AtomicInteger();
+        queue.addRollbackListener(new Runnable() {
+            @Override
+            public void run() {
+                rollbacks.incrementAndGet();
+            }
+        });
+
+        queue.submitTransaction(insertValue("committed", false)).get();
+        Assert.assertEquals(0, rollbacks.get());
+
+        try {
+            queue.submitTransaction(insertValue("failed", true)).get();
+            Assert.fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            // the listener runs before the future completes
+            Assert.assertEquals(1, rollbacks.get());
+        }
+    }
+
+    @Test
+    public void rollbackListenerRunsWhenNestedTransactionFails() throws Exception {
+        final AtomicInteger rollbacks = new AtomicInteger();
+        queue.addRollbackListener(new Runnable() {
+            @Override
+            public void run() {
+                rollbacks.incrementAndGet();
+            }
+        });
+
+        // the task returns normally, but its transaction is rolled back
+        queue.submitTransaction(insertValueInFailedNestedTransaction("rolled back")).get();
+        Assert.assertEquals(1, rollbacks.get());
+        Assert.assertEquals(0, countRows());
+    }
+
+    @Test
+    public void rollbackListenerRunsWhenGroupCommitTaskFails() throws Exception {
+        final AtomicInteger rollbacks = new AtomicInteger();
+        queue.addRollbackListener(new Runnable() {
+            @Override
+            public void run() {
+                rollbacks.incrementAndGet();
+            }
+        });
+        queue.setGroupCommit(10, 100, TimeUnit.MILLISECONDS);
+
+        Future<Object> first = queue.submitTransaction(insertValue("first", false));
+        Future<Object> failed = queue.submitTransaction(insertValue("failed", true));
+        first.get();
+        try {
+            failed.get();
+            Assert.fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            Assert.assertEquals(1, rollbacks.get());
+        }
+    }
+
+    @Test
+    public void runReadFromWriteTaskRunsOnWriterConnection() throws Exception {
+        String value = queue.submitTransaction(new SQLQueueCallable<String>() {
+            @Override
+            public String call(SQLDatabase db) throws Exception {
+                ContentValues values = new ContentValues();
+                values.put("value", "uncommitted");
+                db.insert("t", values);
+                // submitting the read would wait for this task to finish, and it
+                // wouldn't see the uncommitted insert
+                return queue.runRead(selectValue());
+            }
+        }).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals("uncommitted", value);
+    }
+
+    @Test
+    public void runReadFromOtherThreadIsSubmitted() throws Exception {
+        queue.submitTransaction(insertValue("committed", false)).get();
+        Assert.assertEquals("committed", queue.runRead(selectValue()));
+    }
+
+    private static SQLQueueCallable<String> selectValue() {
+        return new SQLQueueCallable<String>() {
+            @Override
+            public String call(SQLDatabase db) throws Exception {
+                Cursor cursor = null;
+                try {
+                    cursor = db.rawQuery("SELECT value FROM t", null);
+                    Assert.assertTrue(cursor.moveToFirst());
+                    return cursor.getString(0);
+                } finally {
+                    DatabaseUtils.closeCursorQuietly(cursor);
+                }
+            }
+        };
+    }
+
+    private int countRows() throws Exception {
+        return queue.submit(new SQLQueueCallable<Integer>() {
+            @Override
+            public Integer call(SQLDatabase db) throws Exception {
+                Cursor cursor = null;
+                try {
+                    cursor = db.rawQuery("SELECT COUNT(*) FROM t", null);
+                    Assert.assertTrue(cursor.moveToFirst());
+                    return cursor.getInt(0);
+                } finally {
+                    DatabaseUtils.closeCursorQuietly(cursor);
+                }
+            }
+        }).get();
+    }
+
+    // inserts the value, then ends a nested transaction without marking it successful
+    private static SQLQueueCallable<Object> insertValueInFailedNestedTransaction(
+            final String value) {
+        return new SQLQueueCallable<Object>() {
+            @Override
+            public Object call(SQLDatabase db) throws Exception {
+                ContentValues values = new ContentValues();
+                values.put("value", value);
+                db.insert("t", values);
+                db.beginTransaction();
+                db.endTransaction();
+                return null;
+            }
+        };
+    }
+
+    // inserts the value, then throws after the insert if fail is set
+    private static SQLQueueCallable<Object> insertValue(final String value, final boolean fail) {
+        return new SQLQueueCallable<Object>() {
+            @Override
+            public Object call(SQLDatabase db) throws Exception {
+                ContentValues values = new ContentValues();
+                values.put("value", value);
+                db.insert("t", values);
+                if (fail) {
+                    throw new IllegalStateException("failing " + value);
+                }
+                return null;
+            }
+        };
+    }
+
+    // only returns true if another read reaches the latch while this one is running
+    private static SQLQueueCallable<Boolean> waitForOtherReader(final CountDownLatch latch) {
+        return new SQLQueueCallable<Boolean>() {
+            @Override
+            public Boolean call(SQLDatabase db) throws Exception {
+                latch.countDown();
+                return latch.await(10, TimeUnit.SECONDS);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.sqlite;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class StatementCacheTest {
+
+    List<String> compiled;
+    List<String> disposed;
+    StatementCache<String> cache;
+
+    @Before
+    public void setUp() {
+        compiled = new ArrayList<String>();
+        disposed = new ArrayList<String>();
+        cache = new StatementCache<String>(2) {
+            @Override
+            protected String compile(String sql) {
+                compiled.add(sql);
+                return sql;
+            }
+
+            @Override
+            protected void dispose(String statement) {
+                disposed.add(statement);
+            }
+        };
+    }
+
+    @Test
+    public void compilesEachStatementOnce() throws Exception {
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+        cache.get("a");
+        Assert.assertEquals(Arrays.asList("a", "b"), compiled);
+        Assert.assertTrue(disposed.isEmpty());
+    }
+
+    @Test
+    public void disposesLeastRecentlyUsedStatement() throws Exception {
+        cache.get("a");
+        cache.get("b");
+        cache.get("a");
+        cache.get("c");
+        Assert.assertEquals(Arrays.asList("b"), disposed);
+
+        // b has to be compiled again
+        cache.get("b");
+        Assert.assertEquals(Arrays.asList("a", "b", "c", "b"), compiled);
+        Assert.assertEquals(Arrays.asList("b", "a"), disposed);
+    }
+
+    @Test
+    public void clearDisposesEveryStatement() throws Exception {
+        cache.get("a");
+        cache.get("b");
+        cache.clear();
+        Assert.assertEquals(2, disposed.size());
+        Assert.assertTrue(disposed.containsAll(Arrays.asList("a", "b")));
+    }
+
+}
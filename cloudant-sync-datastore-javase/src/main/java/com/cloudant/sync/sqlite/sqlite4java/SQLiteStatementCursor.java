@@ -0,0 +1,244 @@
+/**
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.sqlite.sqlite4java;
+
+import com.almworks.sqlite4java.SQLiteConnection;
+import com.almworks.sqlite4java.SQLiteException;
+import com.almworks.sqlite4java.SQLiteStatement;
+import com.cloudant.sync.sqlite.Cursor;
+
+import java.util.List;
+
+/**
+ * <p>Cursor which reads the rows of a query from a sqlite4java statement as it's
+ * moved forward, rather than reading the whole result set into memory first, so
+ * only the current row is held in memory.</p>
+ *
+ * <p>The statement stays open until the cursor has moved past the last row or is
+ * closed. Like the connection it was prepared on, the cursor must only be used
+ * from the thread which opened that connection.</p>
+ *
+ * <p>{@link #moveToFirst()} runs the query again if the cursor has moved past the
+ * first row, and {@link #getCount()} runs it again to count the rows, unless the
+ * cursor has already moved past the last row.</p>
+ */
+public class SQLiteStatementCursor implements Cursor {
+
+    private final SQLiteConnection conn;
+    private final String sql;
+    private final Object[] bindArgs;
+    private final List<String> names;
+
+    private SQLiteStatement stmt;
+    private int position = -1;
+    private boolean afterLast = false;
+    private int count = -1;
+
+    SQLiteStatementCursor(SQLiteConnection conn, String sql, Object[] bindArgs)
+            throws SQLiteException {
+        this.conn = conn;
+        this.sql = sql;
+        this.bindArgs = bindArgs;
+        this.stmt = prepare();
+        try {
+            this.names = SQLiteWrapperUtils.getColumnNames(stmt);
+        } catch (SQLiteException e) {
+            SQLiteWrapperUtils.disposeQuietly(stmt);
+            throw e;
+        }
+    }
+
+    private SQLiteStatement prepare() throws SQLiteException {
+        SQLiteStatement statement = conn.prepare(sql);
+        boolean bound = false;
+        try {
+            SQLiteWrapperUtils.bindArguments(statement, bindArgs);
+            bound = true;
+            return statement;
+        } finally {
+            if (!bound) {
+                SQLiteWrapperUtils.disposeQuietly(statement);
+            }
+        }
+    }
+
+    @Override
+    public int getCount() {
+        if (count < 0) {
+            SQLiteStatement counter = null;
+            try {
+                counter = prepare();
+                int rows = 0;
+                while (counter.step()) {
+                    rows++;
+                }
+                count = rows;
+            } catch (SQLiteException e) {
+                throw new IllegalStateException("Failed to count rows for query: " + sql, e);
+            } finally {
+                SQLiteWrapperUtils.disposeQuietly(counter);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return names.size();
+    }
+
+    @Override
+    public int columnType(int index) {
+        try {
+            return SQLiteWrapperUtils.mapColumnType(currentRow().columnType(index));
+        } catch (SQLiteException e) {
+            throw new IllegalStateException("Failed to read column type " + index, e);
+        }
+    }
+
+    @Override
+    public String columnName(int index) {
+        return names.get(index);
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        if (position == 0) {
+            return !afterLast;
+        }
+        if (position == -1 && !afterLast) {
+            // the statement hasn't moved yet, so it's already at the start of the query
+            return moveToNext();
+        }
+        // the statement can only move forward, so start the query again
+        SQLiteWrapperUtils.disposeQuietly(stmt);
+        try {
+            stmt = prepare();
+        } catch (SQLiteException e) {
+            stmt = null;
+            throw new IllegalStateException("Failed to run query again: " + sql, e);
+        }
+        position = -1;
+        afterLast = false;
+        return moveToNext();
+    }
+
+    @Override
+    public String getString(int index) {
+        try {
+            return currentRow().columnString(index);
+        } catch (SQLiteException e) {
+            throw new IllegalStateException("Failed to read column " + index, e);
+        }
+    }
+
+    @Override
+    public int getInt(int index) {
+        return (int) getLong(index);
+    }
+
+    @Override
+    public long getLong(int index) {
+        try {
+            return currentRow().columnLong(index);
+        } catch (SQLiteException e) {
+            throw new IllegalStateException("Failed to read column " + index, e);
+        }
+    }
+
+    @Override
+    public float getFloat(int index) {
+        try {
+            return (float) currentRow().columnDouble(index);
+        } catch (SQLiteException e) {
+            throw new IllegalStateException("Failed to read column " + index, e);
+        }
+    }
+
+    @Override
+    public byte[] getBlob(int index) {
+        try {
+            return currentRow().columnBlob(index);
+        } catch (SQLiteException e) {
+            throw new IllegalStateException("Failed to read column " + index, e);
+        }
+    }
+
+    @Override
+    public boolean isAfterLast() {
+        return afterLast;
+    }
+
+    @Override
+    public boolean moveToNext() {
+        if (afterLast) {
+            return false;
+        }
+        position++;
+        try {
+            if (stmt.step()) {
+                return true;
+            }
+        } catch (SQLiteException e) {
+            close();
+            throw new IllegalStateException("Failed to read next row for query: " + sql, e);
+        }
+        // all the rows have been read, so the statement isn't needed any more
+        afterLast = true;
+        count = position;
+        SQLiteWrapperUtils.disposeQuietly(stmt);
+        stmt = null;
+        return false;
+    }
+
+    @Override
+    public void close() {
+        SQLiteWrapperUtils.disposeQuietly(stmt);
+        stmt = null;
+        afterLast = true;
+    }
+
+    private SQLiteStatement currentRow() {
+        if (stmt == null || position < 0) {
+            throw new IllegalStateException("Cursor is not positioned on a row");
+        }
+        return stmt;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("SQLiteStatementCursor: ");
+        sb.append("position ").append(position);
+        sb.append(", columnCount ").append(this.getColumnCount());
+        sb.append(", names ").append(this.names);
+        return sb.toString();
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        return names.indexOf(columnName);
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) throws IllegalArgumentException {
+        int i = getColumnIndex(columnName);
+        if (i < 0) {
+            throw new IllegalArgumentException("Can not find column: " + columnName);
+        } else {
+            return i;
+        }
+    }
+
+}
@@ -16,9 +16,11 @@ package com.cloudant.sync.sqlite.sqlite4java;
 
 import com.almworks.sqlite4java.SQLiteConnection;
 import com.almworks.sqlite4java.SQLiteException;
-import com.almworks.sqlite4java.SQLiteStatement;
 import com.cloudant.sync.sqlite.ContentValues;
+import com.cloudant.sync.sqlite.Cursor;
 import com.cloudant.sync.sqlite.SQLDatabase;
+import com.cloudant.sync.sqlite.SQLStatement;
+import com.cloudant.sync.sqlite.StatementCache;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 
@@ -42,8 +44,30 @@ public class SQLiteWrapper extends SQLDatabase {
 
     private final String databaseFilePath;
 
+    private final boolean readOnly;
+
     private SQLiteConnection localConnection;
 
+    /**
+     * Compiled statements for localConnection.
+     */
+    private final StatementCache<SQLiteWrapperStatement> statements =
+            new StatementCache<SQLiteWrapperStatement>(StatementCache.DEFAULT_SIZE) {
+        @Override
+        protected SQLiteWrapperStatement compile(String sql) throws SQLException {
+            try {
+                return new SQLiteWrapperStatement(getConnection(), sql);
+            } catch (SQLiteException e) {
+                throw new SQLException(e);
+            }
+        }
+
+        @Override
+        protected void dispose(SQLiteWrapperStatement statement) {
+            statement.dispose();
+        }
+    };
+
     /**
      * Tracks whether the current nested set of transactions has had any
      * failed transactions so far.
@@ -58,8 +82,25 @@ public class SQLiteWrapper extends SQLDatabase {
      */
     private Stack<Boolean> transactionStack = new Stack<Boolean>();
 
+    /**
+     * Value of {@see SQLiteWrapper#transactionNestedSetSuccess} when each
+     * active savepoint was started, so rolling back to a savepoint also
+     * forgets nested transactions which failed after it.
+     */
+    private Stack<Boolean> savepointStack = new Stack<Boolean>();
+
+    /**
+     * Whether the last outermost transaction was committed rather than rolled back.
+     */
+    private boolean lastTransactionCommitted = false;
+
     public SQLiteWrapper(String databaseFilePath) {
+        this(databaseFilePath, false);
+    }
+
+    public SQLiteWrapper(String databaseFilePath, boolean readOnly) {
         this.databaseFilePath = databaseFilePath;
+        this.readOnly = readOnly;
     }
 
     public static SQLiteWrapper openSQLiteWrapper(String databaseFilePath) {
@@ -68,6 +109,16 @@ public class SQLiteWrapper extends SQLDatabase {
         return db;
     }
 
+    /**
+     * Opens a wrapper whose connection is read-only. As with all sqlite4java
+     * connections, it must only be used from the thread which first uses it.
+     */
+    public static SQLiteWrapper openSQLiteWrapperReadOnly(String databaseFilePath) {
+        SQLiteWrapper db = new SQLiteWrapper(databaseFilePath, true);
+        db.open();
+        return db;
+    }
+
     public String getDatabaseFile() {
         return this.databaseFilePath;
     }
@@ -83,7 +134,11 @@ public class SQLiteWrapper extends SQLDatabase {
     SQLiteConnection createNewConnection() {
         try {
             SQLiteConnection conn = new SQLiteConnection(new File(this.databaseFilePath));
-            conn.open();
+            if (readOnly) {
+                conn.openReadonly();
+            } else {
+                conn.open();
+            }
             conn.setBusyTimeout(30*1000);
             return conn;
         } catch (SQLiteException ex) {
@@ -165,9 +220,11 @@ public class SQLiteWrapper extends SQLDatabase {
             // We've reached the top of the stack, and need to commit or
             // rollback. At this point transactionNestedSetSuccess will be true
             // iff no transactions in the set failed.
+            lastTransactionCommitted = false;
             try {
                 if (transactionNestedSetSuccess) {
                     this.execSQL("COMMIT;");
+                    lastTransactionCommitted = true;
                 } else {
                     this.execSQL("ROLLBACK;");
                 }
@@ -193,11 +250,51 @@ public class SQLiteWrapper extends SQLDatabase {
         this.transactionStack.push(true);
     }
 
+    @Override
+    public boolean isTransactionSetSuccessful() {
+        return this.transactionStack.size() >= 1 && transactionNestedSetSuccess;
+    }
+
+    @Override
+    public boolean isLastTransactionCommitted() {
+        return lastTransactionCommitted;
+    }
+
+    @Override
+    public boolean supportsSavepoints() {
+        return true;
+    }
+
+    @Override
+    public void beginSavepoint(String name) throws SQLException {
+        Preconditions.checkState(this.transactionStack.size() >= 1,
+                "Savepoints must be started inside a transaction");
+        this.execSQL("SAVEPOINT \"" + name + "\";");
+        savepointStack.push(transactionNestedSetSuccess);
+    }
+
+    @Override
+    public void releaseSavepoint(String name) throws SQLException {
+        Preconditions.checkState(this.savepointStack.size() >= 1,
+                "Savepoint stack must not be empty");
+        this.execSQL("RELEASE \"" + name + "\";");
+        savepointStack.pop();
+    }
+
+    @Override
+    public void rollbackToSavepoint(String name) throws SQLException {
+        Preconditions.checkState(this.savepointStack.size() >= 1,
+                "Savepoint stack must not be empty");
+        this.execSQL("ROLLBACK TO \"" + name + "\";");
+        transactionNestedSetSuccess = savepointStack.peek();
+    }
+
     @Override
     public void close() {
         // it's not possible to call dispose from other threads
         // so the best we can do is call dispose on the connection
         // for the same thread as us
+        statements.clear();
         SQLiteConnection conn = localConnection;
         if (conn != null && !conn.isDisposed()) {
             conn.dispose();
@@ -219,17 +316,14 @@ public class SQLiteWrapper extends SQLDatabase {
     public void execSQL(String sql, Object[] bindArgs) throws SQLException {
         Preconditions.checkArgument(!Strings.isNullOrEmpty(sql.trim()),
                 "Input SQL can not be empty String.");
-        SQLiteStatement stmt = null;
-        try {
-            stmt = this.getConnection().prepare(sql);
-            stmt = SQLiteWrapperUtils.bindArguments(stmt, bindArgs);
-            while (stmt.step()) {
-            }
-        } catch (SQLiteException e) {
-            throw new SQLException(e);
-        } finally {
-            SQLiteWrapperUtils.disposeQuietly(stmt);
-        }
+        this.compileStatement(sql).executeUpdateDelete(bindArgs);
+    }
+
+    @Override
+    public SQLStatement compileStatement(String sql) throws SQLException {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(sql.trim()),
+                "Input SQL can not be empty String.");
+        return statements.get(sql);
     }
 
     @Override
@@ -241,19 +335,22 @@ public class SQLiteWrapper extends SQLDatabase {
         try {
             String updateQuery = QueryBuilder.buildUpdateQuery(table, values, whereClause, whereArgs);
             Object[] bindArgs = QueryBuilder.buildBindArguments(values, whereArgs);
-            this.executeSQLStatement(updateQuery, bindArgs);
-            return getConnection().getChanges();
-        } catch (SQLiteException e) {
+            return this.compileStatement(updateQuery).executeUpdateDelete(bindArgs);
+        } catch (SQLException e) {
             logger.log(Level.SEVERE, String.format("Error updating: %1, %2, %3, %4", table,
                     values, whereClause, whereArgs), e);
             return -1;
         }
     }
 
+    /**
+     * Returns a cursor which reads the rows of the query as it's moved forward, so it
+     * must be closed once it's no longer needed, to release the statement.
+     */
     @Override
-    public SQLiteCursor rawQuery(String sql, String[] bindArgs) throws SQLException {
+    public Cursor rawQuery(String sql, String[] bindArgs) throws SQLException {
         try {
-            return SQLiteWrapperUtils.buildSQLiteCursor(getConnection(), sql, bindArgs);
+            return new SQLiteStatementCursor(getConnection(), sql, bindArgs);
         } catch (SQLiteException e) {
             throw new SQLException(e);
         }
@@ -267,9 +364,8 @@ public class SQLiteWrapper extends SQLDatabase {
                     .append(!Strings.isNullOrEmpty(whereClause) ? " WHERE " +
                             whereClause : "")
                     .toString();
-            this.executeSQLStatement(sql, whereArgs);
-            return getConnection().getChanges();
-        } catch (SQLiteException e) {
+            return this.compileStatement(sql).executeUpdateDelete(whereArgs);
+        } catch (SQLException e) {
             return 0;
         }
     }
@@ -306,9 +402,8 @@ public class SQLiteWrapper extends SQLDatabase {
             }
 
             sql.append(')');
-            this.executeSQLStatement(sql.toString(), bindArgs);
-            return getConnection().getLastInsertId();
-        } catch (SQLiteException e) {
+            return this.compileStatement(sql.toString()).executeInsert(bindArgs);
+        } catch (SQLException e) {
             logger.log(Level.SEVERE, String.format("Error inserting to: %s, %s, %s", table,
                     initialValues, CONFLICT_VALUES[conflictAlgorithm]), e);
             return -1;
@@ -320,10 +415,4 @@ public class SQLiteWrapper extends SQLDatabase {
         return insertWithOnConflict(table, initialValues, CONFLICT_NONE);
     }
 
-    private void executeSQLStatement(String sql, Object[] values) throws SQLiteException{
-        SQLiteStatement stmt = getConnection().prepare(sql);
-        stmt = SQLiteWrapperUtils.bindArguments(stmt, values);
-        while (stmt.step()) {
-        }
-    }
 }
@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2016 IBM Corp. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language governing permissions
+ * and limitations under the License.
+ */
+
+package com.cloudant.sync.sqlite.sqlite4java;
+
+import com.almworks.sqlite4java.SQLiteConnection;
+import com.almworks.sqlite4java.SQLiteException;
+import com.almworks.sqlite4java.SQLiteStatement;
+import com.cloudant.sync.sqlite.SQLStatement;
+
+import java.sql.SQLException;
+
+/**
+ * Compiled statement for {@link SQLiteWrapper}, kept in its statement cache. The
+ * sqlite4java statement is reset after each execution, so it doesn't hold locks
+ * on the database between executions.
+ */
+class SQLiteWrapperStatement implements SQLStatement {
+
+    private final SQLiteConnection conn;
+    private final SQLiteStatement stmt;
+
+    SQLiteWrapperStatement(SQLiteConnection conn, String sql) throws SQLiteException {
+        this.conn = conn;
+        // not cached by sqlite4java, as SQLiteWrapper caches it
+        this.stmt = conn.prepare(sql, false);
+    }
+
+    @Override
+    public long executeInsert(Object[] bindArgs) throws SQLException {
+        try {
+            execute(bindArgs);
+            return conn.getLastInsertId();
+        } catch (SQLiteException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    @Override
+    public int executeUpdateDelete(Object[] bindArgs) throws SQLException {
+        try {
+            execute(bindArgs);
+            return conn.getChanges();
+        } catch (SQLiteException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    private void execute(Object[] bindArgs) throws SQLiteException {
+        try {
+            SQLiteWrapperUtils.bindArguments(stmt, bindArgs);
+            while (stmt.step()) {
+            }
+        } finally {
+            stmt.reset(true);
+        }
+    }
+
+    void dispose() {
+        SQLiteWrapperUtils.disposeQuietly(stmt);
+    }
+}
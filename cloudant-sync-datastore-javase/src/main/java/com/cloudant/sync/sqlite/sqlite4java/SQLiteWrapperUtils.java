@@ -22,6 +22,7 @@ import com.cloudant.sync.sqlite.Cursor;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class SQLiteWrapperUtils {
@@ -146,7 +147,9 @@ public class SQLiteWrapperUtils {
                 }
 
                 Tuple t = getDataRow(stmt);
-                logger.finest("Tuple: "+ t.toString());
+                if (logger.isLoggable(Level.FINEST)) {
+                    logger.finest("Tuple: "+ t.toString());
+                }
                 resultSet.add(t);
             }
             return new SQLiteCursor(columnNames, resultSet);
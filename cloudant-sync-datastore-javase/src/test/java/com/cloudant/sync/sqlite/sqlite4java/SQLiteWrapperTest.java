@@ -19,6 +19,7 @@ import com.almworks.sqlite4java.SQLiteException;
 import com.cloudant.sync.sqlite.ContentValues;
 import com.cloudant.sync.sqlite.Cursor;
 import com.cloudant.sync.sqlite.SQLDatabase;
+import com.cloudant.sync.sqlite.SQLStatement;
 import com.cloudant.sync.util.SQLDatabaseTestUtils;
 import com.cloudant.sync.util.TestUtils;
 import com.google.common.base.Strings;
@@ -469,7 +470,7 @@ public class SQLiteWrapperTest {
     public void rawQuery() throws Exception {
         prepareDatabaseForTesting();
 
-        SQLiteCursor cursor = database.rawQuery("SELECT * FROM docs WHERE doc_name = ?",
+        Cursor cursor = database.rawQuery("SELECT * FROM docs WHERE doc_name = ?",
                 new String[]{"haha"});
 
         Assert.assertTrue(cursor.getCount() == 2);
@@ -499,12 +500,85 @@ public class SQLiteWrapperTest {
     public void rawQuery_inClause() throws Exception {
         prepareDatabaseForTesting();
 
-        SQLiteCursor cursor = database.rawQuery("SELECT * FROM docs WHERE doc_name IN ( ?, ?, ?)",
+        Cursor cursor = database.rawQuery("SELECT * FROM docs WHERE doc_name IN ( ?, ?, ?)",
                 new String[]{"haha", "hihi", "hehe"});
 
         Assert.assertEquals(4, cursor.getCount());
     }
 
+    @Test
+    public void rawQuery_readsRowsAsCursorMoves() throws Exception {
+        prepareDatabaseForTesting();
+
+        Cursor cursor = database.rawQuery("SELECT doc_id FROM docs ORDER BY doc_id",
+                new String[]{});
+        try {
+            Assert.assertEquals(1, cursor.getColumnCount());
+            Assert.assertEquals("doc_id", cursor.columnName(0));
+            Assert.assertFalse(cursor.isAfterLast());
+
+            for (int docId = 1; docId <= 4; docId++) {
+                Assert.assertTrue(cursor.moveToNext());
+                Assert.assertEquals(docId, cursor.getLong(0));
+            }
+            Assert.assertFalse(cursor.moveToNext());
+            Assert.assertTrue(cursor.isAfterLast());
+            Assert.assertEquals(4, cursor.getCount());
+
+            // moving back to the first row runs the query again
+            Assert.assertTrue(cursor.moveToFirst());
+            Assert.assertEquals(1, cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+        Assert.assertFalse(cursor.moveToNext());
+    }
+
+    @Test
+    public void rawQuery_noRows() throws Exception {
+        prepareDatabaseForTesting();
+
+        Cursor cursor = database.rawQuery("SELECT doc_id, doc_name FROM docs WHERE doc_id > ?",
+                new String[]{"100"});
+        try {
+            Assert.assertEquals(0, cursor.getCount());
+            Assert.assertEquals(2, cursor.getColumnCount());
+            Assert.assertEquals(1, cursor.getColumnIndex("doc_name"));
+            Assert.assertFalse(cursor.moveToFirst());
+            Assert.assertTrue(cursor.isAfterLast());
+        } finally {
+            cursor.close();
+        }
+
+        // the statement has been disposed, so the table can be dropped
+        database.execSQL(DELETE_DOCS_TABLE);
+    }
+
+    @Test
+    public void compileStatement_reusedForSameSQL() throws Exception {
+        prepareDatabaseForTesting();
+
+        String sql = "INSERT INTO docs (doc_id, doc_name, balance) VALUES (?, ?, ?)";
+        SQLStatement insert = database.compileStatement(sql);
+        Assert.assertSame(insert, database.compileStatement(sql));
+        Assert.assertEquals(101, insert.executeInsert(new Object[]{101, "kaka", 1.5}));
+        Assert.assertEquals(102, insert.executeInsert(new Object[]{102, "kaka", 2.5}));
+
+        SQLStatement update = database.compileStatement(
+                "UPDATE docs SET balance = ? WHERE doc_name = ?");
+        Assert.assertEquals(2, update.executeUpdateDelete(new Object[]{0, "kaka"}));
+        Assert.assertEquals(0, update.executeUpdateDelete(new Object[]{0, "nobody"}));
+    }
+
+    @Test(expected = SQLException.class)
+    public void compileStatement_constraintViolation_exception() throws Exception {
+        prepareDatabaseForTesting();
+
+        SQLStatement insert = database.compileStatement(
+                "INSERT INTO docs (doc_id, doc_name, balance) VALUES (?, ?, ?)");
+        insert.executeInsert(new Object[]{1, "duplicate", 1.0});
+    }
+
     @Test
     public void delete() {
         prepareDatabaseForTesting();